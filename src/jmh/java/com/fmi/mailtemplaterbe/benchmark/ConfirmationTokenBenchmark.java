@@ -0,0 +1,35 @@
+package com.fmi.mailtemplaterbe.benchmark;
+
+import com.fmi.mailtemplaterbe.util.ConfirmationTokenUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generation of the confirmation token, which happens once per recipient. The send workers generate tokens
+ * concurrently, so it is measured with as many threads as there are processors as well.
+ * <p></p>
+ * Run with: ./gradlew jmh -Pjmh.includes=ConfirmationTokenBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfirmationTokenBenchmark {
+
+    @Benchmark
+    public String generateToken() {
+        return ConfirmationTokenUtil.generateToken();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String generateTokenConcurrently() {
+        return ConfirmationTokenUtil.generateToken();
+    }
+}
@@ -0,0 +1,123 @@
+package com.fmi.mailtemplaterbe.benchmark;
+
+import com.fmi.mailtemplaterbe.domain.entity.SendEmailErrorEntity;
+import com.fmi.mailtemplaterbe.domain.entity.SentEmailEntity;
+import com.fmi.mailtemplaterbe.domain.enums.SentEmailConfirmation;
+import com.fmi.mailtemplaterbe.domain.resource.SentEmailResource;
+import com.fmi.mailtemplaterbe.repository.SendEmailErrorRepository;
+import com.fmi.mailtemplaterbe.repository.SentEmailEntityRepository;
+import com.fmi.mailtemplaterbe.service.EmailHistoryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The filter chain of the history endpoint (EmailHistoryService.getSentEmails) over rows that are already in memory:
+ * mapping, the filters by field and the lookup of the error messages. The repositories are replaced by maps, so only
+ * the work of the service itself is measured, not the database.
+ * <p></p>
+ * Run with: ./gradlew jmh -Pjmh.includes=EmailHistoryFilterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmailHistoryFilterBenchmark {
+
+    /* Number of sent emails in the history. */
+    @Param({"1000", "10000", "100000"})
+    private int listSize;
+
+    private EmailHistoryService emailHistoryService;
+
+    @Setup
+    public void setUp() {
+        final List<SentEmailEntity> sentEmails = HistoryBenchmarkData.createSentEmails(listSize, 1);
+        final Map<Long, SentEmailEntity> sentEmailsById = new HashMap<>();
+        final Map<Long, SendEmailErrorEntity> sendEmailErrorsById = new HashMap<>();
+
+        for (SentEmailEntity sentEmail : sentEmails) {
+            sentEmailsById.put(sentEmail.getId(), sentEmail);
+
+            if (sentEmail.getSendEmailErrorId() != null) {
+                sendEmailErrorsById.put(sentEmail.getSendEmailErrorId(), SendEmailErrorEntity.builder()
+                        .id(sentEmail.getSendEmailErrorId())
+                        .error("Mailbox unavailable")
+                        .build());
+            }
+        }
+
+        final SentEmailEntityRepository sentEmailEntityRepository = repository(
+                SentEmailEntityRepository.class,
+                (method, args) -> {
+                    if ("findAll".equals(method)) {
+                        return sentEmails;
+                    }
+
+                    if ("findById".equals(method)) {
+                        return Optional.ofNullable(sentEmailsById.get((Long) args[0]));
+                    }
+
+                    throw new UnsupportedOperationException(method);
+                });
+        final SendEmailErrorRepository sendEmailErrorRepository = repository(
+                SendEmailErrorRepository.class,
+                (method, args) -> {
+                    if ("findById".equals(method)) {
+                        return Optional.ofNullable(sendEmailErrorsById.get((Long) args[0]));
+                    }
+
+                    throw new UnsupportedOperationException(method);
+                });
+
+        /* The id allocator, the configuration and the JdbcTemplate are only used for inserts. */
+        emailHistoryService =
+                new EmailHistoryService(sentEmailEntityRepository, sendEmailErrorRepository, null, null, null);
+    }
+
+    @Benchmark
+    public List<SentEmailResource> noFilters() {
+        return emailHistoryService.getSentEmails(null, null, null, null, null, null, null);
+    }
+
+    @Benchmark
+    public List<SentEmailResource> recipientEmail() {
+        return emailHistoryService.getSentEmails(null, null, "recipient42", null, null, null, null);
+    }
+
+    @Benchmark
+    public List<SentEmailResource> allFilters() {
+        return emailHistoryService.getSentEmails(
+                "meeting",
+                "office@",
+                "@example.com",
+                true,
+                SentEmailConfirmation.RECEIVED.getValue(),
+                null,
+                null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T repository(Class<T> repositoryClass, RepositoryMethod repositoryMethod) {
+        return (T) Proxy.newProxyInstance(
+                repositoryClass.getClassLoader(),
+                new Class<?>[]{repositoryClass},
+                (proxy, method, args) -> repositoryMethod.invoke(method.getName(), args));
+    }
+
+    private interface RepositoryMethod {
+
+        Object invoke(String method, Object[] args);
+    }
+}
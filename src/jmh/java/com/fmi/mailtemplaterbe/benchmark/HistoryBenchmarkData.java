@@ -0,0 +1,55 @@
+package com.fmi.mailtemplaterbe.benchmark;
+
+import com.fmi.mailtemplaterbe.domain.entity.SentEmailEntity;
+import com.fmi.mailtemplaterbe.domain.enums.SentEmailConfirmation;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sent emails for the history benchmarks, with a realistic mix of subjects, senders, outcomes and confirmations.
+ */
+final class HistoryBenchmarkData {
+
+    private static final String[] SUBJECTS = {
+            "Invitation to the annual meeting", "Exam results", "Newsletter", "Password reset", "Event reminder"};
+    private static final String[] SENDERS = {"office@fmi.uni-sofia.bg", "noreply@fmi.uni-sofia.bg"};
+
+    private HistoryBenchmarkData() {
+    }
+
+    static List<SentEmailEntity> createSentEmails(int count, int paragraphs) {
+        final StringBuilder message = new StringBuilder();
+
+        for (int i = 0; i < paragraphs; i++) {
+            message.append("Dear John Doe,<br>we would like to invite you to the meeting that takes place on ")
+                    .append("12.05.2022. Please let us know whether you can attend.<br><br>");
+        }
+
+        final SentEmailConfirmation[] confirmations = SentEmailConfirmation.values();
+        final LocalDateTime start = LocalDateTime.of(2022, 5, 1, 8, 0);
+        final List<SentEmailEntity> sentEmails = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            sentEmails.add(SentEmailEntity.builder()
+                    .id((long) i + 1)
+                    .emailTemplateId(1L)
+                    .subject(SUBJECTS[i % SUBJECTS.length])
+                    .message(message.toString())
+                    .senderEmail(SENDERS[i % SENDERS.length])
+                    .recipientEmail("recipient" + i + "@example.com")
+                    /* One in 20 failed. */
+                    .sentSuccessfully(i % 20 != 0)
+                    .sendEmailErrorId(i % 20 != 0 ? null : (long) i + 1)
+                    .timestamp(start.plusMinutes(i))
+                    .confirmation(confirmations[i % confirmations.length].getValue())
+                    .token("token" + i)
+                    .sendJobId((long) i / 1000 + 1)
+                    .attempts(1)
+                    .build());
+        }
+
+        return sentEmails;
+    }
+}
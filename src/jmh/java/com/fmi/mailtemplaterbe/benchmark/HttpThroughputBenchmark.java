@@ -0,0 +1,159 @@
+package com.fmi.mailtemplaterbe.benchmark;
+
+import com.fmi.mailtemplaterbe.MailTemplaterBeApplication;
+import com.fmi.mailtemplaterbe.service.FakeSmtpServer;
+import com.fmi.mailtemplaterbe.util.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent /send-emails and /history requests, to compare the throughput with platform threads
+ * (email.virtual-threads.enabled=false) and virtual threads (true) in one run.
+ * <p></p>
+ * Each mode starts the application in its own fork against a {@link FakeSmtpServer} as its default smtp server,
+ * so that the smtp latency is realistic but nothing is delivered. JMH reports both modes next to each other,
+ * the false rows are the baseline. The database is the one of the active profile, as in SendPathBenchmark:
+ * <p></p>
+ * BENCHMARK_PASSWORD=... BENCHMARK_TEMPLATE_ID=1 BENCHMARK_SMTP_LATENCY=20 \
+ * ./gradlew jmh -Pjmh.includes=HttpThroughputBenchmark
+ * <p></p>
+ * The forks run on the JDK of Gradle, virtual threads need Java 21 or newer. On older JDKs the true rows fail
+ * instead of measuring platform threads twice. The number of concurrent clients is set with @Threads,
+ * or -t on the JMH command line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(200)
+public class HttpThroughputBenchmark {
+
+    private static final String USERNAME = "emailtemplater";
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    private FakeSmtpServer smtpServer;
+    private ConfigurableApplicationContext context;
+    private String baseUrl;
+    private String authorization;
+    private String historyPath;
+    private byte[] sendEmailsBody;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            throw new IllegalStateException("Virtual threads require Java 21 or newer, run the benchmark on it.");
+        }
+
+        final String password = getEnv("BENCHMARK_PASSWORD", "");
+        final String templateId = getEnv("BENCHMARK_TEMPLATE_ID", "1");
+        final String recipientDomain = getEnv("BENCHMARK_RECIPIENT_DOMAIN", "example.com");
+
+        smtpServer = new FakeSmtpServer(Long.parseLong(getEnv("BENCHMARK_SMTP_LATENCY", "20")), 0, 0, 0, null);
+        smtpServer.start();
+
+        /* All clients send at once, so the admission limits must not turn the comparison into one of 429s. */
+        context = SpringApplication.run(
+                MailTemplaterBeApplication.class,
+                SendPathBenchmark.getApplicationArgs(
+                        new String[]{
+                                "--email.virtual-threads.enabled=" + virtualThreads,
+                                "--email.admission.maxConcurrentJobs=" + Integer.MAX_VALUE
+                        },
+                        smtpServer,
+                        0));
+
+        baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+        authorization = "Basic " + Base64.getEncoder().encodeToString(
+                (USERNAME + ":" + password).getBytes(StandardCharsets.UTF_8));
+        historyPath = "/history?recipientEmail=benchmark@" + recipientDomain;
+        sendEmailsBody = ("{\"id\": " + templateId + ", " +
+                          "\"title\": \"Benchmark\", " +
+                          "\"message\": \"Hello %(name), this is a benchmark.\", " +
+                          "\"placeholders\": [\"name\"], " +
+                          "\"isHtml\": false, " +
+                          "\"includeConfirmationLink\": false, " +
+                          "\"recipients\": [{\"email\": \"benchmark@" + recipientDomain + "\", " +
+                          "\"placeholders\": {\"name\": \"John\"}}]}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        smtpServer.close();
+    }
+
+    @Benchmark
+    public int sendEmails() throws IOException {
+        return request("POST", "/send-emails", sendEmailsBody);
+    }
+
+    @Benchmark
+    public int history() throws IOException {
+        return request("GET", historyPath, null);
+    }
+
+    private int request(String method, String path, byte[] body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Authorization", authorization);
+
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+        }
+
+        final int status = connection.getResponseCode();
+
+        if (status >= 400) {
+            throw new IllegalStateException(method + " " + path + " failed with status " + status + ".");
+        }
+
+        /* Read to the end, so that the connection can be reused by the keep-alive cache. */
+        try (InputStream inputStream = connection.getInputStream()) {
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = inputStream.read(buffer)) >= 0) {
+                response.write(buffer, 0, read);
+            }
+
+            return response.size();
+        }
+    }
+
+    private static String getEnv(String name, String defaultValue) {
+        final String value = System.getenv(name);
+
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,69 @@
+package com.fmi.mailtemplaterbe.benchmark;
+
+import com.fmi.mailtemplaterbe.mapper.RecipientGroupMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the comma separated recipient ids of a recipient group, in both directions and as the round-trip that
+ * every change of a group makes.
+ * <p></p>
+ * Run with: ./gradlew jmh -Pjmh.includes=RecipientGroupMapperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecipientGroupMapperBenchmark {
+
+    /* Number of recipients of the group. */
+    @Param({"10", "1000", "100000"})
+    private int listSize;
+
+    private String recipientIds;
+    private List<Long> recipientIdsList;
+
+    @Setup
+    public void setUp() {
+        recipientIdsList = new ArrayList<>(listSize);
+
+        /* Ids of a table that has been in use for a while, not just single digits. */
+        for (long i = 0; i < listSize; i++) {
+            recipientIdsList.add(100000 + i * 7);
+        }
+
+        recipientIds = RecipientGroupMapper.parseRecipientIdsToString(recipientIdsList);
+
+        if (!RecipientGroupMapper.parseRecipientIdsToList(recipientIds).equals(recipientIdsList)) {
+            throw new IllegalStateException("The recipient ids do not survive the round-trip.");
+        }
+    }
+
+    @Benchmark
+    public List<Long> parseRecipientIdsToList() {
+        return RecipientGroupMapper.parseRecipientIdsToList(recipientIds);
+    }
+
+    @Benchmark
+    public String parseRecipientIdsToString() {
+        return RecipientGroupMapper.parseRecipientIdsToString(recipientIdsList);
+    }
+
+    @Benchmark
+    public String roundTrip() {
+        final List<Long> ids = RecipientGroupMapper.parseRecipientIdsToList(recipientIds);
+
+        ids.remove(ids.size() - 1);
+
+        return RecipientGroupMapper.parseRecipientIdsToString(ids);
+    }
+}
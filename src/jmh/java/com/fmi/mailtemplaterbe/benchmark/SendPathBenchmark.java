@@ -0,0 +1,445 @@
+package com.fmi.mailtemplaterbe.benchmark;
+
+import com.fmi.mailtemplaterbe.MailTemplaterBeApplication;
+import com.fmi.mailtemplaterbe.service.FakeSmtpServer;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * End-to-end benchmark of the send path: starts the application in this JVM against a {@link FakeSmtpServer} as its
+ * default smtp server, sends synthetic recipient sets through /send-emails and reports per set:
+ * <p></p>
+ * messages/sec, p50/p99 latency per message (from the request until the message arrived at the sink),
+ * peak heap, GC time and database statements per message.
+ * <p></p>
+ * The database is the one of the active profile (a MySQL, the statements are read from its global Questions counter,
+ * so nothing else should use it meanwhile). The app is configured through environment variables, anything else is
+ * passed as program arguments, e.g. --spring.datasource.url=... or --email.smtp.pool.prewarm=8:
+ * <p></p>
+ * BENCHMARK_PASSWORD=... BENCHMARK_TEMPLATE_ID=1 BENCHMARK_RECIPIENTS=1000,10000,100000,1000000 \
+ * BENCHMARK_SMTP_LATENCY=5 BENCHMARK_SMTP_TEMPORARY_FAILURE_RATE=0.01 BENCHMARK_SMTP_MAX_CONNECTIONS=20 \
+ * ./gradlew sendPathBenchmark
+ * <p></p>
+ * Further settings: BENCHMARK_TRANSPORT (JAVAMAIL or NIO), BENCHMARK_SMTP_PERMANENT_FAILURE_RATE,
+ * BENCHMARK_SMTP_KEYSTORE and BENCHMARK_SMTP_KEYSTORE_PASSWORD (STARTTLS), BENCHMARK_WARMUP_RECIPIENTS.
+ * Every run is written to BENCHMARK_REPORT (CSV). With BENCHMARK_BASELINE set to the report of an earlier run,
+ * the change against it is printed as well, so that a change of the send path can be compared with its baseline.
+ */
+public class SendPathBenchmark {
+
+    private static final String USERNAME = "emailtemplater";
+    private static final String SMTP_SERVER_NAME = "benchmark";
+    private static final String REPORT_HEADER =
+            "recipients,sent,seconds,messagesPerSecond,p50Millis,p99Millis,peakHeapMb,gcMillis,statementsPerMessage";
+
+    private final String baseUrl;
+    private final String authorization;
+    private final String templateId;
+    private final String recipientDomain;
+    private final FakeSmtpServer smtpServer;
+    private final JdbcTemplate jdbcTemplate;
+
+    private SendPathBenchmark(int port, FakeSmtpServer smtpServer, JdbcTemplate jdbcTemplate) {
+        this.baseUrl = "http://localhost:" + port;
+        this.authorization = "Basic " + Base64.getEncoder().encodeToString(
+                (USERNAME + ":" + getEnv("BENCHMARK_PASSWORD", "")).getBytes(StandardCharsets.UTF_8));
+        this.templateId = getEnv("BENCHMARK_TEMPLATE_ID", "1");
+        this.recipientDomain = getEnv("BENCHMARK_RECIPIENT_DOMAIN", "example.com");
+        this.smtpServer = smtpServer;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int[] recipientCounts = Arrays.stream(getEnv("BENCHMARK_RECIPIENTS", "1000,10000,100000,1000000")
+                        .split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        final int maxRecipientCount = Arrays.stream(recipientCounts).max().orElse(0);
+        final int warmupRecipientCount = Integer.parseInt(getEnv("BENCHMARK_WARMUP_RECIPIENTS", "1000"));
+        final String keyStore = getEnv("BENCHMARK_SMTP_KEYSTORE", "");
+        final SSLContext sslContext = keyStore.isEmpty()
+                ? null
+                : FakeSmtpServer.createSslContext(keyStore, getEnv("BENCHMARK_SMTP_KEYSTORE_PASSWORD", "changeit"));
+
+        try (FakeSmtpServer smtpServer = new FakeSmtpServer(
+                Long.parseLong(getEnv("BENCHMARK_SMTP_LATENCY", "0")),
+                Double.parseDouble(getEnv("BENCHMARK_SMTP_TEMPORARY_FAILURE_RATE", "0")),
+                Double.parseDouble(getEnv("BENCHMARK_SMTP_PERMANENT_FAILURE_RATE", "0")),
+                Integer.parseInt(getEnv("BENCHMARK_SMTP_MAX_CONNECTIONS", "0")),
+                sslContext)) {
+            smtpServer.start();
+
+            final ConfigurableApplicationContext context = SpringApplication.run(
+                    MailTemplaterBeApplication.class,
+                    getApplicationArgs(args, smtpServer, maxRecipientCount));
+
+            try {
+                final SendPathBenchmark benchmark = new SendPathBenchmark(
+                        ((WebServerApplicationContext) context).getWebServer().getPort(),
+                        smtpServer,
+                        context.getBean(JdbcTemplate.class));
+
+                if (warmupRecipientCount > 0) {
+                    benchmark.run(warmupRecipientCount);
+                }
+
+                final List<String> rows = new ArrayList<>();
+
+                System.out.println(REPORT_HEADER);
+
+                for (int recipientCount : recipientCounts) {
+                    final String row = benchmark.run(recipientCount).toCsv();
+
+                    System.out.println(row);
+                    rows.add(row);
+                }
+
+                writeReport(rows);
+                compareWithBaseline(rows);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private Result run(int recipientCount) throws IOException, InterruptedException {
+        final byte[] body = buildSendEmailsBody(recipientCount);
+        final HeapSampler heapSampler = new HeapSampler();
+
+        /* Garbage of the previous run and of the body should not count for this one. */
+        System.gc();
+        smtpServer.drainArrivals();
+
+        final long statementsBefore = getStatementsCount();
+        final long gcMillisBefore = getGcMillis();
+
+        heapSampler.start();
+
+        final long startedAt = System.nanoTime();
+        final int sentCount = Integer.parseInt(new String(post("/send-emails", body), StandardCharsets.UTF_8).trim());
+        final long finishedAt = System.nanoTime();
+
+        heapSampler.stop();
+
+        final long[] arrivals = smtpServer.drainArrivals();
+        final long statementsCount = getStatementsCount() - statementsBefore;
+        final double seconds = (finishedAt - startedAt) / 1e9;
+
+        for (int i = 0; i < arrivals.length; i++) {
+            arrivals[i] -= startedAt;
+        }
+
+        Arrays.sort(arrivals);
+
+        return new Result(
+                recipientCount,
+                sentCount,
+                seconds,
+                sentCount / seconds,
+                getPercentileMillis(arrivals, 0.50),
+                getPercentileMillis(arrivals, 0.99),
+                heapSampler.getPeakBytes() / (1024.0 * 1024.0),
+                getGcMillis() - gcMillisBefore,
+                recipientCount > 0 ? (double) statementsCount / recipientCount : 0);
+    }
+
+    private byte[] buildSendEmailsBody(int recipientCount) {
+        final StringBuilder body = new StringBuilder(recipientCount * 96 + 256);
+
+        body.append("{\"id\": ").append(templateId).append(", ")
+                .append("\"title\": \"Benchmark\", ")
+                .append("\"message\": \"Hello %(name), this is a benchmark.\", ")
+                .append("\"placeholders\": [\"name\"], ")
+                .append("\"isHtml\": false, ")
+                .append("\"includeConfirmationLink\": false, ")
+                .append("\"recipients\": [");
+
+        for (int i = 0; i < recipientCount; i++) {
+            if (i > 0) {
+                body.append(", ");
+            }
+
+            body.append("{\"email\": \"benchmark").append(i).append('@').append(recipientDomain).append("\", ")
+                    .append("\"placeholders\": {\"name\": \"Recipient ").append(i).append("\"}}");
+        }
+
+        return body.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] post(String path, byte[] body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Authorization", authorization);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        /* The request returns once the whole job was sent. */
+        connection.setReadTimeout(0);
+
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body);
+        }
+
+        final int status = connection.getResponseCode();
+
+        if (status >= 400) {
+            throw new IllegalStateException("POST " + path + " failed with status " + status + ": " +
+                                            new String(read(connection.getErrorStream()), StandardCharsets.UTF_8));
+        }
+
+        return read(connection.getInputStream());
+    }
+
+    private long getStatementsCount() {
+        return jdbcTemplate.query(
+                "SHOW GLOBAL STATUS LIKE 'Questions'",
+                resultSet -> resultSet.next() ? resultSet.getLong(2) : 0L);
+    }
+
+    /* Everything that is not set on the command line. The smtp server list replaces the one of application.yml. */
+    /* Shared with HttpThroughputBenchmark, the arguments win over the defaults. */
+    static String[] getApplicationArgs(String[] args, FakeSmtpServer smtpServer, int maxRecipientCount) {
+        final Map<String, String> properties = new LinkedHashMap<>();
+
+        properties.put("server.port", "0");
+        properties.put("email.smtp.defaultServerName", SMTP_SERVER_NAME);
+        properties.put("email.smtp.servers[0].name", SMTP_SERVER_NAME);
+        properties.put("email.smtp.servers[0].host", smtpServer.getHost());
+        properties.put("email.smtp.servers[0].port", String.valueOf(smtpServer.getPort()));
+        properties.put("email.smtp.servers[0].auth", "true");
+        properties.put("email.smtp.servers[0].starttls.enable", String.valueOf(smtpServer.isTls()));
+        properties.put("email.smtp.servers[0].timeout", "30000");
+        properties.put("email.smtp.servers[0].connectiontimeout", "30000");
+        properties.put("email.smtp.servers[0].transport", getEnv("BENCHMARK_TRANSPORT", "JAVAMAIL"));
+        properties.put("email.routing.defaultRoute", "");
+        properties.put("email.admission.maxRequestBytes", String.valueOf(Integer.MAX_VALUE));
+        properties.put("email.admission.maxInFlightRecipients", String.valueOf(Math.max(maxRecipientCount, 1000000)));
+        properties.put("local.sender.username", "benchmark@localhost");
+        properties.put("local.sender.password", "benchmark");
+
+        final List<String> applicationArgs = new ArrayList<>(Arrays.asList(args));
+
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            final String prefix = "--" + property.getKey() + "=";
+
+            if (applicationArgs.stream().noneMatch(arg -> arg.startsWith(prefix))) {
+                applicationArgs.add(prefix + property.getValue());
+            }
+        }
+
+        return applicationArgs.toArray(new String[0]);
+    }
+
+    private static void writeReport(List<String> rows) throws IOException {
+        final Path report = Paths.get(getEnv("BENCHMARK_REPORT", "build/reports/send-path-benchmark.csv"));
+        final List<String> lines = new ArrayList<>();
+
+        if (report.getParent() != null) {
+            Files.createDirectories(report.getParent());
+        }
+
+        lines.add(REPORT_HEADER);
+        lines.addAll(rows);
+        Files.write(report, lines, StandardCharsets.UTF_8);
+    }
+
+    /* By recipient count: messages/sec and p99 latency, positive is better for the first and worse for the second. */
+    private static void compareWithBaseline(List<String> rows) throws IOException {
+        final String baseline = getEnv("BENCHMARK_BASELINE", "");
+
+        if (baseline.isEmpty()) {
+            return;
+        }
+
+        final Map<String, String[]> baselineRows = new LinkedHashMap<>();
+
+        for (String line : Files.readAllLines(Paths.get(baseline), StandardCharsets.UTF_8)) {
+            if (!line.startsWith("recipients")) {
+                final String[] values = line.split(",");
+
+                baselineRows.put(values[0], values);
+            }
+        }
+
+        System.out.println("Change against " + baseline + ":");
+
+        for (String row : rows) {
+            final String[] values = row.split(",");
+            final String[] baselineValues = baselineRows.get(values[0]);
+
+            if (baselineValues == null) {
+                continue;
+            }
+
+            System.out.println(String.format(
+                    Locale.ROOT,
+                    "%s recipients: messages/sec %+.1f%%, p99 %+.1f%%, statements/message %+.1f%%",
+                    values[0],
+                    getChange(baselineValues[3], values[3]),
+                    getChange(baselineValues[5], values[5]),
+                    getChange(baselineValues[8], values[8])));
+        }
+    }
+
+    private static double getChange(String baseline, String current) {
+        final double baselineValue = Double.parseDouble(baseline);
+
+        return baselineValue == 0 ? 0 : (Double.parseDouble(current) - baselineValue) * 100 / baselineValue;
+    }
+
+    private static double getPercentileMillis(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+
+        final int index = Math.min(sortedNanos.length - 1, (int) Math.ceil(percentile * sortedNanos.length) - 1);
+
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    private static long getGcMillis() {
+        long gcMillis = 0;
+
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(0, garbageCollector.getCollectionTime());
+        }
+
+        return gcMillis;
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            return new byte[0];
+        }
+
+        try (InputStream closing = inputStream) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = closing.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+
+            return output.toByteArray();
+        }
+    }
+
+    private static String getEnv(String name, String defaultValue) {
+        final String value = System.getenv(name);
+
+        return value != null ? value : defaultValue;
+    }
+
+    /* Samples the used heap of this JVM, which runs both the app and the benchmark. */
+    private static class HeapSampler {
+
+        private static final long SAMPLE_INTERVAL = 50;
+
+        private volatile boolean running;
+        private volatile long peakBytes;
+        private Thread sampler;
+
+        void start() {
+            running = true;
+            sampler = new Thread(() -> {
+                while (running) {
+                    peakBytes = Math.max(
+                            peakBytes, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+
+                    try {
+                        Thread.sleep(SAMPLE_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "benchmark-heap-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            sampler.interrupt();
+            sampler.join();
+        }
+
+        long getPeakBytes() {
+            return peakBytes;
+        }
+    }
+
+    private static class Result {
+
+        private final int recipients;
+        private final int sent;
+        private final double seconds;
+        private final double messagesPerSecond;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final double peakHeapMb;
+        private final long gcMillis;
+        private final double statementsPerMessage;
+
+        Result(
+                int recipients,
+                int sent,
+                double seconds,
+                double messagesPerSecond,
+                double p50Millis,
+                double p99Millis,
+                double peakHeapMb,
+                long gcMillis,
+                double statementsPerMessage) {
+            this.recipients = recipients;
+            this.sent = sent;
+            this.seconds = seconds;
+            this.messagesPerSecond = messagesPerSecond;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.peakHeapMb = peakHeapMb;
+            this.gcMillis = gcMillis;
+            this.statementsPerMessage = statementsPerMessage;
+        }
+
+        String toCsv() {
+            return String.format(
+                    Locale.ROOT,
+                    "%d,%d,%.3f,%.1f,%.2f,%.2f,%.1f,%d,%.3f",
+                    recipients,
+                    sent,
+                    seconds,
+                    messagesPerSecond,
+                    p50Millis,
+                    p99Millis,
+                    peakHeapMb,
+                    gcMillis,
+                    statementsPerMessage);
+        }
+    }
+}
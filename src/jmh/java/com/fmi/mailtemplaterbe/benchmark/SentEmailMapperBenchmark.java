@@ -0,0 +1,64 @@
+package com.fmi.mailtemplaterbe.benchmark;
+
+import com.fmi.mailtemplaterbe.domain.entity.SentEmailEntity;
+import com.fmi.mailtemplaterbe.domain.resource.SentEmailResource;
+import com.fmi.mailtemplaterbe.mapper.SentEmailMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Mapping of the sent emails between entities and resources, as the history endpoints do for every row they return.
+ * <p></p>
+ * Run with: ./gradlew jmh -Pjmh.includes=SentEmailMapperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SentEmailMapperBenchmark {
+
+    /* Number of sent emails. */
+    @Param({"1", "1000", "100000"})
+    private int listSize;
+
+    /* Number of paragraphs of the message of each email. */
+    @Param({"1", "50"})
+    private int paragraphs;
+
+    private List<SentEmailEntity> sentEmailEntities;
+    private List<SentEmailResource> sentEmailResources;
+
+    @Setup
+    public void setUp() {
+        sentEmailEntities = HistoryBenchmarkData.createSentEmails(listSize, paragraphs);
+        sentEmailResources = entitiesToResources();
+    }
+
+    @Benchmark
+    public List<SentEmailResource> entitiesToResources() {
+        return sentEmailEntities.stream()
+                .map(SentEmailMapper::entityToResource)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<SentEmailEntity> resourcesToEntities() {
+        final List<SentEmailEntity> entities = new ArrayList<>(sentEmailResources.size());
+
+        for (SentEmailResource sentEmailResource : sentEmailResources) {
+            entities.add(SentEmailMapper.resourceToEntity(sentEmailResource));
+        }
+
+        return entities;
+    }
+}
@@ -0,0 +1,114 @@
+package com.fmi.mailtemplaterbe.benchmark;
+
+import com.fmi.mailtemplaterbe.config.CorsConfiguration;
+import com.fmi.mailtemplaterbe.util.CompiledTemplate;
+import com.fmi.mailtemplaterbe.util.EmailMessageUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of a single recipient's email: the per-recipient StringSubstitutor and UriComponentsBuilder path
+ * against the template and link prefix that are compiled once per send job, and each of its two steps on its own.
+ * <p></p>
+ * Run with: ./gradlew jmh -Pjmh.includes=TemplateRenderBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TemplateRenderBenchmark {
+
+    private static final String PREFIX = "%(";
+    private static final String SUFFIX = ")";
+    private static final String SUBJECT = "Invitation to the annual meeting";
+    private static final String RECIPIENT_EMAIL = "john.doe@example.com";
+    private static final String TOKEN = "3f2a9c1e-5b7d-4e8f-9a0b-1c2d3e4f5a6b";
+
+    /* Number of paragraphs of the template. */
+    @Param({"1", "10", "50"})
+    private int paragraphs;
+
+    /* Number of distinct placeholders of the template, which are spread over its paragraphs. */
+    @Param({"3", "20"})
+    private int placeholderCount;
+
+    private EmailMessageUtil emailMessageUtil;
+    private String template;
+    private String content;
+    private Map<String, String> placeholders;
+    private CompiledTemplate compiledTemplate;
+    private String confirmationLinkPrefix;
+
+    @Setup
+    public void setUp() {
+        final CorsConfiguration corsConfiguration = new CorsConfiguration();
+        corsConfiguration.setAllowedOrigins(Collections.singletonList("http://localhost:5200"));
+        corsConfiguration.setClientFeApp("http://localhost:5200");
+
+        final StringBuilder templateBuilder = new StringBuilder();
+        final int placeholdersPerParagraph = Math.max(1, (placeholderCount + paragraphs - 1) / paragraphs);
+        int placeholder = 0;
+
+        for (int i = 0; i < paragraphs; i++) {
+            templateBuilder.append("Dear colleague,<br>we would like to invite you to the meeting ")
+                    .append("that takes place next month. Please let us know whether you can attend.");
+
+            for (int j = 0; j < placeholdersPerParagraph; j++) {
+                templateBuilder.append(" %(field").append(placeholder++ % placeholderCount).append(")");
+            }
+
+            templateBuilder.append("<br><br>");
+        }
+
+        emailMessageUtil = new EmailMessageUtil(corsConfiguration);
+        template = templateBuilder.toString();
+        placeholders = new HashMap<>();
+
+        for (int i = 0; i < placeholderCount; i++) {
+            placeholders.put("field" + i, "Value " + i);
+        }
+
+        content = emailMessageUtil.buildEmailMessage(template, placeholders, PREFIX, SUFFIX);
+        compiledTemplate = emailMessageUtil.compileEmailMessage(template, PREFIX, SUFFIX);
+        confirmationLinkPrefix = emailMessageUtil.buildConfirmationAppLinkPrefix(SUBJECT);
+
+        if (!render().equals(renderCompiled())) {
+            throw new IllegalStateException("The compiled template renders a different message.");
+        }
+    }
+
+    @Benchmark
+    public String render() {
+        final String content = emailMessageUtil.buildEmailMessage(template, placeholders, PREFIX, SUFFIX);
+
+        return emailMessageUtil.appendConfirmationAppLink(SUBJECT, content, RECIPIENT_EMAIL, TOKEN, true);
+    }
+
+    @Benchmark
+    public String buildEmailMessage() {
+        return emailMessageUtil.buildEmailMessage(template, placeholders, PREFIX, SUFFIX);
+    }
+
+    @Benchmark
+    public String appendConfirmationAppLink() {
+        return emailMessageUtil.appendConfirmationAppLink(SUBJECT, content, RECIPIENT_EMAIL, TOKEN, true);
+    }
+
+    @Benchmark
+    public String renderCompiled() {
+        final String content = compiledTemplate.render(placeholders);
+
+        return emailMessageUtil.appendConfirmationAppLink(
+                confirmationLinkPrefix, SUBJECT, content, RECIPIENT_EMAIL, TOKEN, true);
+    }
+}
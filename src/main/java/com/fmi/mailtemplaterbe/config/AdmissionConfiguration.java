@@ -0,0 +1,26 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.admission")
+public class AdmissionConfiguration {
+
+    /* Max number of send jobs that are accepted at the same time, from the request until the job completes. */
+    private int maxConcurrentJobs = 20;
+
+    /* Max number of recipients of the accepted send jobs and previews together. */
+    private int maxInFlightRecipients = 1000000;
+
+    /* Max number of previews that are rendered at the same time. */
+    private int maxConcurrentPreviews = 8;
+
+    /* Max size of a send or preview request body (bytes). The streamed sends are not limited. */
+    private long maxRequestBytes = 52428800;
+
+    /* How long a rejected client should wait before it tries again (ms). */
+    private long retryAfter = 5000;
+}
@@ -0,0 +1,35 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.cluster")
+public class ClusterConfiguration {
+
+    /* True if several app instances share the database. A single instance works the same without it. */
+    private boolean enabled = false;
+
+    /* Unique name of the instance, the host name if empty. Should survive a restart (e.g. a stateful set). */
+    private String nodeId;
+
+    /* API accepts the send requests, WORKER sends the emails, COMBINED does both. Only used in a cluster. */
+    private Role role = Role.COMBINED;
+
+    /* Interval of the heartbeats, which keep the instance, its leadership and its claimed emails alive (ms). */
+    private long heartbeatInterval = 5000;
+
+    /* How long an instance, its leadership and its claimed emails live without a heartbeat (ms). */
+    private long leaseDuration = 30000;
+
+    /* How often the instance looks for send jobs of other instances and checks the state of its jobs (ms). */
+    private long syncInterval = 1000;
+
+    public enum Role {
+        API,
+        WORKER,
+        COMBINED
+    }
+}
@@ -16,6 +16,9 @@ public class EmailTemplatesConfiguration {
     @Value("${email-templates.message-max-length}")
     private int messageMaxLength;
 
+    @Value("${email-templates.preview-max-page-size}")
+    private int previewMaxPageSize;
+
     public String getPlaceholderPrefix() {
         return placeholderPrefix;
     }
@@ -27,4 +30,8 @@ public class EmailTemplatesConfiguration {
     public int getMessageMaxLength() {
         return messageMaxLength;
     }
+
+    public int getPreviewMaxPageSize() {
+        return previewMaxPageSize;
+    }
 }
@@ -0,0 +1,17 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.history")
+public class HistoryConfiguration {
+
+    /* Number of ids that are reserved at once for the sent_emails and send_email_errors tables. */
+    private int idBlockSize = 1000;
+
+    /* Number of rows per batch when history is written (a single multi-row insert with rewriteBatchedStatements). */
+    private int insertBatchSize = 500;
+}
@@ -0,0 +1,35 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.idempotency")
+public class IdempotencyConfiguration {
+
+    /* How long an idempotency key is remembered (ms). */
+    private long ttl = 86400000;
+
+    /*
+     * How long a repeated request waits for the original request to create its send job (ms).
+     * A claim without a send job, which is older than that, is abandoned and taken over by the next request.
+     */
+    private long pendingTimeout = 30000;
+
+    /*
+     * How long a repeated synchronous request waits for the send job of the original request to finish (ms).
+     * After that it is answered with 409 and the id of the job, which can be followed on /send-jobs.
+     */
+    private long resultTimeout = 30000;
+
+    /* How often a repeated request checks on the original request (ms). */
+    private long pollInterval = 200;
+
+    /* How often expired keys are deleted (ms). */
+    private long cleanupInterval = 60000;
+
+    /* Max number of expired keys that are deleted at once. */
+    private int cleanupBatchSize = 1000;
+}
@@ -0,0 +1,49 @@
+package com.fmi.mailtemplaterbe.config;
+
+import com.fmi.mailtemplaterbe.domain.enums.SendLane;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.lanes")
+public class LaneConfiguration {
+
+    /* Send jobs with at most this many recipients go through the transactional lane. */
+    private int transactionalMaxRecipients = 10;
+
+    /* Threads of the transactional lane. They come on top of the threads (and smtp connections) of the bulk lane. */
+    private int transactionalRenderThreads = 1;
+    private int transactionalSendThreadsPerServer = 2;
+    private int transactionalQueueCapacity = 1000;
+
+    /* Share of the bulk lane by sender email address, relative to the other active senders. */
+    private Map<String, Integer> senderWeights = new HashMap<>();
+    private int defaultSenderWeight = 1;
+
+    /**
+     * Get the lane of a send job.
+     *
+     * @param recipientsCount Number of recipients of the job, -1 if it is not known yet (e.g. a streamed request).
+     * @return lane
+     */
+    public SendLane getLane(int recipientsCount) {
+        return recipientsCount >= 0 && recipientsCount <= transactionalMaxRecipients
+                ? SendLane.TRANSACTIONAL
+                : SendLane.BULK;
+    }
+
+    public int getSenderWeight(String senderEmail) {
+        for (Map.Entry<String, Integer> entry : senderWeights.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(senderEmail)) {
+                return Math.max(1, entry.getValue());
+            }
+        }
+
+        return Math.max(1, defaultSenderWeight);
+    }
+}
@@ -0,0 +1,85 @@
+package com.fmi.mailtemplaterbe.config;
+
+import com.fmi.mailtemplaterbe.domain.enums.OutboxStatus;
+import com.fmi.mailtemplaterbe.service.AdmissionService;
+import com.fmi.mailtemplaterbe.service.OutboxDispatcher;
+import com.fmi.mailtemplaterbe.service.OutboxService;
+import com.fmi.mailtemplaterbe.service.SmtpConnectionPool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Gauges of the state around the send pipeline, exported on /actuator/prometheus next to the metrics of the stages
+ * (see SendMetrics). They are read on each scrape, so they cost nothing while nobody scrapes.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    /* Finished emails only grow, their counts are in the results of the send pipeline. */
+    private static final OutboxStatus[] UNFINISHED_STATUSES = {
+            OutboxStatus.PENDING, OutboxStatus.SENDING, OutboxStatus.DEFERRED, OutboxStatus.SCHEDULED};
+
+    @Bean
+    public MeterBinder sendStateMetrics(
+            OutboxDispatcher outboxDispatcher,
+            OutboxService outboxService,
+            SmtpConnectionPool smtpConnectionPool,
+            AdmissionService admissionService) {
+        return registry -> {
+            Gauge.builder(
+                            "mailtemplater.send.jobs.active",
+                            outboxDispatcher,
+                            dispatcher -> dispatcher.getSendJobContexts().size())
+                    .description("Send jobs, which are running on this instance")
+                    .register(registry);
+
+            Gauge.builder(
+                            "mailtemplater.smtp.pool.connections",
+                            smtpConnectionPool,
+                            SmtpConnectionPool::getBorrowedCount)
+                    .description("Pooled smtp connections by state")
+                    .tag("state", "borrowed")
+                    .register(registry);
+            Gauge.builder(
+                            "mailtemplater.smtp.pool.connections",
+                            smtpConnectionPool,
+                            SmtpConnectionPool::getIdleCount)
+                    .description("Pooled smtp connections by state")
+                    .tag("state", "idle")
+                    .register(registry);
+
+            Gauge.builder(
+                            "mailtemplater.admission.jobs",
+                            admissionService,
+                            service -> service.getAdmission().getConcurrentJobs())
+                    .description("Accepted send jobs, which did not complete yet")
+                    .register(registry);
+            Gauge.builder(
+                            "mailtemplater.admission.recipients",
+                            admissionService,
+                            service -> service.getAdmission().getInFlightRecipients())
+                    .description("Recipients of the accepted send jobs and previews")
+                    .register(registry);
+            FunctionCounter.builder(
+                            "mailtemplater.admission.rejected",
+                            admissionService,
+                            service -> service.getAdmission().getRejectedRequests())
+                    .description("Requests, which were rejected with 429")
+                    .register(registry);
+
+            /* The outbox is shared, so in a cluster all instances report the same counts. */
+            for (OutboxStatus status : UNFINISHED_STATUSES) {
+                Gauge.builder(
+                                "mailtemplater.outbox.emails",
+                                outboxService,
+                                service -> service.countEmailsWithStatus(status))
+                        .description("Emails in the outbox, which are not sent or failed yet")
+                        .tag("status", status.name().toLowerCase())
+                        .register(registry);
+            }
+        };
+    }
+}
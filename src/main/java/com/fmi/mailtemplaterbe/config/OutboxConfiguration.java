@@ -0,0 +1,35 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.outbox")
+public class OutboxConfiguration {
+
+    /* Number of rows per insert statement when the emails of a send job are written to the outbox. */
+    private int insertBatchSize = 1000;
+
+    /* Max number of due emails that the dispatcher claims at once. */
+    private int claimBatchSize = 500;
+
+    /* How often the dispatcher looks for due emails when it is not woken up by a new send job (ms). */
+    private long pollInterval = 1000;
+
+    /* Delay before a deferred email is attempted again (ms). */
+    private long deferDelay = 60000;
+
+    /*
+     * How long sent and failed emails are kept in the outbox (ms). The emails of send jobs, which did not finish yet,
+     * are kept until they finish, their progress is counted from the outbox.
+     */
+    private long retention = 604800000;
+
+    /* How often sent and failed emails, which are older than the retention, are deleted (ms). */
+    private long cleanupInterval = 60000;
+
+    /* Max number of emails that are deleted at once. */
+    private int cleanupBatchSize = 1000;
+}
@@ -0,0 +1,48 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.rate-limits")
+public class RateLimitConfiguration {
+
+    /* LOCAL keeps the buckets in memory, DATABASE shares them between all app instances. */
+    private Mode mode = Mode.LOCAL;
+
+    /* Number of tokens that an instance takes from a shared bucket at once (DATABASE mode only). */
+    private int leaseSize = 5;
+
+    /* Milliseconds, after which an instance reloads the shared limits of the other instances (DATABASE mode only). */
+    private long limitsRefreshInterval = 5000;
+
+    /*
+     * Limits by smtp server name. Servers without a limit are not throttled.
+     * In DATABASE mode they only seed the shared buckets, which keep the limits changed at runtime.
+     */
+    private Map<String, Limit> servers = new HashMap<>();
+
+    /* Limits by recipient domain. Domains without a limit are not throttled. */
+    private Map<String, Limit> domains = new HashMap<>();
+
+    public enum Mode {
+        LOCAL,
+        DATABASE
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Limit {
+
+        private double permitsPerSecond;
+        private int burst;
+    }
+}
@@ -0,0 +1,26 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.retry")
+public class RetryConfiguration {
+
+    /* Max number of attempts per email, including the first one. */
+    private int maxAttempts = 5;
+
+    /* Backoff before the first retry, doubled (by the multiplier) for every further retry, up to maxBackoff (ms). */
+    private long initialBackoff = 30000;
+    private long maxBackoff = 3600000;
+    private double multiplier = 2.0;
+
+    /* The backoff is randomized by up to this fraction in both directions, so that retries do not come in waves. */
+    private double jitter = 0.2;
+
+    /* Precision and size of the timer wheel, which schedules the retries. */
+    private long tickDuration = 100;
+    private int wheelSize = 512;
+}
@@ -0,0 +1,27 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.scheduling")
+public class SchedulingConfiguration {
+
+    /* Scheduled emails, which are due within this time, are loaded from the outbox into the timer wheel (ms). */
+    private long horizon = 300000;
+
+    /* Interval of the loads (ms). Must be shorter than the horizon, so that no email is loaded late. */
+    private long loadInterval = 60000;
+
+    /* Number of emails that are read from the outbox at once. */
+    private int loadBatchSize = 1000;
+
+    /* Max number of emails in the timer wheel. Further ones are loaded once the loaded ones were released. */
+    private int maxLoadedEmails = 100000;
+
+    /* Precision and size of the timer wheel. The wheel should cover the horizon in one round. */
+    private long tickDuration = 1000;
+    private int wheelSize = 512;
+}
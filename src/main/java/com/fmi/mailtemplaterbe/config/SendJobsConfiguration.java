@@ -0,0 +1,38 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.send-jobs")
+public class SendJobsConfiguration {
+
+    private int corePoolSize = 2;
+    private int maxPoolSize = 4;
+    private int queueCapacity = 100;
+
+    /* Number of send results after which the counters of a running job are written to the database. */
+    private int progressFlushInterval = 100;
+
+    /* Largest page of the outcomes of a job for its recipients. */
+    private int recipientsMaxPageSize = 100;
+
+    @Bean
+    public ThreadPoolTaskExecutor sendJobExecutor(VirtualThreadsConfiguration virtualThreadsConfiguration) {
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("send-job-");
+        executor.setThreadFactory(virtualThreadsConfiguration.createThreadFactory("send-job-"));
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+
+        return executor;
+    }
+}
@@ -0,0 +1,40 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.pipeline")
+public class SendPipelineConfiguration {
+
+    /* Threads that render the emails. 0 means one thread per available core. */
+    private int renderThreads = 0;
+    private int renderQueueCapacity = 1000;
+
+    /* Threads (and therefore smtp connections) per smtp server, unless overridden in sendThreadsByServer. */
+    private int sendThreadsPerServer = 4;
+    private Map<String, Integer> sendThreadsByServer = new HashMap<>();
+    private int sendQueueCapacity = 1000;
+
+    private int historyQueueCapacity = 10000;
+    private int historyBatchSize = 500;
+
+    public int getEffectiveRenderThreads() {
+        return renderThreads > 0 ? renderThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getSendThreads(String smtpServerName) {
+        for (Map.Entry<String, Integer> entry : sendThreadsByServer.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(smtpServerName)) {
+                return entry.getValue();
+            }
+        }
+
+        return sendThreadsPerServer;
+    }
+}
@@ -15,6 +15,14 @@ public class SmtpConfiguration {
 
     private String defaultServerName;
     private List<SmtpServer> servers;
+    private Pool pool = new Pool();
+    private Nio nio = new Nio();
+
+    /* Max number of sessions with provided credentials that are cached. The least recently used ones are evicted. */
+    private int sessionCacheSize = 256;
+
+    /* How often the smtp servers, which were changed at runtime on another instance, are reloaded in a cluster (ms). */
+    private long refreshInterval = 5000;
 
     @Data
     @AllArgsConstructor
@@ -29,6 +37,16 @@ public class SmtpConfiguration {
         private String timeout;
         private String connectiontimeout;
         private String name;
+
+        /* Client that sends to this server, JAVAMAIL if not set. */
+        private Transport transport = Transport.JAVAMAIL;
+    }
+
+    public enum Transport {
+        /* Blocking JavaMail transports from the connection pool, one send thread per connection. */
+        JAVAMAIL,
+        /* Non-blocking client, which multiplexes the connections on a few threads and pipelines the commands. */
+        NIO
     }
 
     @Data
@@ -44,4 +62,31 @@ public class SmtpConfiguration {
     public static class Ssl {
         private String enable;
     }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Pool {
+
+        /* Max number of idle connections that are kept per smtp server and username. */
+        private int maxIdlePerKey = 4;
+
+        /* Idle connections older than this (ms) are closed instead of reused. */
+        private long idleTimeout = 60000;
+
+        /* Idle connections older than this (ms) are checked with NOOP before reuse. */
+        private long validateAfterIdle = 5000;
+
+        /* Number of connections that are opened upfront when a send starts. */
+        private int prewarm = 1;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Nio {
+
+        /* Number of event loop threads of the non-blocking smtp client, shared by all servers with the NIO transport. */
+        private int ioThreads = 2;
+    }
 }
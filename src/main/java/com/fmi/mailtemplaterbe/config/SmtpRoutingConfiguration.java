@@ -0,0 +1,70 @@
+package com.fmi.mailtemplaterbe.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.routing")
+public class SmtpRoutingConfiguration {
+
+    /* Route that is used for sends with the default credentials. The default smtp server if not set. */
+    private String defaultRoute;
+
+    /* Routes by name. A send can name a route instead of a smtp server. */
+    private Map<String, Route> routes = new HashMap<>();
+
+    private Breaker breaker = new Breaker();
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Route {
+
+        private List<Member> members = new ArrayList<>();
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Member {
+
+        private String serverName;
+
+        /* Share of the emails of the route, relative to the other members. */
+        private int weight = 1;
+
+        /* Account of the member. If not set, the credentials of the send are used. */
+        private String username;
+        private String password;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Breaker {
+
+        /* Number of the last sends per server, whose failure rate is tracked. */
+        private int windowSize = 20;
+
+        /* The breaker does not open before the window holds this many sends. */
+        private int minimumCalls = 10;
+
+        /* Failure rate (0 - 1), at which the breaker opens. */
+        private double failureRateThreshold = 0.5;
+
+        /* Time that an open breaker refuses sends, before it lets probes through (ms). */
+        private long openDuration = 30000;
+
+        /* Number of successful probes, which close a half open breaker. */
+        private int halfOpenProbes = 3;
+    }
+}
@@ -0,0 +1,62 @@
+package com.fmi.mailtemplaterbe.config;
+
+import com.fmi.mailtemplaterbe.util.VirtualThreads;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opt-in mode, which runs the Tomcat request handling and the workers of the send pipeline on virtual threads.
+ * The application spends most of its time blocked in JDBC and smtp calls, which then no longer hold a platform thread.
+ * <p></p>
+ * Virtual threads need Java 21 or newer. On older JDKs the mode falls back to platform threads.
+ * The thread counts of the pipeline stay in place, because they limit the smtp connections rather than the CPU usage.
+ */
+@Slf4j
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "email.virtual-threads")
+public class VirtualThreadsConfiguration {
+
+    private boolean enabled = false;
+
+    /**
+     * Returns true if the mode is enabled and the JDK supports virtual threads.
+     *
+     * @return True if virtual threads are used and false otherwise.
+     */
+    public boolean isActive() {
+        return enabled && VirtualThreads.isSupported();
+    }
+
+    /**
+     * Create a factory for the worker threads of an executor, virtual threads if the mode is active.
+     *
+     * @param threadNamePrefix Prefix of the thread names.
+     * @return thread factory
+     */
+    public ThreadFactory createThreadFactory(String threadNamePrefix) {
+        return isActive()
+                ? VirtualThreads.newThreadFactory(threadNamePrefix)
+                : new CustomizableThreadFactory(threadNamePrefix);
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (enabled && !VirtualThreads.isSupported()) {
+                log.warn("Virtual threads require Java 21 or newer, using platform threads instead.");
+            }
+
+            if (isActive()) {
+                protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-virtual-"));
+            }
+        };
+    }
+}
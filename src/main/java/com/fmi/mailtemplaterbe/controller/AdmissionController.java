@@ -0,0 +1,23 @@
+package com.fmi.mailtemplaterbe.controller;
+
+import com.fmi.mailtemplaterbe.domain.resource.AdmissionResource;
+import com.fmi.mailtemplaterbe.service.AdmissionService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequiredArgsConstructor
+public class AdmissionController {
+
+    private final AdmissionService admissionService;
+
+    @GetMapping(
+            value = "/admin/admission",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<AdmissionResource> getAdmission() {
+        return ResponseEntity.ok(admissionService.getAdmission());
+    }
+}
@@ -1,6 +1,7 @@
 package com.fmi.mailtemplaterbe.controller;
 
 import com.fmi.mailtemplaterbe.service.ConfirmationService;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -12,6 +13,7 @@ public class ConfirmationController {
     private final ConfirmationService confirmationService;
 
     @PatchMapping(value = "/confirmation/confirm")
+    @Timed(value = "mailtemplater.http.confirmation.confirm", histogram = true)
     public ResponseEntity<Void> confirmSentEmail(
             @RequestParam() String recipientEmail,
             @RequestParam() String recipientToken,
@@ -1,14 +1,19 @@
 package com.fmi.mailtemplaterbe.controller;
 
+import com.fmi.mailtemplaterbe.domain.enums.RecipientsFormat;
 import com.fmi.mailtemplaterbe.domain.resource.*;
 import com.fmi.mailtemplaterbe.service.EmailManagerService;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
+import java.io.InputStream;
+import java.net.URI;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -16,6 +21,10 @@ import java.util.List;
 @RequiredArgsConstructor
 public class EmailManagerController {
 
+    private static final String TEXT_CSV_VALUE = "text/csv";
+    private static final String GZIP_ENCODING = "gzip";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private final EmailManagerService emailManagerService;
 
     @GetMapping(
@@ -36,8 +45,62 @@ public class EmailManagerController {
             value = "/send-emails",
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Integer> sendEmail(@Valid @RequestBody SendEmailResource sendEmailResource) {
-        return ResponseEntity.ok(emailManagerService.sendEmails(sendEmailResource));
+    public ResponseEntity<Integer> sendEmail(
+            @Valid @RequestBody SendEmailResource sendEmailResource,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        return ResponseEntity.ok(emailManagerService.sendEmails(sendEmailResource, idempotencyKey));
+    }
+
+    @PostMapping(
+            value = "/send-emails",
+            params = "async=true",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobResource> sendEmailAsync(
+            @Valid @RequestBody SendEmailResource sendEmailResource,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        final SendJobResource sendJob = emailManagerService.sendEmailsAsync(sendEmailResource, idempotencyKey);
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/send-jobs/" + sendJob.getId()))
+                .body(sendJob);
+    }
+
+    @PostMapping(
+            value = "/send-emails/stream",
+            consumes = MediaType.APPLICATION_NDJSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobResource> sendEmailStreamNdjson(
+            @Valid SendEmailStreamResource sendEmailStreamResource,
+            @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+            InputStream inputStream) {
+        return sendEmailStream(sendEmailStreamResource, RecipientsFormat.NDJSON, contentEncoding, inputStream);
+    }
+
+    @PostMapping(
+            value = "/send-emails/stream",
+            consumes = TEXT_CSV_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobResource> sendEmailStreamCsv(
+            @Valid SendEmailStreamResource sendEmailStreamResource,
+            @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+            InputStream inputStream) {
+        return sendEmailStream(sendEmailStreamResource, RecipientsFormat.CSV, contentEncoding, inputStream);
+    }
+
+    @PostMapping(
+            value = "/send-emails/recipient-groups",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobResource> sendEmailToRecipientGroups(
+            @Valid @RequestBody SendToRecipientGroupsResource sendToRecipientGroupsResource,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        final SendJobResource sendJob =
+                emailManagerService.sendEmailsToRecipientGroups(sendToRecipientGroupsResource, idempotencyKey);
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/send-jobs/" + sendJob.getId()))
+                .body(sendJob);
     }
 
     @PostMapping(
@@ -48,9 +111,33 @@ public class EmailManagerController {
         return ResponseEntity.ok(emailManagerService.getPreviewEmails(previewEmailResource));
     }
 
+    @PostMapping(
+            value = "/preview-emails",
+            params = "size",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<PreviewEmailsPageResource> getPreviewEmailsPage(
+            @Valid @RequestBody PreviewEmailResource previewEmailResource,
+            @RequestParam(required = false) Integer page,
+            @RequestParam Integer size) {
+        return ResponseEntity.ok(emailManagerService.getPreviewEmailsPage(previewEmailResource, page, size, null));
+    }
+
+    @PostMapping(
+            value = "/preview-emails",
+            params = {"sample", "!size"},
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<PreviewEmailsPageResource> getPreviewEmailsSample(
+            @Valid @RequestBody PreviewEmailResource previewEmailResource,
+            @RequestParam Integer sample) {
+        return ResponseEntity.ok(emailManagerService.getPreviewEmailsPage(previewEmailResource, null, null, sample));
+    }
+
     @GetMapping(
             value = "/history",
             produces = MediaType.APPLICATION_JSON_VALUE)
+    @Timed(value = "mailtemplater.http.history", histogram = true)
     public ResponseEntity<List<SentEmailResource>> getHistory(
             @RequestParam(required = false) String subject,
             @RequestParam(required = false) String senderEmail,
@@ -62,4 +149,17 @@ public class EmailManagerController {
         return ResponseEntity.ok(emailManagerService.getSentEmails(
                 subject, senderEmail, recipientEmail, sentSuccessfully, confirmation, startDate, endDate));
     }
+
+    private ResponseEntity<SendJobResource> sendEmailStream(
+            SendEmailStreamResource sendEmailStreamResource,
+            RecipientsFormat format,
+            String contentEncoding,
+            InputStream inputStream) {
+        final SendJobResource sendJob = emailManagerService.sendEmailsStream(
+                sendEmailStreamResource, format, inputStream, GZIP_ENCODING.equalsIgnoreCase(contentEncoding));
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/send-jobs/" + sendJob.getId()))
+                .body(sendJob);
+    }
 }
@@ -0,0 +1,43 @@
+package com.fmi.mailtemplaterbe.controller;
+
+import com.fmi.mailtemplaterbe.domain.resource.RateLimitResource;
+import com.fmi.mailtemplaterbe.domain.resource.RateLimitsResource;
+import com.fmi.mailtemplaterbe.service.SmtpRateLimiter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.validation.Valid;
+
+@RestController
+@RequiredArgsConstructor
+public class RateLimitController {
+
+    private final SmtpRateLimiter smtpRateLimiter;
+
+    @GetMapping(
+            value = "/admin/rate-limits",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<RateLimitsResource> getRateLimits() {
+        return ResponseEntity.ok(smtpRateLimiter.getRateLimits());
+    }
+
+    @PutMapping(
+            value = "/admin/rate-limits/servers/{name}",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<RateLimitResource> updateServerRateLimit(
+            @PathVariable(value = "name") String name, @Valid @RequestBody RateLimitResource rateLimitResource) {
+        return ResponseEntity.ok(smtpRateLimiter.updateServerRateLimit(name, rateLimitResource));
+    }
+
+    @PutMapping(
+            value = "/admin/rate-limits/domains/{domain:.+}",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<RateLimitResource> updateDomainRateLimit(
+            @PathVariable(value = "domain") String domain, @Valid @RequestBody RateLimitResource rateLimitResource) {
+        return ResponseEntity.ok(smtpRateLimiter.updateDomainRateLimit(domain, rateLimitResource));
+    }
+}
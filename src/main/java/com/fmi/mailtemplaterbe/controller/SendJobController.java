@@ -0,0 +1,56 @@
+package com.fmi.mailtemplaterbe.controller;
+
+import com.fmi.mailtemplaterbe.domain.resource.SendJobRecipientsPageResource;
+import com.fmi.mailtemplaterbe.domain.resource.SendJobResource;
+import com.fmi.mailtemplaterbe.service.SendJobControlService;
+import com.fmi.mailtemplaterbe.service.SendJobService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequiredArgsConstructor
+public class SendJobController {
+
+    private final SendJobService sendJobService;
+    private final SendJobControlService sendJobControlService;
+
+    @GetMapping(
+            value = "/send-jobs/{id}",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobResource> getSendJob(@PathVariable(value = "id") Long id) {
+        return ResponseEntity.ok(sendJobService.getSendJobById(id));
+    }
+
+    @GetMapping(
+            value = "/send-jobs/{id}/recipients",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobRecipientsPageResource> getSendJobRecipients(
+            @PathVariable(value = "id") Long id,
+            @RequestParam(required = false) Integer page,
+            @RequestParam Integer size) {
+        return ResponseEntity.ok(sendJobService.getSendJobRecipients(id, page, size));
+    }
+
+    @PostMapping(
+            value = "/send-jobs/{id}/pause",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobResource> pauseSendJob(@PathVariable(value = "id") Long id) {
+        return ResponseEntity.ok(sendJobControlService.pauseSendJob(id));
+    }
+
+    @PostMapping(
+            value = "/send-jobs/{id}/resume",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobResource> resumeSendJob(@PathVariable(value = "id") Long id) {
+        return ResponseEntity.ok(sendJobControlService.resumeSendJob(id));
+    }
+
+    @PostMapping(
+            value = "/send-jobs/{id}/cancel",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SendJobResource> cancelSendJob(@PathVariable(value = "id") Long id) {
+        return ResponseEntity.ok(sendJobControlService.cancelSendJob(id));
+    }
+}
@@ -0,0 +1,41 @@
+package com.fmi.mailtemplaterbe.controller;
+
+import com.fmi.mailtemplaterbe.domain.resource.SmtpServerHealthResource;
+import com.fmi.mailtemplaterbe.domain.resource.SmtpServerResource;
+import com.fmi.mailtemplaterbe.domain.resource.SmtpServersResource;
+import com.fmi.mailtemplaterbe.service.EmailManagerService;
+import com.fmi.mailtemplaterbe.service.SmtpRouter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.validation.Valid;
+import java.util.List;
+
+@RestController
+@RequiredArgsConstructor
+public class SmtpServerController {
+
+    private final EmailManagerService emailManagerService;
+    private final SmtpRouter smtpRouter;
+
+    @GetMapping(
+            value = "/admin/smtp-servers/health",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<SmtpServerHealthResource>> getSmtpServersHealth() {
+        return ResponseEntity.ok(smtpRouter.getHealth());
+    }
+
+    @PutMapping(
+            value = "/admin/smtp-servers",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<SmtpServerResource>> reloadSmtpServers(
+            @Valid @RequestBody SmtpServersResource smtpServersResource) {
+        return ResponseEntity.ok(emailManagerService.reloadSmtpServers(smtpServersResource));
+    }
+}
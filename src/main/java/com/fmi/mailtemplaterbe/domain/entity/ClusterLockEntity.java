@@ -0,0 +1,32 @@
+package com.fmi.mailtemplaterbe.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Lock with a lease, which is shared by all app instances. Used for the leadership and for the heartbeats of the
+ * instances, whose locks are named after them.
+ */
+@Entity
+@Table(name = "cluster_locks")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ClusterLockEntity {
+
+    @Id
+    @Column(name = "name", nullable = false)
+    private String name;
+
+    @Column(name = "owner", nullable = false)
+    private String owner;
+
+    @Column(name = "locked_until", nullable = false)
+    private LocalDateTime lockedUntil;
+}
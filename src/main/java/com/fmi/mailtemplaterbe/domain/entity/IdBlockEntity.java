@@ -0,0 +1,27 @@
+package com.fmi.mailtemplaterbe.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/**
+ * Next free id of a table, whose ids are assigned by the app in blocks instead of by the database.
+ */
+@Entity
+@Table(name = "id_blocks")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class IdBlockEntity {
+
+    @Id
+    @Column(name = "name", nullable = false)
+    private String name;
+
+    @Column(name = "next_id", nullable = false)
+    private long nextId;
+}
@@ -0,0 +1,45 @@
+package com.fmi.mailtemplaterbe.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Idempotency key of a send request, together with the send job that the request created.
+ * The key is the primary key, so that a repeated request finds the original one with a single lookup.
+ */
+@Entity
+@Table(
+        name = "idempotency_keys",
+        indexes = {
+                /* The cleanup only touches the expired keys. */
+                @Index(name = "idx_idempotency_keys_expires_at", columnList = "expires_at")
+        })
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class IdempotencyKeyEntity {
+
+    @Id
+    @Column(name = "idempotency_key", nullable = false, length = 255)
+    private String idempotencyKey;
+
+    /* SHA-256 of the operation and the request body, a key cannot be reused for a different request. */
+    @Column(name = "request_hash", nullable = false, length = 64)
+    private String requestHash;
+
+    /* Null while the original request is still creating its send job. */
+    @Column(name = "send_job_id")
+    private Long sendJobId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,81 @@
+package com.fmi.mailtemplaterbe.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Email that has to be sent, stored before it is sent. Only the recipient and the placeholders are kept per email,
+ * everything else that is the same for all recipients is kept in the send job.
+ */
+@Entity
+@Table(
+        name = "outbox",
+        indexes = {
+                /* Draining only touches the due emails, no matter how many were already processed. */
+                @Index(name = "idx_outbox_status_next_attempt_at", columnList = "status, next_attempt_at"),
+                /* Claims are made per send job, so that the jobs can share the pipeline fairly. */
+                @Index(
+                        name = "idx_outbox_send_job_id_status_next_attempt_at",
+                        columnList = "send_job_id, status, next_attempt_at"),
+                /* Leases are renewed and released per app instance. */
+                @Index(name = "idx_outbox_claimed_by_status", columnList = "claimed_by, status"),
+                /* The cleanup only touches the sent and failed emails past the retention. */
+                @Index(name = "idx_outbox_status_updated_at", columnList = "status, updated_at")
+        })
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class OutboxEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    @Column(name = "send_job_id", nullable = false)
+    private Long sendJobId;
+
+    @Column(name = "email_template_id", nullable = false)
+    private Long emailTemplateId;
+
+    @Column(name = "recipient_email", nullable = false)
+    private String recipientEmail;
+
+    /* Placeholders of the recipient as a JSON object. */
+    @Lob
+    @Column(name = "placeholders")
+    private String placeholders;
+
+    @Column(name = "status", nullable = false)
+    private Long status;
+
+    /* Number of attempts that failed with a transient error. */
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "error")
+    private String error;
+
+    /* App instance, which claimed the email. Only meaningful while it is being sent. */
+    @Column(name = "claimed_by")
+    private String claimedBy;
+
+    /* The claim is given back to the outbox after this time, unless the instance renews it. */
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
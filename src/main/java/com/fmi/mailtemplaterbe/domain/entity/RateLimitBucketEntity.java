@@ -0,0 +1,36 @@
+package com.fmi.mailtemplaterbe.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/**
+ * Token bucket, which is shared by all app instances.
+ */
+@Entity
+@Table(name = "rate_limit_buckets")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RateLimitBucketEntity {
+
+    @Id
+    @Column(name = "name", nullable = false)
+    private String name;
+
+    @Column(name = "permits_per_second", nullable = false)
+    private double permitsPerSecond;
+
+    @Column(name = "burst", nullable = false)
+    private int burst;
+
+    @Column(name = "tokens", nullable = false)
+    private double tokens;
+
+    @Column(name = "refilled_at_millis", nullable = false)
+    private long refilledAtMillis;
+}
@@ -16,8 +16,8 @@ import java.time.LocalDateTime;
 @Builder
 public class SendEmailErrorEntity {
 
+    /* Assigned by the IdAllocator, the rows are only inserted by the batched inserts of the EmailHistoryService. */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id", nullable = false)
     private Long id;
 
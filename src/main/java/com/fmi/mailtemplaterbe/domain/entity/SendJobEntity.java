@@ -0,0 +1,87 @@
+package com.fmi.mailtemplaterbe.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "send_jobs")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SendJobEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    @Column(name = "email_template_id", nullable = false)
+    private Long emailTemplateId;
+
+    @Column(name = "status", nullable = false)
+    private Long status;
+
+    /*
+     * Everything that is the same for all emails of the job, so that the job can be resumed from the outbox.
+     * Passwords are never stored, a job with provided credentials cannot be resumed after a restart.
+     */
+    @Column(name = "subject", nullable = false)
+    private String subject;
+
+    @Column(name = "message", nullable = false, length = 2048)
+    private String message;
+
+    @Column(name = "is_html", nullable = false)
+    private boolean html;
+
+    @Column(name = "include_confirmation_link", nullable = false)
+    private boolean includeConfirmationLink;
+
+    @Column(name = "smtp_server_name", nullable = false)
+    private String smtpServerName;
+
+    @Column(name = "sender_email", nullable = false)
+    private String senderEmail;
+
+    @Column(name = "default_credentials", nullable = false)
+    private boolean defaultCredentials;
+
+    /* App instance, which finishes the job. Another instance takes it over, if this one stops. */
+    @Column(name = "owner_node")
+    private String ownerNode;
+
+    /* Lane, which was chosen by the size of the job when it was created. A resumed job stays in it. */
+    @Column(name = "lane")
+    private Long lane;
+
+    @Column(name = "total_count", nullable = false)
+    private int totalCount;
+
+    @Column(name = "sent_count", nullable = false)
+    private int sentCount;
+
+    @Column(name = "failed_count", nullable = false)
+    private int failedCount;
+
+    @Column(name = "error")
+    private String error;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    /* Time for which a scheduled job was requested, in the time zone of the server. */
+    @Column(name = "scheduled_at")
+    private LocalDateTime scheduledAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
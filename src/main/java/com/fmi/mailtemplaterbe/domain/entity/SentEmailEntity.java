@@ -16,8 +16,8 @@ import java.time.LocalDateTime;
 @Builder
 public class SentEmailEntity {
 
+    /* Assigned by the IdAllocator, the rows are only inserted by the batched inserts of the EmailHistoryService. */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id", nullable = false)
     private Long id;
 
@@ -50,4 +50,11 @@ public class SentEmailEntity {
 
     @Column(name = "token", nullable = false)
     private String token;
+
+    @Column(name = "send_job_id")
+    private Long sendJobId;
+
+    /* Number of attempts that it took to send the email or until it failed for good. */
+    @Column(name = "attempts")
+    private Integer attempts;
 }
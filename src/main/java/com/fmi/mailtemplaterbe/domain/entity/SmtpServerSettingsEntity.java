@@ -0,0 +1,36 @@
+package com.fmi.mailtemplaterbe.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+/**
+ * Smtp servers, which were set at runtime and are therefore shared by all app instances. There is a single row.
+ */
+@Entity
+@Table(name = "smtp_server_settings")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SmtpServerSettingsEntity {
+
+    @Id
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    @Column(name = "default_server_name", nullable = false)
+    private String defaultServerName;
+
+    /* All smtp servers as a JSON array. */
+    @Lob
+    @Column(name = "servers", nullable = false)
+    private String servers;
+
+    /* Incremented with every change, so that the instances only rebuild their servers when they changed. */
+    @Column(name = "version", nullable = false)
+    private long version;
+}
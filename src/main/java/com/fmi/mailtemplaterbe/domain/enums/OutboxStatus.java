@@ -0,0 +1,33 @@
+package com.fmi.mailtemplaterbe.domain.enums;
+
+/**
+ * Represents the states of an email from the outbox table.
+ */
+public enum OutboxStatus {
+    PENDING(0L),
+    SENDING(1L),
+    SENT(2L),
+    FAILED(3L),
+    DEFERRED(4L),
+    SCHEDULED(5L);
+
+    private Long value;
+
+    OutboxStatus(Long value) {
+        this.value = value;
+    }
+
+    public Long getValue() {
+        return value;
+    }
+
+    public static OutboxStatus fromValue(Long value) {
+        for (OutboxStatus outboxStatus : OutboxStatus.values()) {
+            if (outboxStatus.getValue().equals(value)) {
+                return outboxStatus;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,11 @@
+package com.fmi.mailtemplaterbe.domain.enums;
+
+/**
+ * Represents the formats of a streamed list of recipients.
+ */
+public enum RecipientsFormat {
+    /* One JSON object per line, e.g. {"email": "john@doe.com", "placeholders": {"name": "John"}} */
+    NDJSON,
+    /* A header line with an "email" column, every other column is a placeholder. */
+    CSV
+}
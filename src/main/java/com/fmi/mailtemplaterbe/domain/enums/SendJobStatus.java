@@ -0,0 +1,34 @@
+package com.fmi.mailtemplaterbe.domain.enums;
+
+/**
+ * Represents the states of a send job from the send_jobs table.
+ */
+public enum SendJobStatus {
+    QUEUED(0L),
+    RUNNING(1L),
+    COMPLETED(2L),
+    FAILED(3L),
+    SCHEDULED(4L),
+    PAUSED(5L),
+    CANCELLED(6L);
+
+    private Long value;
+
+    SendJobStatus(Long value) {
+        this.value = value;
+    }
+
+    public Long getValue() {
+        return value;
+    }
+
+    public static SendJobStatus fromValue(Long value) {
+        for (SendJobStatus sendJobStatus : SendJobStatus.values()) {
+            if (sendJobStatus.getValue().equals(value)) {
+                return sendJobStatus;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,32 @@
+package com.fmi.mailtemplaterbe.domain.enums;
+
+/**
+ * Represents the lanes of the send pipeline. Each lane has its own dispatcher and threads, so the emails of one lane
+ * never wait behind the emails of the other.
+ */
+public enum SendLane {
+    /* Small sends, e.g. a password reset, which should go out right away no matter how much bulk mail is queued. */
+    TRANSACTIONAL(0L),
+    /* Campaigns, which share the lane fairly by the weights of their senders. */
+    BULK(1L);
+
+    private Long value;
+
+    SendLane(Long value) {
+        this.value = value;
+    }
+
+    public Long getValue() {
+        return value;
+    }
+
+    public static SendLane fromValue(Long value) {
+        for (SendLane sendLane : SendLane.values()) {
+            if (sendLane.getValue().equals(value)) {
+                return sendLane;
+            }
+        }
+
+        return null;
+    }
+}
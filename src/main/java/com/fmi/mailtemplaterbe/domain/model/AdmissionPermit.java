@@ -0,0 +1,39 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The share of the admission budgets, which an accepted send job or preview holds until it is released.
+ * Releasing it more than once has no effect.
+ */
+public class AdmissionPermit {
+
+    private final boolean preview;
+    private final AtomicInteger recipientsCount;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    public AdmissionPermit(boolean preview, int recipientsCount) {
+        this.preview = preview;
+        this.recipientsCount = new AtomicInteger(recipientsCount);
+    }
+
+    public boolean isPreview() {
+        return preview;
+    }
+
+    public int getRecipientsCount() {
+        return recipientsCount.get();
+    }
+
+    public void addRecipients(int count) {
+        recipientsCount.addAndGet(count);
+    }
+
+    /**
+     * @return true for the first call only
+     */
+    public boolean markReleased() {
+        return released.compareAndSet(false, true);
+    }
+}
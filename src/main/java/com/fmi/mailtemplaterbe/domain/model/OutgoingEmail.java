@@ -0,0 +1,33 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * Single email of a send job, as it goes through the stages of the send pipeline.
+ * The content is filled by the render stage.
+ */
+@Data
+@AllArgsConstructor
+public class OutgoingEmail {
+
+    private final SendJobContext context;
+    private final Long outboxId;
+    private final String recipientEmail;
+    private final Map<String, String> placeholders;
+    private String content;
+    private String confirmationToken;
+
+    /* Number of attempts to send the email, including the ones before a restart. */
+    private int attempts;
+
+    /* Smtp server of the last attempt, which a routed job avoids for the next one. */
+    private String lastSmtpServerName;
+
+    public OutgoingEmail(
+            SendJobContext context, Long outboxId, String recipientEmail, Map<String, String> placeholders, int attempts) {
+        this(context, outboxId, recipientEmail, placeholders, null, null, attempts, null);
+    }
+}
@@ -0,0 +1,65 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregate of the rendered emails of a preview, which is collected in parallel. Each thread accumulates into its own
+ * instance and the instances are combined at the end, so nothing is shared between the threads.
+ */
+@Getter
+public class PreviewDiagnostics {
+
+    private int recipientCount;
+    private int recipientsWithMissingPlaceholders;
+    /* Name of the placeholder and the number of recipients, which miss it. */
+    private final Map<String, Integer> missingPlaceholders = new HashMap<>();
+    private int maxMessageLength;
+    private String maxMessageLengthRecipientEmail;
+    private long totalMessageLength;
+
+    /**
+     * Add the rendered email of a recipient.
+     *
+     * @param recipientEmail      Email of the recipient.
+     * @param messageLength       Length of the rendered message.
+     * @param missingPlaceholders Placeholders without a value, which are left in the rendered message.
+     */
+    public void add(String recipientEmail, int messageLength, List<String> missingPlaceholders) {
+        recipientCount++;
+        totalMessageLength += messageLength;
+
+        if (maxMessageLengthRecipientEmail == null || messageLength > maxMessageLength) {
+            maxMessageLength = messageLength;
+            maxMessageLengthRecipientEmail = recipientEmail;
+        }
+
+        if (!missingPlaceholders.isEmpty()) {
+            recipientsWithMissingPlaceholders++;
+            missingPlaceholders.stream()
+                    .distinct()
+                    .forEach(name -> this.missingPlaceholders.merge(name, 1, Integer::sum));
+        }
+    }
+
+    /**
+     * Add the recipients of another instance.
+     *
+     * @param other Diagnostics of other recipients.
+     */
+    public void combine(PreviewDiagnostics other) {
+        if (other.maxMessageLengthRecipientEmail != null &&
+            (maxMessageLengthRecipientEmail == null || other.maxMessageLength > maxMessageLength)) {
+            maxMessageLength = other.maxMessageLength;
+            maxMessageLengthRecipientEmail = other.maxMessageLengthRecipientEmail;
+        }
+
+        recipientCount += other.recipientCount;
+        recipientsWithMissingPlaceholders += other.recipientsWithMissingPlaceholders;
+        totalMessageLength += other.totalMessageLength;
+        other.missingPlaceholders.forEach((name, count) -> missingPlaceholders.merge(name, count, Integer::sum));
+    }
+}
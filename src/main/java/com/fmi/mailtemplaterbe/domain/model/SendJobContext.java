@@ -0,0 +1,199 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import com.fmi.mailtemplaterbe.domain.enums.SendLane;
+import com.fmi.mailtemplaterbe.util.CompiledTemplate;
+import com.fmi.mailtemplaterbe.util.MimeMessageTemplate;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Everything that the stages of the send pipeline need to know about a send job, which is the same for all recipients.
+ * Also tracks how many emails of the job were already processed.
+ */
+@Getter
+@Builder
+public class SendJobContext {
+
+    private final Long sendJobId;
+    private final Long emailTemplateId;
+    private final String subject;
+    private final String message;
+    private final CompiledTemplate compiledMessage;
+    /* Part of the confirmation link, which is the same for all recipients. Null if it cannot be precomputed. */
+    private final String confirmationLinkPrefix;
+    /* Headers of the messages, which are the same for all recipients, encoded once. */
+    private final MimeMessageTemplate mimeMessageTemplate;
+    private final boolean html;
+    private final boolean includeConfirmationLink;
+    private final String smtpServerName;
+    private final String username;
+    private final String password;
+    private final SendLane lane;
+
+    /*
+     * True if other app instances send emails of the job too. The instance does not see all results then, so the job
+     * is completed by the dispatcher, once the outbox has no unfinished emails of it.
+     */
+    private final boolean shared;
+
+    /* True if the job belongs to another app instance, this one only helps sending it. */
+    private final boolean remote;
+
+    /* Number of emails of the job, which have to be processed before the job is complete. */
+    private final int totalCount;
+
+    /* True while emails are still added to the job, e.g. from a streamed request. The job cannot complete before. */
+    private volatile boolean submissionOpen;
+
+    /* True while the emails of a scheduled job wait for the scheduler, the dispatcher has nothing to claim before. */
+    private volatile boolean awaitingSchedule;
+
+    /* True while the job is paused. Its emails stay in the outbox, the pipeline hands back the ones it already had. */
+    private volatile boolean paused;
+
+    private final AtomicInteger addedCount = new AtomicInteger();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+
+    /* Templates for the accounts of route members, which send with another address than the job. */
+    private final ConcurrentMap<String, MimeMessageTemplate> mimeMessageTemplatesBySender = new ConcurrentHashMap<>();
+
+    /**
+     * Get the template of the messages, which are sent from an address. The one of the job, unless a route member
+     * sends with its own account.
+     *
+     * @param from Email address of the sender.
+     * @return template
+     */
+    public MimeMessageTemplate getMimeMessageTemplate(String from) {
+        if (from == null || from.equals(username)) {
+            return mimeMessageTemplate;
+        }
+
+        return mimeMessageTemplatesBySender.computeIfAbsent(
+                from, sender -> MimeMessageTemplate.create(sender, subject, html));
+    }
+
+    /**
+     * Called once for each email of the job, when it was either sent or failed.
+     *
+     * @param sentSuccessfully True if the email was sent successfully and false otherwise.
+     */
+    public void completeEmail(boolean sentSuccessfully) {
+        if (sentSuccessfully) {
+            sentCount.incrementAndGet();
+        }
+
+        if (completedCount.incrementAndGet() >= getTotalCount() && !submissionOpen && !shared) {
+            completion.complete(sentCount.get());
+        }
+    }
+
+    /**
+     * Complete the job right away if it has no emails.
+     */
+    public void completeIfEmpty() {
+        if (getTotalCount() <= 0 && !submissionOpen && !shared) {
+            completion.complete(0);
+        }
+    }
+
+    /**
+     * Add emails to a job, whose submission is still open.
+     *
+     * @param count Number of added emails.
+     */
+    public void addEmails(int count) {
+        addedCount.addAndGet(count);
+    }
+
+    /**
+     * Called once all emails were added to the job. Completes the job if they were already processed.
+     */
+    public void closeSubmission() {
+        submissionOpen = false;
+
+        if (completedCount.get() >= getTotalCount() && !shared) {
+            completion.complete(sentCount.get());
+        }
+    }
+
+    /**
+     * Complete a shared job, whose emails were all processed by the app instances.
+     *
+     * @param sentCount Number of emails of the job, which were sent successfully.
+     */
+    public void completeShared(int sentCount) {
+        completion.complete(sentCount);
+    }
+
+    /**
+     * Called when the scheduler released emails of the job. From then on the job can also have due emails in the
+     * outbox, e.g. deferred ones.
+     */
+    public void onScheduledEmailsReleased() {
+        awaitingSchedule = false;
+    }
+
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    public int getTotalCount() {
+        return totalCount + addedCount.get();
+    }
+
+    /**
+     * Register an action that runs once the job is complete or aborted.
+     *
+     * @param action Action, which gets the error of an aborted job or null.
+     */
+    public void whenComplete(Consumer<Throwable> action) {
+        completion.whenComplete((sent, error) -> action.accept(error));
+    }
+
+    /**
+     * Stop the job. The emails that are still in the pipeline are dropped without being sent.
+     *
+     * @param cause The reason for stopping the job, which is thrown to the waiting caller.
+     */
+    public void abort(RuntimeException cause) {
+        completion.completeExceptionally(cause);
+    }
+
+    public boolean isAborted() {
+        return completion.isCompletedExceptionally();
+    }
+
+    /**
+     * Wait until all emails of the job went through the pipeline.
+     *
+     * @return number of successfully sent emails
+     */
+    public int awaitCompletion() {
+        try {
+            return completion.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for send job " + sendJobId + ".", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
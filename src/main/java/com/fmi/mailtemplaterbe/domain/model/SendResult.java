@@ -0,0 +1,61 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import com.fmi.mailtemplaterbe.domain.enums.EmailErrorCategory;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of an attempt to send an email, which is handed to the history stage of the send pipeline.
+ */
+@Data
+@AllArgsConstructor
+public class SendResult {
+
+    private final OutgoingEmail email;
+    private final String sender;
+    private final Outcome outcome;
+    private final String error;
+    private final EmailErrorCategory errorCategory;
+
+    public static SendResult success(OutgoingEmail email, String sender) {
+        return new SendResult(email, sender, Outcome.SENT, null, null);
+    }
+
+    public static SendResult failure(OutgoingEmail email, String sender, String error, EmailErrorCategory errorCategory) {
+        return new SendResult(email, sender, Outcome.FAILED, error, errorCategory);
+    }
+
+    public static SendResult retry(OutgoingEmail email, String sender, String error, EmailErrorCategory errorCategory) {
+        return new SendResult(email, sender, Outcome.RETRY, error, errorCategory);
+    }
+
+    public static SendResult deferred(OutgoingEmail email, String sender) {
+        return new SendResult(email, sender, Outcome.DEFERRED, null, null);
+    }
+
+    public static SendResult released(OutgoingEmail email, String sender) {
+        return new SendResult(email, sender, Outcome.RELEASED, null, null);
+    }
+
+    public boolean isSentSuccessfully() {
+        return outcome == Outcome.SENT;
+    }
+
+    /**
+     * Whether this is the last result of the email. Only final results are written to the history.
+     */
+    public boolean isFinal() {
+        return outcome == Outcome.SENT || outcome == Outcome.FAILED;
+    }
+
+    public enum Outcome {
+        SENT,
+        FAILED,
+        /* Failed with a transient error, the email is attempted again after a backoff. */
+        RETRY,
+        /* Not attempted, the email stays in the outbox for later. */
+        DEFERRED,
+        /* Not attempted, because its job was paused. The email is due again right away, once the job is resumed. */
+        RELEASED
+    }
+}
@@ -0,0 +1,17 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import com.fmi.mailtemplaterbe.domain.entity.SendEmailErrorEntity;
+import com.fmi.mailtemplaterbe.domain.entity.SentEmailEntity;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * History of a single sent email: the sent email itself and the error of a failed email.
+ */
+@Data
+@AllArgsConstructor
+public class SentEmailRecord {
+
+    private final SentEmailEntity sentEmail;
+    private final SendEmailErrorEntity sendEmailError; /* Optional */
+}
@@ -0,0 +1,23 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import javax.mail.Session;
+import java.util.Properties;
+
+/**
+ * Smtp server from the configuration, together with everything that is needed to connect to it,
+ * so that nothing has to be computed per message.
+ * The session has no authenticator - the credentials are passed when a transport is connected.
+ */
+@Getter
+@AllArgsConstructor
+public class SmtpServerDescriptor {
+
+    private final String name;
+    private final SmtpConfiguration.SmtpServer server;
+    private final Properties properties;
+    private final Session session;
+}
@@ -0,0 +1,48 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the configured smtp servers, indexed by their lower case name.
+ * A changed configuration results in a new registry, so a reader always sees one consistent version.
+ */
+public class SmtpServerRegistry {
+
+    private final Map<String, SmtpServerDescriptor> descriptors;
+    private final List<SmtpServerDescriptor> orderedDescriptors;
+    private final SmtpServerDescriptor defaultDescriptor;
+
+    public SmtpServerRegistry(
+            Map<String, SmtpServerDescriptor> descriptors,
+            List<SmtpServerDescriptor> orderedDescriptors,
+            SmtpServerDescriptor defaultDescriptor) {
+        this.descriptors = Collections.unmodifiableMap(descriptors);
+        this.orderedDescriptors = Collections.unmodifiableList(orderedDescriptors);
+        this.defaultDescriptor = defaultDescriptor;
+    }
+
+    /**
+     * Get a smtp server by its name, ignoring the case.
+     *
+     * @param smtpServerName Name of the smtp server.
+     * @return smtp server or null if there is no such server
+     */
+    public SmtpServerDescriptor get(String smtpServerName) {
+        return smtpServerName != null ? descriptors.get(smtpServerName.toLowerCase()) : null;
+    }
+
+    public SmtpServerDescriptor getDefault() {
+        return defaultDescriptor;
+    }
+
+    /**
+     * Get all smtp servers in the order of the configuration.
+     *
+     * @return smtp servers
+     */
+    public List<SmtpServerDescriptor> getAll() {
+        return orderedDescriptors;
+    }
+}
@@ -0,0 +1,21 @@
+package com.fmi.mailtemplaterbe.domain.model;
+
+import com.fmi.mailtemplaterbe.util.CircuitBreaker;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Smtp server and account, which the router picked for a single send.
+ * The send holds a permit of the circuit breaker, which has to be given back with its outcome.
+ */
+@Getter
+@AllArgsConstructor
+public class SmtpTarget {
+
+    private final String smtpServerName;
+    private final String username;
+    private final String password;
+    /* True if the account belongs to a route member, rather than to the send job. */
+    private final boolean memberAccount;
+    private final CircuitBreaker circuitBreaker;
+}
@@ -0,0 +1,22 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class AdmissionResource {
+
+    private int concurrentJobs;
+    private int maxConcurrentJobs;
+    private int inFlightRecipients;
+    private int maxInFlightRecipients;
+    private int concurrentPreviews;
+    private int maxConcurrentPreviews;
+    private long rejectedRequests; /* Since the start of the app */
+    private long tooLargeRequests; /* Since the start of the app */
+}
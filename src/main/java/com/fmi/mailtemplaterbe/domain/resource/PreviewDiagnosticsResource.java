@@ -0,0 +1,25 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Summary of the rendered emails of all recipients of a preview, not only the ones of the returned page.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PreviewDiagnosticsResource {
+
+    private int recipientCount;
+    private int recipientsWithMissingPlaceholders;
+    private Map<String, Integer> missingPlaceholders; /* Placeholder name -> number of recipients, which miss it */
+    private int maxMessageLength;
+    private String maxMessageLengthRecipientEmail;
+    private int averageMessageLength;
+}
@@ -0,0 +1,21 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PreviewEmailsPageResource {
+
+    private List<RecipientEmailPreview> previews;
+    private Integer page; /* Null for a sample */
+    private Integer size; /* Null for a sample */
+    private Integer sample; /* Null for a page */
+    private PreviewDiagnosticsResource diagnostics;
+}
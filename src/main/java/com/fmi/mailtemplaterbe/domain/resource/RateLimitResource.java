@@ -0,0 +1,24 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.Positive;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RateLimitResource {
+
+    private String name;
+
+    @Positive(message = "permitsPerSecond must be positive")
+    private double permitsPerSecond;
+
+    @Min(value = 1, message = "burst must be at least 1")
+    private int burst;
+}
@@ -0,0 +1,19 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RateLimitsResource {
+
+    private String mode;
+    private List<RateLimitResource> servers;
+    private List<RateLimitResource> domains;
+}
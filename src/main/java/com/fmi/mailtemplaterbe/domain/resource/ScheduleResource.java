@@ -0,0 +1,27 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+/**
+ * Model that is used for scheduling the emails of a send job, instead of sending them right away.
+ * With recipientLocalTime, each recipient gets the email at sendAt in its own time zone, which is taken from its
+ * "timezone" placeholder (e.g. Europe/Sofia). Recipients without one use the time zone of the schedule.
+ * Times that already passed are sent right away.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ScheduleResource {
+
+    @NotNull(message = "sendAt must not be null")
+    private LocalDateTime sendAt;
+
+    private String timezone; /* Optional, the time zone of the server if not provided */
+
+    private Boolean recipientLocalTime; /* Optional, false if not provided */
+}
@@ -23,4 +23,8 @@ public class SendEmailResource extends EmailTemplateResource {
 
     @Valid
     private CredentialsResource credentials;
+
+    /* Optional, the emails are sent right away if it is not provided. */
+    @Valid
+    private ScheduleResource schedule;
 }
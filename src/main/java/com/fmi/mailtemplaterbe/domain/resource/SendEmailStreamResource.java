@@ -0,0 +1,26 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Model that is used for the request parameters of a streamed send, whose recipients are in the request body.
+ * The subject and the message are the ones of the stored email template.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SendEmailStreamResource {
+
+    @NotNull(message = "emailTemplateId must not be null")
+    private Long emailTemplateId;
+
+    @NotNull(message = "isHtml must not be null")
+    private Boolean isHtml;
+
+    @NotNull(message = "includeConfirmationLink must not be null")
+    private Boolean includeConfirmationLink;
+}
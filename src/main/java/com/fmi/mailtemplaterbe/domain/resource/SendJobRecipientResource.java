@@ -0,0 +1,21 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of a send job for a single recipient.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SendJobRecipientResource {
+
+    private String email;
+    private boolean sentSuccessfully;
+    private Integer attempts;
+    private String errorMessage; /* Optional */
+}
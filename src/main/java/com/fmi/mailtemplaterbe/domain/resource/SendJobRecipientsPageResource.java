@@ -0,0 +1,23 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Page of the outcomes of a send job for its recipients.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SendJobRecipientsPageResource {
+
+    private List<SendJobRecipientResource> recipients;
+    private int page;
+    private int size;
+    private long total; /* Recipients that were already processed */
+}
@@ -0,0 +1,31 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Counts of a send job. The outcomes for the recipients are paged separately, see SendJobRecipientsPageResource.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SendJobResource {
+
+    private Long id;
+    private Long emailTemplateId;
+    private String status;
+    private int total;
+    private int sent;
+    private int failed;
+    private int pending;
+    private String error; /* Optional */
+    private LocalDateTime createdAt;
+    private LocalDateTime scheduledAt; /* Optional, only for scheduled jobs */
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,44 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Model that is used for sending a stored email template to the members of recipient groups.
+ * The placeholders of each recipient are filled from its fields (email, firstName, lastName, phoneNumber, address),
+ * together with the optional custom placeholders for its id, which take precedence.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SendToRecipientGroupsResource {
+
+    @NotNull(message = "emailTemplateId must not be null")
+    private Long emailTemplateId;
+
+    @NotEmpty(message = "recipientGroupIds must not be empty")
+    private List<Long> recipientGroupIds;
+
+    @NotNull(message = "isHtml must not be null")
+    private Boolean isHtml;
+
+    @NotNull(message = "includeConfirmationLink must not be null")
+    private Boolean includeConfirmationLink;
+
+    /* Custom placeholders by recipient id. */
+    private Map<Long, Map<String, String>> recipientPlaceholders;
+
+    @Valid
+    private CredentialsResource credentials;
+
+    /* Optional, the emails are sent right away if it is not provided. */
+    @Valid
+    private ScheduleResource schedule;
+}
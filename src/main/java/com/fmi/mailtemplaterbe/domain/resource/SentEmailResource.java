@@ -16,5 +16,6 @@ public class SentEmailResource {
     private boolean sentSuccessfully;
     private LocalDateTime timestamp;
     private Long confirmation;
+    private Integer attempts;
     private String errorMessage; /* Optional */
 }
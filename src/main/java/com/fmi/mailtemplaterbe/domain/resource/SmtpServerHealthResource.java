@@ -0,0 +1,24 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SmtpServerHealthResource {
+
+    private String smtpServerName;
+    private String username; /* Optional, only for the accounts of route members */
+    private String state;
+    private double failureRate;
+    private Double averageLatencyMillis; /* Optional, null before the first send */
+    private long totalSends;
+    private long totalFailures;
+    private LocalDateTime openUntil; /* Optional, only while the breaker is open */
+}
@@ -0,0 +1,27 @@
+package com.fmi.mailtemplaterbe.domain.resource;
+
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * Complete smtp server configuration, which replaces the current one at runtime.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SmtpServersResource {
+
+    @NotBlank(message = "defaultServerName must not be blank")
+    private String defaultServerName;
+
+    @NotEmpty(message = "servers must not be empty")
+    private List<SmtpConfiguration.SmtpServer> servers;
+}
@@ -0,0 +1,18 @@
+package com.fmi.mailtemplaterbe.exception;
+
+import com.fmi.mailtemplaterbe.exception.error.ErrorDetails;
+import lombok.Data;
+
+@Data
+public class AdmissionRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = -2281793150613240575L;
+    private ErrorDetails errorDetails;
+    private long retryAfterSeconds;
+
+    public AdmissionRejectedException(ErrorDetails errorDetails, long retryAfterSeconds) {
+        super(errorDetails.getMessage());
+        this.errorDetails = errorDetails;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,16 @@
+package com.fmi.mailtemplaterbe.exception;
+
+import com.fmi.mailtemplaterbe.exception.error.ErrorDetails;
+import lombok.Data;
+
+@Data
+public class IdempotencyKeyConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 3390917205548153271L;
+    private ErrorDetails errorDetails;
+
+    public IdempotencyKeyConflictException(ErrorDetails errorDetails) {
+        super(errorDetails.getMessage());
+        this.errorDetails = errorDetails;
+    }
+}
@@ -0,0 +1,16 @@
+package com.fmi.mailtemplaterbe.exception;
+
+import com.fmi.mailtemplaterbe.exception.error.ErrorDetails;
+import lombok.Data;
+
+@Data
+public class SendJobNotFoundException extends RuntimeException {
+
+    private static final long serialVersionUID = 5811318170930462115L;
+    private ErrorDetails errorDetails;
+
+    public SendJobNotFoundException(ErrorDetails errorDetails) {
+        super(errorDetails.getMessage());
+        this.errorDetails = errorDetails;
+    }
+}
@@ -79,6 +79,30 @@ public class RestExceptionHandler extends ResponseEntityExceptionHandler {
         return handleExceptionInternal(ex, errorDetails, new HttpHeaders(), errorDetails.getHttpStatus(), request);
     }
 
+    @ExceptionHandler(value = {SendJobNotFoundException.class })
+    protected ResponseEntity<Object> handleSendJobNotFound(SendJobNotFoundException ex, WebRequest request) {
+        ErrorDetails errorDetails = ex.getErrorDetails();
+
+        return handleExceptionInternal(ex, errorDetails, new HttpHeaders(), errorDetails.getHttpStatus(), request);
+    }
+
+    @ExceptionHandler(value = {IdempotencyKeyConflictException.class })
+    protected ResponseEntity<Object> handleIdempotencyKeyConflict(IdempotencyKeyConflictException ex, WebRequest request) {
+        ErrorDetails errorDetails = ex.getErrorDetails();
+
+        return handleExceptionInternal(ex, errorDetails, new HttpHeaders(), errorDetails.getHttpStatus(), request);
+    }
+
+    @ExceptionHandler(value = {AdmissionRejectedException.class })
+    protected ResponseEntity<Object> handleAdmissionRejected(AdmissionRejectedException ex, WebRequest request) {
+        ErrorDetails errorDetails = ex.getErrorDetails();
+        HttpHeaders headers = new HttpHeaders();
+
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+
+        return handleExceptionInternal(ex, errorDetails, headers, errorDetails.getHttpStatus(), request);
+    }
+
 //    @Override
 //    protected ResponseEntity<Object> handleExceptionInternal(
 //            Exception ex, @Nullable Object body, HttpHeaders headers, HttpStatus status, WebRequest request) {
@@ -0,0 +1,179 @@
+package com.fmi.mailtemplaterbe.filter;
+
+import com.fmi.mailtemplaterbe.config.AdmissionConfiguration;
+import com.fmi.mailtemplaterbe.service.AdmissionService;
+import com.fmi.mailtemplaterbe.service.ClusterService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Sheds load on the send and preview endpoints before the request body is read and bound:
+ * <p></p>
+ * 1. requests are rejected with 429 while all slots of their kind are taken.
+ * <p></p>
+ * 2. bodies above the max size are rejected with 413, by their Content-Length or, for chunked bodies, as soon as
+ * more bytes were read.
+ * <p></p>
+ * The exact admission, which needs the number of recipients, is made by the service after binding.
+ * An instance, which only sends emails in a cluster, rejects the requests with 503.
+ */
+@Component
+@RequiredArgsConstructor
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private static final String SEND_EMAILS_PATH = "/send-emails";
+    private static final String SEND_EMAILS_STREAM_PATH = "/send-emails/stream";
+    private static final String SEND_EMAILS_TO_RECIPIENT_GROUPS_PATH = "/send-emails/recipient-groups";
+    private static final String PREVIEW_EMAILS_PATH = "/preview-emails";
+
+    private final AdmissionConfiguration admissionConfiguration;
+    private final AdmissionService admissionService;
+    private final ClusterService clusterService;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        final String path = request.getServletPath();
+
+        return !HttpMethod.POST.matches(request.getMethod()) ||
+               !(SEND_EMAILS_PATH.equals(path) ||
+                 SEND_EMAILS_STREAM_PATH.equals(path) ||
+                 SEND_EMAILS_TO_RECIPIENT_GROUPS_PATH.equals(path) ||
+                 PREVIEW_EMAILS_PATH.equals(path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        final String path = request.getServletPath();
+
+        if (!clusterService.isApi()) {
+            response.sendError(
+                    HttpStatus.SERVICE_UNAVAILABLE.value(), "This instance does not accept send or preview requests.");
+            return;
+        }
+
+        if (!admissionService.hasCapacity(PREVIEW_EMAILS_PATH.equals(path))) {
+            admissionService.recordRejected();
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(admissionService.getRetryAfterSeconds()));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "The service is busy, please try again later.");
+            return;
+        }
+
+        if (SEND_EMAILS_STREAM_PATH.equals(path)) {
+            /* Streamed bodies are read chunk by chunk, so their size does not matter. */
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        final long maxRequestBytes = admissionConfiguration.getMaxRequestBytes();
+        final long contentLength = request.getContentLengthLong();
+
+        if (contentLength > maxRequestBytes) {
+            admissionService.recordTooLarge();
+            response.sendError(
+                    HttpStatus.PAYLOAD_TOO_LARGE.value(),
+                    "Request body is larger than " + maxRequestBytes + " bytes.");
+            return;
+        }
+
+        filterChain.doFilter(
+                contentLength < 0 ? new SizeLimitedRequest(request, maxRequestBytes, admissionService) : request,
+                response);
+    }
+
+    /* A chunked body, whose size is only known once it was read. */
+    private static class SizeLimitedRequest extends HttpServletRequestWrapper {
+
+        private final long maxBytes;
+        private final AdmissionService admissionService;
+        private ServletInputStream inputStream;
+
+        SizeLimitedRequest(HttpServletRequest request, long maxBytes, AdmissionService admissionService) {
+            super(request);
+            this.maxBytes = maxBytes;
+            this.admissionService = admissionService;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                inputStream = new SizeLimitedInputStream(super.getInputStream(), maxBytes, admissionService);
+            }
+
+            return inputStream;
+        }
+    }
+
+    private static class SizeLimitedInputStream extends ServletInputStream {
+
+        private final ServletInputStream delegate;
+        private final long maxBytes;
+        private final AdmissionService admissionService;
+        private long readBytes;
+
+        SizeLimitedInputStream(ServletInputStream delegate, long maxBytes, AdmissionService admissionService) {
+            this.delegate = delegate;
+            this.maxBytes = maxBytes;
+            this.admissionService = admissionService;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = delegate.read();
+
+            if (b >= 0) {
+                count(1);
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final int read = delegate.read(buffer, offset, length);
+
+            if (read > 0) {
+                count(read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            delegate.setReadListener(readListener);
+        }
+
+        private void count(int bytes) throws IOException {
+            readBytes += bytes;
+
+            if (readBytes > maxBytes) {
+                admissionService.recordTooLarge();
+                throw new IOException("Request body is larger than " + maxBytes + " bytes.");
+            }
+        }
+    }
+}
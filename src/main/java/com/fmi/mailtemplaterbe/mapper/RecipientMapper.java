@@ -1,10 +1,20 @@
 package com.fmi.mailtemplaterbe.mapper;
 
 import com.fmi.mailtemplaterbe.domain.entity.RecipientEntity;
+import com.fmi.mailtemplaterbe.domain.resource.Recipient;
 import com.fmi.mailtemplaterbe.domain.resource.RecipientResource;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public final class RecipientMapper {
 
+    private static final String EMAIL_PLACEHOLDER = "email";
+    private static final String FIRST_NAME_PLACEHOLDER = "firstName";
+    private static final String LAST_NAME_PLACEHOLDER = "lastName";
+    private static final String PHONE_NUMBER_PLACEHOLDER = "phoneNumber";
+    private static final String ADDRESS_PLACEHOLDER = "address";
+
     private RecipientMapper() {
 
     }
@@ -38,4 +48,43 @@ public final class RecipientMapper {
                 .address(recipientResource.getAddress())
                 .build();
     }
+
+    /**
+     * Map a stored recipient to the recipient of an email. Its fields become placeholders with the same names,
+     * fields without a value are left out, so that they show up as missing placeholders.
+     *
+     * @param recipientEntity    The stored recipient.
+     * @param customPlaceholders Additional placeholders, which override the fields. May be null.
+     * @return recipient of an email
+     */
+    public static Recipient entityToRecipient(RecipientEntity recipientEntity, Map<String, String> customPlaceholders) {
+        if (recipientEntity == null) {
+            return null;
+        }
+
+        final Map<String, String> placeholders = new HashMap<>();
+
+        putIfNotNull(placeholders, EMAIL_PLACEHOLDER, recipientEntity.getEmail());
+        putIfNotNull(placeholders, FIRST_NAME_PLACEHOLDER, recipientEntity.getFirstName());
+        putIfNotNull(placeholders, LAST_NAME_PLACEHOLDER, recipientEntity.getLastName());
+        putIfNotNull(placeholders, PHONE_NUMBER_PLACEHOLDER, recipientEntity.getPhoneNumber());
+        putIfNotNull(placeholders, ADDRESS_PLACEHOLDER, recipientEntity.getAddress());
+
+        if (customPlaceholders != null) {
+            placeholders.putAll(customPlaceholders);
+        }
+
+        final Recipient recipient = new Recipient();
+
+        recipient.setEmail(recipientEntity.getEmail());
+        recipient.setPlaceholders(placeholders);
+
+        return recipient;
+    }
+
+    private static void putIfNotNull(Map<String, String> placeholders, String name, String value) {
+        if (value != null) {
+            placeholders.put(name, value);
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package com.fmi.mailtemplaterbe.mapper;
+
+import com.fmi.mailtemplaterbe.domain.entity.SendJobEntity;
+import com.fmi.mailtemplaterbe.domain.enums.SendJobStatus;
+import com.fmi.mailtemplaterbe.domain.resource.SendJobRecipientResource;
+import com.fmi.mailtemplaterbe.domain.resource.SendJobResource;
+import com.fmi.mailtemplaterbe.domain.resource.SentEmailResource;
+
+public final class SendJobMapper {
+
+    private SendJobMapper() {
+
+    }
+
+    public static SendJobResource entityToResource(SendJobEntity sendJobEntity) {
+        if (sendJobEntity == null) {
+            return null;
+        }
+
+        final SendJobStatus status = SendJobStatus.fromValue(sendJobEntity.getStatus());
+
+        return SendJobResource.builder()
+                .id(sendJobEntity.getId())
+                .emailTemplateId(sendJobEntity.getEmailTemplateId())
+                .status(status != null ? status.name() : null)
+                .total(sendJobEntity.getTotalCount())
+                .sent(sendJobEntity.getSentCount())
+                .failed(sendJobEntity.getFailedCount())
+                .pending(Math.max(
+                        0, sendJobEntity.getTotalCount() - sendJobEntity.getSentCount() - sendJobEntity.getFailedCount()))
+                .error(sendJobEntity.getError())
+                .createdAt(sendJobEntity.getCreatedAt())
+                .scheduledAt(sendJobEntity.getScheduledAt())
+                .startedAt(sendJobEntity.getStartedAt())
+                .finishedAt(sendJobEntity.getFinishedAt())
+                .build();
+    }
+
+    public static SendJobRecipientResource sentEmailToRecipientResource(SentEmailResource sentEmailResource) {
+        if (sentEmailResource == null) {
+            return null;
+        }
+
+        return SendJobRecipientResource.builder()
+                .email(sentEmailResource.getRecipientEmail())
+                .sentSuccessfully(sentEmailResource.isSentSuccessfully())
+                .attempts(sentEmailResource.getAttempts())
+                .errorMessage(sentEmailResource.getErrorMessage())
+                .build();
+    }
+}
@@ -25,6 +25,7 @@ public final class SentEmailMapper {
                 /* Mapping of sendEmailErrorId is unnecessary. */
                 .timestamp(sentEmailEntity.getTimestamp())
                 .confirmation(sentEmailEntity.getConfirmation())
+                .attempts(sentEmailEntity.getAttempts())
                 /* Mapping of confirmation token is unnecessary. */
                 /* Mapping of errorMessage is done separately. */
                 .build();
@@ -44,6 +45,7 @@ public final class SentEmailMapper {
                 .sentSuccessfully(sentEmailResource.isSentSuccessfully())
                 .timestamp(sentEmailResource.getTimestamp())
                 .confirmation(sentEmailResource.getConfirmation())
+                .attempts(sentEmailResource.getAttempts())
                 /* Mapping of confirmation token is unnecessary. */
                 .build();
     }
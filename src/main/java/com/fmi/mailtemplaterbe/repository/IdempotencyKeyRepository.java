@@ -0,0 +1,9 @@
+package com.fmi.mailtemplaterbe.repository;
+
+import com.fmi.mailtemplaterbe.domain.entity.IdempotencyKeyEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKeyEntity, String> {
+}
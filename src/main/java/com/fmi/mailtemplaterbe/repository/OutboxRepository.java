@@ -0,0 +1,148 @@
+package com.fmi.mailtemplaterbe.repository;
+
+import com.fmi.mailtemplaterbe.domain.entity.OutboxEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxRepository extends JpaRepository<OutboxEntity, Long> {
+
+    List<OutboxEntity> findAllBySendJobIdAndStatusInAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(
+            Long sendJobId, Collection<Long> statuses, LocalDateTime now, Pageable pageable);
+
+    /* Rows that another app instance is claiming right now are skipped instead of waited for. Needs MySQL 8. */
+    @Query(value = "SELECT * FROM outbox WHERE send_job_id = :sendJobId AND status IN (:statuses) " +
+                   "AND next_attempt_at <= :now ORDER BY next_attempt_at LIMIT :limit FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<OutboxEntity> findDueBySendJobIdForUpdateSkipLocked(
+            @Param("sendJobId") Long sendJobId,
+            @Param("statuses") Collection<Long> statuses,
+            @Param("now") LocalDateTime now,
+            @Param("limit") int limit);
+
+    /* Keyset pagination by (next_attempt_at, id), which follows the status index. */
+    @Query("select o from OutboxEntity o where o.status = :status and o.nextAttemptAt <= :until and " +
+           "(o.nextAttemptAt > :afterNextAttemptAt or (o.nextAttemptAt = :afterNextAttemptAt and o.id > :afterId)) " +
+           "order by o.nextAttemptAt, o.id")
+    List<OutboxEntity> findAllByStatusAfter(
+            @Param("status") Long status,
+            @Param("until") LocalDateTime until,
+            @Param("afterNextAttemptAt") LocalDateTime afterNextAttemptAt,
+            @Param("afterId") Long afterId,
+            Pageable pageable);
+
+    @Query("select o from OutboxEntity o where o.sendJobId = :sendJobId and o.status = :status and " +
+           "(o.nextAttemptAt > :afterNextAttemptAt or (o.nextAttemptAt = :afterNextAttemptAt and o.id > :afterId)) " +
+           "and " +
+           "(o.nextAttemptAt < :untilNextAttemptAt or (o.nextAttemptAt = :untilNextAttemptAt and o.id <= :untilId)) " +
+           "order by o.nextAttemptAt, o.id")
+    List<OutboxEntity> findAllBySendJobIdAndStatusBetween(
+            @Param("sendJobId") Long sendJobId,
+            @Param("status") Long status,
+            @Param("afterNextAttemptAt") LocalDateTime afterNextAttemptAt,
+            @Param("afterId") Long afterId,
+            @Param("untilNextAttemptAt") LocalDateTime untilNextAttemptAt,
+            @Param("untilId") Long untilId,
+            Pageable pageable);
+
+    @Query("select distinct o.sendJobId from OutboxEntity o where o.status in :statuses")
+    List<Long> findSendJobIdsByStatusIn(@Param("statuses") Collection<Long> statuses);
+
+    long countBySendJobIdAndStatusIn(Long sendJobId, Collection<Long> statuses);
+
+    long countByStatus(Long status);
+
+    @Query("select o.sendJobId, o.status, count(o) from OutboxEntity o where o.sendJobId in :sendJobIds " +
+           "group by o.sendJobId, o.status")
+    List<Object[]> countBySendJobIdInGroupByStatus(@Param("sendJobIds") Collection<Long> sendJobIds);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.status = :status, o.claimedBy = :claimedBy, " +
+           "o.leaseExpiresAt = :leaseExpiresAt, o.updatedAt = :now where o.id in :ids")
+    int claimByIds(
+            @Param("ids") Collection<Long> ids,
+            @Param("status") Long status,
+            @Param("claimedBy") String claimedBy,
+            @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.leaseExpiresAt = :leaseExpiresAt " +
+           "where o.claimedBy = :claimedBy and o.status = :status")
+    int renewLeases(
+            @Param("claimedBy") String claimedBy,
+            @Param("status") Long status,
+            @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.status = :status, o.claimedBy = null, o.leaseExpiresAt = null, " +
+           "o.updatedAt = :now where o.status = :expectedStatus and (o.leaseExpiresAt < :now or o.leaseExpiresAt is null)")
+    int releaseExpiredLeases(
+            @Param("expectedStatus") Long expectedStatus,
+            @Param("status") Long status,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.status = :status, o.claimedBy = null, o.leaseExpiresAt = null, " +
+           "o.updatedAt = :now where o.claimedBy = :claimedBy and o.status = :expectedStatus")
+    int releaseByClaimedBy(
+            @Param("claimedBy") String claimedBy,
+            @Param("expectedStatus") Long expectedStatus,
+            @Param("status") Long status,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.status = :status, o.error = :error, o.updatedAt = :now where o.id in :ids")
+    int updateStatusByIds(
+            @Param("ids") Collection<Long> ids,
+            @Param("status") Long status,
+            @Param("error") String error,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.status = :status, o.updatedAt = :now " +
+           "where o.id in :ids and o.status in :expectedStatuses")
+    int updateStatusByIdsAndStatusIn(
+            @Param("ids") Collection<Long> ids,
+            @Param("expectedStatuses") Collection<Long> expectedStatuses,
+            @Param("status") Long status,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.attempts = o.attempts + 1, o.updatedAt = :now where o.id in :ids")
+    int incrementAttemptsByIds(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.status = :status, o.nextAttemptAt = :nextAttemptAt, o.updatedAt = :now " +
+           "where o.id in :ids")
+    int deferByIds(
+            @Param("ids") Collection<Long> ids,
+            @Param("status") Long status,
+            @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.status = :status, o.error = :error, o.updatedAt = :now " +
+           "where o.sendJobId = :sendJobId and o.status in :expectedStatuses")
+    int updateStatusBySendJobIdAndStatusIn(
+            @Param("sendJobId") Long sendJobId,
+            @Param("expectedStatuses") Collection<Long> expectedStatuses,
+            @Param("status") Long status,
+            @Param("error") String error,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("update OutboxEntity o set o.status = :status, o.updatedAt = :now where o.status = :expectedStatus")
+    int updateStatusByStatus(
+            @Param("expectedStatus") Long expectedStatus,
+            @Param("status") Long status,
+            @Param("now") LocalDateTime now);
+}
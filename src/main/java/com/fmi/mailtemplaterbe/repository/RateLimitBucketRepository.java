@@ -0,0 +1,19 @@
+package com.fmi.mailtemplaterbe.repository;
+
+import com.fmi.mailtemplaterbe.domain.entity.RateLimitBucketEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+@Repository
+public interface RateLimitBucketRepository extends JpaRepository<RateLimitBucketEntity, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select bucket from RateLimitBucketEntity bucket where bucket.name = :name")
+    Optional<RateLimitBucketEntity> findByNameForUpdate(@Param("name") String name);
+}
@@ -0,0 +1,28 @@
+package com.fmi.mailtemplaterbe.repository;
+
+import com.fmi.mailtemplaterbe.domain.entity.SendJobEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface SendJobRepository extends JpaRepository<SendJobEntity, Long> {
+
+    Optional<SendJobEntity> findById(Long id);
+
+    List<SendJobEntity> findAllByStatusIn(Collection<Long> statuses);
+
+    @Modifying
+    @Query("update SendJobEntity s set s.ownerNode = :ownerNode where s.id = :id and " +
+           "(s.ownerNode = :expectedOwnerNode or (:expectedOwnerNode is null and s.ownerNode is null))")
+    int updateOwnerNode(
+            @Param("id") Long id,
+            @Param("expectedOwnerNode") String expectedOwnerNode,
+            @Param("ownerNode") String ownerNode);
+}
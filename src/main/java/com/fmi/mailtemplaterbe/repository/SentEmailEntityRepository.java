@@ -1,6 +1,8 @@
 package com.fmi.mailtemplaterbe.repository;
 
 import com.fmi.mailtemplaterbe.domain.entity.SentEmailEntity;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -20,4 +22,6 @@ public interface SentEmailEntityRepository extends JpaRepository<SentEmailEntity
     Optional<List<SentEmailEntity>> findAllByTimestampBefore(LocalDateTime date);
 
     Optional<SentEmailEntity> findByRecipientEmailAndToken(String recipientEmail, String confirmationToken);
+
+    Page<SentEmailEntity> findAllBySendJobIdOrderById(Long sendJobId, Pageable pageable);
 }
@@ -0,0 +1,9 @@
+package com.fmi.mailtemplaterbe.repository;
+
+import com.fmi.mailtemplaterbe.domain.entity.SmtpServerSettingsEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface SmtpServerSettingsRepository extends JpaRepository<SmtpServerSettingsEntity, Long> {
+}
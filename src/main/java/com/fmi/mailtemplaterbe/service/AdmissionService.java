@@ -0,0 +1,186 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.AdmissionConfiguration;
+import com.fmi.mailtemplaterbe.domain.model.AdmissionPermit;
+import com.fmi.mailtemplaterbe.domain.resource.AdmissionResource;
+import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how much work the send and preview endpoints accept at the same time, so that a few huge requests
+ * cannot take the heap and the database connections from everybody else.
+ * <p></p>
+ * A send job holds a job slot and its recipients from the request until it completes. A scheduled job gives them
+ * back once its emails are in the outbox. A preview holds a preview slot and its recipients while it is rendered.
+ * Requests beyond the budgets are rejected right away with 429 and a Retry-After, instead of queueing up.
+ */
+@Service
+@RequiredArgsConstructor
+public class AdmissionService {
+
+    private final AdmissionConfiguration admissionConfiguration;
+
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong tooLargeRequests = new AtomicLong();
+
+    /* Guarded by this. */
+    private int concurrentJobs;
+    private int inFlightRecipients;
+    private int concurrentPreviews;
+
+    /**
+     * Accept a send job.
+     *
+     * @param recipientsCount Number of recipients of the job, 0 if they are only known later (e.g. a streamed request).
+     * @return permit, which must be released once the job completes
+     * @throws com.fmi.mailtemplaterbe.exception.AdmissionRejectedException if the budgets are exhausted
+     * @throws com.fmi.mailtemplaterbe.exception.CustomBadRequestException if the job exceeds the whole budget
+     */
+    public AdmissionPermit admitSendJob(int recipientsCount) {
+        return admit(false, recipientsCount);
+    }
+
+    /**
+     * Accept a preview.
+     *
+     * @param recipientsCount Number of recipients of the preview.
+     * @return permit, which must be released once the preview is rendered
+     * @throws com.fmi.mailtemplaterbe.exception.AdmissionRejectedException if the budgets are exhausted
+     * @throws com.fmi.mailtemplaterbe.exception.CustomBadRequestException if the preview exceeds the whole budget
+     */
+    public AdmissionPermit admitPreview(int recipientsCount) {
+        return admit(true, recipientsCount);
+    }
+
+    /**
+     * Add recipients to an accepted send job, whose recipients were not known upfront.
+     *
+     * @param admissionPermit The permit of the job.
+     * @param count           Number of added recipients.
+     * @throws com.fmi.mailtemplaterbe.exception.AdmissionRejectedException if the budget of recipients is exhausted
+     */
+    public void addRecipients(AdmissionPermit admissionPermit, int count) {
+        synchronized (this) {
+            if (inFlightRecipients + count <= admissionConfiguration.getMaxInFlightRecipients()) {
+                inFlightRecipients += count;
+                admissionPermit.addRecipients(count);
+                return;
+            }
+        }
+
+        throw reject("Too many recipients are being processed, max " +
+                     admissionConfiguration.getMaxInFlightRecipients() + ".");
+    }
+
+    /**
+     * Give the share of a permit back. Only the first call has an effect.
+     *
+     * @param admissionPermit The permit or null.
+     */
+    public void release(AdmissionPermit admissionPermit) {
+        if (admissionPermit == null || !admissionPermit.markReleased()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (admissionPermit.isPreview()) {
+                concurrentPreviews--;
+            } else {
+                concurrentJobs--;
+            }
+
+            inFlightRecipients -= admissionPermit.getRecipientsCount();
+        }
+    }
+
+    /**
+     * True if a request could still get a slot, checked before its body is read. The request is only accepted once
+     * its recipients are known, so this is only a hint.
+     *
+     * @param preview True for a preview and false for a send job.
+     */
+    public synchronized boolean hasCapacity(boolean preview) {
+        if (inFlightRecipients >= admissionConfiguration.getMaxInFlightRecipients()) {
+            return false;
+        }
+
+        return preview
+                ? concurrentPreviews < admissionConfiguration.getMaxConcurrentPreviews()
+                : concurrentJobs < admissionConfiguration.getMaxConcurrentJobs();
+    }
+
+    public void recordRejected() {
+        rejectedRequests.incrementAndGet();
+    }
+
+    public void recordTooLarge() {
+        tooLargeRequests.incrementAndGet();
+    }
+
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (admissionConfiguration.getRetryAfter() + 999) / 1000);
+    }
+
+    /**
+     * Get the current usage of the budgets.
+     *
+     * @return usage and limits
+     */
+    public AdmissionResource getAdmission() {
+        synchronized (this) {
+            return AdmissionResource.builder()
+                    .concurrentJobs(concurrentJobs)
+                    .maxConcurrentJobs(admissionConfiguration.getMaxConcurrentJobs())
+                    .inFlightRecipients(inFlightRecipients)
+                    .maxInFlightRecipients(admissionConfiguration.getMaxInFlightRecipients())
+                    .concurrentPreviews(concurrentPreviews)
+                    .maxConcurrentPreviews(admissionConfiguration.getMaxConcurrentPreviews())
+                    .rejectedRequests(rejectedRequests.get())
+                    .tooLargeRequests(tooLargeRequests.get())
+                    .build();
+        }
+    }
+
+    private AdmissionPermit admit(boolean preview, int recipientsCount) {
+        if (recipientsCount > admissionConfiguration.getMaxInFlightRecipients()) {
+            /* It would never fit, so there is no point in trying again. */
+            throw ExceptionsUtil.getCustomBadRequestException(
+                    "Too many recipients in one request, max " + admissionConfiguration.getMaxInFlightRecipients() + ".");
+        }
+
+        final String error;
+
+        synchronized (this) {
+            if (preview && concurrentPreviews >= admissionConfiguration.getMaxConcurrentPreviews()) {
+                error = "Too many previews are being rendered, max " +
+                        admissionConfiguration.getMaxConcurrentPreviews() + ".";
+            } else if (!preview && concurrentJobs >= admissionConfiguration.getMaxConcurrentJobs()) {
+                error = "Too many send jobs are running, max " + admissionConfiguration.getMaxConcurrentJobs() + ".";
+            } else if (inFlightRecipients + recipientsCount > admissionConfiguration.getMaxInFlightRecipients()) {
+                error = "Too many recipients are being processed, max " +
+                        admissionConfiguration.getMaxInFlightRecipients() + ".";
+            } else {
+                if (preview) {
+                    concurrentPreviews++;
+                } else {
+                    concurrentJobs++;
+                }
+
+                inFlightRecipients += recipientsCount;
+
+                return new AdmissionPermit(preview, recipientsCount);
+            }
+        }
+
+        throw reject(error);
+    }
+
+    private RuntimeException reject(String message) {
+        recordRejected();
+
+        return ExceptionsUtil.getAdmissionRejectedException(message, getRetryAfterSeconds());
+    }
+}
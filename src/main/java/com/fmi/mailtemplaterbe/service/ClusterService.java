@@ -0,0 +1,203 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.ClusterConfiguration;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Membership and leadership of the app instances, which share the database.
+ * <p></p>
+ * Each instance renews a lock named after itself with every heartbeat, so the others know that it is alive.
+ * With the same heartbeat it tries to take or renew the leader lock. The leader runs the periodic jobs, which must run
+ * once for the whole cluster. A lock, whose lease expired, can be taken over by another instance, so a crashed leader
+ * is replaced after at most one lease. The leader gives up its leadership on its own once it could not renew it for a
+ * whole lease, e.g. because the database is not reachable.
+ * <p></p>
+ * Without a cluster, the instance is the leader and does everything.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ClusterService {
+
+    private static final String LEADER_LOCK = "leader";
+    private static final String NODE_LOCK_PREFIX = "node:";
+    /* Takes the lock if it is free, expired or already owned, and renews it in the last case. */
+    private static final String ACQUIRE_SQL =
+            "INSERT INTO cluster_locks (name, owner, locked_until) VALUES (?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "owner = IF(locked_until < ? OR owner = VALUES(owner), VALUES(owner), owner), " +
+            "locked_until = IF(owner = VALUES(owner), VALUES(locked_until), locked_until)";
+    private static final String SELECT_OWNER_SQL = "SELECT owner FROM cluster_locks WHERE name = ?";
+    private static final String SELECT_LIVE_NODES_SQL =
+            "SELECT owner FROM cluster_locks WHERE name LIKE '" + NODE_LOCK_PREFIX + "%' AND locked_until >= ?";
+    private static final String RELEASE_SQL = "DELETE FROM cluster_locks WHERE name = ? AND owner = ?";
+
+    private final ClusterConfiguration clusterConfiguration;
+    private final JdbcTemplate jdbcTemplate;
+
+    private String nodeId;
+    private volatile boolean leader;
+    /* The leadership is only trusted for one lease after it was last renewed. */
+    private volatile long leaderUntilMillis;
+    private Thread heartbeat;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        nodeId = clusterConfiguration.getNodeId() != null && !clusterConfiguration.getNodeId().trim().isEmpty()
+                ? clusterConfiguration.getNodeId().trim()
+                : getHostName();
+    }
+
+    /* Before the other instance services start, so that they know whether this instance leads. */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void start() {
+        if (!clusterConfiguration.isEnabled()) {
+            return;
+        }
+
+        beat();
+
+        running = true;
+        heartbeat = new Thread(this::runHeartbeat, "cluster-heartbeat");
+        heartbeat.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+
+        if (heartbeat == null) {
+            return;
+        }
+
+        heartbeat.interrupt();
+        heartbeat.join(TimeUnit.MINUTES.toMillis(1));
+
+        /* Another instance can take over right away, instead of after the lease. */
+        try {
+            jdbcTemplate.update(RELEASE_SQL, LEADER_LOCK, nodeId);
+            jdbcTemplate.update(RELEASE_SQL, NODE_LOCK_PREFIX + nodeId, nodeId);
+        } catch (RuntimeException e) {
+            log.warn("Releasing the locks of node {} failed, they expire after the lease.", nodeId, e);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isEnabled() {
+        return clusterConfiguration.isEnabled();
+    }
+
+    /**
+     * True if the periodic jobs, which must run once for the whole cluster, run on this instance.
+     */
+    public boolean isLeader() {
+        return !clusterConfiguration.isEnabled() || (leader && System.currentTimeMillis() < leaderUntilMillis);
+    }
+
+    /**
+     * True if this instance accepts send requests.
+     */
+    public boolean isApi() {
+        return !clusterConfiguration.isEnabled() || clusterConfiguration.getRole() != ClusterConfiguration.Role.WORKER;
+    }
+
+    /**
+     * True if this instance sends the emails of all instances.
+     */
+    public boolean isWorker() {
+        return !clusterConfiguration.isEnabled() || clusterConfiguration.getRole() != ClusterConfiguration.Role.API;
+    }
+
+    /**
+     * Get the instances, whose heartbeats did not expire.
+     *
+     * @return ids of the instances
+     */
+    public Set<String> getLiveNodeIds() {
+        if (!clusterConfiguration.isEnabled()) {
+            final Set<String> nodeIds = new HashSet<>();
+
+            nodeIds.add(nodeId);
+
+            return nodeIds;
+        }
+
+        final List<String> owners = jdbcTemplate.queryForList(
+                SELECT_LIVE_NODES_SQL, String.class, Timestamp.valueOf(LocalDateTime.now()));
+
+        return new HashSet<>(owners);
+    }
+
+    /**
+     * Get the time until which a claim of this instance is valid, if it is renewed now.
+     *
+     * @return end of the lease
+     */
+    public LocalDateTime getLeaseExpiresAt() {
+        return LocalDateTime.now().plusNanos(clusterConfiguration.getLeaseDuration() * 1_000_000L);
+    }
+
+    private void runHeartbeat() {
+        while (running) {
+            try {
+                Thread.sleep(clusterConfiguration.getHeartbeatInterval());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                beat();
+            } catch (RuntimeException e) {
+                /* The leadership expires on its own, if the next heartbeats fail too. */
+                log.error("Heartbeat of node {} failed.", nodeId, e);
+            }
+        }
+    }
+
+    private void beat() {
+        final long beatAtMillis = System.currentTimeMillis();
+        final LocalDateTime now = LocalDateTime.now();
+        final Timestamp lockedUntil = Timestamp.valueOf(getLeaseExpiresAt());
+
+        jdbcTemplate.update(ACQUIRE_SQL, NODE_LOCK_PREFIX + nodeId, nodeId, lockedUntil, Timestamp.valueOf(now));
+        jdbcTemplate.update(ACQUIRE_SQL, LEADER_LOCK, nodeId, lockedUntil, Timestamp.valueOf(now));
+
+        final List<String> leaders = jdbcTemplate.queryForList(SELECT_OWNER_SQL, String.class, LEADER_LOCK);
+
+        leader = !leaders.isEmpty() && nodeId.equals(leaders.get(0));
+        leaderUntilMillis = beatAtMillis + clusterConfiguration.getLeaseDuration();
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "node-" + UUID.randomUUID();
+        }
+    }
+}
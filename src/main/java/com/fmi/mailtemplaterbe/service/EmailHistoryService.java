@@ -1,33 +1,85 @@
 package com.fmi.mailtemplaterbe.service;
 
+import com.fmi.mailtemplaterbe.config.HistoryConfiguration;
 import com.fmi.mailtemplaterbe.domain.entity.SendEmailErrorEntity;
 import com.fmi.mailtemplaterbe.domain.entity.SentEmailEntity;
 import com.fmi.mailtemplaterbe.domain.enums.EmailErrorCategory;
 import com.fmi.mailtemplaterbe.domain.enums.SentEmailConfirmation;
+import com.fmi.mailtemplaterbe.domain.model.SentEmailRecord;
 import com.fmi.mailtemplaterbe.domain.resource.SentEmailResource;
 import com.fmi.mailtemplaterbe.mapper.SentEmailMapper;
 import com.fmi.mailtemplaterbe.repository.SendEmailErrorRepository;
 import com.fmi.mailtemplaterbe.repository.SentEmailEntityRepository;
 import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class EmailHistoryService {
 
+    /*
+     * The ids of both tables are allocated by the app in blocks, which lets the rows be inserted in batches.
+     * Rows must therefore never be inserted through the repositories, only through the batched inserts below.
+     */
+    private static final String SENT_EMAILS_TABLE = "sent_emails";
+    private static final String SEND_EMAIL_ERRORS_TABLE = "send_email_errors";
+    private static final String INSERT_SENT_EMAIL_SQL =
+            "INSERT INTO sent_emails (id, email_template_id, subject, message, sender_email, recipient_email, " +
+            "sent_successfully, send_email_error_id, timestamp, confirmation, token, send_job_id, attempts) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_SEND_EMAIL_ERROR_SQL =
+            "INSERT INTO send_email_errors (id, subject, message, sender_email, recipient_email, error, category, timestamp) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
     private final SentEmailEntityRepository sentEmailEntityRepository;
     private final SendEmailErrorRepository sendEmailErrorRepository;
+    private final IdAllocator idAllocator;
+    private final HistoryConfiguration historyConfiguration;
+    private final JdbcTemplate jdbcTemplate;
 
     /**
-     * Persist the information of a sent email within the database for history purposes..
-     * The method is used for both successfully and not successfully sent emails.
+     * Persist the history of many emails at once. The ids are allocated upfront, so the errors and the sent emails,
+     * which reference them, are written with one multi-row insert per batch each, within a single transaction.
+     *
+     * @param sentEmailRecords Sent emails and their errors, built with {@link #buildSentEmail} and
+     *                         {@link #buildSendEmailError}.
+     */
+    @Transactional
+    public void persistSentEmails(List<SentEmailRecord> sentEmailRecords) {
+        final List<SendEmailErrorEntity> sendEmailErrors = sentEmailRecords.stream()
+                .map(SentEmailRecord::getSendEmailError)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        insertSendEmailErrors(sendEmailErrors);
+
+        for (SentEmailRecord sentEmailRecord : sentEmailRecords) {
+            if (sentEmailRecord.getSendEmailError() != null) {
+                sentEmailRecord.getSentEmail().setSendEmailErrorId(sentEmailRecord.getSendEmailError().getId());
+            }
+        }
+
+        insertSentEmails(sentEmailRecords.stream().map(SentEmailRecord::getSentEmail).collect(Collectors.toList()));
+    }
+
+    /**
+     * Build the information of a sent email, without persisting it.
      *
      * @param emailTemplateId  Id of the email template that was used for the email.
      * @param sender           Email address of the sender.
@@ -36,10 +88,11 @@ public class EmailHistoryService {
      * @param message          Message of the email.
      * @param sentSuccessfully True if the email was sent successfully and false otherwise.
      * @param token            Confirmation token for the sent email.
-     * @param sendEmailErrorId Id of the email error that occurred. If no error was thrown, pass null.
-     * @return Saved record for the sent email.
+     * @param sendJobId        Id of the send job that the email belongs to.
+     * @param attempts         Number of attempts to send the email.
+     * @return sent email
      */
-    public SentEmailEntity persistSentEmail(
+    public SentEmailEntity buildSentEmail(
             Long emailTemplateId,
             String sender,
             String recipient,
@@ -47,38 +100,37 @@ public class EmailHistoryService {
             String message,
             boolean sentSuccessfully,
             String token,
-            Long sendEmailErrorId) {
-        SentEmailEntity sentEmailEntity = SentEmailEntity.builder()
+            Long sendJobId,
+            int attempts) {
+        return SentEmailEntity.builder()
                 .emailTemplateId(emailTemplateId)
                 .senderEmail(sender)
                 .recipientEmail(recipient)
                 .subject(subject)
                 .message(message)
                 .sentSuccessfully(sentSuccessfully)
-                .sendEmailErrorId(sendEmailErrorId != null ? sendEmailErrorId : null)
                 .timestamp(LocalDateTime.now())
                 /* Initial confirmation is always unconfirmed. */
                 .confirmation(SentEmailConfirmation.UNCONFIRMED.getValue())
                 .token(token)
+                .sendJobId(sendJobId)
+                .attempts(attempts)
                 .build();
-
-        return sentEmailEntityRepository.save(sentEmailEntity);
     }
 
     /**
-     * Persist the information of an email that failed to send.
-     * The method is used only for not successfully sent emails.
+     * Build the information of an email that failed to send, without persisting it.
      *
      * @param sender    Email address of the sender.
      * @param recipient Email address of the recipient.
      * @param subject   Subject of the email.
      * @param message   Message of the email.
      * @param error     Error message.
-     * @return Saved record for the failed email.
+     * @return email error
      */
-    public SendEmailErrorEntity persistSendEmailError(
+    public SendEmailErrorEntity buildSendEmailError(
             String sender, String recipient, String subject, String message, String error, EmailErrorCategory emailErrorCategory) {
-        SendEmailErrorEntity sendEmailErrorEntity = SendEmailErrorEntity.builder()
+        return SendEmailErrorEntity.builder()
                 .senderEmail(sender)
                 .recipientEmail(recipient)
                 .subject(subject)
@@ -87,8 +139,6 @@ public class EmailHistoryService {
                 .category(emailErrorCategory != null ? emailErrorCategory.getValue() : EmailErrorCategory.UNKNOWN.getValue())
                 .timestamp(LocalDateTime.now())
                 .build();
-
-        return sendEmailErrorRepository.save(sendEmailErrorEntity);
     }
 
     /**
@@ -133,6 +183,39 @@ public class EmailHistoryService {
         return sentEmails;
     }
 
+    /**
+     * Get a page of the sent emails of a send job, together with their error messages.
+     *
+     * @param sendJobId Id of the send job
+     * @param page      Zero based page
+     * @param size      Page size
+     * @return page with information about the sent emails of the send job, ordered by id
+     */
+    public Page<SentEmailResource> getSentEmailsBySendJobId(Long sendJobId, int page, int size) {
+        final Page<SentEmailEntity> sentEmailEntities =
+                sentEmailEntityRepository.findAllBySendJobIdOrderById(sendJobId, PageRequest.of(page, size));
+        final List<Long> sendEmailErrorIds = sentEmailEntities.stream()
+                .map(SentEmailEntity::getSendEmailErrorId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        /* The errors of the whole page are read at once instead of one by one. */
+        final Map<Long, String> errorMessages = sendEmailErrorIds.isEmpty()
+                ? Collections.emptyMap()
+                : sendEmailErrorRepository.findAllById(sendEmailErrorIds).stream()
+                        .filter(sendEmailError -> sendEmailError.getError() != null)
+                        .collect(Collectors.toMap(SendEmailErrorEntity::getId, SendEmailErrorEntity::getError));
+
+        return sentEmailEntities.map(sentEmailEntity -> {
+            final SentEmailResource sentEmail = SentEmailMapper.entityToResource(sentEmailEntity);
+
+            if (sentEmailEntity.getSendEmailErrorId() != null) {
+                sentEmail.setErrorMessage(errorMessages.get(sentEmailEntity.getSendEmailErrorId()));
+            }
+
+            return sentEmail;
+        });
+    }
+
     /**
      * Get a sent email by the recipient email address and the confirmation token.
      * If no such sent email was found, then null is returned.
@@ -175,6 +258,59 @@ public class EmailHistoryService {
         return SentEmailMapper.entityToResource(sentEmailEntityRepository.save(sentEmailEntity));
     }
 
+    private void insertSentEmails(List<SentEmailEntity> sentEmails) {
+        if (sentEmails.isEmpty()) {
+            return;
+        }
+
+        final long[] ids = idAllocator.allocate(SENT_EMAILS_TABLE, sentEmails.size());
+
+        for (int i = 0; i < ids.length; i++) {
+            sentEmails.get(i).setId(ids[i]);
+        }
+
+        jdbcTemplate.batchUpdate(
+                INSERT_SENT_EMAIL_SQL, sentEmails, historyConfiguration.getInsertBatchSize(), (ps, sentEmail) -> {
+            ps.setLong(1, sentEmail.getId());
+            ps.setLong(2, sentEmail.getEmailTemplateId());
+            ps.setString(3, sentEmail.getSubject());
+            ps.setString(4, sentEmail.getMessage());
+            ps.setString(5, sentEmail.getSenderEmail());
+            ps.setString(6, sentEmail.getRecipientEmail());
+            ps.setBoolean(7, sentEmail.isSentSuccessfully());
+            ps.setObject(8, sentEmail.getSendEmailErrorId(), Types.BIGINT);
+            ps.setTimestamp(9, Timestamp.valueOf(sentEmail.getTimestamp()));
+            ps.setObject(10, sentEmail.getConfirmation(), Types.BIGINT);
+            ps.setString(11, sentEmail.getToken());
+            ps.setObject(12, sentEmail.getSendJobId(), Types.BIGINT);
+            ps.setObject(13, sentEmail.getAttempts(), Types.INTEGER);
+        });
+    }
+
+    private void insertSendEmailErrors(List<SendEmailErrorEntity> sendEmailErrors) {
+        if (sendEmailErrors.isEmpty()) {
+            return;
+        }
+
+        final long[] ids = idAllocator.allocate(SEND_EMAIL_ERRORS_TABLE, sendEmailErrors.size());
+
+        for (int i = 0; i < ids.length; i++) {
+            sendEmailErrors.get(i).setId(ids[i]);
+        }
+
+        jdbcTemplate.batchUpdate(
+                INSERT_SEND_EMAIL_ERROR_SQL, sendEmailErrors, historyConfiguration.getInsertBatchSize(), (ps, sendEmailError) -> {
+            ps.setLong(1, sendEmailError.getId());
+            ps.setString(2, sendEmailError.getSubject());
+            ps.setString(3, sendEmailError.getMessage());
+            ps.setString(4, sendEmailError.getSenderEmail());
+            ps.setString(5, sendEmailError.getRecipientEmail());
+            ps.setString(6, sendEmailError.getError());
+            ps.setLong(7, sendEmailError.getCategory());
+            ps.setTimestamp(8, Timestamp.valueOf(sendEmailError.getTimestamp()));
+        });
+    }
+
     private List<SentEmailResource> getAllSentEmails() {
         return sentEmailEntitiesToSentEmailResource(sentEmailEntityRepository.findAll());
     }
@@ -1,36 +1,76 @@
 package com.fmi.mailtemplaterbe.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fmi.mailtemplaterbe.config.EmailTemplatesConfiguration;
+import com.fmi.mailtemplaterbe.config.LaneConfiguration;
+import com.fmi.mailtemplaterbe.config.OutboxConfiguration;
 import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
-import com.fmi.mailtemplaterbe.domain.entity.SendEmailErrorEntity;
-import com.fmi.mailtemplaterbe.domain.enums.EmailErrorCategory;
+import com.fmi.mailtemplaterbe.domain.entity.SendJobEntity;
+import com.fmi.mailtemplaterbe.domain.enums.RecipientsFormat;
+import com.fmi.mailtemplaterbe.domain.enums.SendJobStatus;
+import com.fmi.mailtemplaterbe.domain.enums.SendLane;
+import com.fmi.mailtemplaterbe.domain.model.AdmissionPermit;
+import com.fmi.mailtemplaterbe.domain.model.PreviewDiagnostics;
+import com.fmi.mailtemplaterbe.domain.model.SendJobContext;
 import com.fmi.mailtemplaterbe.domain.resource.*;
-import com.fmi.mailtemplaterbe.exception.CredentialsAuthenticationFailedException;
-import com.fmi.mailtemplaterbe.util.ConfirmationTokenUtil;
+import com.fmi.mailtemplaterbe.util.CompiledTemplate;
 import com.fmi.mailtemplaterbe.util.EmailMessageUtil;
 import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
+import com.fmi.mailtemplaterbe.util.DeliverySchedule;
+import com.fmi.mailtemplaterbe.util.MimeMessageTemplate;
+import com.fmi.mailtemplaterbe.util.RecipientStreamReader;
 import com.fmi.mailtemplaterbe.util.SentEmailsLocalDateTimeComparator;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Service;
 
-import javax.mail.*;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class EmailManagerService {
 
+    /* Operations, whose requests can carry an idempotency key. */
+    private static final String SEND_EMAILS_OPERATION = "send-emails";
+    private static final String SEND_EMAILS_ASYNC_OPERATION = "send-emails-async";
+    private static final String SEND_EMAILS_TO_RECIPIENT_GROUPS_OPERATION = "send-emails-to-recipient-groups";
+
     private final EmailTemplatesConfiguration emailTemplatesConfiguration;
     private final EmailTemplateService emailTemplateService;
     private final EmailHistoryService emailHistoryService;
     private final SmtpService smtpService;
+    private final SmtpRouter smtpRouter;
     private final EmailMessageUtil emailMessageUtil;
+    private final SendJobService sendJobService;
+    private final SendPipeline sendPipeline;
+    private final OutboxService outboxService;
+    private final OutboxDispatcher outboxDispatcher;
+    private final OutboxConfiguration outboxConfiguration;
+    private final LaneConfiguration laneConfiguration;
+    private final RecipientGroupService recipientGroupService;
+    private final RecipientService recipientService;
+    private final IdempotencyService idempotencyService;
+    private final ScheduledSendService scheduledSendService;
+    private final AdmissionService admissionService;
+    private final ClusterService clusterService;
+    private final ObjectMapper objectMapper;
+
+    @Qualifier("sendJobExecutor")
+    private final TaskExecutor sendJobExecutor;
 
     /**
      * Get the default smtp server that is being used for sending emails.
@@ -61,15 +101,277 @@ public class EmailManagerService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Replace the smtp servers from the configuration at runtime, without disturbing the sends in progress.
+     *
+     * @param smtpServersResource The new smtp servers.
+     * @return smtp servers
+     */
+    public List<SmtpServerResource> reloadSmtpServers(SmtpServersResource smtpServersResource) {
+        try {
+            smtpService.reloadSmtpServers(
+                    smtpServersResource.getDefaultServerName(), smtpServersResource.getServers());
+        } catch (IllegalArgumentException e) {
+            throw ExceptionsUtil.getCustomBadRequestException(e.getMessage());
+        }
+
+        return getAllSmtpServers();
+    }
+
     /**
      * Sends an email to multiple recipients based on the same email template and a different implementation
      * of the placeholders for that email template for each recipient.
      *
+     * A repeated request with the same idempotency key does not send again, it waits for the original send job
+     * and returns its result. If the job does not finish within the result timeout, it is answered with 409.
+     *
      * @param sendEmailResource SendEmailResource
+     * @param idempotencyKey    Optional idempotency key.
      * @return number of successfully sent emails
      */
-    public int sendEmails(SendEmailResource sendEmailResource) {
-        return sendEmailToRecipients(sendEmailResource);
+    public int sendEmails(SendEmailResource sendEmailResource, String idempotencyKey) {
+        validateSendEmailResource(sendEmailResource);
+
+        if (sendEmailResource.getSchedule() != null) {
+            throw ExceptionsUtil.getCustomBadRequestException("Scheduled sends are only accepted with async=true.");
+        }
+
+        final Long originalSendJobId =
+                idempotencyService.claim(idempotencyKey, SEND_EMAILS_OPERATION, sendEmailResource);
+
+        if (originalSendJobId != null) {
+            return awaitSendJobResult(originalSendJobId, idempotencyKey);
+        }
+
+        final AdmissionPermit admissionPermit =
+                admitSendJob(sendEmailResource.getRecipients().size(), idempotencyKey);
+
+        try {
+            final SendJobResource sendJob = createSendJob(sendEmailResource, false, idempotencyKey);
+
+            return runSendJob(startSendJob(sendJob.getId(), sendEmailResource));
+        } finally {
+            admissionService.release(admissionPermit);
+        }
+    }
+
+    /**
+     * Same as {@link #sendEmails(SendEmailResource, String)}, but the emails are sent in the background.
+     * The emails are already in the outbox when the method returns.
+     * The returned send job can be used to follow the progress of the sending.
+     *
+     * With a schedule, the emails are kept in the outbox until they are due and the job is scheduled until then.
+     *
+     * A repeated request with the same idempotency key returns the original send job.
+     *
+     * @param sendEmailResource SendEmailResource
+     * @param idempotencyKey    Optional idempotency key.
+     * @return the running or scheduled send job
+     */
+    public SendJobResource sendEmailsAsync(SendEmailResource sendEmailResource, String idempotencyKey) {
+        validateSendEmailResource(sendEmailResource);
+
+        final DeliverySchedule deliverySchedule = DeliverySchedule.of(sendEmailResource.getSchedule());
+
+        if (deliverySchedule != null) {
+            /* Rejects invalid time zones of the recipients before anything is stored. */
+            for (Recipient recipient : sendEmailResource.getRecipients()) {
+                deliverySchedule.getSendAt(recipient.getPlaceholders());
+            }
+        }
+
+        final Long originalSendJobId =
+                idempotencyService.claim(idempotencyKey, SEND_EMAILS_ASYNC_OPERATION, sendEmailResource);
+
+        if (originalSendJobId != null) {
+            return sendJobService.getSendJobById(originalSendJobId);
+        }
+
+        final AdmissionPermit admissionPermit =
+                admitSendJob(sendEmailResource.getRecipients().size(), idempotencyKey);
+
+        try {
+            final SendJobResource sendJob = createSendJob(sendEmailResource, false, idempotencyKey);
+
+            if (deliverySchedule != null) {
+                scheduleSendJob(sendJob.getId(), sendEmailResource, deliverySchedule);
+                /* The emails wait in the outbox, they no longer take from the budgets. */
+                admissionService.release(admissionPermit);
+            } else {
+                final SendJobContext context = startSendJob(sendJob.getId(), sendEmailResource);
+
+                context.whenComplete(error -> admissionService.release(admissionPermit));
+                runSendJobAsync(context);
+            }
+
+            return sendJobService.getSendJobById(sendJob.getId());
+        } catch (RuntimeException e) {
+            admissionService.release(admissionPermit);
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #sendEmailsAsync(SendEmailResource, String)}, but the recipients are read one by one from a streamed
+     * request body and written to the outbox in chunks, so the memory usage does not depend on the number of recipients.
+     * Sending starts with the first chunk, while the rest of the body is still being read.
+     * The subject and the message are the ones of the stored email template. The default credentials are used.
+     *
+     * @param sendEmailStreamResource SendEmailStreamResource
+     * @param format                  Format of the recipients.
+     * @param inputStream             Request body.
+     * @param gzipped                 True if the request body is gzip compressed.
+     * @return the running send job
+     */
+    public SendJobResource sendEmailsStream(
+            SendEmailStreamResource sendEmailStreamResource,
+            RecipientsFormat format,
+            InputStream inputStream,
+            boolean gzipped) {
+        validateEmailTemplateId(sendEmailStreamResource.getEmailTemplateId());
+
+        final EmailTemplateResource emailTemplate =
+                emailTemplateService.getTemplateById(sendEmailStreamResource.getEmailTemplateId());
+        final SendEmailResource sendEmailResource = new SendEmailResource(
+                Collections.emptyList(),
+                sendEmailStreamResource.getIsHtml(),
+                sendEmailStreamResource.getIncludeConfirmationLink(),
+                null,
+                null);
+
+        sendEmailResource.setId(emailTemplate.getId());
+        sendEmailResource.setTitle(emailTemplate.getTitle());
+        sendEmailResource.setMessage(emailTemplate.getMessage());
+
+        /* The recipients are only known while the body is read, they are added to the permit chunk by chunk. */
+        final AdmissionPermit admissionPermit = admissionService.admitSendJob(0);
+        final Long sendJobId;
+
+        try {
+            sendJobId = createSendJob(sendEmailResource, true).getId();
+            sendJobService.startSendJob(sendJobId);
+        } catch (RuntimeException e) {
+            admissionService.release(admissionPermit);
+            throw e;
+        }
+
+        final SendJobContext context = createSendJobContext(sendJobId, sendEmailResource, true);
+
+        context.whenComplete(error -> admissionService.release(admissionPermit));
+        outboxDispatcher.register(context);
+
+        try (RecipientStreamReader recipientStreamReader = RecipientStreamReader.open(
+                format, gzipped ? new GZIPInputStream(inputStream) : inputStream, objectMapper)) {
+            enqueueRecipientStream(context, recipientStreamReader, admissionPermit);
+        } catch (IOException | RuntimeException e) {
+            final String error = e.getMessage() != null ? e.getMessage() : e.toString();
+
+            context.abort(ExceptionsUtil.getCustomBadRequestException(error));
+            sendJobService.finishSendJob(sendJobId, error);
+
+            if (e instanceof IOException || e instanceof IllegalArgumentException) {
+                throw ExceptionsUtil.getCustomBadRequestException(error);
+            }
+
+            throw (RuntimeException) e;
+        }
+
+        context.closeSubmission();
+        runSendJobAsync(context);
+
+        return sendJobService.getSendJobById(sendJobId);
+    }
+
+    /**
+     * Send a stored email template to the members of recipient groups, without the caller sending the recipients.
+     * The membership is taken when the job is created. The recipients are then read from the database page by page
+     * and written to the outbox on the thread of the send job, so the whole group is never held in memory.
+     * With a schedule, the recipients are still written to the outbox right away, so their data is at hand long before
+     * the emails are due. A recipient with an invalid "timezone" placeholder fails the job.
+     * A repeated request with the same idempotency key returns the original send job.
+     *
+     * @param sendToRecipientGroupsResource SendToRecipientGroupsResource
+     * @param idempotencyKey                Optional idempotency key.
+     * @return the created send job
+     */
+    public SendJobResource sendEmailsToRecipientGroups(
+            SendToRecipientGroupsResource sendToRecipientGroupsResource, String idempotencyKey) {
+        validateEmailTemplateId(sendToRecipientGroupsResource.getEmailTemplateId());
+        validateSmtpServerIfNecessary(sendToRecipientGroupsResource.getCredentials());
+
+        final DeliverySchedule deliverySchedule = DeliverySchedule.of(sendToRecipientGroupsResource.getSchedule());
+
+        final List<Long> recipientIds = recipientGroupService.getRecipientIdsOfRecipientGroups(
+                sendToRecipientGroupsResource.getRecipientGroupIds());
+        final Long originalSendJobId = idempotencyService.claim(
+                idempotencyKey, SEND_EMAILS_TO_RECIPIENT_GROUPS_OPERATION, sendToRecipientGroupsResource);
+
+        if (originalSendJobId != null) {
+            return sendJobService.getSendJobById(originalSendJobId);
+        }
+
+        final AdmissionPermit admissionPermit = admitSendJob(recipientIds.size(), idempotencyKey);
+
+        try {
+            return sendEmailsToRecipientGroups(
+                    sendToRecipientGroupsResource, recipientIds, deliverySchedule, idempotencyKey, admissionPermit);
+        } catch (RuntimeException e) {
+            admissionService.release(admissionPermit);
+            throw e;
+        }
+    }
+
+    private SendJobResource sendEmailsToRecipientGroups(
+            SendToRecipientGroupsResource sendToRecipientGroupsResource,
+            List<Long> recipientIds,
+            DeliverySchedule deliverySchedule,
+            String idempotencyKey,
+            AdmissionPermit admissionPermit) {
+        final EmailTemplateResource emailTemplate =
+                emailTemplateService.getTemplateById(sendToRecipientGroupsResource.getEmailTemplateId());
+        final SendEmailResource sendEmailResource = new SendEmailResource(
+                Collections.emptyList(),
+                sendToRecipientGroupsResource.getIsHtml(),
+                sendToRecipientGroupsResource.getIncludeConfirmationLink(),
+                sendToRecipientGroupsResource.getCredentials(),
+                sendToRecipientGroupsResource.getSchedule());
+
+        sendEmailResource.setId(emailTemplate.getId());
+        sendEmailResource.setTitle(emailTemplate.getTitle());
+        sendEmailResource.setMessage(emailTemplate.getMessage());
+
+        final Long sendJobId = createSendJob(sendEmailResource, true, idempotencyKey).getId();
+
+        if (deliverySchedule != null) {
+            final SendJobContext context =
+                    createScheduledSendJobContext(sendJobId, sendEmailResource, deliverySchedule, true);
+
+            submitScheduledEmailsAsync(context, () -> {
+                try {
+                    enqueueRecipients(
+                            context,
+                            recipientIds,
+                            sendToRecipientGroupsResource.getRecipientPlaceholders(),
+                            deliverySchedule);
+                } finally {
+                    /* The emails wait in the outbox, they no longer take from the budgets. */
+                    admissionService.release(admissionPermit);
+                }
+            });
+
+            return sendJobService.getSendJobById(sendJobId);
+        }
+
+        sendJobService.startSendJob(sendJobId);
+
+        final SendJobContext context = createSendJobContext(sendJobId, sendEmailResource, true);
+
+        context.whenComplete(error -> admissionService.release(admissionPermit));
+        outboxDispatcher.register(context);
+        runSendJobAsync(context, () -> enqueueRecipients(
+                context, recipientIds, sendToRecipientGroupsResource.getRecipientPlaceholders(), null));
+
+        return sendJobService.getSendJobById(sendJobId);
     }
 
     /**
@@ -80,7 +382,75 @@ public class EmailManagerService {
      * @return list of preview emails
      */
     public List<RecipientEmailPreview> getPreviewEmails(PreviewEmailResource previewEmailResource) {
-        return buildPreviewEmails(previewEmailResource);
+        final AdmissionPermit admissionPermit =
+                admissionService.admitPreview(previewEmailResource.getRecipients().size());
+
+        try {
+            return buildPreviewEmails(previewEmailResource);
+        } finally {
+            admissionService.release(admissionPermit);
+        }
+    }
+
+    /**
+     * Same as {@link #getPreviewEmails(PreviewEmailResource)}, but only a page or an evenly spread sample of the
+     * recipients is rendered. The diagnostics cover all recipients, without keeping their emails in memory.
+     *
+     * @param previewEmailResource PreviewEmailResource
+     * @param page                 Zero based page, only used together with size.
+     * @param size                 Page size.
+     * @param sample               Number of sampled recipients, used instead of page and size.
+     * @return page of preview emails and diagnostics
+     */
+    public PreviewEmailsPageResource getPreviewEmailsPage(
+            PreviewEmailResource previewEmailResource, Integer page, Integer size, Integer sample) {
+        final AdmissionPermit admissionPermit =
+                admissionService.admitPreview(previewEmailResource.getRecipients().size());
+
+        try {
+            return buildPreviewEmailsPage(previewEmailResource, page, size, sample);
+        } finally {
+            admissionService.release(admissionPermit);
+        }
+    }
+
+    private PreviewEmailsPageResource buildPreviewEmailsPage(
+            PreviewEmailResource previewEmailResource, Integer page, Integer size, Integer sample) {
+        final List<Recipient> recipients = previewEmailResource.getRecipients();
+        final CompiledTemplate compiledMessage = compilePreviewMessage(previewEmailResource);
+        final int[] indexes = sample != null
+                ? getSampleIndexes(recipients.size(), sample)
+                : getPageIndexes(recipients.size(), page != null ? page : 0, size);
+
+        /* Fork/join over the recipients, each worker collects into its own diagnostics. */
+        final PreviewDiagnostics previewDiagnostics = recipients.parallelStream().collect(
+                PreviewDiagnostics::new,
+                (diagnostics, recipient) -> diagnostics.add(
+                        recipient.getEmail(),
+                        compiledMessage.getRenderedLength(recipient.getPlaceholders()),
+                        compiledMessage.getMissingPlaceholders(recipient.getPlaceholders())),
+                PreviewDiagnostics::combine);
+        final List<RecipientEmailPreview> previews = Arrays.stream(indexes)
+                .parallel()
+                .mapToObj(index -> buildPreviewEmail(previewEmailResource, compiledMessage, recipients.get(index)))
+                .collect(Collectors.toList());
+
+        return PreviewEmailsPageResource.builder()
+                .previews(previews)
+                .page(sample != null ? null : page != null ? page : 0)
+                .size(sample != null ? null : size)
+                .sample(sample)
+                .diagnostics(PreviewDiagnosticsResource.builder()
+                        .recipientCount(previewDiagnostics.getRecipientCount())
+                        .recipientsWithMissingPlaceholders(previewDiagnostics.getRecipientsWithMissingPlaceholders())
+                        .missingPlaceholders(previewDiagnostics.getMissingPlaceholders())
+                        .maxMessageLength(previewDiagnostics.getMaxMessageLength())
+                        .maxMessageLengthRecipientEmail(previewDiagnostics.getMaxMessageLengthRecipientEmail())
+                        .averageMessageLength(previewDiagnostics.getRecipientCount() == 0
+                                ? 0
+                                : (int) (previewDiagnostics.getTotalMessageLength() / previewDiagnostics.getRecipientCount()))
+                        .build())
+                .build();
     }
 
     /**
@@ -111,147 +481,371 @@ public class EmailManagerService {
         return sentEmails;
     }
 
-    private int sendEmailToRecipients(SendEmailResource sendEmailResource) {
-        validateEmailTemplateId(sendEmailResource.getId());
-        /* If credentials are provided, we need to validate them first. */
-        validateSmtpServerIfNecessary(sendEmailResource.getCredentials());
+    /* A rejected request releases its idempotency key, so that it can be repeated later. */
+    private AdmissionPermit admitSendJob(int recipientsCount, String idempotencyKey) {
+        try {
+            return admissionService.admitSendJob(recipientsCount);
+        } catch (RuntimeException e) {
+            idempotencyService.release(idempotencyKey);
+            throw e;
+        }
+    }
 
-        int errorsCount = 0;
-
-        for (Recipient recipient : sendEmailResource.getRecipients()) {
-            try {
-                final String emailSubject = sendEmailResource.getTitle();
-                final String emailMessage =
-                        emailMessageUtil.buildEmailMessage(
-                                sendEmailResource.getMessage(),
-                                recipient.getPlaceholders(),
-                                emailTemplatesConfiguration.getPlaceholderPrefix(),
-                                emailTemplatesConfiguration.getPlaceholderSuffix());
-                final boolean isHtmlMessage = sendEmailResource.getIsHtml();
-
-                sendEmailToRecipient(
-                        sendEmailResource.getId(),
-                        sendEmailResource.getCredentials(),
-                        recipient.getEmail(),
-                        emailSubject,
-                        emailMessage,
-                        isHtmlMessage,
-                        sendEmailResource.getIncludeConfirmationLink());
-            } catch (CredentialsAuthenticationFailedException e) {
-                /*
-                 * If we encounter an authentication failed exception, we do not need to attempt sending an email
-                 * to all recipients. It is clear they will all fail with that error.
-                 * Instead of that, we break the flow.
-                 */
-                throw e;
-            } catch (Exception e) {
-                errorsCount++;
+    /* Records the job for the idempotency key, or releases the key if the job could not be created. */
+    private SendJobResource createSendJob(
+            SendEmailResource sendEmailResource, boolean submissionOpen, String idempotencyKey) {
+        final SendJobResource sendJob;
+
+        try {
+            sendJob = createSendJob(sendEmailResource, submissionOpen);
+        } catch (RuntimeException e) {
+            idempotencyService.release(idempotencyKey);
+            throw e;
+        }
+
+        idempotencyService.complete(idempotencyKey, sendJob.getId());
+
+        return sendJob;
+    }
+
+    /*
+     * The result of a send job that was started by another request, once it finished. The wait is bounded, so that a
+     * long or paused job does not hold the request thread and a database connection.
+     */
+    private int awaitSendJobResult(Long sendJobId, String idempotencyKey) {
+        final long deadline = System.currentTimeMillis() + idempotencyService.getResultTimeout();
+
+        while (true) {
+            final SendJobEntity sendJobEntity = sendJobService.getSendJobEntityById(sendJobId);
+            final SendJobStatus status = SendJobStatus.fromValue(sendJobEntity.getStatus());
+
+            if (status == SendJobStatus.COMPLETED) {
+                return sendJobEntity.getSentCount();
             }
+
+            if (status == SendJobStatus.FAILED || status == SendJobStatus.CANCELLED) {
+                throw ExceptionsUtil.getCustomBadRequestException(sendJobEntity.getError());
+            }
+
+            if (System.currentTimeMillis() >= deadline) {
+                throw ExceptionsUtil.getSendJobInProgressException(idempotencyKey, sendJobId);
+            }
+
+            idempotencyService.awaitPollInterval();
+        }
+    }
+
+    private SendJobResource createSendJob(SendEmailResource sendEmailResource, boolean submissionOpen) {
+        final CredentialsResource credentials = sendEmailResource.getCredentials();
+        final SendLane lane = getLane(sendEmailResource, submissionOpen);
+
+        if (areCredentialsProvided(credentials)) {
+            return sendJobService.createSendJob(
+                    sendEmailResource, credentials.getSmtpServerName(), credentials.getUsername(), false, lane);
         }
 
-        return sendEmailResource.getRecipients().size() - errorsCount;
+        return sendJobService.createSendJob(
+                sendEmailResource, smtpRouter.getDefaultServerName(), smtpService.getUsername(), true, lane);
     }
 
-    private void sendEmailToRecipient(
-            Long emailTemplateId,
-            CredentialsResource credentials,
-            String to,
-            String subject,
-            String content,
-            boolean isHtml,
-            boolean includeConfirmationLink) {
-        final String confirmationToken = ConfirmationTokenUtil.generateToken();
-        content = includeConfirmationLink
-                    ? emailMessageUtil.appendConfirmationAppLink(subject, content, to, confirmationToken, isHtml)
-                    : content;
-        String from = null;
-        Session session = null;
+    /* The size of a job, whose submission is open, is not known yet. */
+    private SendLane getLane(SendEmailResource sendEmailResource, boolean submissionOpen) {
+        return laneConfiguration.getLane(submissionOpen ? -1 : sendEmailResource.getRecipients().size());
+    }
+
+    /*
+     * Writes the emails of the job to the outbox. From then on they survive a restart,
+     * even if the caller does not wait for the job to complete.
+     */
+    private SendJobContext startSendJob(Long sendJobId, SendEmailResource sendEmailResource) {
+        sendJobService.startSendJob(sendJobId);
+
+        final SendJobContext context = createSendJobContext(sendJobId, sendEmailResource, false);
+
+        /* Registered first, so that the dispatcher never finds an email of an unknown job. */
+        outboxDispatcher.register(context);
 
         try {
-            /*
-             * Optional credentials and smtp server.
-             * If they are not provided, the default credentials (config vars) and default smtp server will be used.
-             */
-            if (areCredentialsProvided(credentials)) {
-                from = credentials.getUsername();
-                session = smtpService.createSMTPSession(
-                        credentials.getUsername(), credentials.getPassword(), credentials.getSmtpServerName());
-            } else {
-                from = smtpService.getUsername();
-                session = smtpService.createSMTPSession();
+            outboxService.enqueue(sendJobId, sendEmailResource.getId(), sendEmailResource.getRecipients());
+        } catch (RuntimeException e) {
+            context.abort(e);
+            sendJobService.finishSendJob(sendJobId, e.getMessage() != null ? e.getMessage() : e.toString());
+            throw e;
+        }
+
+        return context;
+    }
+
+    /* Writes the emails of the job to the outbox as scheduled, they are released by the scheduler when they are due. */
+    private void scheduleSendJob(
+            Long sendJobId, SendEmailResource sendEmailResource, DeliverySchedule deliverySchedule) {
+        final SendJobContext context =
+                createScheduledSendJobContext(sendJobId, sendEmailResource, deliverySchedule, false);
+
+        try {
+            outboxService.enqueue(
+                    sendJobId, sendEmailResource.getId(), sendEmailResource.getRecipients(), deliverySchedule);
+        } catch (RuntimeException e) {
+            context.abort(e);
+            throw e;
+        }
+
+        scheduledSendService.onSendJobScheduled(sendJobId);
+    }
+
+    /* Nobody waits for a scheduled job, so it is finished once its last email went through the pipeline. */
+    private SendJobContext createScheduledSendJobContext(
+            Long sendJobId,
+            SendEmailResource sendEmailResource,
+            DeliverySchedule deliverySchedule,
+            boolean submissionOpen) {
+        sendJobService.scheduleSendJob(sendJobId, deliverySchedule.getDefaultSendAt());
+
+        final SendJobContext context = createSendJobContext(sendJobId, sendEmailResource, submissionOpen, true);
+
+        context.whenComplete(error -> sendJobService.finishSendJob(
+                sendJobId, error == null ? null : error.getMessage() != null ? error.getMessage() : error.toString()));
+        outboxDispatcher.register(context);
+
+        return context;
+    }
+
+    /* Writes the recipients to the outbox in chunks. Each chunk is handed to the dispatcher right away. */
+    private void enqueueRecipientStream(
+            SendJobContext context, RecipientStreamReader recipientStreamReader, AdmissionPermit admissionPermit) {
+        final int chunkSize = outboxConfiguration.getInsertBatchSize();
+        final List<Recipient> chunk = new ArrayList<>(chunkSize);
+        Recipient recipient;
+
+        do {
+            if (context.isAborted()) {
+                /* E.g. cancelled, the rest of the body is not needed anymore. */
+                return;
             }
 
-            MimeMessage message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(from));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
-            message.setSubject(subject, "UTF-8");
+            recipient = recipientStreamReader.next();
 
-            if (isHtml) {
-                message.setContent(content, "text/html;charset=UTF-8");
-            } else {
-                message.setText(content, "UTF-8");
+            if (recipient != null) {
+                chunk.add(recipient);
             }
 
-            Transport.send(message);
-        } catch (MessagingException e) {
-            e.printStackTrace();
-            final SendEmailErrorEntity sendEmailErrorEntity =
-                    emailHistoryService.persistSendEmailError(from, to, subject, content, e.getMessage(), EmailErrorCategory.MESSAGING);
-            final Long emailErrorId = sendEmailErrorEntity.getId();
+            if (chunk.size() >= chunkSize || (recipient == null && !chunk.isEmpty())) {
+                admissionService.addRecipients(admissionPermit, chunk.size());
+                enqueueChunk(context, chunk, null);
+                chunk.clear();
+            }
+        } while (recipient != null);
+    }
 
-            emailHistoryService.persistSentEmail(
-                    emailTemplateId, from, to, subject, content, false, confirmationToken, emailErrorId);
+    /* Reads the recipients from the database page by page and writes each page to the outbox. */
+    private void enqueueRecipients(
+            SendJobContext context,
+            List<Long> recipientIds,
+            Map<Long, Map<String, String>> recipientPlaceholders,
+            DeliverySchedule deliverySchedule) {
+        final int pageSize = outboxConfiguration.getInsertBatchSize();
 
-            if (e instanceof AuthenticationFailedException) {
-                throw ExceptionsUtil.getCredentialsAuthenticationFailedException(e.getMessage());
+        for (int from = 0; from < recipientIds.size() && !context.isAborted(); from += pageSize) {
+            final List<Recipient> page = recipientService.getEmailRecipientsByIds(
+                    recipientIds.subList(from, Math.min(from + pageSize, recipientIds.size())), recipientPlaceholders);
+
+            if (!page.isEmpty()) {
+                enqueueChunk(context, page, deliverySchedule);
             }
+        }
+    }
+
+    private void enqueueChunk(SendJobContext context, List<Recipient> chunk, DeliverySchedule deliverySchedule) {
+        outboxService.enqueue(context.getSendJobId(), context.getEmailTemplateId(), chunk, deliverySchedule);
+        context.addEmails(chunk.size());
+        sendJobService.updateTotalCount(context.getSendJobId(), context.getTotalCount());
+        outboxDispatcher.wakeUp();
+    }
 
-            throw new RuntimeException(e);
+    private void runSendJobAsync(SendJobContext context) {
+        runSendJobAsync(context, null);
+    }
+
+    /*
+     * Nobody waits for an async job, so it is finished once its last email went through the pipeline. No thread waits
+     * for it either, which keeps a paused job from holding one. The optional submission writes the emails of the job
+     * to the outbox on the job thread.
+     */
+    private void runSendJobAsync(SendJobContext context, Runnable submission) {
+        context.whenComplete(error -> sendJobService.finishSendJob(
+                context.getSendJobId(),
+                error == null ? null : error.getMessage() != null ? error.getMessage() : error.toString()));
+
+        try {
+            sendJobExecutor.execute(() -> {
+                if (submission != null && !submitEmails(context, submission)) {
+                    return;
+                }
+
+                sendPipeline.prewarm(context, context.getTotalCount());
+                outboxDispatcher.wakeUp();
+            });
+        } catch (TaskRejectedException e) {
+            context.abort(new IllegalStateException("Send job was rejected: " + e.getMessage(), e));
+            throw e;
+        }
+    }
+
+    /* The job thread only writes the emails of a scheduled job to the outbox, it does not wait for them. */
+    private void submitScheduledEmailsAsync(SendJobContext context, Runnable submission) {
+        try {
+            sendJobExecutor.execute(() -> {
+                if (submitEmails(context, submission)) {
+                    scheduledSendService.onSendJobScheduled(context.getSendJobId());
+                }
+            });
+        } catch (TaskRejectedException e) {
+            context.abort(e);
+            throw e;
+        }
+    }
+
+    private boolean submitEmails(SendJobContext context, Runnable submission) {
+        try {
+            submission.run();
         } catch (RuntimeException e) {
-            e.printStackTrace();
-            final SendEmailErrorEntity sendEmailErrorEntity =
-                    emailHistoryService.persistSendEmailError(from, to, subject, content, e.getMessage(), EmailErrorCategory.RUNTIME);
-            final Long emailErrorId = sendEmailErrorEntity.getId();
+            log.error("Submitting the emails of send job {} failed.", context.getSendJobId(), e);
+
+            final String error = e.getMessage() != null ? e.getMessage() : e.toString();
+
+            context.abort(e);
+            sendJobService.finishSendJob(context.getSendJobId(), error);
+
+            return false;
+        }
+
+        context.closeSubmission();
+
+        return true;
+    }
+
+    private int runSendJob(SendJobContext context) {
+        try {
+            sendPipeline.prewarm(context, context.getTotalCount());
+            outboxDispatcher.wakeUp();
 
-            emailHistoryService.persistSentEmail(
-                    emailTemplateId, from, to, subject, content, false, confirmationToken, emailErrorId);
+            final int sentCount = context.awaitCompletion();
+            sendJobService.finishSendJob(context.getSendJobId(), null);
 
+            return sentCount;
+        } catch (RuntimeException e) {
+            sendJobService.finishSendJob(context.getSendJobId(), e.getMessage() != null ? e.getMessage() : e.toString());
             throw e;
-        } catch (Exception e) {
-            e.printStackTrace();
-            final SendEmailErrorEntity sendEmailErrorEntity =
-                    emailHistoryService.persistSendEmailError(from, to, subject, content, e.getMessage(), EmailErrorCategory.UNKNOWN);
-            final Long emailErrorId = sendEmailErrorEntity.getId();
+        }
+    }
 
-            emailHistoryService.persistSentEmail(
-                    emailTemplateId, from, to, subject, content, false, confirmationToken, emailErrorId);
+    private SendJobContext createSendJobContext(
+            Long sendJobId, SendEmailResource sendEmailResource, boolean submissionOpen) {
+        return createSendJobContext(sendJobId, sendEmailResource, submissionOpen, false);
+    }
 
-            throw new RuntimeException(e);
+    private SendJobContext createSendJobContext(
+            Long sendJobId, SendEmailResource sendEmailResource, boolean submissionOpen, boolean awaitingSchedule) {
+        final CredentialsResource credentials = sendEmailResource.getCredentials();
+        final SendJobContext.SendJobContextBuilder builder = SendJobContext.builder()
+                .sendJobId(sendJobId)
+                .emailTemplateId(sendEmailResource.getId())
+                .subject(sendEmailResource.getTitle())
+                .message(sendEmailResource.getMessage())
+                .compiledMessage(emailMessageUtil.compileEmailMessage(
+                        sendEmailResource.getMessage(),
+                        emailTemplatesConfiguration.getPlaceholderPrefix(),
+                        emailTemplatesConfiguration.getPlaceholderSuffix()))
+                .confirmationLinkPrefix(emailMessageUtil.buildConfirmationAppLinkPrefix(sendEmailResource.getTitle()))
+                .html(sendEmailResource.getIsHtml())
+                .includeConfirmationLink(sendEmailResource.getIncludeConfirmationLink())
+                .totalCount(sendEmailResource.getRecipients().size())
+                .lane(getLane(sendEmailResource, submissionOpen))
+                .submissionOpen(submissionOpen)
+                .awaitingSchedule(awaitingSchedule);
+
+        /*
+         * Optional credentials and smtp server.
+         * If they are not provided, the default credentials (config vars) and default route or smtp server will be used.
+         */
+        if (areCredentialsProvided(credentials)) {
+            return builder
+                    .smtpServerName(credentials.getSmtpServerName())
+                    .username(credentials.getUsername())
+                    .password(credentials.getPassword())
+                    .mimeMessageTemplate(MimeMessageTemplate.create(
+                            credentials.getUsername(), sendEmailResource.getTitle(), sendEmailResource.getIsHtml()))
+                    .build();
         }
 
-        emailHistoryService.persistSentEmail(
-                emailTemplateId, from, to, subject, content, true, confirmationToken, null);
+        /* Only the default credentials are known to the other instances, so only such jobs are shared. */
+        return builder
+                .smtpServerName(smtpRouter.getDefaultServerName())
+                .username(smtpService.getUsername())
+                .password(smtpService.getPassword())
+                .mimeMessageTemplate(MimeMessageTemplate.create(
+                        smtpService.getUsername(), sendEmailResource.getTitle(), sendEmailResource.getIsHtml()))
+                .shared(clusterService.isEnabled())
+                .build();
     }
 
     private List<RecipientEmailPreview> buildPreviewEmails(PreviewEmailResource previewEmailResource) {
-        List<RecipientEmailPreview> recipientEmailPreviews = new ArrayList<>();
-
-        for (Recipient recipient : previewEmailResource.getRecipients()) {
-            RecipientEmailPreview recipientEmailPreview = RecipientEmailPreview.builder()
-                    .email(recipient.getEmail())
-                    .subject(previewEmailResource.getTitle())
-                    .message(
-                            emailMessageUtil.buildEmailMessage(
-                                    previewEmailResource.getMessage(),
-                                    recipient.getPlaceholders(),
-                                    emailTemplatesConfiguration.getPlaceholderPrefix(),
-                                    emailTemplatesConfiguration.getPlaceholderSuffix()))
-                    .build();
+        final CompiledTemplate compiledMessage = compilePreviewMessage(previewEmailResource);
+
+        return previewEmailResource.getRecipients().parallelStream()
+                .map(recipient -> buildPreviewEmail(previewEmailResource, compiledMessage, recipient))
+                .collect(Collectors.toList());
+    }
+
+    private RecipientEmailPreview buildPreviewEmail(
+            PreviewEmailResource previewEmailResource, CompiledTemplate compiledMessage, Recipient recipient) {
+        return RecipientEmailPreview.builder()
+                .email(recipient.getEmail())
+                .subject(previewEmailResource.getTitle())
+                .message(compiledMessage.render(recipient.getPlaceholders()))
+                .build();
+    }
+
+    private CompiledTemplate compilePreviewMessage(PreviewEmailResource previewEmailResource) {
+        return emailMessageUtil.compileEmailMessage(
+                previewEmailResource.getMessage(),
+                emailTemplatesConfiguration.getPlaceholderPrefix(),
+                emailTemplatesConfiguration.getPlaceholderSuffix());
+    }
+
+    private int[] getPageIndexes(int recipientCount, int page, Integer size) {
+        validatePreviewCount("size", size);
+
+        if (page < 0) {
+            throw ExceptionsUtil.getCustomBadRequestException("page must not be negative.");
+        }
 
-            recipientEmailPreviews.add(recipientEmailPreview);
+        final long from = Math.min((long) page * size, recipientCount);
+        final long to = Math.min(from + size, recipientCount);
+
+        return IntStream.range((int) from, (int) to).toArray();
+    }
+
+    /* Evenly spread over the recipients, so that the sample also shows the end of the list. */
+    private int[] getSampleIndexes(int recipientCount, int sample) {
+        validatePreviewCount("sample", sample);
+
+        if (sample >= recipientCount) {
+            return IntStream.range(0, recipientCount).toArray();
         }
 
-        return recipientEmailPreviews;
+        return IntStream.range(0, sample)
+                .map(i -> (int) ((long) i * recipientCount / sample))
+                .toArray();
+    }
+
+    private void validatePreviewCount(String name, Integer count) {
+        final int maxCount = emailTemplatesConfiguration.getPreviewMaxPageSize();
+
+        if (count == null || count < 1 || count > maxCount) {
+            throw ExceptionsUtil.getCustomBadRequestException(
+                    name + " must be between 1 and " + maxCount + ".");
+        }
     }
 
     private boolean areCredentialsProvided(CredentialsResource credentialsResource) {
@@ -261,6 +855,12 @@ public class EmailManagerService {
                credentialsResource.getSmtpServerName() != null;
     }
 
+    private void validateSendEmailResource(SendEmailResource sendEmailResource) {
+        validateEmailTemplateId(sendEmailResource.getId());
+        /* If credentials are provided, we need to validate them first. */
+        validateSmtpServerIfNecessary(sendEmailResource.getCredentials());
+    }
+
     private void validateEmailTemplateId(Long id) {
         if (id == null) {
             throw ExceptionsUtil.getCustomBadRequestException(
@@ -275,9 +875,10 @@ public class EmailManagerService {
 
     private void validateSmtpServerIfNecessary(CredentialsResource credentialsResource) {
         if (areCredentialsProvided(credentialsResource) &&
-            !smtpService.smtpServerByNameExists(credentialsResource.getSmtpServerName())) {
+            !smtpService.smtpServerByNameExists(credentialsResource.getSmtpServerName()) &&
+            !smtpRouter.isRoute(credentialsResource.getSmtpServerName())) {
             throw ExceptionsUtil.getCustomBadRequestException(
-                    "Smtp server with name " + credentialsResource.getSmtpServerName() + " was not found.");
+                    "Smtp server or route with name " + credentialsResource.getSmtpServerName() + " was not found.");
         }
     }
 }
@@ -43,6 +43,22 @@ public class EmailTemplateService {
         return emailTemplateEntitiesToEmailTemplateResources(emailTemplateRepository.findAll());
     }
 
+    /**
+     * Get an email template by its id.
+     *
+     * @param id The id of the email template.
+     * @return The email template.
+     */
+    public EmailTemplateResource getTemplateById(Long id) {
+        EmailTemplateEntity emailTemplateEntity = emailTemplateRepository.findById(id).orElse(null);
+
+        if (emailTemplateEntity == null) {
+            throw ExceptionsUtil.getEmailTemplateNotFoundException(id);
+        }
+
+        return EmailTemplateMapper.entityToResource(emailTemplateEntity);
+    }
+
     /**
      * Update an email template by its id.
      *
@@ -0,0 +1,76 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.HistoryConfiguration;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out ids from blocks that are reserved in the database (hi-lo), so that rows can be inserted in batches
+ * with known ids and rows that reference each other can be written together.
+ * Only one database round trip is needed per block instead of per row.
+ */
+@Service
+@RequiredArgsConstructor
+public class IdAllocator {
+
+    private final IdBlockService idBlockService;
+    private final HistoryConfiguration historyConfiguration;
+
+    private final Map<String, IdBlock> idBlocks = new HashMap<>();
+
+    /**
+     * Allocate ids for new rows of a table.
+     *
+     * @param tableName Name of the table.
+     * @param count     Number of ids.
+     * @return ids, not necessarily consecutive
+     */
+    public synchronized long[] allocate(String tableName, int count) {
+        final long[] ids = new long[count];
+        IdBlock idBlock = idBlocks.get(tableName);
+
+        for (int i = 0; i < count; i++) {
+            if (idBlock == null || idBlock.isExhausted()) {
+                idBlock = reserveBlock(tableName);
+                idBlocks.put(tableName, idBlock);
+            }
+
+            ids[i] = idBlock.next();
+        }
+
+        return ids;
+    }
+
+    private IdBlock reserveBlock(String tableName) {
+        final int blockSize = historyConfiguration.getIdBlockSize();
+
+        /* Once per table and instance, later reservations only lock the existing row. */
+        if (!idBlocks.containsKey(tableName)) {
+            idBlockService.createIdBlockIfAbsent(tableName);
+        }
+
+        return new IdBlock(idBlockService.reserveBlock(tableName, blockSize), blockSize);
+    }
+
+    private static class IdBlock {
+
+        private final long end;
+        private long next;
+
+        IdBlock(long first, int size) {
+            this.next = first;
+            this.end = first + size;
+        }
+
+        boolean isExhausted() {
+            return next >= end;
+        }
+
+        long next() {
+            return next++;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.domain.entity.IdBlockEntity;
+import com.fmi.mailtemplaterbe.repository.IdBlockRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Reserves blocks of ids for the tables, whose ids are assigned by the app. The blocks are shared by all app instances.
+ */
+@Service
+@RequiredArgsConstructor
+public class IdBlockService {
+
+    private final IdBlockRepository idBlockRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Create the id block of a table, unless it exists already. The first block continues after the ids,
+     * which the database assigned so far.
+     *
+     * @param tableName Name of the table.
+     */
+    public void createIdBlockIfAbsent(String tableName) {
+        /*
+         * Not part of the reservation: a SELECT ... FOR UPDATE of a missing row takes a gap lock,
+         * so two instances inserting the same block after it would deadlock.
+         */
+        jdbcTemplate.update(
+                "INSERT IGNORE INTO id_blocks (name, next_id) SELECT ?, COALESCE(MAX(id), 0) + 1 FROM " + tableName,
+                tableName);
+    }
+
+    /**
+     * Reserve the next block of ids of a table. Runs in its own transaction, so that the row lock is held
+     * only for the reservation and not for the inserts that use the ids.
+     *
+     * @param tableName Name of the table.
+     * @param blockSize Number of ids to reserve.
+     * @return first id of the block
+     * @throws IllegalStateException if the id block of the table was not created
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public long reserveBlock(String tableName, int blockSize) {
+        final IdBlockEntity idBlockEntity = idBlockRepository.findByNameForUpdate(tableName)
+                .orElseThrow(() -> new IllegalStateException("The id block of " + tableName + " does not exist."));
+        final long firstId = idBlockEntity.getNextId();
+
+        idBlockEntity.setNextId(firstId + blockSize);
+        idBlockRepository.save(idBlockEntity);
+
+        return firstId;
+    }
+}
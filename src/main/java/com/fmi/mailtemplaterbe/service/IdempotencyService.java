@@ -0,0 +1,231 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fmi.mailtemplaterbe.config.IdempotencyConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.IdempotencyKeyEntity;
+import com.fmi.mailtemplaterbe.repository.IdempotencyKeyRepository;
+import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Idempotency keys of send requests. The first request with a key claims it, repeated requests with the same key get
+ * the send job of the first one instead of sending again - also when they arrive while the first one is running.
+ * <p></p>
+ * The claim is a single insert, which the unique key makes atomic across all app instances.
+ * A claim, which did not create its send job within the pending timeout, is considered abandoned
+ * (e.g. the instance died) and is taken over by the next request with the key.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IdempotencyService {
+
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final String INSERT_IF_ABSENT_SQL =
+            "INSERT IGNORE INTO idempotency_keys (idempotency_key, request_hash, created_at, expires_at) " +
+            "VALUES (?, ?, ?, ?)";
+    private static final String UPDATE_SEND_JOB_ID_SQL =
+            "UPDATE idempotency_keys SET send_job_id = ? WHERE idempotency_key = ? AND send_job_id IS NULL";
+    private static final String DELETE_PENDING_SQL =
+            "DELETE FROM idempotency_keys WHERE idempotency_key = ? AND send_job_id IS NULL";
+    private static final String DELETE_ABANDONED_SQL =
+            "DELETE FROM idempotency_keys WHERE idempotency_key = ? AND send_job_id IS NULL AND created_at < ?";
+    private static final String DELETE_EXPIRED_KEY_SQL =
+            "DELETE FROM idempotency_keys WHERE idempotency_key = ? AND expires_at < ?";
+    private static final String DELETE_EXPIRED_SQL =
+            "DELETE FROM idempotency_keys WHERE expires_at < ? LIMIT ?";
+
+    private final IdempotencyConfiguration idempotencyConfiguration;
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final ClusterService clusterService;
+
+    private final AtomicLong nextCleanupAt = new AtomicLong();
+
+    /**
+     * Claim an idempotency key for a request. If another request already claimed it, wait until that request created
+     * its send job.
+     *
+     * @param idempotencyKey The key, null if the request has none.
+     * @param operation      Name of the operation, a key cannot be reused for another operation.
+     * @param request        The request body.
+     * @return null if the request has to be executed, otherwise the id of the send job of the original request
+     * @throws com.fmi.mailtemplaterbe.exception.IdempotencyKeyConflictException if the key was used for a different
+     *                                                                           request or the original request does
+     *                                                                           not create its send job in time
+     */
+    public Long claim(String idempotencyKey, String operation, Object request) {
+        if (idempotencyKey == null) {
+            return null;
+        }
+
+        validateIdempotencyKey(idempotencyKey);
+        deleteExpiredKeysIfDue();
+
+        final String requestHash = hashRequest(operation, request);
+        final long deadline = System.currentTimeMillis() + idempotencyConfiguration.getPendingTimeout();
+
+        while (true) {
+            final LocalDateTime now = LocalDateTime.now();
+
+            if (jdbcTemplate.update(
+                    INSERT_IF_ABSENT_SQL,
+                    idempotencyKey,
+                    requestHash,
+                    Timestamp.valueOf(now),
+                    Timestamp.valueOf(now.plusNanos(idempotencyConfiguration.getTtl() * 1_000_000))) == 1) {
+                return null;
+            }
+
+            final IdempotencyKeyEntity idempotencyKeyEntity =
+                    idempotencyKeyRepository.findById(idempotencyKey).orElse(null);
+
+            if (idempotencyKeyEntity == null) {
+                /* Released by the original request in the meantime, try to claim it again. */
+                continue;
+            }
+
+            if (idempotencyKeyEntity.getExpiresAt().isBefore(now)) {
+                jdbcTemplate.update(DELETE_EXPIRED_KEY_SQL, idempotencyKey, Timestamp.valueOf(now));
+                continue;
+            }
+
+            if (!requestHash.equals(idempotencyKeyEntity.getRequestHash())) {
+                throw ExceptionsUtil.getIdempotencyKeyMismatchException(idempotencyKey);
+            }
+
+            if (idempotencyKeyEntity.getSendJobId() != null) {
+                return idempotencyKeyEntity.getSendJobId();
+            }
+
+            final LocalDateTime abandonedBefore =
+                    now.minusNanos(idempotencyConfiguration.getPendingTimeout() * 1_000_000);
+
+            if (idempotencyKeyEntity.getCreatedAt().isBefore(abandonedBefore)) {
+                /* Conditional, so that only one of the waiting requests takes the claim over. */
+                jdbcTemplate.update(DELETE_ABANDONED_SQL, idempotencyKey, Timestamp.valueOf(abandonedBefore));
+                continue;
+            }
+
+            if (System.currentTimeMillis() >= deadline) {
+                throw ExceptionsUtil.getIdempotencyKeyInProgressException(idempotencyKey);
+            }
+
+            sleep(idempotencyConfiguration.getPollInterval());
+        }
+    }
+
+    /**
+     * Record the send job of the request that claimed the key. A claim, which was taken over in the meantime,
+     * keeps the send job of the request that took it over.
+     *
+     * @param idempotencyKey The key, null if the request has none.
+     * @param sendJobId      Id of the send job.
+     */
+    public void complete(String idempotencyKey, Long sendJobId) {
+        if (idempotencyKey != null) {
+            jdbcTemplate.update(UPDATE_SEND_JOB_ID_SQL, sendJobId, idempotencyKey);
+        }
+    }
+
+    /**
+     * Release the key of a request that failed before it created its send job, so that it can be repeated.
+     *
+     * @param idempotencyKey The key, null if the request has none.
+     */
+    public void release(String idempotencyKey) {
+        if (idempotencyKey != null) {
+            jdbcTemplate.update(DELETE_PENDING_SQL, idempotencyKey);
+        }
+    }
+
+    /**
+     * Get how long a repeated synchronous request waits for the send job of the original request (ms).
+     *
+     * @return timeout
+     */
+    public long getResultTimeout() {
+        return idempotencyConfiguration.getResultTimeout();
+    }
+
+    /**
+     * Wait for a repeated request, e.g. until the send job of the original request finished.
+     *
+     * @throws com.fmi.mailtemplaterbe.exception.CustomBadRequestException if interrupted
+     */
+    public void awaitPollInterval() {
+        sleep(idempotencyConfiguration.getPollInterval());
+    }
+
+    /* At most once per cleanup interval on the leader, a single bounded delete over the expires_at index. */
+    private void deleteExpiredKeysIfDue() {
+        if (!clusterService.isLeader()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long cleanupAt = nextCleanupAt.get();
+
+        if (now < cleanupAt || !nextCleanupAt.compareAndSet(cleanupAt, now + idempotencyConfiguration.getCleanupInterval())) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.update(
+                    DELETE_EXPIRED_SQL,
+                    Timestamp.valueOf(LocalDateTime.now()),
+                    idempotencyConfiguration.getCleanupBatchSize());
+        } catch (RuntimeException e) {
+            /* Expired keys are also replaced when they are used again, the next cleanup catches up. */
+            log.warn("Deleting the expired idempotency keys failed.", e);
+        }
+    }
+
+    private String hashRequest(String operation, Object request) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            digest.update(operation.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(objectMapper.writeValueAsBytes(request));
+
+            final StringBuilder hash = new StringBuilder(64);
+
+            for (byte b : digest.digest()) {
+                hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return hash.toString();
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void validateIdempotencyKey(String idempotencyKey) {
+        if (idempotencyKey.trim().isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw ExceptionsUtil.getCustomBadRequestException(
+                    "Idempotency-Key must not be blank and at most " + MAX_KEY_LENGTH + " characters long.");
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ExceptionsUtil.getCustomBadRequestException("Interrupted while waiting for the original request.");
+        }
+    }
+}
@@ -0,0 +1,1141 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import com.fmi.mailtemplaterbe.domain.model.SmtpServerDescriptor;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPOutputStream;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Smtp client on non-blocking sockets, used for the smtp servers with the NIO transport.
+ * A few event loop threads multiplex all connections, so a connection that waits for the server does not hold a thread.
+ * <p></p>
+ * If the server advertises PIPELINING (RFC 2920), MAIL, RCPT and DATA of a message are written at once and their
+ * replies are read afterwards, so a message costs two round trips instead of four. STARTTLS and implicit TLS are
+ * used as configured for the server.
+ * <p></p>
+ * Connections are kept per smtp server and credentials, up to the number of send threads of the server,
+ * and are closed after the idle timeout of the connection pool.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NioSmtpClient {
+
+    private static final long TICK_MILLIS = 100;
+    private static final long DEFAULT_TIMEOUT = 30000;
+    private static final String[] IGNORED_HEADERS = {"Bcc", "Content-Length"};
+    private static final byte[] DATA_END = {'.', '\r', '\n'};
+    private static final ByteBuffer[] NO_DATA = {};
+    /* Reply code of servers that are closing the transmission channel. */
+    private static final int SERVICE_NOT_AVAILABLE_REPLY_CODE = 421;
+
+    private final SmtpConfiguration smtpConfiguration;
+
+    private final ConcurrentMap<ConnectionKey, ConnectionGroup> connectionGroups = new ConcurrentHashMap<>();
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    private EventLoop[] eventLoops;
+    private SSLContext sslContext;
+    private String localHostName;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() throws IOException, GeneralSecurityException {
+        sslContext = createSslContext();
+        localHostName = resolveLocalHostName();
+        running = true;
+        eventLoops = new EventLoop[Math.max(1, smtpConfiguration.getNio().getIoThreads())];
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop("smtp-nio-" + i);
+            eventLoops[i].thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.selector.wakeup();
+        }
+
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Send a message over a connection to the smtp server. Blocks while twice as many messages as connections are
+     * already in flight for the server and credentials, so that a fast caller cannot queue up unlimited messages.
+     *
+     * @param descriptor     The smtp server.
+     * @param username       Username.
+     * @param password       Password.
+     * @param message        Message to send.
+     * @param maxConnections Max number of connections to the server with the credentials.
+     * @return future, which completes once the server accepted the message or fails with a MessagingException
+     * @throws MessagingException   if the message has no sender or recipients
+     * @throws InterruptedException if interrupted while waiting for the messages in flight
+     */
+    public CompletableFuture<Void> send(
+            SmtpServerDescriptor descriptor, String username, String password, MimeMessage message, int maxConnections)
+            throws MessagingException, InterruptedException {
+        if (!running) {
+            throw new MessagingException("The smtp client is stopped.");
+        }
+
+        final Transaction transaction = createTransaction(message);
+        final ConnectionGroup connectionGroup = connectionGroups.computeIfAbsent(
+                new ConnectionKey(descriptor, username, password),
+                key -> new ConnectionGroup(key, Math.max(1, maxConnections)));
+
+        connectionGroup.permits.acquire();
+        transaction.future.whenComplete((result, error) -> connectionGroup.permits.release());
+        connectionGroup.submit(transaction);
+
+        return transaction.future;
+    }
+
+    private Transaction createTransaction(MimeMessage message) throws MessagingException {
+        message.saveChanges();
+
+        final Address[] from = message.getFrom();
+        final Address[] recipients = message.getAllRecipients();
+
+        if (from == null || from.length == 0) {
+            throw new MessagingException("The message has no sender.");
+        }
+
+        if (recipients == null || recipients.length == 0) {
+            throw new SendFailedException("No recipient addresses");
+        }
+
+        /* Dot stuffing and CRLF line endings, same as the DATA stream of JavaMail. */
+        final ByteArrayOutputStream data = new ByteArrayOutputStream(8192);
+        final SMTPOutputStream smtpOutputStream = new SMTPOutputStream(data);
+
+        try {
+            message.writeTo(smtpOutputStream, IGNORED_HEADERS);
+            smtpOutputStream.ensureAtBOL();
+            smtpOutputStream.flush();
+            data.write(DATA_END);
+        } catch (IOException e) {
+            throw new MessagingException("Could not encode the message.", e);
+        }
+
+        return new Transaction(((InternetAddress) from[0]).getAddress(), recipients, data.toByteArray());
+    }
+
+    private void openConnection(ConnectionGroup connectionGroup) {
+        final EventLoop eventLoop = eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+        final Connection connection = new Connection(eventLoop, connectionGroup);
+
+        eventLoop.execute(() -> connection.runSafely(connection::connect));
+    }
+
+    /*
+     * Same trust as "mail.smtp.ssl.trust" with the host of the server, which the JavaMail sessions use:
+     * the certificate of the configured host is accepted as it is.
+     */
+    private static SSLContext createSslContext() throws GeneralSecurityException {
+        final SSLContext context = SSLContext.getInstance("TLS");
+
+        context.init(null, new TrustManager[]{new X509TrustManager() {
+
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+
+        return context;
+    }
+
+    private static String resolveLocalHostName() {
+        try {
+            return InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+
+    private static MessagingException toMessagingException(Exception e) {
+        if (e instanceof MessagingException) {
+            return (MessagingException) e;
+        }
+
+        return new MessagingException(e.getMessage() != null ? e.getMessage() : e.toString(), e);
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+        final ByteBuffer enlarged = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+
+        buffer.flip();
+        enlarged.put(buffer);
+
+        return enlarged;
+    }
+
+    private static long parseTimeout(String timeout) {
+        try {
+            return timeout != null ? Long.parseLong(timeout.trim()) : DEFAULT_TIMEOUT;
+        } catch (NumberFormatException e) {
+            return DEFAULT_TIMEOUT;
+        }
+    }
+
+    /* Identity of the descriptor on purpose - a reloaded server never shares connections with its old version. */
+    @Data
+    private static class ConnectionKey {
+
+        private final SmtpServerDescriptor descriptor;
+        private final String username;
+        private final String password;
+    }
+
+    private static final class Transaction {
+
+        private final String from;
+        private final Address[] recipients;
+        private final byte[] data;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final List<Reply> recipientReplies = new ArrayList<>();
+        private Reply mailReply;
+        private boolean resubmitted;
+
+        private Transaction(String from, Address[] recipients, byte[] data) {
+            this.from = from;
+            this.recipients = recipients;
+            this.data = data;
+        }
+    }
+
+    private static final class Reply {
+
+        private final int code;
+        private final List<String> lines;
+
+        private Reply(int code, List<String> lines) {
+            this.code = code;
+            this.lines = lines;
+        }
+
+        boolean isPositive() {
+            return code / 100 == 2;
+        }
+
+        String getText() {
+            return String.join("\n", lines);
+        }
+    }
+
+    private interface IoAction {
+
+        void run() throws IOException, MessagingException;
+    }
+
+    private interface ReplyHandler {
+
+        void handle(Reply reply) throws IOException, MessagingException;
+    }
+
+    /**
+     * The connections to a smtp server with the same credentials and the messages that wait for one of them.
+     * Shared by the event loops, so its state is only changed while holding its lock.
+     */
+    private final class ConnectionGroup {
+
+        private final ConnectionKey key;
+        private final int maxConnections;
+        private final Semaphore permits;
+        private final Deque<Transaction> pending = new ArrayDeque<>();
+        private final Deque<Connection> idle = new ArrayDeque<>();
+        private int connections;
+
+        private ConnectionGroup(ConnectionKey key, int maxConnections) {
+            this.key = key;
+            this.maxConnections = maxConnections;
+            this.permits = new Semaphore(maxConnections * 2);
+        }
+
+        void submit(Transaction transaction) {
+            final Connection connection;
+            boolean open = false;
+
+            synchronized (this) {
+                /* LIFO, so that the most recently used connections stay warm and the rest expire. */
+                connection = idle.pollFirst();
+
+                if (connection == null) {
+                    pending.addLast(transaction);
+
+                    if (connections < maxConnections) {
+                        connections++;
+                        open = true;
+                    }
+                }
+            }
+
+            if (connection != null) {
+                connection.eventLoop.execute(() -> connection.runSafely(() -> connection.startTransaction(transaction)));
+            } else if (open) {
+                openConnection(this);
+            }
+        }
+
+        /* The next message for a connection that became ready, or null if the connection is idle now. */
+        synchronized Transaction nextOrIdle(Connection connection) {
+            final Transaction transaction = pending.pollFirst();
+
+            if (transaction == null) {
+                idle.addFirst(connection);
+            }
+
+            return transaction;
+        }
+
+        synchronized boolean removeIdle(Connection connection) {
+            return idle.remove(connection);
+        }
+
+        void onConnectionClosed(Connection connection, MessagingException error) {
+            List<Transaction> failed = Collections.emptyList();
+            boolean open = false;
+
+            synchronized (this) {
+                idle.remove(connection);
+                connections--;
+
+                if (!pending.isEmpty()) {
+                    if (!connection.ready && error != null) {
+                        /* The server cannot be reached. Unless another connection gets through, the messages fail. */
+                        if (connections == 0) {
+                            failed = new ArrayList<>(pending);
+                            pending.clear();
+                        }
+                    } else if (connections < maxConnections) {
+                        connections++;
+                        open = true;
+                    }
+                }
+
+                if (connections == 0 && pending.isEmpty()) {
+                    connectionGroups.remove(key, this);
+                }
+            }
+
+            for (Transaction transaction : failed) {
+                transaction.future.completeExceptionally(error);
+            }
+
+            if (open) {
+                openConnection(this);
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<Connection> connections = new HashSet<>();
+
+        private EventLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long nextTick = System.currentTimeMillis() + TICK_MILLIS;
+
+            while (running) {
+                try {
+                    selector.select(TICK_MILLIS);
+                } catch (IOException e) {
+                    log.error("Selecting the ready connections of {} failed.", thread.getName(), e);
+                }
+
+                Runnable task;
+
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                final Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+
+                while (selectedKeys.hasNext()) {
+                    final SelectionKey selectionKey = selectedKeys.next();
+
+                    selectedKeys.remove();
+                    ((Connection) selectionKey.attachment()).handle(selectionKey);
+                }
+
+                final long now = System.currentTimeMillis();
+
+                if (now >= nextTick) {
+                    for (Connection connection : new ArrayList<>(connections)) {
+                        connection.checkTimeouts(now);
+                    }
+
+                    nextTick = now + TICK_MILLIS;
+                }
+            }
+
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close(new MessagingException("The smtp client is stopping."));
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                /* Stopping anyway. */
+            }
+        }
+    }
+
+    /**
+     * A single smtp connection. Only used by the thread of its event loop.
+     */
+    private final class Connection {
+
+        private final EventLoop eventLoop;
+        private final ConnectionGroup connectionGroup;
+        private final String host;
+        private final int port;
+        private final boolean implicitTls;
+        private final boolean startTls;
+        private final boolean auth;
+        private final long connectTimeout;
+        private final long readTimeout;
+
+        private SocketChannel channel;
+        private SelectionKey selectionKey;
+        private ByteBuffer appIn = ByteBuffer.allocate(4096);
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+        private final Deque<ReplyHandler> expectedReplies = new ArrayDeque<>();
+        private final StringBuilder line = new StringBuilder();
+        private final List<String> replyLines = new ArrayList<>();
+
+        private SSLEngine sslEngine;
+        private ByteBuffer netIn;
+        private ByteBuffer netOut;
+        private boolean handshaking;
+        /* The handshake expects no smtp reply, so the read deadline does not cover it. */
+        private long handshakeDeadline;
+        private IoAction afterHandshake;
+        private boolean discardInput;
+
+        private final Set<String> extensions = new HashSet<>();
+        private final Set<String> authMechanisms = new HashSet<>();
+        private boolean pipelining;
+        private boolean ready;
+        private boolean closed;
+        private long deadline;
+        private long lastUsed = System.currentTimeMillis();
+        private Transaction transaction;
+
+        private Connection(EventLoop eventLoop, ConnectionGroup connectionGroup) {
+            final SmtpConfiguration.SmtpServer server = connectionGroup.key.getDescriptor().getServer();
+
+            this.eventLoop = eventLoop;
+            this.connectionGroup = connectionGroup;
+            this.host = server.getHost();
+            this.port = Integer.parseInt(server.getPort().trim());
+            this.implicitTls = server.getSsl() != null && Boolean.parseBoolean(server.getSsl().getEnable());
+            this.startTls = server.getStarttls() != null && Boolean.parseBoolean(server.getStarttls().getEnable());
+            this.auth = Boolean.parseBoolean(server.getAuth());
+            this.connectTimeout = parseTimeout(server.getConnectiontimeout());
+            this.readTimeout = parseTimeout(server.getTimeout());
+        }
+
+        void runSafely(IoAction action) {
+            try {
+                action.run();
+
+                if (!closed) {
+                    flush();
+                }
+            } catch (IOException | MessagingException | RuntimeException e) {
+                close(toMessagingException(e));
+            }
+        }
+
+        void handle(SelectionKey key) {
+            runSafely(() -> {
+                if (!key.isValid()) {
+                    return;
+                }
+
+                if (key.isConnectable()) {
+                    onConnected();
+                }
+
+                if (!closed && key.isValid() && key.isReadable()) {
+                    read();
+                }
+            });
+        }
+
+        void connect() throws IOException, MessagingException {
+            eventLoop.connections.add(this);
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            selectionKey = channel.register(eventLoop.selector, 0, this);
+            deadline = System.currentTimeMillis() + connectTimeout;
+
+            if (channel.connect(new InetSocketAddress(host, port))) {
+                onConnected();
+            } else {
+                selectionKey.interestOps(SelectionKey.OP_CONNECT);
+            }
+        }
+
+        private void onConnected() throws IOException, MessagingException {
+            if (!channel.finishConnect()) {
+                return;
+            }
+
+            selectionKey.interestOps(SelectionKey.OP_READ);
+            expect(this::onGreeting);
+
+            if (implicitTls) {
+                startTls(null);
+            }
+        }
+
+        private void onGreeting(Reply reply) throws IOException, MessagingException {
+            if (reply.code != 220) {
+                throw replyError("CONNECT", reply, null);
+            }
+
+            ehlo();
+        }
+
+        private void ehlo() {
+            command("EHLO " + localHostName, reply -> {
+                if (reply.isPositive()) {
+                    parseExtensions(reply);
+                    afterEhlo();
+                } else if (reply.code / 100 == 5) {
+                    /* Server without ESMTP. */
+                    command("HELO " + localHostName, heloReply -> {
+                        if (!heloReply.isPositive()) {
+                            throw replyError("HELO", heloReply, null);
+                        }
+
+                        afterEhlo();
+                    });
+                } else {
+                    throw replyError("EHLO", reply, null);
+                }
+            });
+        }
+
+        private void parseExtensions(Reply reply) {
+            extensions.clear();
+            authMechanisms.clear();
+
+            for (int i = 1; i < reply.lines.size(); i++) {
+                final String extension = reply.lines.get(i).length() > 4 ? reply.lines.get(i).substring(4).trim() : "";
+                final String[] tokens = extension.toUpperCase(Locale.ROOT).split("[ =]+");
+
+                extensions.add(tokens[0]);
+
+                if ("AUTH".equals(tokens[0])) {
+                    Collections.addAll(authMechanisms, tokens);
+                    authMechanisms.remove("AUTH");
+                }
+            }
+
+            pipelining = extensions.contains("PIPELINING");
+        }
+
+        private void afterEhlo() throws IOException, MessagingException {
+            if (startTls && sslEngine == null && extensions.contains("STARTTLS")) {
+                command("STARTTLS", reply -> {
+                    if (reply.code != 220) {
+                        throw replyError("STARTTLS", reply, null);
+                    }
+
+                    startTls(this::ehlo);
+                });
+                return;
+            }
+
+            authenticate();
+        }
+
+        private void authenticate() throws IOException, MessagingException {
+            final String username = connectionGroup.key.getUsername();
+            final String password = connectionGroup.key.getPassword();
+
+            if (!auth || username == null || password == null || !extensions.contains("AUTH")) {
+                onReady();
+                return;
+            }
+
+            if (authMechanisms.contains("PLAIN")) {
+                command("AUTH PLAIN " + encodeBase64("\0" + username + "\0" + password), this::onAuthenticated);
+            } else if (authMechanisms.contains("LOGIN")) {
+                command("AUTH LOGIN", reply -> {
+                    expectAuthChallenge(reply);
+                    command(encodeBase64(username), usernameReply -> {
+                        expectAuthChallenge(usernameReply);
+                        command(encodeBase64(password), this::onAuthenticated);
+                    });
+                });
+            } else {
+                throw new AuthenticationFailedException("No authentication mechanisms supported by both server and client");
+            }
+        }
+
+        private void expectAuthChallenge(Reply reply) throws AuthenticationFailedException {
+            if (reply.code != 334) {
+                throw new AuthenticationFailedException(reply.getText());
+            }
+        }
+
+        private void onAuthenticated(Reply reply) throws IOException, MessagingException {
+            if (reply.code != 235) {
+                throw new AuthenticationFailedException(reply.getText());
+            }
+
+            onReady();
+        }
+
+        private void onReady() throws IOException, MessagingException {
+            ready = true;
+            takeNextTransaction();
+        }
+
+        private void takeNextTransaction() throws IOException, MessagingException {
+            final Transaction next = connectionGroup.nextOrIdle(this);
+
+            lastUsed = System.currentTimeMillis();
+
+            if (next != null) {
+                startTransaction(next);
+            }
+        }
+
+        void startTransaction(Transaction next) throws IOException, MessagingException {
+            if (closed) {
+                /* Closed while it was handed over, e.g. by the server. */
+                connectionGroup.submit(next);
+                return;
+            }
+
+            transaction = next;
+            command("MAIL FROM:<" + next.from + ">", this::onMailReply);
+
+            if (pipelining) {
+                for (Address recipient : next.recipients) {
+                    command(recipientCommand(recipient), this::onRecipientReply);
+                }
+
+                command("DATA", this::onDataReply);
+            }
+        }
+
+        private void onMailReply(Reply reply) throws IOException, MessagingException {
+            transaction.mailReply = reply;
+
+            if (pipelining) {
+                return;
+            }
+
+            if (reply.isPositive()) {
+                command(recipientCommand(transaction.recipients[0]), this::onRecipientReply);
+            } else {
+                finishTransaction(replyError("MAIL FROM", reply, transaction), true);
+            }
+        }
+
+        private void onRecipientReply(Reply reply) throws IOException, MessagingException {
+            transaction.recipientReplies.add(reply);
+
+            if (pipelining) {
+                return;
+            }
+
+            if (!reply.isPositive()) {
+                finishTransaction(getEnvelopeError(transaction), true);
+            } else if (transaction.recipientReplies.size() < transaction.recipients.length) {
+                command(recipientCommand(transaction.recipients[transaction.recipientReplies.size()]),
+                        this::onRecipientReply);
+            } else {
+                command("DATA", this::onDataReply);
+            }
+        }
+
+        private void onDataReply(Reply reply) throws IOException, MessagingException {
+            final MessagingException envelopeError = getEnvelopeError(transaction);
+
+            if (envelopeError != null) {
+                if (reply.code == 354) {
+                    /* Pipelined DATA was accepted anyway. Closing the connection aborts the mail transaction. */
+                    final Transaction aborted = transaction;
+
+                    transaction = null;
+                    aborted.future.completeExceptionally(envelopeError);
+                    close(null);
+                } else {
+                    finishTransaction(envelopeError, true);
+                }
+
+                return;
+            }
+
+            if (reply.code != 354) {
+                finishTransaction(replyError("DATA", reply, transaction), true);
+                return;
+            }
+
+            output.add(ByteBuffer.wrap(transaction.data));
+            expect(messageReply -> finishTransaction(
+                    messageReply.isPositive() ? null : replyError("DATA", messageReply, transaction), false));
+        }
+
+        /* The error of a rejected sender or recipient, null if the server accepted all of them. */
+        private MessagingException getEnvelopeError(Transaction current) {
+            if (current.mailReply != null && !current.mailReply.isPositive()) {
+                return replyError("MAIL FROM", current.mailReply, current);
+            }
+
+            for (int i = 0; i < current.recipientReplies.size(); i++) {
+                final Reply reply = current.recipientReplies.get(i);
+
+                if (!reply.isPositive()) {
+                    final SMTPAddressFailedException addressError = new SMTPAddressFailedException(
+                            (InternetAddress) current.recipients[i],
+                            recipientCommand(current.recipients[i]),
+                            reply.code,
+                            reply.getText());
+
+                    return new SMTPSendFailedException(
+                            "RCPT TO", reply.code, reply.getText(), addressError, null, null, current.recipients);
+                }
+            }
+
+            return null;
+        }
+
+        private void finishTransaction(MessagingException error, boolean reset) throws IOException, MessagingException {
+            final Transaction finished = transaction;
+
+            transaction = null;
+
+            if (error == null) {
+                finished.future.complete(null);
+            } else {
+                finished.future.completeExceptionally(error);
+            }
+
+            if (closed) {
+                return;
+            }
+
+            if (!reset) {
+                takeNextTransaction();
+                return;
+            }
+
+            command("RSET", reply -> {
+                if (!reply.isPositive()) {
+                    throw replyError("RSET", reply, null);
+                }
+
+                if (!pipelining) {
+                    takeNextTransaction();
+                }
+            });
+
+            if (pipelining) {
+                takeNextTransaction();
+            }
+        }
+
+        void checkTimeouts(long now) {
+            if (closed) {
+                return;
+            }
+
+            if (!channel.isConnected() && now > deadline) {
+                close(toMessagingException(new SocketTimeoutException("Connect timed out")));
+            } else if (handshaking && now > handshakeDeadline) {
+                close(toMessagingException(new SocketTimeoutException("TLS handshake timed out")));
+            } else if (!expectedReplies.isEmpty() && now > deadline) {
+                close(toMessagingException(new SocketTimeoutException("Read timed out")));
+            } else if (ready &&
+                       transaction == null &&
+                       expectedReplies.isEmpty() &&
+                       now - lastUsed > smtpConfiguration.getPool().getIdleTimeout() &&
+                       connectionGroup.removeIdle(this)) {
+                runSafely(() -> command("QUIT", reply -> close(null)));
+            }
+        }
+
+        void close(MessagingException error) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            eventLoop.connections.remove(this);
+
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                /* The connection is discarded anyway. */
+            }
+
+            final Transaction unfinished = transaction;
+
+            transaction = null;
+
+            if (unfinished != null && !unfinished.future.isDone()) {
+                if (unfinished.mailReply == null && !unfinished.resubmitted) {
+                    /* The server did not even answer MAIL, e.g. a connection that it dropped while idle. */
+                    unfinished.resubmitted = true;
+                    connectionGroup.onConnectionClosed(this, error);
+                    connectionGroup.submit(unfinished);
+                    return;
+                }
+
+                unfinished.future.completeExceptionally(
+                        error != null ? error : new MessagingException("The connection was closed."));
+            }
+
+            connectionGroup.onConnectionClosed(this, error);
+        }
+
+        private void startTls(IoAction afterHandshake) throws IOException {
+            sslEngine = sslContext.createSSLEngine(host, port);
+            sslEngine.setUseClientMode(true);
+
+            final SSLSession session = sslEngine.getSession();
+
+            netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+            netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+            /* Anything the server sent in plain text after the STARTTLS reply must not be trusted. */
+            appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+            discardInput = afterHandshake != null;
+            handshaking = true;
+            handshakeDeadline = System.currentTimeMillis() + readTimeout;
+            this.afterHandshake = afterHandshake;
+            sslEngine.beginHandshake();
+        }
+
+        private void command(String command, ReplyHandler handler) {
+            output.add(ByteBuffer.wrap((command + "\r\n").getBytes(StandardCharsets.UTF_8)));
+            expect(handler);
+        }
+
+        private void expect(ReplyHandler handler) {
+            if (expectedReplies.isEmpty()) {
+                deadline = System.currentTimeMillis() + readTimeout;
+            }
+
+            expectedReplies.addLast(handler);
+        }
+
+        private void read() throws IOException, MessagingException {
+            final ByteBuffer target = sslEngine != null ? netIn : appIn;
+
+            if (!target.hasRemaining()) {
+                if (sslEngine != null) {
+                    netIn = enlarge(netIn, sslEngine.getSession().getPacketBufferSize());
+                } else {
+                    appIn = enlarge(appIn, appIn.capacity() * 2);
+                }
+            }
+
+            if (channel.read(sslEngine != null ? netIn : appIn) < 0) {
+                throw new EOFException("The smtp server closed the connection.");
+            }
+
+            if (sslEngine != null) {
+                processTls();
+            }
+
+            processReplies();
+        }
+
+        private void processReplies() throws IOException, MessagingException {
+            appIn.flip();
+
+            while (appIn.hasRemaining()) {
+                final char c = (char) (appIn.get() & 0xFF);
+
+                if (c != '\n') {
+                    if (c != '\r') {
+                        line.append(c);
+                    }
+
+                    continue;
+                }
+
+                final String replyLine = line.toString();
+
+                line.setLength(0);
+                replyLines.add(replyLine);
+
+                if (replyLine.length() > 3 && replyLine.charAt(3) == '-') {
+                    continue;
+                }
+
+                final Reply reply;
+
+                try {
+                    reply = new Reply(Integer.parseInt(replyLine.substring(0, Math.min(3, replyLine.length()))),
+                            new ArrayList<>(replyLines));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid reply from the smtp server: " + replyLine);
+                } finally {
+                    replyLines.clear();
+                }
+
+                dispatch(reply);
+
+                if (closed) {
+                    return;
+                }
+
+                if (discardInput) {
+                    /* STARTTLS replaced the buffer, everything from now on is read through TLS. */
+                    discardInput = false;
+                    return;
+                }
+            }
+
+            appIn.compact();
+        }
+
+        private void dispatch(Reply reply) throws IOException, MessagingException {
+            final ReplyHandler handler = expectedReplies.pollFirst();
+
+            deadline = System.currentTimeMillis() + readTimeout;
+
+            if (handler != null) {
+                handler.handle(reply);
+            }
+
+            if (reply.code == SERVICE_NOT_AVAILABLE_REPLY_CODE && !closed) {
+                close(replyError("", reply, null));
+            }
+        }
+
+        private void flush() throws IOException, MessagingException {
+            if (closed || !channel.isConnected()) {
+                return;
+            }
+
+            if (sslEngine == null) {
+                if (!output.isEmpty()) {
+                    /* Gathering write, so that pipelined commands leave in as few packets as possible. */
+                    channel.write(output.toArray(new ByteBuffer[0]));
+                    removeWrittenOutput();
+                }
+            } else {
+                processTls();
+
+                while (!handshaking && !output.isEmpty()) {
+                    if (!wrap(output.toArray(new ByteBuffer[0]))) {
+                        break;
+                    }
+
+                    removeWrittenOutput();
+                }
+
+                writeNetOut();
+            }
+
+            if (selectionKey.isValid()) {
+                final boolean pendingOutput = sslEngine == null
+                        ? !output.isEmpty()
+                        : netOut.position() > 0 || (!handshaking && !output.isEmpty());
+
+                selectionKey.interestOps(SelectionKey.OP_READ | (pendingOutput ? SelectionKey.OP_WRITE : 0));
+            }
+        }
+
+        private void removeWrittenOutput() {
+            while (!output.isEmpty() && !output.peekFirst().hasRemaining()) {
+                output.pollFirst();
+            }
+        }
+
+        /* Drives the TLS handshake and decrypts the received data as far as possible without waiting. */
+        private void processTls() throws IOException, MessagingException {
+            while (!closed) {
+                final SSLEngineResult.HandshakeStatus status = sslEngine.getHandshakeStatus();
+
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+
+                    while ((task = sslEngine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    if (!wrap(NO_DATA)) {
+                        return;
+                    }
+                } else if (handshaking &&
+                           (status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING ||
+                            status == SSLEngineResult.HandshakeStatus.FINISHED)) {
+                    handshaking = false;
+
+                    if (afterHandshake != null) {
+                        final IoAction action = afterHandshake;
+
+                        afterHandshake = null;
+                        action.run();
+                    }
+                } else if (!unwrap()) {
+                    return;
+                }
+            }
+        }
+
+        private boolean wrap(ByteBuffer[] sources) throws IOException {
+            final SSLEngineResult result = sslEngine.wrap(sources, netOut);
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    final int pending = netOut.position();
+
+                    writeNetOut();
+
+                    return netOut.position() < pending;
+                case CLOSED:
+                    throw new EOFException("The TLS session with the smtp server was closed.");
+                default:
+                    writeNetOut();
+
+                    return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+        }
+
+        private boolean unwrap() throws IOException {
+            if (netIn.position() == 0) {
+                return false;
+            }
+
+            netIn.flip();
+
+            final SSLEngineResult result;
+
+            try {
+                result = sslEngine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, appIn.position() + sslEngine.getSession().getApplicationBufferSize());
+                    return true;
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining()) {
+                        netIn = enlarge(netIn, sslEngine.getSession().getPacketBufferSize());
+                    }
+
+                    return false;
+                case CLOSED:
+                    throw new EOFException("The TLS session with the smtp server was closed.");
+                default:
+                    return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+        }
+
+        private void writeNetOut() throws IOException {
+            netOut.flip();
+            channel.write(netOut);
+            netOut.compact();
+        }
+
+        private String recipientCommand(Address recipient) {
+            return "RCPT TO:<" + ((InternetAddress) recipient).getAddress() + ">";
+        }
+
+        private MessagingException replyError(String command, Reply reply, Transaction current) {
+            return new SMTPSendFailedException(
+                    command, reply.code, reply.getText(), null, null, current != null ? current.recipients : null, null);
+        }
+
+        private String encodeBase64(String value) {
+            return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,676 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.ClusterConfiguration;
+import com.fmi.mailtemplaterbe.config.EmailTemplatesConfiguration;
+import com.fmi.mailtemplaterbe.config.LaneConfiguration;
+import com.fmi.mailtemplaterbe.config.OutboxConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.OutboxEntity;
+import com.fmi.mailtemplaterbe.domain.entity.SendJobEntity;
+import com.fmi.mailtemplaterbe.domain.enums.OutboxStatus;
+import com.fmi.mailtemplaterbe.domain.enums.SendJobStatus;
+import com.fmi.mailtemplaterbe.domain.enums.SendLane;
+import com.fmi.mailtemplaterbe.domain.model.SendJobContext;
+import com.fmi.mailtemplaterbe.util.EmailMessageUtil;
+import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
+import com.fmi.mailtemplaterbe.util.MimeMessageTemplate;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Drains the outbox into the send pipeline. The emails are claimed in batches, oldest first, and handed to the
+ * send job that they belong to. Send jobs that were still running when the app stopped are resumed on start.
+ * <p></p>
+ * Each lane has its own dispatcher thread, so a transactional email is claimed right away, even while the bulk
+ * dispatcher waits for room in the pipeline. The claims are made per send job: transactional jobs get all of their
+ * due emails, bulk jobs share each batch by the weights of their senders, and the claimed emails are interleaved,
+ * so no campaign waits for the whole backlog of another one.
+ * <p></p>
+ * In a cluster the claims skip the rows that another instance is claiming at the same time, and each claim holds a
+ * lease, which the instance renews while it sends. A sync thread picks up the send jobs of the other instances, so that
+ * every worker sends them, and follows the state of the jobs in the database (paused, cancelled, finished). A job is
+ * complete once the outbox has no unfinished emails of it, which only its owner reports. The leader puts the emails
+ * of expired leases back into the outbox and takes over the jobs of instances that stopped.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OutboxDispatcher {
+
+    private static final String SEND_JOB_NOT_RUNNING_ERROR = "Send job is no longer running.";
+    private static final List<OutboxStatus> UNFINISHED_STATUSES = Arrays.asList(
+            OutboxStatus.PENDING, OutboxStatus.SENDING, OutboxStatus.DEFERRED, OutboxStatus.SCHEDULED);
+    private static final String CREDENTIALS_NOT_STORED_ERROR =
+            "Send job cannot be resumed after a restart, because the provided credentials are not stored.";
+
+    private final OutboxConfiguration outboxConfiguration;
+    private final LaneConfiguration laneConfiguration;
+    private final ClusterConfiguration clusterConfiguration;
+    private final EmailTemplatesConfiguration emailTemplatesConfiguration;
+    private final OutboxService outboxService;
+    private final SendPipeline sendPipeline;
+    private final SendJobService sendJobService;
+    private final SmtpService smtpService;
+    private final EmailMessageUtil emailMessageUtil;
+    private final ClusterService clusterService;
+
+    private final ConcurrentMap<Long, SendJobContext> sendJobContexts = new ConcurrentHashMap<>();
+    private final Map<SendLane, Semaphore> wakeUpSignals = new EnumMap<>(SendLane.class);
+    private final Map<SendLane, Thread> dispatchers = new EnumMap<>(SendLane.class);
+    private Thread synchronizer;
+    private volatile boolean running;
+    private long leasesRenewedAt;
+
+    /* After the cluster service, so that it is known which jobs belong to this instance. */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    public void start() {
+        resumeUnfinishedSendJobs();
+
+        running = true;
+
+        for (SendLane lane : SendLane.values()) {
+            final Thread dispatcher =
+                    new Thread(() -> dispatch(lane), "outbox-dispatcher-" + lane.name().toLowerCase());
+
+            dispatchers.put(lane, dispatcher);
+            dispatcher.start();
+        }
+
+        if (clusterService.isEnabled()) {
+            synchronizer = new Thread(this::sync, "outbox-sync");
+            synchronizer.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        wakeUp();
+
+        if (synchronizer != null) {
+            synchronizer.interrupt();
+            synchronizer.join(TimeUnit.MINUTES.toMillis(1));
+        }
+
+        for (Thread dispatcher : dispatchers.values()) {
+            dispatcher.join(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    /**
+     * Register a running send job, so that its emails can be dispatched.
+     * Must be called before the emails of the job are written to the outbox.
+     *
+     * @param context The send job.
+     */
+    public void register(SendJobContext context) {
+        final Long sendJobId = context.getSendJobId();
+
+        sendJobContexts.put(sendJobId, context);
+        context.whenComplete(error -> {
+            /* Unless it was replaced in the meantime, e.g. by the job that this instance took over. */
+            sendJobContexts.remove(sendJobId, context);
+
+            if (error != null) {
+                try {
+                    outboxService.failUnfinishedEmails(sendJobId, error.getMessage());
+                } catch (RuntimeException e) {
+                    log.error("Failing the unfinished emails of send job {} failed.", sendJobId, e);
+                }
+            }
+        });
+        context.completeIfEmpty();
+    }
+
+    /**
+     * Called when the scheduler released emails of send jobs into the outbox. The jobs, which run on this instance,
+     * can claim them right away.
+     *
+     * @param sendJobIds Ids of the send jobs.
+     */
+    public void onScheduledEmailsReleased(Collection<Long> sendJobIds) {
+        for (Long sendJobId : sendJobIds) {
+            final SendJobContext context = sendJobContexts.get(sendJobId);
+
+            if (context != null) {
+                context.onScheduledEmailsReleased();
+            }
+        }
+
+        wakeUp();
+    }
+
+    /**
+     * Let the dispatcher look for due emails right away, instead of waiting for the next poll.
+     */
+    public void wakeUp() {
+        for (SendLane lane : SendLane.values()) {
+            getWakeUpSignal(lane).release();
+        }
+    }
+
+    private void dispatch(SendLane lane) {
+        final Semaphore wakeUpSignal = getWakeUpSignal(lane);
+
+        while (running) {
+            try {
+                outboxService.deleteExpiredEmailsIfDue();
+
+                final List<OutboxEntity> dueEmails = claimDueEmails(lane);
+
+                if (dueEmails.isEmpty()) {
+                    awaitWakeUp(wakeUpSignal);
+                } else {
+                    dispatch(dueEmails);
+                }
+            } catch (RejectedExecutionException e) {
+                /* The pipeline is shut down, the claimed emails are released on the next start. */
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Dispatching the due emails of the {} lane failed.", lane, e);
+
+                try {
+                    awaitWakeUp(wakeUpSignal);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /* Hands claimed emails to the send jobs that they belong to. Emails of jobs that are no longer running fail. */
+    private void dispatch(List<OutboxEntity> dueEmails) {
+        final List<Long> orphanedIds = new ArrayList<>();
+        final List<Long> pausedIds = new ArrayList<>();
+
+        for (OutboxEntity outboxEntity : dueEmails) {
+            final SendJobContext context = sendJobContexts.get(outboxEntity.getSendJobId());
+
+            if (context == null || context.isAborted()) {
+                orphanedIds.add(outboxEntity.getId());
+                continue;
+            }
+
+            if (context.isAwaitingSchedule()) {
+                context.onScheduledEmailsReleased();
+            }
+
+            if (context.isPaused()) {
+                /* E.g. released by the scheduler, they wait in the outbox until the job is resumed. */
+                pausedIds.add(outboxEntity.getId());
+                continue;
+            }
+
+            final Map<String, String> placeholders;
+
+            try {
+                placeholders = outboxService.readPlaceholders(outboxEntity);
+            } catch (IllegalStateException e) {
+                log.error("Reading the placeholders of the email of send job {} to {} failed.",
+                        context.getSendJobId(), outboxEntity.getRecipientEmail(), e);
+                outboxService.markFailed(Collections.singletonList(outboxEntity.getId()), e.getMessage());
+                sendJobService.recordSendResult(context.getSendJobId(), false);
+                context.completeEmail(false);
+                continue;
+            }
+
+            sendPipeline.submit(
+                    context,
+                    outboxEntity.getId(),
+                    outboxEntity.getRecipientEmail(),
+                    placeholders,
+                    outboxEntity.getAttempts());
+        }
+
+        outboxService.markFailed(orphanedIds, SEND_JOB_NOT_RUNNING_ERROR);
+        outboxService.releaseEmails(pausedIds);
+    }
+
+    /**
+     * Get a send job, which is running on this instance.
+     *
+     * @param sendJobId Id of the send job.
+     * @return the send job or null
+     */
+    public SendJobContext getSendJobContext(Long sendJobId) {
+        return sendJobContexts.get(sendJobId);
+    }
+
+    /**
+     * Get the send jobs, which are running on this instance.
+     *
+     * @return send jobs
+     */
+    public Collection<SendJobContext> getSendJobContexts() {
+        return Collections.unmodifiableCollection(sendJobContexts.values());
+    }
+
+    /* Claims for the jobs of a lane, interleaved job by job. Package-private for the tests of the fair share. */
+    List<OutboxEntity> claimDueEmails(SendLane lane) {
+        final List<SendJobContext> contexts = new ArrayList<>();
+
+        for (SendJobContext context : sendJobContexts.values()) {
+            /* The scheduler of a shared job may run on another instance, so its releases are not seen here. */
+            if (getLane(context) == lane &&
+                !context.isAborted() &&
+                (!context.isAwaitingSchedule() || context.isShared()) &&
+                !context.isPaused() &&
+                (!context.isShared() || clusterService.isWorker())) {
+                contexts.add(context);
+            }
+        }
+
+        if (contexts.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Map<Long, Integer> limits = lane == SendLane.TRANSACTIONAL
+                ? getEqualLimits(contexts)
+                : getWeightedLimits(contexts);
+        final List<List<OutboxEntity>> claimedByJob = new ArrayList<>(contexts.size());
+        int claimedCount = 0;
+
+        for (SendJobContext context : contexts) {
+            final List<OutboxEntity> claimed =
+                    outboxService.claimDueEmails(context.getSendJobId(), limits.get(context.getSendJobId()));
+
+            if (!claimed.isEmpty()) {
+                claimedByJob.add(claimed);
+                claimedCount += claimed.size();
+            }
+        }
+
+        final List<OutboxEntity> dueEmails = new ArrayList<>(claimedCount);
+
+        for (int i = 0; dueEmails.size() < claimedCount; i++) {
+            for (List<OutboxEntity> claimed : claimedByJob) {
+                if (i < claimed.size()) {
+                    dueEmails.add(claimed.get(i));
+                }
+            }
+        }
+
+        return dueEmails;
+    }
+
+    /* Transactional jobs are small, each of them may take a whole batch. */
+    private Map<Long, Integer> getEqualLimits(List<SendJobContext> contexts) {
+        final Map<Long, Integer> limits = new LinkedHashMap<>();
+
+        for (SendJobContext context : contexts) {
+            limits.put(context.getSendJobId(), outboxConfiguration.getClaimBatchSize());
+        }
+
+        return limits;
+    }
+
+    /* The batch is split between the senders by their weights, and the share of a sender between its jobs. */
+    private Map<Long, Integer> getWeightedLimits(List<SendJobContext> contexts) {
+        final Map<String, List<SendJobContext>> contextsBySender = new LinkedHashMap<>();
+        int totalWeight = 0;
+
+        for (SendJobContext context : contexts) {
+            final String sender = context.getUsername() != null ? context.getUsername().toLowerCase() : "";
+
+            if (!contextsBySender.containsKey(sender)) {
+                contextsBySender.put(sender, new ArrayList<>());
+                totalWeight += laneConfiguration.getSenderWeight(sender);
+            }
+
+            contextsBySender.get(sender).add(context);
+        }
+
+        final Map<Long, Integer> limits = new LinkedHashMap<>();
+
+        for (Map.Entry<String, List<SendJobContext>> entry : contextsBySender.entrySet()) {
+            final double senderShare = (double) outboxConfiguration.getClaimBatchSize() *
+                                       laneConfiguration.getSenderWeight(entry.getKey()) / totalWeight;
+            final int jobLimit = Math.max(1, (int) Math.ceil(senderShare / entry.getValue().size()));
+
+            for (SendJobContext context : entry.getValue()) {
+                limits.put(context.getSendJobId(), jobLimit);
+            }
+        }
+
+        return limits;
+    }
+
+    private static SendLane getLane(SendJobContext context) {
+        return context.getLane() != null ? context.getLane() : SendLane.BULK;
+    }
+
+    /* The lane of the job is kept, a large job near its end does not move into the transactional lane. */
+    private static SendLane getLane(SendJobEntity sendJobEntity) {
+        final SendLane lane = SendLane.fromValue(sendJobEntity.getLane());
+
+        return lane != null ? lane : SendLane.BULK;
+    }
+
+    private Semaphore getWakeUpSignal(SendLane lane) {
+        synchronized (wakeUpSignals) {
+            return wakeUpSignals.computeIfAbsent(lane, key -> new Semaphore(0));
+        }
+    }
+
+    private void awaitWakeUp(Semaphore wakeUpSignal) throws InterruptedException {
+        wakeUpSignal.tryAcquire(outboxConfiguration.getPollInterval(), TimeUnit.MILLISECONDS);
+        wakeUpSignal.drainPermits();
+    }
+
+    private void resumeUnfinishedSendJobs() {
+        /* Whatever was claimed before the stop never made it to the history. */
+        outboxService.releaseClaimedEmails();
+
+        for (Long sendJobId : outboxService.getUnfinishedSendJobIds()) {
+            try {
+                final SendJobEntity sendJobEntity = sendJobService.getSendJobEntityById(sendJobId);
+
+                /* The jobs of the other instances are picked up by the sync, or taken over by the leader. */
+                if (clusterService.isEnabled() && !clusterService.getNodeId().equals(sendJobEntity.getOwnerNode())) {
+                    continue;
+                }
+
+                resumeSendJob(sendJobId);
+            } catch (RuntimeException e) {
+                log.error("Resuming send job {} failed.", sendJobId, e);
+            }
+        }
+    }
+
+    private void resumeSendJob(Long sendJobId) {
+        final SendJobEntity sendJobEntity = sendJobService.getSendJobEntityById(sendJobId);
+
+        if (!sendJobEntity.isDefaultCredentials()) {
+            outboxService.failUnfinishedEmails(sendJobId, CREDENTIALS_NOT_STORED_ERROR);
+        }
+
+        sendJobService.resumeSendJob(
+                sendJobId,
+                outboxService.countEmails(sendJobId, OutboxStatus.SENT),
+                outboxService.countEmails(sendJobId, OutboxStatus.FAILED));
+
+        if (!sendJobEntity.isDefaultCredentials()) {
+            sendJobService.finishSendJob(sendJobId, CREDENTIALS_NOT_STORED_ERROR);
+            return;
+        }
+
+        final int unfinishedCount = outboxService.countUnfinishedEmails(sendJobId);
+        final SendJobContext context = SendJobContext.builder()
+                .sendJobId(sendJobId)
+                .emailTemplateId(sendJobEntity.getEmailTemplateId())
+                .subject(sendJobEntity.getSubject())
+                .message(sendJobEntity.getMessage())
+                .compiledMessage(emailMessageUtil.compileEmailMessage(
+                        sendJobEntity.getMessage(),
+                        emailTemplatesConfiguration.getPlaceholderPrefix(),
+                        emailTemplatesConfiguration.getPlaceholderSuffix()))
+                .confirmationLinkPrefix(emailMessageUtil.buildConfirmationAppLinkPrefix(sendJobEntity.getSubject()))
+                .html(sendJobEntity.isHtml())
+                .includeConfirmationLink(sendJobEntity.isIncludeConfirmationLink())
+                .smtpServerName(sendJobEntity.getSmtpServerName())
+                .username(smtpService.getUsername())
+                .password(smtpService.getPassword())
+                .mimeMessageTemplate(MimeMessageTemplate.create(
+                        smtpService.getUsername(), sendJobEntity.getSubject(), sendJobEntity.isHtml()))
+                .lane(getLane(sendJobEntity))
+                .awaitingSchedule(SendJobStatus.SCHEDULED.getValue().equals(sendJobEntity.getStatus()))
+                .paused(SendJobStatus.PAUSED.getValue().equals(sendJobEntity.getStatus()))
+                .shared(clusterService.isEnabled())
+                .totalCount(unfinishedCount)
+                .build();
+
+        /* Nobody waits for a resumed job, so it is finished here. */
+        context.whenComplete(error -> sendJobService.finishSendJob(
+                sendJobId, error == null ? null : error.getMessage() != null ? error.getMessage() : error.toString()));
+        register(context);
+    }
+
+    /* Helps sending a job of another instance. It is dropped once the job has no unfinished emails anymore. */
+    private void registerRemoteSendJob(SendJobEntity sendJobEntity, int unfinishedCount) {
+        final SendJobContext context = SendJobContext.builder()
+                .sendJobId(sendJobEntity.getId())
+                .emailTemplateId(sendJobEntity.getEmailTemplateId())
+                .subject(sendJobEntity.getSubject())
+                .message(sendJobEntity.getMessage())
+                .compiledMessage(emailMessageUtil.compileEmailMessage(
+                        sendJobEntity.getMessage(),
+                        emailTemplatesConfiguration.getPlaceholderPrefix(),
+                        emailTemplatesConfiguration.getPlaceholderSuffix()))
+                .confirmationLinkPrefix(emailMessageUtil.buildConfirmationAppLinkPrefix(sendJobEntity.getSubject()))
+                .html(sendJobEntity.isHtml())
+                .includeConfirmationLink(sendJobEntity.isIncludeConfirmationLink())
+                .smtpServerName(sendJobEntity.getSmtpServerName())
+                .username(smtpService.getUsername())
+                .password(smtpService.getPassword())
+                .mimeMessageTemplate(MimeMessageTemplate.create(
+                        smtpService.getUsername(), sendJobEntity.getSubject(), sendJobEntity.isHtml()))
+                .lane(getLane(sendJobEntity))
+                .paused(SendJobStatus.PAUSED.getValue().equals(sendJobEntity.getStatus()))
+                .shared(true)
+                .remote(true)
+                .totalCount(unfinishedCount)
+                .build();
+
+        if (sendJobContexts.putIfAbsent(sendJobEntity.getId(), context) == null) {
+            register(context);
+            wakeUp();
+        }
+    }
+
+    private void sync() {
+        while (running) {
+            try {
+                Thread.sleep(clusterConfiguration.getSyncInterval());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                syncSendJobs();
+            } catch (RuntimeException e) {
+                log.error("Syncing the send jobs of the other instances failed.", e);
+            }
+        }
+    }
+
+    private void syncSendJobs() {
+        final long now = System.currentTimeMillis();
+
+        if (now - leasesRenewedAt >= clusterConfiguration.getHeartbeatInterval()) {
+            outboxService.renewLeases();
+            leasesRenewedAt = now;
+        }
+
+        final Map<Long, SendJobEntity> unfinishedSendJobs = new LinkedHashMap<>();
+
+        for (SendJobEntity sendJobEntity : sendJobService.getUnfinishedSendJobEntities()) {
+            unfinishedSendJobs.put(sendJobEntity.getId(), sendJobEntity);
+        }
+
+        if (clusterService.isLeader()) {
+            outboxService.releaseExpiredLeases();
+            adoptOrphanedSendJobs(unfinishedSendJobs.values());
+        }
+
+        /* Shared jobs are followed through the outbox, the others only through their state. */
+        final Set<Long> sharedSendJobIds = new HashSet<>();
+        final List<SendJobEntity> candidates = new ArrayList<>();
+
+        for (SendJobContext context : sendJobContexts.values()) {
+            if (context.isShared()) {
+                sharedSendJobIds.add(context.getSendJobId());
+            }
+        }
+
+        if (clusterService.isWorker()) {
+            for (SendJobEntity sendJobEntity : unfinishedSendJobs.values()) {
+                if (sendJobEntity.isDefaultCredentials() && !sendJobContexts.containsKey(sendJobEntity.getId())) {
+                    candidates.add(sendJobEntity);
+                    sharedSendJobIds.add(sendJobEntity.getId());
+                }
+            }
+        }
+
+        final Map<Long, Map<OutboxStatus, Integer>> counts = outboxService.countEmailsByStatus(sharedSendJobIds);
+
+        for (SendJobEntity sendJobEntity : candidates) {
+            final int unfinishedCount = count(counts.get(sendJobEntity.getId()), UNFINISHED_STATUSES);
+
+            if (unfinishedCount > 0) {
+                registerRemoteSendJob(sendJobEntity, unfinishedCount);
+            }
+        }
+
+        final List<SendJobContext> finishedContexts = new ArrayList<>();
+
+        for (SendJobContext context : sendJobContexts.values()) {
+            final SendJobEntity sendJobEntity = unfinishedSendJobs.get(context.getSendJobId());
+
+            if (sendJobEntity == null) {
+                finishedContexts.add(context);
+                continue;
+            }
+
+            syncState(context, sendJobEntity);
+
+            if (context.isShared()) {
+                syncCompletion(context, counts.get(context.getSendJobId()));
+            }
+        }
+
+        if (!finishedContexts.isEmpty()) {
+            stopFinishedSendJobs(finishedContexts);
+        }
+    }
+
+    /* Paused and resumed on another instance. */
+    private void syncState(SendJobContext context, SendJobEntity sendJobEntity) {
+        final boolean paused = SendJobStatus.PAUSED.getValue().equals(sendJobEntity.getStatus());
+
+        if (paused && !context.isPaused()) {
+            context.pause();
+        } else if (!paused && context.isPaused()) {
+            context.resume();
+            wakeUp();
+        }
+    }
+
+    private void syncCompletion(SendJobContext context, Map<OutboxStatus, Integer> counts) {
+        final int unfinishedCount = count(counts, UNFINISHED_STATUSES);
+
+        if (context.isRemote()) {
+            if (unfinishedCount == 0) {
+                context.completeShared(0);
+            }
+
+            return;
+        }
+
+        final int sentCount = count(counts, Collections.singletonList(OutboxStatus.SENT));
+        final int failedCount = count(counts, Collections.singletonList(OutboxStatus.FAILED));
+
+        sendJobService.syncProgress(context.getSendJobId(), sentCount, failedCount);
+
+        /* All emails of the job have to be in the outbox, they are written after the job was registered. */
+        if (unfinishedCount == 0 &&
+            !context.isSubmissionOpen() &&
+            sentCount + failedCount >= context.getTotalCount()) {
+            context.completeShared(sentCount);
+        }
+    }
+
+    /* Finished, cancelled or deleted on another instance. */
+    private void stopFinishedSendJobs(List<SendJobContext> contexts) {
+        final Map<Long, SendJobEntity> sendJobs = new LinkedHashMap<>();
+
+        for (SendJobEntity sendJobEntity : sendJobService.getSendJobEntitiesByIds(
+                contexts.stream().map(SendJobContext::getSendJobId).collect(Collectors.toList()))) {
+            sendJobs.put(sendJobEntity.getId(), sendJobEntity);
+        }
+
+        for (SendJobContext context : contexts) {
+            final SendJobEntity sendJobEntity = sendJobs.get(context.getSendJobId());
+
+            if (sendJobEntity != null && SendJobStatus.CANCELLED.getValue().equals(sendJobEntity.getStatus())) {
+                context.abort(ExceptionsUtil.getCustomBadRequestException(
+                        SendJobControlService.SEND_JOB_CANCELLED_ERROR));
+            } else if (sendJobEntity == null) {
+                context.abort(ExceptionsUtil.getCustomBadRequestException(SEND_JOB_NOT_RUNNING_ERROR));
+            } else if (context.isRemote()) {
+                context.completeShared(0);
+            }
+        }
+    }
+
+    /* The leader takes over the jobs, whose owners stopped, so that they are finished. */
+    private void adoptOrphanedSendJobs(Collection<SendJobEntity> unfinishedSendJobs) {
+        final Set<String> liveNodeIds = clusterService.getLiveNodeIds();
+
+        for (SendJobEntity sendJobEntity : unfinishedSendJobs) {
+            final String ownerNode = sendJobEntity.getOwnerNode();
+
+            if (clusterService.getNodeId().equals(ownerNode) ||
+                (ownerNode != null && liveNodeIds.contains(ownerNode)) ||
+                !sendJobService.adoptSendJob(sendJobEntity.getId(), ownerNode)) {
+                continue;
+            }
+
+            sendJobEntity.setOwnerNode(clusterService.getNodeId());
+
+            final SendJobContext remoteContext = sendJobContexts.get(sendJobEntity.getId());
+
+            if (remoteContext != null) {
+                /* Its emails in the pipeline are still sent, the job continues with the owned context. */
+                remoteContext.completeShared(0);
+            }
+
+            try {
+                resumeSendJob(sendJobEntity.getId());
+            } catch (RuntimeException e) {
+                log.error("Taking over send job {} from {} failed.", sendJobEntity.getId(), ownerNode, e);
+            }
+        }
+    }
+
+    private static int count(Map<OutboxStatus, Integer> counts, List<OutboxStatus> statuses) {
+        if (counts == null) {
+            return 0;
+        }
+
+        int count = 0;
+
+        for (OutboxStatus status : statuses) {
+            count += counts.getOrDefault(status, 0);
+        }
+
+        return count;
+    }
+}
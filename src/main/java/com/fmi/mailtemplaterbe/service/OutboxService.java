@@ -0,0 +1,460 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fmi.mailtemplaterbe.config.OutboxConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.OutboxEntity;
+import com.fmi.mailtemplaterbe.domain.enums.OutboxStatus;
+import com.fmi.mailtemplaterbe.domain.enums.SendJobStatus;
+import com.fmi.mailtemplaterbe.domain.resource.Recipient;
+import com.fmi.mailtemplaterbe.repository.OutboxRepository;
+import com.fmi.mailtemplaterbe.util.DeliverySchedule;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Durable queue of the emails that have to be sent. Every email of a send job is stored here before it is sent,
+ * so that a restart does not lose the recipients that were not processed yet.
+ * <p></p>
+ * Sent and failed emails are kept for the configured retention, after that the leader deletes them in batches.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OutboxService {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO outbox " +
+            "(send_job_id, email_template_id, recipient_email, placeholders, status, attempts, next_attempt_at, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, 0, ?, ?)";
+    /* The emails of unfinished send jobs are kept, their progress is counted from the outbox. */
+    private static final String DELETE_EXPIRED_SQL =
+            "DELETE FROM outbox WHERE status IN (?, ?) AND updated_at < ? " +
+            "AND send_job_id NOT IN (SELECT id FROM send_jobs WHERE status IN (?, ?, ?, ?)) LIMIT ?";
+    private static final TypeReference<Map<String, String>> PLACEHOLDERS_TYPE = new TypeReference<Map<String, String>>() {
+    };
+    private static final List<Long> DUE_STATUSES =
+            Arrays.asList(OutboxStatus.PENDING.getValue(), OutboxStatus.DEFERRED.getValue());
+    private static final List<Long> UNFINISHED_STATUSES = Arrays.asList(
+            OutboxStatus.PENDING.getValue(),
+            OutboxStatus.SENDING.getValue(),
+            OutboxStatus.DEFERRED.getValue(),
+            OutboxStatus.SCHEDULED.getValue());
+    private static final List<Long> SCHEDULED_STATUSES = Collections.singletonList(OutboxStatus.SCHEDULED.getValue());
+
+    private final OutboxRepository outboxRepository;
+    private final OutboxConfiguration outboxConfiguration;
+    private final ClusterService clusterService;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final AtomicLong nextCleanupAt = new AtomicLong();
+
+    /**
+     * Store the emails of a send job, with batched inserts.
+     *
+     * @param sendJobId       Id of the send job.
+     * @param emailTemplateId Id of the email template of the send job.
+     * @param recipients      Recipients and their placeholders.
+     */
+    @Transactional
+    public void enqueue(Long sendJobId, Long emailTemplateId, List<Recipient> recipients) {
+        enqueue(sendJobId, emailTemplateId, recipients, null);
+    }
+
+    /**
+     * Store the emails of a send job, with batched inserts. Scheduled emails are not dispatched from the outbox,
+     * they are released by the scheduler when they are due.
+     *
+     * @param sendJobId        Id of the send job.
+     * @param emailTemplateId  Id of the email template of the send job.
+     * @param recipients       Recipients and their placeholders.
+     * @param deliverySchedule Schedule of the emails or null to send them right away.
+     */
+    @Transactional
+    public void enqueue(
+            Long sendJobId, Long emailTemplateId, List<Recipient> recipients, DeliverySchedule deliverySchedule) {
+        final Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        final Long status = deliverySchedule != null
+                ? OutboxStatus.SCHEDULED.getValue()
+                : OutboxStatus.PENDING.getValue();
+
+        jdbcTemplate.batchUpdate(INSERT_SQL, recipients, outboxConfiguration.getInsertBatchSize(), (ps, recipient) -> {
+            ps.setLong(1, sendJobId);
+            ps.setLong(2, emailTemplateId);
+            ps.setString(3, recipient.getEmail());
+            ps.setString(4, writePlaceholders(recipient.getPlaceholders()));
+            ps.setLong(5, status);
+            ps.setTimestamp(6, deliverySchedule != null
+                    ? Timestamp.valueOf(deliverySchedule.getSendAt(recipient.getPlaceholders()))
+                    : now);
+            ps.setTimestamp(7, now);
+        });
+    }
+
+    /**
+     * Get the next page of scheduled emails, which are due until the provided time, ordered by due time and id.
+     *
+     * @param until              Latest due time.
+     * @param afterNextAttemptAt Due time of the last email of the previous page.
+     * @param afterId            Id of the last email of the previous page.
+     * @param limit              Max number of emails.
+     * @return scheduled emails
+     */
+    public List<OutboxEntity> getScheduledEmails(
+            LocalDateTime until, LocalDateTime afterNextAttemptAt, Long afterId, int limit) {
+        return outboxRepository.findAllByStatusAfter(
+                OutboxStatus.SCHEDULED.getValue(), until, afterNextAttemptAt, afterId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Same as {@link #getScheduledEmails}, but only for the emails of a send job, up to a position.
+     *
+     * @param sendJobId          Id of the send job.
+     * @param afterNextAttemptAt Due time of the last email of the previous page.
+     * @param afterId            Id of the last email of the previous page.
+     * @param untilNextAttemptAt Due time of the last email.
+     * @param untilId            Id of the last email.
+     * @param limit              Max number of emails.
+     * @return scheduled emails
+     */
+    public List<OutboxEntity> getScheduledEmailsOfSendJob(
+            Long sendJobId,
+            LocalDateTime afterNextAttemptAt,
+            Long afterId,
+            LocalDateTime untilNextAttemptAt,
+            Long untilId,
+            int limit) {
+        return outboxRepository.findAllBySendJobIdAndStatusBetween(
+                sendJobId,
+                OutboxStatus.SCHEDULED.getValue(),
+                afterNextAttemptAt,
+                afterId,
+                untilNextAttemptAt,
+                untilId,
+                PageRequest.of(0, limit));
+    }
+
+    /**
+     * Release scheduled emails, which are due, to be claimed like any other email. Emails of a send job that was
+     * stopped in the meantime, or that were already released, are left as they are.
+     *
+     * @param ids Ids of the emails.
+     * @return number of released emails
+     */
+    @Transactional
+    public int releaseScheduledEmails(Collection<Long> ids) {
+        return outboxRepository.updateStatusByIdsAndStatusIn(
+                ids, SCHEDULED_STATUSES, OutboxStatus.PENDING.getValue(), LocalDateTime.now());
+    }
+
+    /**
+     * Claim the emails of a send job that are due, oldest first. Claimed emails are not returned again until they
+     * are deferred, or until the lease of the claim expires. In a cluster, emails, which another app instance is
+     * claiming at the same time, are skipped.
+     *
+     * @param sendJobId Id of the send job.
+     * @param limit     Max number of emails.
+     * @return claimed emails
+     */
+    @Transactional
+    public List<OutboxEntity> claimDueEmails(Long sendJobId, int limit) {
+        final LocalDateTime now = LocalDateTime.now();
+        /* Only the dispatcher of this instance claims without a cluster, so no locks and no MySQL 8 are needed. */
+        final List<OutboxEntity> dueEmails = clusterService.isEnabled()
+                ? outboxRepository.findDueBySendJobIdForUpdateSkipLocked(sendJobId, DUE_STATUSES, now, limit)
+                : outboxRepository.findAllBySendJobIdAndStatusInAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(
+                        sendJobId, DUE_STATUSES, now, PageRequest.of(0, limit));
+
+        if (dueEmails.isEmpty()) {
+            return dueEmails;
+        }
+
+        /* In a cluster the selected rows stay locked until the commit, so nobody else can claim them in between. */
+        outboxRepository.claimByIds(
+                dueEmails.stream().map(OutboxEntity::getId).collect(Collectors.toList()),
+                OutboxStatus.SENDING.getValue(),
+                clusterService.getNodeId(),
+                clusterService.getLeaseExpiresAt(),
+                now);
+
+        return dueEmails;
+    }
+
+    /**
+     * Mark emails as sent.
+     *
+     * @param ids Ids of the emails.
+     */
+    @Transactional
+    public void markSent(Collection<Long> ids) {
+        if (!ids.isEmpty()) {
+            outboxRepository.updateStatusByIds(ids, OutboxStatus.SENT.getValue(), null, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Mark emails as failed. They are not attempted again.
+     *
+     * @param ids   Ids of the emails.
+     * @param error Error message or null.
+     */
+    @Transactional
+    public void markFailed(Collection<Long> ids, String error) {
+        if (!ids.isEmpty()) {
+            outboxRepository.updateStatusByIds(ids, OutboxStatus.FAILED.getValue(), error, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Count a failed attempt of emails, which are retried. The emails stay claimed while they wait for the retry,
+     * a restart releases them with the attempts made so far.
+     *
+     * @param ids Ids of the emails.
+     */
+    @Transactional
+    public void recordFailedAttempt(Collection<Long> ids) {
+        if (!ids.isEmpty()) {
+            outboxRepository.incrementAttemptsByIds(ids, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Put emails back into the outbox, to be attempted again after the configured delay.
+     *
+     * @param ids Ids of the emails.
+     */
+    @Transactional
+    public void defer(Collection<Long> ids) {
+        if (!ids.isEmpty()) {
+            final LocalDateTime now = LocalDateTime.now();
+
+            outboxRepository.deferByIds(
+                    ids,
+                    OutboxStatus.DEFERRED.getValue(),
+                    now.plusNanos(outboxConfiguration.getDeferDelay() * 1_000_000L),
+                    now);
+        }
+    }
+
+    /**
+     * Give claimed emails back to the outbox without an attempt, e.g. because their send job was paused.
+     * They are due again right away.
+     *
+     * @param ids Ids of the emails.
+     */
+    @Transactional
+    public void releaseEmails(Collection<Long> ids) {
+        if (!ids.isEmpty()) {
+            outboxRepository.updateStatusByIdsAndStatusIn(
+                    ids,
+                    Collections.singletonList(OutboxStatus.SENDING.getValue()),
+                    OutboxStatus.PENDING.getValue(),
+                    LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Mark all emails of a send job, which were not sent yet, as failed.
+     *
+     * @param sendJobId Id of the send job.
+     * @param error     Error message or null.
+     */
+    @Transactional
+    public void failUnfinishedEmails(Long sendJobId, String error) {
+        outboxRepository.updateStatusBySendJobIdAndStatusIn(
+                sendJobId, UNFINISHED_STATUSES, OutboxStatus.FAILED.getValue(), error, LocalDateTime.now());
+    }
+
+    /**
+     * Put the emails, which were claimed but not finished before the app stopped, back into the outbox.
+     * In a cluster only the emails of this app instance, the others are still sending theirs.
+     */
+    @Transactional
+    public void releaseClaimedEmails() {
+        if (clusterService.isEnabled()) {
+            outboxRepository.releaseByClaimedBy(
+                    clusterService.getNodeId(),
+                    OutboxStatus.SENDING.getValue(),
+                    OutboxStatus.PENDING.getValue(),
+                    LocalDateTime.now());
+            return;
+        }
+
+        outboxRepository.updateStatusByStatus(
+                OutboxStatus.SENDING.getValue(), OutboxStatus.PENDING.getValue(), LocalDateTime.now());
+    }
+
+    /**
+     * Extend the leases of the emails, which this app instance is sending.
+     */
+    @Transactional
+    public void renewLeases() {
+        outboxRepository.renewLeases(
+                clusterService.getNodeId(), OutboxStatus.SENDING.getValue(), clusterService.getLeaseExpiresAt());
+    }
+
+    /**
+     * Put the emails, whose leases expired, back into the outbox. Their app instance stopped without releasing them.
+     *
+     * @return number of released emails
+     */
+    @Transactional
+    public int releaseExpiredLeases() {
+        return outboxRepository.releaseExpiredLeases(
+                OutboxStatus.SENDING.getValue(), OutboxStatus.PENDING.getValue(), LocalDateTime.now());
+    }
+
+    /**
+     * Delete a batch of sent and failed emails, which are older than the retention. Runs only on the leader, once per
+     * cleanup interval or right away again while there are more to delete. Failures are caught up with by the next
+     * cleanup.
+     */
+    public void deleteExpiredEmailsIfDue() {
+        if (!clusterService.isLeader()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long cleanupAt = nextCleanupAt.get();
+
+        if (now < cleanupAt
+                || !nextCleanupAt.compareAndSet(cleanupAt, now + outboxConfiguration.getCleanupInterval())) {
+            return;
+        }
+
+        try {
+            final int deletedCount = jdbcTemplate.update(
+                    DELETE_EXPIRED_SQL,
+                    OutboxStatus.SENT.getValue(),
+                    OutboxStatus.FAILED.getValue(),
+                    Timestamp.valueOf(LocalDateTime.now().minusNanos(outboxConfiguration.getRetention() * 1_000_000L)),
+                    SendJobStatus.QUEUED.getValue(),
+                    SendJobStatus.RUNNING.getValue(),
+                    SendJobStatus.SCHEDULED.getValue(),
+                    SendJobStatus.PAUSED.getValue(),
+                    outboxConfiguration.getCleanupBatchSize());
+
+            /* A full batch means that more are left, the next call deletes them instead of waiting. */
+            if (deletedCount >= outboxConfiguration.getCleanupBatchSize()) {
+                nextCleanupAt.compareAndSet(now + outboxConfiguration.getCleanupInterval(), now);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Deleting the expired outbox emails failed.", e);
+        }
+    }
+
+    /**
+     * Get the ids of the send jobs, which still have emails to send.
+     *
+     * @return ids of send jobs
+     */
+    public List<Long> getUnfinishedSendJobIds() {
+        return outboxRepository.findSendJobIdsByStatusIn(UNFINISHED_STATUSES);
+    }
+
+    /**
+     * Count the emails of a send job, which have one of the provided statuses.
+     *
+     * @param sendJobId Id of the send job.
+     * @param statuses  Statuses.
+     * @return number of emails
+     */
+    public int countEmails(Long sendJobId, OutboxStatus... statuses) {
+        return (int) outboxRepository.countBySendJobIdAndStatusIn(
+                sendJobId, Arrays.stream(statuses).map(OutboxStatus::getValue).collect(Collectors.toList()));
+    }
+
+    /**
+     * Count the emails of all send jobs, which have the provided status.
+     *
+     * @param status Status.
+     * @return number of emails
+     */
+    public long countEmailsWithStatus(OutboxStatus status) {
+        return outboxRepository.countByStatus(status.getValue());
+    }
+
+    /**
+     * Count the emails of several send jobs by their statuses, with a single query.
+     *
+     * @param sendJobIds Ids of the send jobs.
+     * @return number of emails by status, by the id of the send job
+     */
+    public Map<Long, Map<OutboxStatus, Integer>> countEmailsByStatus(Collection<Long> sendJobIds) {
+        final Map<Long, Map<OutboxStatus, Integer>> counts = new HashMap<>();
+
+        if (sendJobIds.isEmpty()) {
+            return counts;
+        }
+
+        for (Object[] row : outboxRepository.countBySendJobIdInGroupByStatus(sendJobIds)) {
+            final OutboxStatus status = OutboxStatus.fromValue((Long) row[1]);
+
+            if (status != null) {
+                counts.computeIfAbsent((Long) row[0], sendJobId -> new EnumMap<>(OutboxStatus.class))
+                        .put(status, ((Long) row[2]).intValue());
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Count the emails of a send job, which were not sent or failed yet.
+     *
+     * @param sendJobId Id of the send job.
+     * @return number of emails
+     */
+    public int countUnfinishedEmails(Long sendJobId) {
+        return countEmails(
+                sendJobId, OutboxStatus.PENDING, OutboxStatus.SENDING, OutboxStatus.DEFERRED, OutboxStatus.SCHEDULED);
+    }
+
+    /**
+     * Read the placeholders of an email from the outbox.
+     *
+     * @param outboxEntity Email from the outbox.
+     * @return placeholders
+     */
+    public Map<String, String> readPlaceholders(OutboxEntity outboxEntity) {
+        if (outboxEntity.getPlaceholders() == null) {
+            return Collections.emptyMap();
+        }
+
+        try {
+            return objectMapper.readValue(outboxEntity.getPlaceholders(), PLACEHOLDERS_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Invalid placeholders of outbox email " + outboxEntity.getId() + ".", e);
+        }
+    }
+
+    private String writePlaceholders(Map<String, String> placeholders) {
+        if (placeholders == null) {
+            return null;
+        }
+
+        try {
+            return objectMapper.writeValueAsString(placeholders);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Placeholders could not be serialized.", e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.RateLimitConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.RateLimitBucketEntity;
+import com.fmi.mailtemplaterbe.repository.RateLimitBucketRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Token buckets, which are stored in the database and therefore shared by all app instances.
+ * Every operation locks the row of the bucket for the duration of its transaction.
+ * <p></p>
+ * The refill is measured with the clock of the database, so that clock skew between the instances cannot drain or
+ * overfill a bucket.
+ */
+@Service
+@RequiredArgsConstructor
+public class RateLimitBucketService {
+
+    private static final String INSERT_IF_ABSENT_SQL =
+            "INSERT IGNORE INTO rate_limit_buckets (name, permits_per_second, burst, tokens, refilled_at_millis) " +
+            "VALUES (?, ?, ?, ?, ?)";
+    private static final String NOW_MILLIS_SQL = "SELECT ROUND(UNIX_TIMESTAMP(NOW(3)) * 1000)";
+
+    private final RateLimitBucketRepository rateLimitBucketRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Create a shared bucket with a limit, unless it exists already. An existing bucket keeps its limit.
+     *
+     * @param name  Name of the bucket.
+     * @param limit Limit of the new bucket.
+     */
+    public void createBucketIfAbsent(String name, RateLimitConfiguration.Limit limit) {
+        /*
+         * Not part of the locking transactions: a SELECT ... FOR UPDATE of a missing row takes a gap lock,
+         * so two instances inserting the same bucket after it would deadlock.
+         */
+        jdbcTemplate.update(
+                INSERT_IF_ABSENT_SQL,
+                name,
+                limit.getPermitsPerSecond(),
+                limit.getBurst(),
+                limit.getBurst(),
+                getNowMillis());
+    }
+
+    /**
+     * Get all shared buckets, whose limits are the ones in effect on all app instances.
+     *
+     * @return all buckets
+     */
+    public List<RateLimitBucketEntity> getBuckets() {
+        return rateLimitBucketRepository.findAll();
+    }
+
+    /**
+     * Take up to requestedTokens tokens from a shared bucket.
+     *
+     * @param name            Name of the bucket.
+     * @param requestedTokens Max number of tokens to take.
+     * @return number of granted tokens, 0 if the bucket is empty
+     * @throws IllegalStateException if the bucket does not exist
+     */
+    @Transactional
+    public int leaseTokens(String name, int requestedTokens) {
+        final RateLimitBucketEntity bucket = getRefilledBucket(name);
+        final int grantedTokens = (int) Math.min(requestedTokens, Math.floor(bucket.getTokens()));
+
+        bucket.setTokens(bucket.getTokens() - grantedTokens);
+        rateLimitBucketRepository.save(bucket);
+
+        return grantedTokens;
+    }
+
+    /**
+     * Change the limit of a shared bucket.
+     *
+     * @param name  Name of the bucket.
+     * @param limit The new limit.
+     * @throws IllegalStateException if the bucket does not exist
+     */
+    @Transactional
+    public void updateLimit(String name, RateLimitConfiguration.Limit limit) {
+        final RateLimitBucketEntity bucket = getRefilledBucket(name);
+
+        bucket.setPermitsPerSecond(limit.getPermitsPerSecond());
+        bucket.setBurst(limit.getBurst());
+        bucket.setTokens(Math.min(bucket.getTokens(), limit.getBurst()));
+        rateLimitBucketRepository.save(bucket);
+    }
+
+    private RateLimitBucketEntity getRefilledBucket(String name) {
+        final RateLimitBucketEntity bucket = rateLimitBucketRepository.findByNameForUpdate(name)
+                .orElseThrow(() -> new IllegalStateException("Rate limit bucket " + name + " does not exist."));
+        final long now = getNowMillis();
+        /* Buckets, which were refilled by the clocks of the instances before, may be ahead of the database. */
+        final long elapsedMillis = Math.max(0, now - bucket.getRefilledAtMillis());
+        final double refilledTokens = elapsedMillis / 1000d * bucket.getPermitsPerSecond();
+
+        bucket.setTokens(Math.min(bucket.getBurst(), bucket.getTokens() + refilledTokens));
+        bucket.setRefilledAtMillis(Math.max(now, bucket.getRefilledAtMillis()));
+
+        return bucket;
+    }
+
+    private long getNowMillis() {
+        final Long nowMillis = jdbcTemplate.queryForObject(NOW_MILLIS_SQL, Long.class);
+
+        if (nowMillis == null) {
+            throw new IllegalStateException("The database did not return its time.");
+        }
+
+        return nowMillis;
+    }
+}
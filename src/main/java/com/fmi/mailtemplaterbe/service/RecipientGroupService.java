@@ -12,7 +12,10 @@ import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -97,6 +100,29 @@ public class RecipientGroupService {
         return recipientService.getRecipientsByIds(recipientIds);
     }
 
+    /**
+     * Get the ids of the recipients of the recipient groups with the provided ids, without duplicates.
+     * The ids are a snapshot - later changes of the groups do not affect them.
+     *
+     * @param ids The ids of the recipient groups.
+     * @return Ids of the recipients of all groups, in the order of the groups.
+     */
+    public List<Long> getRecipientIdsOfRecipientGroups(List<Long> ids) {
+        final Set<Long> recipientIds = new LinkedHashSet<>();
+
+        for (Long id : ids) {
+            RecipientGroupEntity recipientGroupEntity = recipientGroupRepository.findById(id).orElse(null);
+
+            if (recipientGroupEntity == null) {
+                throw ExceptionsUtil.getRecipientGroupNotFoundException(id);
+            }
+
+            recipientIds.addAll(RecipientGroupMapper.parseRecipientIdsToList(recipientGroupEntity.getRecipientIds()));
+        }
+
+        return new ArrayList<>(recipientIds);
+    }
+
     /**
      * Add a recipient to a recipient group based on the provided recipientGroupId and the recipientId.
      *
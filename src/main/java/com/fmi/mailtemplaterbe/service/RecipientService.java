@@ -1,6 +1,7 @@
 package com.fmi.mailtemplaterbe.service;
 
 import com.fmi.mailtemplaterbe.domain.entity.RecipientEntity;
+import com.fmi.mailtemplaterbe.domain.resource.Recipient;
 import com.fmi.mailtemplaterbe.domain.resource.RecipientResource;
 import com.fmi.mailtemplaterbe.repository.RecipientEntityRepository;
 import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
@@ -12,6 +13,7 @@ import org.springframework.util.CollectionUtils;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -128,6 +130,29 @@ public class RecipientService {
         return recipientEntitiesToRecipientResources(recipientEntities);
     }
 
+    /**
+     * Get the recipients with the provided ids as recipients of an email, with their fields as placeholders.
+     * Recipients that do not exist anymore are skipped.
+     *
+     * @param recipientIds          Ids of the recipients
+     * @param recipientPlaceholders Custom placeholders by recipient id, may be null
+     * @return recipients of an email
+     */
+    public List<Recipient> getEmailRecipientsByIds(
+            List<Long> recipientIds, Map<Long, Map<String, String>> recipientPlaceholders) {
+        List<RecipientEntity> recipientEntities = recipientEntityRepository.findByIdIn(recipientIds).orElse(null);
+
+        if (CollectionUtils.isEmpty(recipientEntities)) {
+            return Collections.emptyList();
+        }
+
+        return recipientEntities.stream()
+                .map(recipientEntity -> RecipientMapper.entityToRecipient(
+                        recipientEntity,
+                        recipientPlaceholders != null ? recipientPlaceholders.get(recipientEntity.getId()) : null))
+                .collect(Collectors.toList());
+    }
+
     private RecipientEntity updateRecipientEntityIfNecessary(
             RecipientEntity recipientEntity, RecipientResource recipientResource) {
         final String email = recipientResource.getEmail();
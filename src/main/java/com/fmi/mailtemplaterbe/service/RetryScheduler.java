@@ -0,0 +1,82 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.RetryConfiguration;
+import com.fmi.mailtemplaterbe.util.TimerWheel;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the retries of failed sends with a jittered exponential backoff.
+ */
+@Service
+@RequiredArgsConstructor
+public class RetryScheduler {
+
+    private final RetryConfiguration retryConfiguration;
+
+    private ExecutorService retryExecutor;
+    private TimerWheel timerWheel;
+
+    @PostConstruct
+    public void start() {
+        /* The retries only hand the emails back to the pipeline, which may block, so they get their own thread. */
+        retryExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("send-retry-"));
+        timerWheel = new TimerWheel(
+                "send-retry-timer",
+                retryConfiguration.getTickDuration(),
+                retryConfiguration.getWheelSize(),
+                retryExecutor);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        timerWheel.stop();
+        retryExecutor.shutdown();
+        retryExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Whether an email may be attempted once more.
+     *
+     * @param attempts Number of attempts that were already made.
+     * @return true if the max number of attempts is not reached yet
+     */
+    public boolean canRetry(int attempts) {
+        return attempts < retryConfiguration.getMaxAttempts();
+    }
+
+    /**
+     * Run a retry after the backoff for the provided number of attempts.
+     *
+     * @param attempts Number of attempts that were already made.
+     * @param retry    The retry.
+     */
+    public void schedule(int attempts, Runnable retry) {
+        timerWheel.schedule(retry, getBackoff(attempts));
+    }
+
+    /**
+     * Get the backoff before the next attempt: initialBackoff * multiplier^(attempts - 1), capped at maxBackoff
+     * and randomized by the jitter.
+     *
+     * @param attempts Number of attempts that were already made.
+     * @return backoff (ms)
+     */
+    public long getBackoff(int attempts) {
+        final double backoff = Math.min(
+                retryConfiguration.getMaxBackoff(),
+                retryConfiguration.getInitialBackoff() *
+                Math.pow(retryConfiguration.getMultiplier(), Math.max(0, attempts - 1)));
+        final double jitter = retryConfiguration.getJitter() * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+
+        return (long) (backoff * (1 + jitter));
+    }
+}
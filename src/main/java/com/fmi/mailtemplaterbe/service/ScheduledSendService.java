@@ -0,0 +1,280 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.SchedulingConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.OutboxEntity;
+import com.fmi.mailtemplaterbe.util.TimerWheel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Releases the scheduled emails from the outbox when they are due.
+ * <p></p>
+ * The outbox is the coarse level of the schedule: the emails stay there, ordered by the index on their due time,
+ * until they are due within the horizon. A loader moves over that index once per load interval and puts the upcoming
+ * emails into a timer wheel - the fine level - with one timer for all emails that are due in the same tick.
+ * When a timer expires, its emails are released into the outbox with a single update and the dispatcher is woken up,
+ * so that any instance can claim them like the other emails.
+ * <p></p>
+ * The wheel only lives in memory. After a restart the loader starts from the beginning of the index again,
+ * so emails that became due in the meantime are released right away. In a cluster only the leader loads, the other
+ * instances only load the first emails of the jobs that they schedule. A release of an email that was already
+ * released does nothing.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ScheduledSendService {
+
+    private static final LocalDateTime START_POSITION = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final SchedulingConfiguration schedulingConfiguration;
+    private final OutboxService outboxService;
+    private final OutboxDispatcher outboxDispatcher;
+    private final SendJobService sendJobService;
+    private final ClusterService clusterService;
+
+    private final Object loadLock = new Object();
+    private final AtomicInteger loadedCount = new AtomicInteger();
+    private final Semaphore wakeUpSignal = new Semaphore(0);
+
+    /* Position of the last loaded email, by due time and id. Guarded by the load lock. */
+    private LocalDateTime loadedNextAttemptAt = START_POSITION;
+    private long loadedId;
+
+    private ExecutorService releaseExecutor;
+    private TimerWheel timerWheel;
+    private Thread loader;
+    private volatile boolean running;
+
+    /* After the dispatcher resumed the send jobs, so that the released emails find their jobs. */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void start() {
+        /* The releases update the outbox, which may block, so they get their own thread instead of the timer. */
+        releaseExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("scheduled-send-release-"));
+        timerWheel = new TimerWheel(
+                "scheduled-send-timer",
+                schedulingConfiguration.getTickDuration(),
+                schedulingConfiguration.getWheelSize(),
+                releaseExecutor);
+        running = true;
+        loader = new Thread(this::load, "scheduled-send-loader");
+        loader.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+
+        if (loader != null) {
+            wakeUpSignal.release();
+            loader.join(TimeUnit.MINUTES.toMillis(1));
+            /* Pending releases are dropped, their emails are still scheduled in the outbox. */
+            timerWheel.stop();
+            releaseExecutor.shutdown();
+            releaseExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Load the emails of a new scheduled send job, which are due before the emails that were already loaded.
+     * The later ones are picked up by the regular loads. An instance, which is not the leader, does not know how far
+     * the leader loaded, so it loads all emails of the job within the horizon.
+     *
+     * @param sendJobId Id of the send job.
+     */
+    public void onSendJobScheduled(Long sendJobId) {
+        if (!running) {
+            /* Not started yet, the first load starts from the beginning anyway. */
+            return;
+        }
+
+        synchronized (loadLock) {
+            final boolean leader = clusterService.isLeader();
+            final LocalDateTime untilNextAttemptAt = leader
+                    ? loadedNextAttemptAt
+                    : LocalDateTime.now().plusNanos(schedulingConfiguration.getHorizon() * 1_000_000L);
+            final long untilId = leader ? loadedId : Long.MAX_VALUE;
+            LocalDateTime afterNextAttemptAt = START_POSITION;
+            long afterId = 0;
+
+            while (true) {
+                final List<OutboxEntity> emails = outboxService.getScheduledEmailsOfSendJob(
+                        sendJobId,
+                        afterNextAttemptAt,
+                        afterId,
+                        untilNextAttemptAt,
+                        untilId,
+                        schedulingConfiguration.getLoadBatchSize());
+
+                if (emails.isEmpty()) {
+                    return;
+                }
+
+                schedule(emails);
+
+                final OutboxEntity last = emails.get(emails.size() - 1);
+
+                afterNextAttemptAt = last.getNextAttemptAt();
+                afterId = last.getId();
+
+                if (emails.size() < schedulingConfiguration.getLoadBatchSize()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void load() {
+        while (running) {
+            try {
+                if (clusterService.isLeader()) {
+                    loadUpcomingEmails();
+                }
+            } catch (RuntimeException e) {
+                /* The position did not move, the next load tries again. */
+                log.error("Loading the upcoming scheduled emails failed.", e);
+            }
+
+            try {
+                wakeUpSignal.tryAcquire(schedulingConfiguration.getLoadInterval(), TimeUnit.MILLISECONDS);
+                wakeUpSignal.drainPermits();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void loadUpcomingEmails() {
+        final LocalDateTime until = LocalDateTime.now().plusNanos(schedulingConfiguration.getHorizon() * 1_000_000L);
+
+        synchronized (loadLock) {
+            while (running) {
+                final int limit = Math.min(
+                        schedulingConfiguration.getLoadBatchSize(),
+                        schedulingConfiguration.getMaxLoadedEmails() - loadedCount.get());
+
+                if (limit <= 0) {
+                    /* Continued once enough loaded emails were released. */
+                    return;
+                }
+
+                final List<OutboxEntity> emails =
+                        outboxService.getScheduledEmails(until, loadedNextAttemptAt, loadedId, limit);
+
+                if (emails.isEmpty()) {
+                    return;
+                }
+
+                schedule(emails);
+
+                final OutboxEntity last = emails.get(emails.size() - 1);
+
+                loadedNextAttemptAt = last.getNextAttemptAt();
+                loadedId = last.getId();
+
+                if (emails.size() < limit) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /* The emails are ordered by due time, so the ones that are due in the same tick follow each other. */
+    private void schedule(List<OutboxEntity> emails) {
+        final long tickDuration = Math.max(1, schedulingConfiguration.getTickDuration());
+        final long now = System.currentTimeMillis();
+        List<OutboxEntity> tickEmails = new ArrayList<>();
+        long tick = Long.MIN_VALUE;
+        long dueAt = 0;
+
+        loadedCount.addAndGet(emails.size());
+
+        for (OutboxEntity email : emails) {
+            final long emailDueAt = email.getNextAttemptAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            final long emailTick = emailDueAt / tickDuration;
+
+            if (emailTick != tick && !tickEmails.isEmpty()) {
+                scheduleRelease(tickEmails, dueAt - now);
+                tickEmails = new ArrayList<>();
+            }
+
+            tick = emailTick;
+            dueAt = emailDueAt;
+            tickEmails.add(email);
+        }
+
+        if (!tickEmails.isEmpty()) {
+            scheduleRelease(tickEmails, dueAt - now);
+        }
+    }
+
+    private void scheduleRelease(List<OutboxEntity> emails, long delayMillis) {
+        timerWheel.schedule(() -> release(emails), delayMillis);
+    }
+
+    private void release(List<OutboxEntity> emails) {
+        final int maxLoadedEmails = schedulingConfiguration.getMaxLoadedEmails();
+
+        if (loadedCount.getAndAdd(-emails.size()) >= maxLoadedEmails &&
+            loadedCount.get() < maxLoadedEmails) {
+            /* The loader stopped at the limit, let it continue. */
+            wakeUpSignal.release();
+        }
+
+        final Set<Long> sendJobIds = new LinkedHashSet<>();
+
+        for (OutboxEntity email : emails) {
+            sendJobIds.add(email.getSendJobId());
+        }
+
+        final int releasedCount;
+
+        try {
+            releasedCount = outboxService.releaseScheduledEmails(
+                    emails.stream().map(OutboxEntity::getId).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            /* The emails are still scheduled, try again after the next load. */
+            log.error("Releasing {} scheduled emails of send jobs {} failed.", emails.size(), sendJobIds, e);
+            loadedCount.addAndGet(emails.size());
+            scheduleRelease(emails, schedulingConfiguration.getLoadInterval());
+            return;
+        }
+
+        if (releasedCount == 0) {
+            /* Their send jobs were stopped, or another instance released them, in the meantime. */
+            return;
+        }
+
+        for (Long sendJobId : sendJobIds) {
+            try {
+                sendJobService.startScheduledSendJob(sendJobId);
+            } catch (RuntimeException e) {
+                log.error("Starting scheduled send job {} failed.", sendJobId, e);
+            }
+        }
+
+        outboxDispatcher.onScheduledEmailsReleased(sendJobIds);
+    }
+}
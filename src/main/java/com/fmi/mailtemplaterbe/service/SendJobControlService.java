@@ -0,0 +1,137 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.domain.entity.SendJobEntity;
+import com.fmi.mailtemplaterbe.domain.enums.SendJobStatus;
+import com.fmi.mailtemplaterbe.domain.model.SendJobContext;
+import com.fmi.mailtemplaterbe.domain.resource.SendJobResource;
+import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+/**
+ * Pause, resume and cancel of send jobs.
+ * <p></p>
+ * The stages of the pipeline check the state of the job before each email. The emails of a paused job are handed back
+ * to the outbox instead of being sent, so the job keeps no threads, queue slots or smtp connections - only its place
+ * in the outbox. The emails of a cancelled job are dropped and the unsent ones are failed in the outbox.
+ */
+@Service
+@RequiredArgsConstructor
+public class SendJobControlService {
+
+    static final String SEND_JOB_CANCELLED_ERROR = "Send job was cancelled.";
+
+    private final SendJobService sendJobService;
+    private final OutboxService outboxService;
+    private final OutboxDispatcher outboxDispatcher;
+    private final SmtpConnectionPool smtpConnectionPool;
+
+    /**
+     * Pause a running or scheduled send job.
+     *
+     * @param id The id of the send job.
+     * @return the paused send job
+     */
+    public SendJobResource pauseSendJob(Long id) {
+        final SendJobStatus status = getStatus(id);
+
+        if (status != SendJobStatus.QUEUED && status != SendJobStatus.RUNNING && status != SendJobStatus.SCHEDULED) {
+            throw ExceptionsUtil.getCustomBadRequestException(
+                    "Send job with id: " + id + " cannot be paused, it is " + status + ".");
+        }
+
+        sendJobService.pauseSendJob(id);
+
+        final SendJobContext context = outboxDispatcher.getSendJobContext(id);
+
+        if (context != null) {
+            context.pause();
+            closeIdleConnections(context);
+        }
+
+        return sendJobService.getSendJobById(id);
+    }
+
+    /**
+     * Resume a paused send job. It continues with the emails that were not sent yet.
+     *
+     * @param id The id of the send job.
+     * @return the resumed send job
+     */
+    public SendJobResource resumeSendJob(Long id) {
+        final SendJobStatus status = getStatus(id);
+
+        if (status != SendJobStatus.PAUSED) {
+            throw ExceptionsUtil.getCustomBadRequestException(
+                    "Send job with id: " + id + " cannot be resumed, it is " + status + ".");
+        }
+
+        sendJobService.unpauseSendJob(id);
+
+        final SendJobContext context = outboxDispatcher.getSendJobContext(id);
+
+        if (context != null) {
+            context.resume();
+            outboxDispatcher.wakeUp();
+        }
+
+        return sendJobService.getSendJobById(id);
+    }
+
+    /**
+     * Cancel a send job, which is not finished yet. The emails that were already sent stay sent.
+     *
+     * @param id The id of the send job.
+     * @return the cancelled send job
+     */
+    public SendJobResource cancelSendJob(Long id) {
+        final SendJobStatus status = getStatus(id);
+
+        if (status == SendJobStatus.COMPLETED || status == SendJobStatus.FAILED || status == SendJobStatus.CANCELLED) {
+            throw ExceptionsUtil.getCustomBadRequestException(
+                    "Send job with id: " + id + " cannot be cancelled, it is " + status + ".");
+        }
+
+        sendJobService.cancelSendJob(id, SEND_JOB_CANCELLED_ERROR);
+
+        final SendJobContext context = outboxDispatcher.getSendJobContext(id);
+
+        if (context != null) {
+            /* Fails the unsent emails in the outbox and finishes the job, once nobody waits for it anymore. */
+            context.abort(ExceptionsUtil.getCustomBadRequestException(SEND_JOB_CANCELLED_ERROR));
+            closeIdleConnections(context);
+        }
+
+        if (context == null || context.isRemote()) {
+            /*
+             * Not owned by this instance, e.g. it was never resumed after a restart. The other instances drop
+             * their emails with their next sync.
+             */
+            outboxService.failUnfinishedEmails(id, SEND_JOB_CANCELLED_ERROR);
+            sendJobService.finishSendJob(id, SEND_JOB_CANCELLED_ERROR);
+        }
+
+        return sendJobService.getSendJobById(id);
+    }
+
+    private SendJobStatus getStatus(Long id) {
+        final SendJobEntity sendJobEntity = sendJobService.getSendJobEntityById(id);
+
+        return SendJobStatus.fromValue(sendJobEntity.getStatus());
+    }
+
+    /* Unless another job still sends with the same account. */
+    private void closeIdleConnections(SendJobContext stoppedContext) {
+        for (SendJobContext context : outboxDispatcher.getSendJobContexts()) {
+            if (context != stoppedContext &&
+                !context.isAborted() &&
+                !context.isPaused() &&
+                context.getSmtpServerName().equalsIgnoreCase(stoppedContext.getSmtpServerName()) &&
+                context.getUsername().equals(stoppedContext.getUsername())) {
+                return;
+            }
+        }
+
+        smtpConnectionPool.closeIdle(stoppedContext.getSmtpServerName(), stoppedContext.getUsername());
+    }
+}
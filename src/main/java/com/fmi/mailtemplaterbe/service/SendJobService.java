@@ -0,0 +1,454 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.SendJobsConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.SendJobEntity;
+import com.fmi.mailtemplaterbe.domain.enums.SendJobStatus;
+import com.fmi.mailtemplaterbe.domain.enums.SendLane;
+import com.fmi.mailtemplaterbe.domain.resource.SendEmailResource;
+import com.fmi.mailtemplaterbe.domain.resource.SendJobRecipientsPageResource;
+import com.fmi.mailtemplaterbe.domain.resource.SendJobResource;
+import com.fmi.mailtemplaterbe.domain.resource.SentEmailResource;
+import com.fmi.mailtemplaterbe.mapper.SendJobMapper;
+import com.fmi.mailtemplaterbe.repository.SendJobRepository;
+import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@Service
+@RequiredArgsConstructor
+public class SendJobService {
+
+    private static final List<Long> UNFINISHED_STATUSES = Arrays.asList(
+            SendJobStatus.QUEUED.getValue(),
+            SendJobStatus.RUNNING.getValue(),
+            SendJobStatus.SCHEDULED.getValue(),
+            SendJobStatus.PAUSED.getValue());
+
+    private final SendJobRepository sendJobRepository;
+    private final EmailHistoryService emailHistoryService;
+    private final SendJobsConfiguration sendJobsConfiguration;
+    private final ClusterService clusterService;
+
+    /* Live counters of the running jobs. They are written to the database every few results and on finish. */
+    private final ConcurrentMap<Long, SendJobProgress> runningSendJobs = new ConcurrentHashMap<>();
+
+    /**
+     * Create a queued send job.
+     *
+     * @param sendEmailResource  The emails of the job.
+     * @param smtpServerName     Name of the smtp server that is used for the job.
+     * @param senderEmail        Email address of the sender.
+     * @param defaultCredentials True if the default credentials (config vars) are used for the job.
+     * @param lane               Lane of the send pipeline, which sends the emails of the job.
+     * @return The created send job.
+     */
+    public SendJobResource createSendJob(
+            SendEmailResource sendEmailResource,
+            String smtpServerName,
+            String senderEmail,
+            boolean defaultCredentials,
+            SendLane lane) {
+        SendJobEntity sendJobEntity = SendJobEntity.builder()
+                .emailTemplateId(sendEmailResource.getId())
+                .status(SendJobStatus.QUEUED.getValue())
+                .subject(sendEmailResource.getTitle())
+                .message(sendEmailResource.getMessage())
+                .html(sendEmailResource.getIsHtml())
+                .includeConfirmationLink(sendEmailResource.getIncludeConfirmationLink())
+                .smtpServerName(smtpServerName)
+                .senderEmail(senderEmail)
+                .defaultCredentials(defaultCredentials)
+                .ownerNode(clusterService.getNodeId())
+                .lane(lane.getValue())
+                .totalCount(sendEmailResource.getRecipients().size())
+                .createdAt(LocalDateTime.now())
+                .build();
+
+        return SendJobMapper.entityToResource(sendJobRepository.save(sendJobEntity));
+    }
+
+    /**
+     * Mark a send job as running.
+     *
+     * @param id The id of the send job.
+     */
+    public void startSendJob(Long id) {
+        resumeSendJob(id, 0, 0);
+    }
+
+    /**
+     * Mark a send job as scheduled. Its results are counted from now on, it is running once its first emails are due.
+     *
+     * @param id          The id of the send job.
+     * @param scheduledAt Time for which the job was scheduled.
+     */
+    public void scheduleSendJob(Long id, LocalDateTime scheduledAt) {
+        SendJobEntity sendJobEntity = getSendJobEntityById(id);
+
+        sendJobEntity.setStatus(SendJobStatus.SCHEDULED.getValue());
+        sendJobEntity.setScheduledAt(scheduledAt);
+
+        runningSendJobs.put(id, new SendJobProgress(0, 0));
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    /**
+     * Mark a scheduled send job as running, once its first emails are due. Jobs that are not scheduled are left as
+     * they are.
+     *
+     * @param id The id of the send job.
+     */
+    public void startScheduledSendJob(Long id) {
+        SendJobEntity sendJobEntity = getSendJobEntityById(id);
+
+        /* A paused job stays paused, but it is no longer scheduled once it is resumed. */
+        final boolean paused = SendJobStatus.PAUSED.getValue().equals(sendJobEntity.getStatus());
+
+        if (!SendJobStatus.SCHEDULED.getValue().equals(sendJobEntity.getStatus()) &&
+            !(paused && sendJobEntity.getStartedAt() == null)) {
+            return;
+        }
+
+        if (!paused) {
+            sendJobEntity.setStatus(SendJobStatus.RUNNING.getValue());
+        }
+
+        sendJobEntity.setStartedAt(LocalDateTime.now());
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    /**
+     * Mark a send job as running again, e.g. after a restart. The counters continue from the provided values.
+     * A scheduled job stays scheduled until its first emails are due and a paused job stays paused.
+     *
+     * @param id          The id of the send job.
+     * @param sentCount   Number of emails of the job that were already sent.
+     * @param failedCount Number of emails of the job that already failed.
+     */
+    public void resumeSendJob(Long id, int sentCount, int failedCount) {
+        SendJobEntity sendJobEntity = getSendJobEntityById(id);
+
+        final boolean scheduled = SendJobStatus.SCHEDULED.getValue().equals(sendJobEntity.getStatus());
+        final boolean paused = SendJobStatus.PAUSED.getValue().equals(sendJobEntity.getStatus());
+
+        if (!scheduled && !paused) {
+            sendJobEntity.setStatus(SendJobStatus.RUNNING.getValue());
+        }
+
+        sendJobEntity.setSentCount(sentCount);
+        sendJobEntity.setFailedCount(failedCount);
+
+        if (sendJobEntity.getStartedAt() == null && !scheduled && !paused) {
+            sendJobEntity.setStartedAt(LocalDateTime.now());
+        }
+
+        runningSendJobs.put(id, new SendJobProgress(sentCount, failedCount));
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    /**
+     * Mark a send job as paused.
+     *
+     * @param id The id of the send job.
+     */
+    public void pauseSendJob(Long id) {
+        SendJobEntity sendJobEntity = getSendJobEntityById(id);
+
+        sendJobEntity.setStatus(SendJobStatus.PAUSED.getValue());
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    /**
+     * Mark a paused send job as running again, or as scheduled if none of its emails were due yet.
+     *
+     * @param id The id of the send job.
+     */
+    public void unpauseSendJob(Long id) {
+        SendJobEntity sendJobEntity = getSendJobEntityById(id);
+
+        sendJobEntity.setStatus(sendJobEntity.getStartedAt() == null && sendJobEntity.getScheduledAt() != null
+                ? SendJobStatus.SCHEDULED.getValue()
+                : SendJobStatus.RUNNING.getValue());
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    /**
+     * Mark a send job as cancelled. It is finished once the emails in the pipeline are dropped.
+     *
+     * @param id    The id of the send job.
+     * @param error The reason, which is recorded as the error of the job.
+     */
+    public void cancelSendJob(Long id, String error) {
+        SendJobEntity sendJobEntity = getSendJobEntityById(id);
+
+        sendJobEntity.setStatus(SendJobStatus.CANCELLED.getValue());
+        sendJobEntity.setError(error);
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    /**
+     * Update the number of emails of a send job, whose emails are still being added.
+     *
+     * @param id         The id of the send job.
+     * @param totalCount Number of emails of the job so far.
+     */
+    public void updateTotalCount(Long id, int totalCount) {
+        SendJobEntity sendJobEntity = getSendJobEntityById(id);
+        SendJobProgress sendJobProgress = runningSendJobs.get(id);
+
+        /* Kept with the counters as well, so that a concurrent flush of the counters does not write an old total. */
+        if (sendJobProgress != null) {
+            sendJobProgress.setTotalCount(totalCount);
+        }
+
+        sendJobEntity.setTotalCount(totalCount);
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    /**
+     * Take over the counters of a running send job, e.g. from the outbox of a job that several app instances send.
+     *
+     * @param id          The id of the send job.
+     * @param sentCount   Number of emails of the job that were sent.
+     * @param failedCount Number of emails of the job that failed.
+     */
+    public void syncProgress(Long id, int sentCount, int failedCount) {
+        SendJobProgress sendJobProgress = runningSendJobs.get(id);
+
+        if (sendJobProgress == null) {
+            return;
+        }
+
+        sendJobProgress.getSentCount().set(sentCount);
+        sendJobProgress.getFailedCount().set(failedCount);
+        flushProgress(id, sendJobProgress);
+    }
+
+    /**
+     * Record the outcome of a single recipient of a running send job.
+     *
+     * @param id               The id of the send job.
+     * @param sentSuccessfully True if the email was sent successfully and false otherwise.
+     */
+    public void recordSendResult(Long id, boolean sentSuccessfully) {
+        SendJobProgress sendJobProgress = runningSendJobs.get(id);
+
+        if (sendJobProgress == null) {
+            return;
+        }
+
+        if (sentSuccessfully) {
+            sendJobProgress.getSentCount().incrementAndGet();
+        } else {
+            sendJobProgress.getFailedCount().incrementAndGet();
+        }
+
+        if (sendJobProgress.getResultsCount() % sendJobsConfiguration.getProgressFlushInterval() == 0) {
+            flushProgress(id, sendJobProgress);
+        }
+    }
+
+    /**
+     * Mark a send job as finished. The job is completed if no error is provided and failed otherwise.
+     * A cancelled job stays cancelled.
+     *
+     * @param id    The id of the send job.
+     * @param error Error that stopped the job or null.
+     */
+    public void finishSendJob(Long id, String error) {
+        SendJobEntity sendJobEntity = getSendJobEntityById(id);
+        SendJobProgress sendJobProgress = runningSendJobs.remove(id);
+
+        if (sendJobProgress != null) {
+            sendJobEntity.setSentCount(sendJobProgress.getSentCount().get());
+            sendJobEntity.setFailedCount(sendJobProgress.getFailedCount().get());
+
+            if (sendJobProgress.getTotalCount() != null) {
+                sendJobEntity.setTotalCount(sendJobProgress.getTotalCount());
+            }
+        }
+
+        if (!SendJobStatus.CANCELLED.getValue().equals(sendJobEntity.getStatus())) {
+            sendJobEntity.setStatus(
+                    error == null ? SendJobStatus.COMPLETED.getValue() : SendJobStatus.FAILED.getValue());
+            sendJobEntity.setError(error);
+        }
+
+        sendJobEntity.setFinishedAt(LocalDateTime.now());
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    /**
+     * Get a send job by its id, with the counts of its recipients by outcome.
+     * The outcomes for the single recipients are paged, see {@link #getSendJobRecipients(Long, Integer, Integer)}.
+     *
+     * @param id The id of the send job.
+     * @return send job
+     */
+    public SendJobResource getSendJobById(Long id) {
+        SendJobResource sendJob = SendJobMapper.entityToResource(getSendJobEntityById(id));
+        SendJobProgress sendJobProgress = runningSendJobs.get(id);
+
+        if (sendJobProgress != null) {
+            if (sendJobProgress.getTotalCount() != null) {
+                sendJob.setTotal(sendJobProgress.getTotalCount());
+            }
+
+            sendJob.setSent(sendJobProgress.getSentCount().get());
+            sendJob.setFailed(sendJobProgress.getFailedCount().get());
+            sendJob.setPending(Math.max(0, sendJob.getTotal() - sendJobProgress.getResultsCount()));
+        }
+
+        return sendJob;
+    }
+
+    /**
+     * Get a page of the outcomes of a send job for the recipients, which were already processed.
+     *
+     * @param id   The id of the send job.
+     * @param page Zero based page, 0 if null.
+     * @param size Page size.
+     * @return page of the outcomes, ordered as they were persisted
+     */
+    public SendJobRecipientsPageResource getSendJobRecipients(Long id, Integer page, Integer size) {
+        final int maxSize = sendJobsConfiguration.getRecipientsMaxPageSize();
+        final int pageIndex = page != null ? page : 0;
+
+        if (size == null || size < 1 || size > maxSize) {
+            throw ExceptionsUtil.getCustomBadRequestException("size must be between 1 and " + maxSize + ".");
+        }
+
+        if (pageIndex < 0) {
+            throw ExceptionsUtil.getCustomBadRequestException("page must not be negative.");
+        }
+
+        getSendJobEntityById(id);
+
+        final Page<SentEmailResource> sentEmails = emailHistoryService.getSentEmailsBySendJobId(id, pageIndex, size);
+
+        return SendJobRecipientsPageResource.builder()
+                .recipients(sentEmails.stream()
+                        .map(SendJobMapper::sentEmailToRecipientResource)
+                        .collect(Collectors.toList()))
+                .page(pageIndex)
+                .size(size)
+                .total(sentEmails.getTotalElements())
+                .build();
+    }
+
+    /**
+     * Get a send job entity by its id.
+     *
+     * @param id The id of the send job.
+     * @return send job entity
+     */
+    public SendJobEntity getSendJobEntityById(Long id) {
+        SendJobEntity sendJobEntity = sendJobRepository.findById(id).orElse(null);
+
+        if (sendJobEntity == null) {
+            throw ExceptionsUtil.getSendJobNotFoundException(id);
+        }
+
+        return sendJobEntity;
+    }
+
+    /**
+     * Get the send jobs, which are not finished yet.
+     *
+     * @return send job entities
+     */
+    public List<SendJobEntity> getUnfinishedSendJobEntities() {
+        return sendJobRepository.findAllByStatusIn(UNFINISHED_STATUSES);
+    }
+
+    /**
+     * Get send jobs by their ids. Ids of send jobs that do not exist are skipped.
+     *
+     * @param ids The ids of the send jobs.
+     * @return send job entities
+     */
+    public List<SendJobEntity> getSendJobEntitiesByIds(Collection<Long> ids) {
+        return sendJobRepository.findAllById(ids);
+    }
+
+    /**
+     * Make this app instance the owner of a send job, unless another instance took it over in the meantime.
+     *
+     * @param id                The id of the send job.
+     * @param expectedOwnerNode The current owner or null.
+     * @return true if this instance is the owner now
+     */
+    @Transactional
+    public boolean adoptSendJob(Long id, String expectedOwnerNode) {
+        return sendJobRepository.updateOwnerNode(id, expectedOwnerNode, clusterService.getNodeId()) > 0;
+    }
+
+    private void flushProgress(Long id, SendJobProgress sendJobProgress) {
+        SendJobEntity sendJobEntity = sendJobRepository.findById(id).orElse(null);
+
+        if (sendJobEntity == null) {
+            return;
+        }
+
+        sendJobEntity.setSentCount(sendJobProgress.getSentCount().get());
+        sendJobEntity.setFailedCount(sendJobProgress.getFailedCount().get());
+
+        if (sendJobProgress.getTotalCount() != null) {
+            sendJobEntity.setTotalCount(sendJobProgress.getTotalCount());
+        }
+
+        sendJobRepository.save(sendJobEntity);
+    }
+
+    private static class SendJobProgress {
+
+        private final AtomicInteger sentCount;
+        private final AtomicInteger failedCount;
+        /* Only set for jobs, whose emails are still being added. */
+        private volatile Integer totalCount;
+
+        SendJobProgress(int sentCount, int failedCount) {
+            this.sentCount = new AtomicInteger(sentCount);
+            this.failedCount = new AtomicInteger(failedCount);
+        }
+
+        AtomicInteger getSentCount() {
+            return sentCount;
+        }
+
+        AtomicInteger getFailedCount() {
+            return failedCount;
+        }
+
+        Integer getTotalCount() {
+            return totalCount;
+        }
+
+        void setTotalCount(Integer totalCount) {
+            this.totalCount = totalCount;
+        }
+
+        int getResultsCount() {
+            return sentCount.get() + failedCount.get();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.domain.enums.EmailErrorCategory;
+import com.fmi.mailtemplaterbe.domain.model.SendResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the stages of the send pipeline, exported on /actuator/prometheus.
+ * <p></p>
+ * The meters are looked up once per smtp server and outcome and cached, so recording a message costs no registry
+ * lookups. The gauges of the state outside the pipeline are bound in the MetricsConfiguration.
+ */
+@Service
+@RequiredArgsConstructor
+public class SendMetrics {
+
+    private static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, Timer> sessionAcquireTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> smtpTransactionTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> resultCounters = new ConcurrentHashMap<>();
+    private Timer renderTimer;
+    private Timer historyPersistTimer;
+    private DistributionSummary historyBatchSize;
+
+    @PostConstruct
+    public void init() {
+        renderTimer = Timer.builder("mailtemplater.send.render")
+                .description("Rendering of the message of a recipient")
+                .register(meterRegistry);
+        historyPersistTimer = Timer.builder("mailtemplater.send.history.persist")
+                .description("Persisting a batch of results to the history and the outbox")
+                .register(meterRegistry);
+        historyBatchSize = DistributionSummary.builder("mailtemplater.send.history.batch.size")
+                .description("Number of results in a persisted batch")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Record the rendering of a message.
+     *
+     * @param nanos Duration (ns).
+     */
+    public void recordRender(long nanos) {
+        renderTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the wait for a pooled smtp connection, including the handshakes of a new one.
+     *
+     * @param smtpServerName Name of the smtp server.
+     * @param nanos          Duration (ns).
+     */
+    public void recordSessionAcquire(String smtpServerName, long nanos) {
+        sessionAcquireTimers.computeIfAbsent(normalize(smtpServerName), key -> Timer
+                        .builder("mailtemplater.send.session.acquire")
+                        .description("Borrowing a connected smtp transport from the pool")
+                        .tag("smtp_server", key)
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record an smtp transaction (MAIL, RCPT and DATA) of a message.
+     *
+     * @param smtpServerName Name of the smtp server.
+     * @param success        True if the server accepted the message.
+     * @param nanos          Duration (ns).
+     */
+    public void recordSmtpTransaction(String smtpServerName, boolean success, long nanos) {
+        final String outcome = success ? "success" : "failure";
+
+        smtpTransactionTimers.computeIfAbsent(normalize(smtpServerName) + '|' + outcome, key -> Timer
+                        .builder("mailtemplater.send.smtp.transaction")
+                        .description("Smtp transaction of a message, until the server replied to DATA")
+                        .tag("smtp_server", normalize(smtpServerName))
+                        .tag("outcome", outcome)
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the persisting of a batch of results.
+     *
+     * @param count Number of results in the batch.
+     * @param nanos Duration (ns).
+     */
+    public void recordHistoryPersist(int count, long nanos) {
+        historyPersistTimer.record(nanos, TimeUnit.NANOSECONDS);
+        historyBatchSize.record(count);
+    }
+
+    /**
+     * Count the outcome of an attempt to send an email.
+     *
+     * @param smtpServerName Name of the smtp server.
+     * @param outcome        Outcome of the attempt.
+     * @param errorCategory  Category of the error or null.
+     */
+    public void recordResult(String smtpServerName, SendResult.Outcome outcome, EmailErrorCategory errorCategory) {
+        final String category = errorCategory != null ? errorCategory.name().toLowerCase() : NONE;
+
+        resultCounters.computeIfAbsent(normalize(smtpServerName) + '|' + outcome + '|' + category, key -> Counter
+                        .builder("mailtemplater.send.results")
+                        .description("Attempts to send an email by outcome")
+                        .tag("smtp_server", normalize(smtpServerName))
+                        .tag("outcome", outcome.name().toLowerCase())
+                        .tag("error_category", category)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * Export the depth of a queue of the pipeline.
+     *
+     * @param queueName Name of the queue, e.g. the stage and the smtp server.
+     * @param queue     The queue.
+     */
+    public void registerQueue(String queueName, Collection<?> queue) {
+        Gauge.builder("mailtemplater.send.queue.depth", queue, Collection::size)
+                .description("Number of items that wait in a queue of the send pipeline")
+                .tag("queue", queueName)
+                .register(meterRegistry);
+    }
+
+    /* Smtp server names are case insensitive, so the tags are lower case, as are the keys of the send executors. */
+    private static String normalize(String smtpServerName) {
+        return smtpServerName != null ? smtpServerName.toLowerCase() : NONE;
+    }
+}
@@ -0,0 +1,614 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.LaneConfiguration;
+import com.fmi.mailtemplaterbe.config.SendPipelineConfiguration;
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import com.fmi.mailtemplaterbe.config.VirtualThreadsConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.SendEmailErrorEntity;
+import com.fmi.mailtemplaterbe.domain.entity.SentEmailEntity;
+import com.fmi.mailtemplaterbe.domain.enums.EmailErrorCategory;
+import com.fmi.mailtemplaterbe.domain.enums.SendLane;
+import com.fmi.mailtemplaterbe.domain.model.OutgoingEmail;
+import com.fmi.mailtemplaterbe.domain.model.SendJobContext;
+import com.fmi.mailtemplaterbe.domain.model.SendResult;
+import com.fmi.mailtemplaterbe.domain.model.SentEmailRecord;
+import com.fmi.mailtemplaterbe.domain.model.SmtpServerDescriptor;
+import com.fmi.mailtemplaterbe.domain.model.SmtpTarget;
+import com.fmi.mailtemplaterbe.util.ConfirmationTokenUtil;
+import com.fmi.mailtemplaterbe.util.EmailMessageUtil;
+import com.fmi.mailtemplaterbe.util.ExceptionsUtil;
+import com.fmi.mailtemplaterbe.util.SmtpErrorClassifier;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the emails of a send job in three stages, connected by bounded queues:
+ * <p></p>
+ * 1. render - builds the message of each recipient on a pool with one thread per core.
+ * <p></p>
+ * 2. send - sends the messages over pooled smtp connections, on a separate pool for each smtp server.
+ * Servers with the NIO transport get the messages through the non-blocking client instead.
+ * The router picks the server and account of each message, which spreads a routed job across its members.
+ * <p></p>
+ * 3. history - persists the results and updates the outbox on a single writer thread.
+ * <p></p>
+ * A full queue blocks the stage before it, so a fast producer can never run ahead of the smtp servers.
+ * The jobs of the transactional lane have their own render and send pools, so they never queue behind a campaign.
+ * Sends that fail with a transient error are handed back to the send stage after a backoff.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SendPipeline {
+
+    /* Blocks the submitting thread until the queue of the executor has room, instead of rejecting the task. */
+    private static final RejectedExecutionHandler BLOCK_WHEN_FULL = (task, executor) -> {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Send pipeline is shut down.");
+        }
+
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for the send pipeline.", e);
+        }
+    };
+
+    private final SendPipelineConfiguration sendPipelineConfiguration;
+    private final LaneConfiguration laneConfiguration;
+    private final VirtualThreadsConfiguration virtualThreadsConfiguration;
+    private final EmailMessageUtil emailMessageUtil;
+    private final SmtpConnectionPool smtpConnectionPool;
+    private final SmtpRateLimiter smtpRateLimiter;
+    private final EmailHistoryService emailHistoryService;
+    private final SendJobService sendJobService;
+    private final OutboxService outboxService;
+    private final RetryScheduler retryScheduler;
+    private final SmtpService smtpService;
+    private final NioSmtpClient nioSmtpClient;
+    private final SmtpRouter smtpRouter;
+    private final SendMetrics sendMetrics;
+
+    private final Map<String, ThreadPoolExecutor> sendExecutors = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor renderExecutor;
+    private ThreadPoolExecutor transactionalRenderExecutor;
+    private ExecutorService completionExecutor;
+    private BlockingQueue<SendResult> historyQueue;
+    private Thread historyWriter;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        renderExecutor = createExecutor(
+                "send-render-",
+                sendPipelineConfiguration.getEffectiveRenderThreads(),
+                sendPipelineConfiguration.getRenderQueueCapacity());
+        transactionalRenderExecutor = createExecutor(
+                "send-transactional-render-",
+                laneConfiguration.getTransactionalRenderThreads(),
+                laneConfiguration.getTransactionalQueueCapacity());
+        /* Unbounded, the non-blocking smtp client limits the number of messages in flight. */
+        completionExecutor = Executors.newSingleThreadExecutor(
+                virtualThreadsConfiguration.createThreadFactory("send-completion-"));
+        historyQueue = new ArrayBlockingQueue<>(sendPipelineConfiguration.getHistoryQueueCapacity());
+        sendMetrics.registerQueue("render", renderExecutor.getQueue());
+        sendMetrics.registerQueue("transactional-render", transactionalRenderExecutor.getQueue());
+        sendMetrics.registerQueue("history", historyQueue);
+        running = true;
+        historyWriter = new Thread(this::writeHistory, "send-history-writer");
+        historyWriter.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        renderExecutor.shutdown();
+        renderExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        transactionalRenderExecutor.shutdown();
+        transactionalRenderExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        for (ThreadPoolExecutor sendExecutor : sendExecutors.values()) {
+            sendExecutor.shutdown();
+            sendExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        completionExecutor.shutdown();
+        completionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+
+        /* The writer drains whatever is left in the history queue before it stops. */
+        running = false;
+        historyWriter.interrupt();
+        historyWriter.join(TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * Open the smtp connections for a send job upfront, one for each send thread that the job can use.
+     *
+     * @param context         The send job.
+     * @param recipientsCount Number of recipients of the job.
+     */
+    public void prewarm(SendJobContext context, int recipientsCount) {
+        if (smtpRouter.isRoute(context.getSmtpServerName())) {
+            /* The members of a route are only known per message. */
+            return;
+        }
+
+        if (smtpService.getSmtpServerDescriptor(context.getSmtpServerName()).getServer().getTransport() ==
+            SmtpConfiguration.Transport.NIO) {
+            /* The non-blocking client opens its connections on the first messages. */
+            return;
+        }
+
+        smtpConnectionPool.prewarm(
+                context.getSmtpServerName(),
+                context.getUsername(),
+                context.getPassword(),
+                Math.min(recipientsCount, sendPipelineConfiguration.getSendThreads(context.getSmtpServerName())));
+    }
+
+    /**
+     * Submit an email from the outbox to the pipeline. Blocks while the render stage is full.
+     *
+     * @param context        The send job, which the email belongs to.
+     * @param outboxId       Id of the email in the outbox.
+     * @param recipientEmail Email address of the recipient.
+     * @param placeholders   Placeholders of the recipient.
+     * @param attempts       Number of attempts that were already made to send the email.
+     */
+    public void submit(
+            SendJobContext context,
+            Long outboxId,
+            String recipientEmail,
+            Map<String, String> placeholders,
+            int attempts) {
+        final OutgoingEmail email = new OutgoingEmail(context, outboxId, recipientEmail, placeholders, attempts);
+
+        (context.getLane() == SendLane.TRANSACTIONAL ? transactionalRenderExecutor : renderExecutor)
+                .execute(() -> render(email));
+    }
+
+    private void render(OutgoingEmail email) {
+        final SendJobContext context = email.getContext();
+
+        if (context.isAborted()) {
+            context.completeEmail(false);
+            return;
+        }
+
+        if (context.isPaused()) {
+            release(email);
+            return;
+        }
+
+        final long renderStartedAt = System.nanoTime();
+
+        try {
+            final String content = context.getCompiledMessage().render(email.getPlaceholders());
+            final String confirmationToken = ConfirmationTokenUtil.generateToken();
+
+            email.setConfirmationToken(confirmationToken);
+            email.setContent(context.isIncludeConfirmationLink()
+                    ? emailMessageUtil.appendConfirmationAppLink(
+                            context.getConfirmationLinkPrefix(),
+                            context.getSubject(),
+                            content,
+                            email.getRecipientEmail(),
+                            confirmationToken,
+                            context.isHtml())
+                    : content);
+        } catch (RuntimeException e) {
+            /* Nothing was sent, so there is nothing for the history either. */
+            log.error("Rendering the email of send job {} to {} failed.",
+                    context.getSendJobId(), email.getRecipientEmail(), e);
+            sendMetrics.recordResult(
+                    context.getSmtpServerName(), SendResult.Outcome.FAILED, EmailErrorCategory.RUNTIME);
+            outboxService.markFailed(Collections.singletonList(email.getOutboxId()), e.getMessage());
+            sendJobService.recordSendResult(context.getSendJobId(), false);
+            context.completeEmail(false);
+            return;
+        }
+
+        sendMetrics.recordRender(System.nanoTime() - renderStartedAt);
+        getSendExecutor(context).execute(() -> send(email));
+    }
+
+    private void send(OutgoingEmail email) {
+        final SendJobContext context = email.getContext();
+
+        if (context.isAborted()) {
+            context.completeEmail(false);
+            return;
+        }
+
+        if (context.isPaused()) {
+            release(email);
+            return;
+        }
+
+        final SmtpTarget target = smtpRouter.select(context, email.getLastSmtpServerName());
+
+        if (target == null) {
+            /* The circuit breakers of all servers of the job are open, the email waits in the outbox. */
+            handleResult(SendResult.deferred(email, context.getUsername()));
+            return;
+        }
+
+        final String from = target.getUsername();
+        SmtpConnectionPool.PooledTransport pooledTransport = null;
+        SendResult result;
+        Throwable error = null;
+        long startedAt = System.currentTimeMillis();
+        /* Zero until the message is handed to the server. */
+        long transactionStartedAt = 0;
+
+        email.setAttempts(email.getAttempts() + 1);
+        email.setLastSmtpServerName(target.getSmtpServerName());
+
+        try {
+            smtpRateLimiter.acquire(target.getSmtpServerName(), email.getRecipientEmail());
+
+            final SmtpServerDescriptor descriptor = smtpService.getSmtpServerDescriptor(target.getSmtpServerName());
+
+            if (descriptor.getServer().getTransport() == SmtpConfiguration.Transport.NIO) {
+                sendNonBlocking(email, target, descriptor);
+                return;
+            }
+
+            /* The wait for the rate limiter is not the latency of the server. */
+            startedAt = System.currentTimeMillis();
+
+            final long acquireStartedAt = System.nanoTime();
+
+            pooledTransport = smtpConnectionPool.borrow(target.getSmtpServerName(), from, target.getPassword());
+            sendMetrics.recordSessionAcquire(target.getSmtpServerName(), System.nanoTime() - acquireStartedAt);
+
+            final MimeMessage message = context.getMimeMessageTemplate(from).createMessage(
+                    pooledTransport.getSession(), email.getRecipientEmail(), email.getContent());
+
+            transactionStartedAt = System.nanoTime();
+            smtpConnectionPool.send(pooledTransport, message);
+            sendMetrics.recordSmtpTransaction(
+                    target.getSmtpServerName(), true, System.nanoTime() - transactionStartedAt);
+            result = SendResult.success(email, from);
+        } catch (Exception e) {
+            if (transactionStartedAt != 0) {
+                sendMetrics.recordSmtpTransaction(
+                        target.getSmtpServerName(), false, System.nanoTime() - transactionStartedAt);
+            }
+
+            error = e;
+            result = toFailedResult(email, target, e);
+        } finally {
+            smtpConnectionPool.release(pooledTransport);
+        }
+
+        smtpRouter.recordOutcome(target, error, System.currentTimeMillis() - startedAt);
+        handleResult(result);
+    }
+
+    /*
+     * The send thread only waits while too many messages are in flight for the server,
+     * the result is handled on the completion thread once the server replied.
+     */
+    private void sendNonBlocking(OutgoingEmail email, SmtpTarget target, SmtpServerDescriptor descriptor)
+            throws MessagingException, InterruptedException {
+        final SendJobContext context = email.getContext();
+        final MimeMessage message = context.getMimeMessageTemplate(target.getUsername()).createMessage(
+                descriptor.getSession(), email.getRecipientEmail(), email.getContent());
+        final long startedAt = System.currentTimeMillis();
+        final long transactionStartedAt = System.nanoTime();
+
+        nioSmtpClient.send(
+                        descriptor,
+                        target.getUsername(),
+                        target.getPassword(),
+                        message,
+                        sendPipelineConfiguration.getSendThreads(target.getSmtpServerName()))
+                .whenCompleteAsync((ignored, error) -> {
+                    final Throwable cause = error != null ? unwrapCompletionError(error) : null;
+
+                    /* Includes the wait for a connection of the client, which has no separate acquire step. */
+                    sendMetrics.recordSmtpTransaction(
+                            target.getSmtpServerName(), cause == null, System.nanoTime() - transactionStartedAt);
+                    smtpRouter.recordOutcome(target, cause, System.currentTimeMillis() - startedAt);
+                    handleResult(cause == null
+                            ? SendResult.success(email, target.getUsername())
+                            : toFailedResult(email, target, cause));
+                }, completionExecutor);
+    }
+
+    private SendResult toFailedResult(OutgoingEmail email, SmtpTarget target, Throwable error) {
+        final SendJobContext context = email.getContext();
+        final String from = target.getUsername();
+
+        if (error instanceof MessagingException) {
+            final MessagingException e = (MessagingException) error;
+
+            /* Rejections and transient failures are expected, their stack traces say nothing. */
+            log.warn("Sending the email of send job {} to {} over {} failed (attempt {}): {}",
+                    context.getSendJobId(), email.getRecipientEmail(), target.getSmtpServerName(),
+                    email.getAttempts(), e.getMessage());
+
+            /* Rejected credentials of a route member only open its circuit breaker, the other members take over. */
+            final boolean memberAuthenticationFailed =
+                    e instanceof AuthenticationFailedException && target.isMemberAccount();
+
+            if (e instanceof AuthenticationFailedException && !memberAuthenticationFailed) {
+                /*
+                 * If we encounter an authentication failed exception, we do not need to attempt sending an email
+                 * to all recipients. It is clear they will all fail with that error.
+                 * Instead of that, we stop the job.
+                 */
+                context.abort(ExceptionsUtil.getCredentialsAuthenticationFailedException(e.getMessage()));
+            }
+
+            return (SmtpErrorClassifier.isRetryable(e) || memberAuthenticationFailed) &&
+                   retryScheduler.canRetry(email.getAttempts())
+                    ? SendResult.retry(email, from, e.getMessage(), EmailErrorCategory.MESSAGING)
+                    : SendResult.failure(email, from, e.getMessage(), EmailErrorCategory.MESSAGING);
+        }
+
+        if (error instanceof InterruptedException) {
+            /* The pipeline is stopping, the email stays in the outbox for later. */
+            Thread.currentThread().interrupt();
+            return SendResult.deferred(email, from);
+        }
+
+        log.error("Sending the email of send job {} to {} over {} failed.",
+                context.getSendJobId(), email.getRecipientEmail(), target.getSmtpServerName(), error);
+
+        return SendResult.failure(
+                email,
+                from,
+                error.getMessage(),
+                error instanceof RuntimeException ? EmailErrorCategory.RUNTIME : EmailErrorCategory.UNKNOWN);
+    }
+
+    private static Throwable unwrapCompletionError(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private void handleResult(SendResult result) {
+        final OutgoingEmail email = result.getEmail();
+
+        sendMetrics.recordResult(
+                email.getLastSmtpServerName() != null
+                        ? email.getLastSmtpServerName()
+                        : email.getContext().getSmtpServerName(),
+                result.getOutcome(),
+                result.getErrorCategory());
+        enqueueResult(result);
+
+        if (result.getOutcome() == SendResult.Outcome.RETRY) {
+            final SendJobContext context = email.getContext();
+
+            /*
+             * Another server of the route is available, so it takes over right away instead of after a backoff.
+             * Unless the send queue is full, then the email waits for the backoff like any other retry.
+             */
+            if (smtpRouter.hasAlternative(context, email.getLastSmtpServerName()) && trySubmitSend(email)) {
+                return;
+            }
+
+            /* Rendered already, so the retry goes straight to the send stage. */
+            retryScheduler.schedule(email.getAttempts(), () -> resubmit(email, result.getSender()));
+        }
+    }
+
+    /* Runs on the thread of the retry scheduler, which must not wait for room in a send queue either. */
+    private void resubmit(OutgoingEmail email, String sender) {
+        if (!trySubmitSend(email)) {
+            /* The send stage is still full, the email goes back to the outbox and is claimed again later. */
+            enqueueResult(SendResult.deferred(email, sender));
+        }
+    }
+
+    /*
+     * Hands an email to the send stage without blocking. Results are handled on the send threads and the completion
+     * thread, so blocking them on a full send queue would wait for themselves to make room.
+     */
+    private boolean trySubmitSend(OutgoingEmail email) {
+        final ThreadPoolExecutor executor = getSendExecutor(email.getContext());
+
+        return !executor.isShutdown() && executor.getQueue().offer(() -> send(email));
+    }
+
+    /* Hands the email of a paused job back to the outbox, which frees its place in the queues. */
+    private void release(OutgoingEmail email) {
+        enqueueResult(SendResult.released(email, email.getContext().getUsername()));
+    }
+
+    private void enqueueResult(SendResult result) {
+        if ((result.getOutcome() == SendResult.Outcome.DEFERRED || result.getOutcome() == SendResult.Outcome.RELEASED) &&
+            Thread.currentThread().isInterrupted()) {
+            /* The thread is interrupted, so it must not block. A dropped result stays claimed until the next start. */
+            historyQueue.offer(result);
+            return;
+        }
+
+        try {
+            historyQueue.put(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.getEmail().getContext().completeEmail(result.isSentSuccessfully());
+        }
+    }
+
+    private void writeHistory() {
+        final List<SendResult> batch = new ArrayList<>(sendPipelineConfiguration.getHistoryBatchSize());
+
+        while (running || !historyQueue.isEmpty()) {
+            try {
+                batch.add(historyQueue.take());
+            } catch (InterruptedException e) {
+                /* Woken up by stop(), the loop condition decides whether there is anything left. */
+                continue;
+            }
+
+            historyQueue.drainTo(batch, sendPipelineConfiguration.getHistoryBatchSize() - 1);
+
+            final long persistStartedAt = System.nanoTime();
+
+            persistResults(batch);
+            sendMetrics.recordHistoryPersist(batch.size(), System.nanoTime() - persistStartedAt);
+            batch.clear();
+        }
+    }
+
+    private void persistResults(List<SendResult> results) {
+        final List<SentEmailRecord> sentEmailRecords = new ArrayList<>();
+        final List<Long> sentIds = new ArrayList<>();
+        final List<Long> failedIds = new ArrayList<>();
+        final List<Long> retryIds = new ArrayList<>();
+        final List<Long> deferredIds = new ArrayList<>();
+        final List<Long> releasedIds = new ArrayList<>();
+
+        for (SendResult result : results) {
+            final Long outboxId = result.getEmail().getOutboxId();
+
+            switch (result.getOutcome()) {
+                case SENT:
+                    sentEmailRecords.add(toSentEmailRecord(result));
+                    sentIds.add(outboxId);
+                    break;
+                case FAILED:
+                    sentEmailRecords.add(toSentEmailRecord(result));
+                    failedIds.add(outboxId);
+                    break;
+                case RETRY:
+                    retryIds.add(outboxId);
+                    break;
+                case RELEASED:
+                    releasedIds.add(outboxId);
+                    break;
+                default:
+                    deferredIds.add(outboxId);
+                    break;
+            }
+        }
+
+        try {
+            emailHistoryService.persistSentEmails(sentEmailRecords);
+        } catch (RuntimeException e) {
+            log.error("Persisting the history of {} emails of send jobs {} failed.",
+                    sentEmailRecords.size(), getSendJobIds(results), e);
+        }
+
+        try {
+            outboxService.markSent(sentIds);
+            outboxService.markFailed(failedIds, null);
+            outboxService.recordFailedAttempt(retryIds);
+            outboxService.defer(deferredIds);
+            outboxService.releaseEmails(releasedIds);
+        } catch (RuntimeException e) {
+            /* The emails stay claimed in the outbox and are released on the next start. */
+            log.error("Updating the outbox for {} results of send jobs {} failed.",
+                    results.size(), getSendJobIds(results), e);
+        }
+
+        /* Only after the outbox is up to date, so that a completed job has no unfinished emails left. */
+        for (SendResult result : results) {
+            if (result.isFinal()) {
+                final SendJobContext context = result.getEmail().getContext();
+
+                sendJobService.recordSendResult(context.getSendJobId(), result.isSentSuccessfully());
+                context.completeEmail(result.isSentSuccessfully());
+            }
+        }
+    }
+
+    private static Set<Long> getSendJobIds(List<SendResult> results) {
+        final Set<Long> sendJobIds = new TreeSet<>();
+
+        for (SendResult result : results) {
+            sendJobIds.add(result.getEmail().getContext().getSendJobId());
+        }
+
+        return sendJobIds;
+    }
+
+    private SentEmailRecord toSentEmailRecord(SendResult result) {
+        final OutgoingEmail email = result.getEmail();
+        final SendJobContext context = email.getContext();
+        final SendEmailErrorEntity sendEmailErrorEntity = result.isSentSuccessfully()
+                ? null
+                : emailHistoryService.buildSendEmailError(
+                        result.getSender(),
+                        email.getRecipientEmail(),
+                        context.getSubject(),
+                        email.getContent(),
+                        result.getError(),
+                        result.getErrorCategory());
+        final SentEmailEntity sentEmailEntity = emailHistoryService.buildSentEmail(
+                context.getEmailTemplateId(),
+                result.getSender(),
+                email.getRecipientEmail(),
+                context.getSubject(),
+                email.getContent(),
+                result.isSentSuccessfully(),
+                email.getConfirmationToken(),
+                context.getSendJobId(),
+                email.getAttempts());
+
+        return new SentEmailRecord(sentEmailEntity, sendEmailErrorEntity);
+    }
+
+    private ThreadPoolExecutor getSendExecutor(SendJobContext context) {
+        final String smtpServerName = context.getSmtpServerName().toLowerCase();
+
+        if (context.getLane() == SendLane.TRANSACTIONAL) {
+            return sendExecutors.computeIfAbsent("transactional-" + smtpServerName, key -> createSendExecutor(
+                    key,
+                    laneConfiguration.getTransactionalSendThreadsPerServer(),
+                    laneConfiguration.getTransactionalQueueCapacity()));
+        }
+
+        return sendExecutors.computeIfAbsent(smtpServerName, key -> createSendExecutor(
+                key,
+                sendPipelineConfiguration.getSendThreads(key),
+                sendPipelineConfiguration.getSendQueueCapacity()));
+    }
+
+    private ThreadPoolExecutor createSendExecutor(String key, int threads, int queueCapacity) {
+        final ThreadPoolExecutor executor = createExecutor("send-" + key + "-", threads, queueCapacity);
+
+        /* Tasks, which are offered to the queue directly, need the threads to be running already. */
+        executor.prestartAllCoreThreads();
+
+        sendMetrics.registerQueue("send-" + key, executor.getQueue());
+
+        return executor;
+    }
+
+    private ThreadPoolExecutor createExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                virtualThreadsConfiguration.createThreadFactory(threadNamePrefix),
+                BLOCK_WHEN_FULL);
+    }
+}
@@ -0,0 +1,372 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import com.fmi.mailtemplaterbe.domain.model.SmtpServerDescriptor;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of connected and authenticated SMTP transports, keyed by smtp server name and username.
+ * Reusing a transport means that a message only costs the MAIL/RCPT/DATA commands instead of
+ * a new TCP connection, TLS handshake and authentication.
+ */
+@Service
+@RequiredArgsConstructor
+public class SmtpConnectionPool {
+
+    /* Reply code of servers that are closing the transmission channel (e.g. too many connections or idle for too long). */
+    private static final int SERVICE_NOT_AVAILABLE_REPLY_CODE = 421;
+
+    private final SmtpConfiguration smtpConfiguration;
+    private final SmtpService smtpService;
+
+    private final ConcurrentMap<PoolKey, PoolEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger borrowedCount = new AtomicInteger();
+
+    /**
+     * Borrow a connected transport for the default smtp server and the default credentials.
+     *
+     * @return connected transport, which must be given back with {@link #release(PooledTransport)}
+     * @throws MessagingException if a new connection could not be established
+     */
+    public PooledTransport borrowDefault() throws MessagingException {
+        return borrow(smtpService.getDefaultSmtpServer().getName(), smtpService.getUsername(), smtpService.getPassword());
+    }
+
+    /**
+     * Borrow a connected transport for the provided smtp server and credentials.
+     * An idle transport is reused if one is available, otherwise a new connection is established.
+     *
+     * @param smtpServerName Name of the smtp server
+     * @param username       Username
+     * @param password       Password
+     * @return connected transport, which must be given back with {@link #release(PooledTransport)}
+     * @throws MessagingException if a new connection could not be established
+     */
+    public PooledTransport borrow(String smtpServerName, String username, String password) throws MessagingException {
+        final PoolEntry entry = getEntry(smtpServerName, username, password);
+        PooledTransport pooledTransport;
+
+        while ((pooledTransport = entry.getIdleTransports().pollFirst()) != null) {
+            if (isReusable(pooledTransport, entry)) {
+                borrowedCount.incrementAndGet();
+                return pooledTransport;
+            }
+
+            pooledTransport.close();
+        }
+
+        pooledTransport = new PooledTransport(
+                entry.getKey(), entry.getSession(), entry.getSession().getTransport("smtp"), password);
+        pooledTransport.connect();
+        borrowedCount.incrementAndGet();
+
+        return pooledTransport;
+    }
+
+    /**
+     * Send a message over a borrowed transport.
+     * If the server closed the connection in the meantime (421 or a dropped socket), the transport is
+     * reconnected and the message is sent once more.
+     *
+     * @param pooledTransport Borrowed transport
+     * @param message         Message to send
+     * @throws MessagingException if the message could not be sent
+     */
+    public void send(PooledTransport pooledTransport, MimeMessage message) throws MessagingException {
+        message.saveChanges();
+
+        try {
+            try {
+                pooledTransport.getTransport().sendMessage(message, message.getAllRecipients());
+            } catch (MessagingException e) {
+                if (!isReconnectRequired(pooledTransport, e)) {
+                    throw e;
+                }
+
+                pooledTransport.close();
+                pooledTransport.connect();
+                pooledTransport.getTransport().sendMessage(message, message.getAllRecipients());
+            }
+        } catch (MessagingException e) {
+            /* A rejected message leaves the connection usable, anything else might not. */
+            pooledTransport.setBroken(!(e instanceof SMTPSendFailedException) || isReconnectRequired(pooledTransport, e));
+
+            throw e;
+        }
+    }
+
+    /**
+     * Give a borrowed transport back to the pool. Broken transports and transports above the idle limit are closed.
+     *
+     * @param pooledTransport Borrowed transport, may be null
+     */
+    public void release(PooledTransport pooledTransport) {
+        if (pooledTransport == null) {
+            return;
+        }
+
+        borrowedCount.decrementAndGet();
+
+        final PoolEntry entry = entries.get(pooledTransport.getKey());
+
+        if (entry == null ||
+            entry.getSession() != pooledTransport.getSession() ||
+            pooledTransport.isBroken() ||
+            entry.getIdleTransports().size() >= smtpConfiguration.getPool().getMaxIdlePerKey()) {
+            pooledTransport.close();
+            return;
+        }
+
+        pooledTransport.setLastUsed(System.currentTimeMillis());
+        /* LIFO, so that the most recently used connections stay warm and the rest expire. */
+        entry.getIdleTransports().offerFirst(pooledTransport);
+    }
+
+    /**
+     * Open connections upfront, so that the first messages of a send do not wait for the handshakes.
+     * Failures are ignored, because the first send to the server surfaces them anyway.
+     *
+     * @param smtpServerName Name of the smtp server
+     * @param username       Username
+     * @param password       Password
+     * @param maxConnections Max number of connections that are needed
+     */
+    public void prewarm(String smtpServerName, String username, String password, int maxConnections) {
+        final int connections = Math.min(smtpConfiguration.getPool().getPrewarm(), maxConnections);
+        final List<PooledTransport> pooledTransports = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < connections; i++) {
+                pooledTransports.add(borrow(smtpServerName, username, password));
+            }
+        } catch (MessagingException | RuntimeException e) {
+            /* Ignored, see the documentation of the method. */
+        } finally {
+            pooledTransports.forEach(this::release);
+        }
+    }
+
+    /**
+     * Prewarm connections for the default smtp server and the default credentials.
+     *
+     * @param maxConnections Max number of connections that are needed
+     */
+    public void prewarmDefault(int maxConnections) {
+        prewarm(smtpService.getDefaultSmtpServer().getName(), smtpService.getUsername(), smtpService.getPassword(), maxConnections);
+    }
+
+    /**
+     * Close the idle connections of an account, e.g. because the send job that used them was paused.
+     * Borrowed connections are closed when they are released.
+     *
+     * @param smtpServerName Name of the smtp server
+     * @param username       Username
+     */
+    public void closeIdle(String smtpServerName, String username) {
+        for (PoolEntry entry : entries.values()) {
+            if (entry.getKey().getSmtpServerName().equalsIgnoreCase(smtpServerName) &&
+                Objects.equals(entry.getKey().getUsername(), username) &&
+                entries.remove(entry.getKey(), entry)) {
+                closeIdleTransports(entry);
+            }
+        }
+    }
+
+    /**
+     * Get the number of transports, which are borrowed right now.
+     *
+     * @return number of borrowed transports
+     */
+    public int getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+    /**
+     * Get the number of idle transports of all smtp servers and accounts.
+     *
+     * @return number of idle transports
+     */
+    public int getIdleCount() {
+        int idleCount = 0;
+
+        for (PoolEntry entry : entries.values()) {
+            idleCount += entry.getIdleTransports().size();
+        }
+
+        return idleCount;
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        entries.values().forEach(this::closeIdleTransports);
+        entries.clear();
+    }
+
+    private PoolEntry getEntry(String smtpServerName, String username, String password) {
+        final SmtpServerDescriptor descriptor = smtpService.getSmtpServerDescriptor(smtpServerName);
+        final PoolKey key = new PoolKey(descriptor.getName(), username);
+        final PoolEntry entry = entries.get(key);
+
+        if (entry != null && entry.getDescriptor() == descriptor && Objects.equals(entry.getPassword(), password)) {
+            return entry;
+        }
+
+        /*
+         * New key, changed password or reloaded smtp server - the old session and its idle connections can no longer
+         * be used. Borrowed connections of the old entry are closed when they are released.
+         */
+        final PoolEntry newEntry = new PoolEntry(
+                key, descriptor, password, smtpService.createSMTPSession(username, password, smtpServerName));
+        final boolean stored = entry == null
+                ? entries.putIfAbsent(key, newEntry) == null
+                : entries.replace(key, entry, newEntry);
+
+        if (!stored) {
+            /* Another thread changed the entry in the meantime. */
+            return getEntry(smtpServerName, username, password);
+        }
+
+        if (entry != null) {
+            closeIdleTransports(entry);
+        }
+
+        return newEntry;
+    }
+
+    private void closeIdleTransports(PoolEntry entry) {
+        PooledTransport pooledTransport;
+
+        while ((pooledTransport = entry.getIdleTransports().pollFirst()) != null) {
+            pooledTransport.close();
+        }
+    }
+
+    private boolean isReusable(PooledTransport pooledTransport, PoolEntry entry) {
+        if (pooledTransport.getSession() != entry.getSession()) {
+            return false;
+        }
+
+        final long idleMillis = System.currentTimeMillis() - pooledTransport.getLastUsed();
+
+        if (idleMillis > smtpConfiguration.getPool().getIdleTimeout()) {
+            return false;
+        }
+
+        /* SMTPTransport.isConnected() issues a NOOP, so recently used connections skip the extra round trip. */
+        return idleMillis <= smtpConfiguration.getPool().getValidateAfterIdle() ||
+               pooledTransport.getTransport().isConnected();
+    }
+
+    private boolean isReconnectRequired(PooledTransport pooledTransport, MessagingException e) {
+        if (e instanceof SMTPSendFailedException) {
+            return ((SMTPSendFailedException) e).getReturnCode() == SERVICE_NOT_AVAILABLE_REPLY_CODE;
+        }
+
+        final Transport transport = pooledTransport.getTransport();
+
+        if (transport instanceof SMTPTransport &&
+            ((SMTPTransport) transport).getLastReturnCode() == SERVICE_NOT_AVAILABLE_REPLY_CODE) {
+            return true;
+        }
+
+        /* Socket level failures (e.g. the server dropped an idle connection) leave the transport disconnected. */
+        return !transport.isConnected();
+    }
+
+    @Data
+    private static class PoolKey {
+
+        private final String smtpServerName;
+        private final String username;
+    }
+
+    @Data
+    private static class PoolEntry {
+
+        private final PoolKey key;
+        private final SmtpServerDescriptor descriptor;
+        private final String password;
+        private final Session session;
+        private final Deque<PooledTransport> idleTransports = new ConcurrentLinkedDeque<>();
+    }
+
+    /**
+     * Transport that is owned by the pool. Must not be closed by its borrower.
+     */
+    public static class PooledTransport {
+
+        private final PoolKey key;
+        private final Session session;
+        private final Transport transport;
+        private final String password;
+        private long lastUsed = System.currentTimeMillis();
+        private boolean broken;
+
+        private PooledTransport(PoolKey key, Session session, Transport transport, String password) {
+            this.key = key;
+            this.session = session;
+            this.transport = transport;
+            this.password = password;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        private PoolKey getKey() {
+            return key;
+        }
+
+        private long getLastUsed() {
+            return lastUsed;
+        }
+
+        private void setLastUsed(long lastUsed) {
+            this.lastUsed = lastUsed;
+        }
+
+        private boolean isBroken() {
+            return broken;
+        }
+
+        private void setBroken(boolean broken) {
+            this.broken = broken;
+        }
+
+        private void connect() throws MessagingException {
+            transport.connect(key.getUsername(), password);
+            lastUsed = System.currentTimeMillis();
+            broken = false;
+        }
+
+        private void close() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                /* The connection is discarded anyway. */
+            }
+        }
+    }
+}
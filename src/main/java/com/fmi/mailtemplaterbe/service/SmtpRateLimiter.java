@@ -0,0 +1,281 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.RateLimitConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.RateLimitBucketEntity;
+import com.fmi.mailtemplaterbe.domain.resource.RateLimitResource;
+import com.fmi.mailtemplaterbe.domain.resource.RateLimitsResource;
+import com.fmi.mailtemplaterbe.util.TokenBucket;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Throttles the sending of emails with token buckets per smtp server and per recipient domain.
+ * The buckets are either local to the app instance or shared by all instances through the database.
+ * <p></p>
+ * In DATABASE mode the limits are the ones of the shared buckets. The configured limits only create the missing
+ * buckets, and every instance reloads the limits changed at runtime on another instance.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SmtpRateLimiter {
+
+    private static final String SERVER_BUCKET_PREFIX = "server:";
+    private static final String DOMAIN_BUCKET_PREFIX = "domain:";
+
+    private final RateLimitConfiguration rateLimitConfiguration;
+    private final RateLimitBucketService rateLimitBucketService;
+
+    /*
+     * Current limits, initialized from the configuration (LOCAL) or the shared buckets (DATABASE)
+     * and changeable at runtime. Keys are lower case.
+     */
+    private final ConcurrentMap<String, RateLimitConfiguration.Limit> serverLimits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RateLimitConfiguration.Limit> domainLimits = new ConcurrentHashMap<>();
+
+    /* LOCAL mode buckets. */
+    private final ConcurrentMap<String, TokenBucket> localBuckets = new ConcurrentHashMap<>();
+
+    /* DATABASE mode tokens, which this instance already took from the shared buckets. */
+    private final ConcurrentMap<String, AtomicInteger> leasedTokens = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextLimitsRefreshAt = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (rateLimitConfiguration.getMode() == RateLimitConfiguration.Mode.DATABASE) {
+            rateLimitConfiguration.getServers().forEach((name, limit) ->
+                    rateLimitBucketService.createBucketIfAbsent(SERVER_BUCKET_PREFIX + name.toLowerCase(), limit));
+            rateLimitConfiguration.getDomains().forEach((domain, limit) ->
+                    rateLimitBucketService.createBucketIfAbsent(DOMAIN_BUCKET_PREFIX + domain.toLowerCase(), limit));
+            refreshSharedLimits();
+            return;
+        }
+
+        rateLimitConfiguration.getServers().forEach((name, limit) -> serverLimits.put(name.toLowerCase(), limit));
+        rateLimitConfiguration.getDomains().forEach((domain, limit) -> domainLimits.put(domain.toLowerCase(), limit));
+    }
+
+    /**
+     * Wait until an email can be sent through the smtp server to the recipient without exceeding
+     * the limit of the smtp server or the limit of the recipient domain.
+     *
+     * @param smtpServerName Name of the smtp server
+     * @param recipientEmail Email address of the recipient
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(String smtpServerName, String recipientEmail) throws InterruptedException {
+        refreshSharedLimitsIfDue();
+
+        final String serverKey = smtpServerName.toLowerCase();
+        final RateLimitConfiguration.Limit serverLimit = serverLimits.get(serverKey);
+
+        if (serverLimit != null) {
+            acquire(SERVER_BUCKET_PREFIX + serverKey, serverLimit);
+        }
+
+        final String domainKey = getDomain(recipientEmail);
+        final RateLimitConfiguration.Limit domainLimit = domainKey != null ? domainLimits.get(domainKey) : null;
+
+        if (domainLimit != null) {
+            acquire(DOMAIN_BUCKET_PREFIX + domainKey, domainLimit);
+        }
+    }
+
+    /**
+     * Get all limits that are currently in effect.
+     *
+     * @return limits by smtp server and by recipient domain
+     */
+    public RateLimitsResource getRateLimits() {
+        if (rateLimitConfiguration.getMode() == RateLimitConfiguration.Mode.DATABASE) {
+            refreshSharedLimits();
+        }
+
+        return RateLimitsResource.builder()
+                .mode(rateLimitConfiguration.getMode().name())
+                .servers(limitsToResources(serverLimits))
+                .domains(limitsToResources(domainLimits))
+                .build();
+    }
+
+    /**
+     * Set the limit of an smtp server. The new limit applies to the emails that are sent from now on.
+     *
+     * @param smtpServerName Name of the smtp server
+     * @param rateLimitResource The new limit
+     * @return the new limit
+     */
+    public RateLimitResource updateServerRateLimit(String smtpServerName, RateLimitResource rateLimitResource) {
+        return updateRateLimit(serverLimits, SERVER_BUCKET_PREFIX, smtpServerName.toLowerCase(), rateLimitResource);
+    }
+
+    /**
+     * Set the limit of a recipient domain. The new limit applies to the emails that are sent from now on.
+     *
+     * @param domain Recipient domain, e.g. gmail.com
+     * @param rateLimitResource The new limit
+     * @return the new limit
+     */
+    public RateLimitResource updateDomainRateLimit(String domain, RateLimitResource rateLimitResource) {
+        return updateRateLimit(domainLimits, DOMAIN_BUCKET_PREFIX, domain.toLowerCase(), rateLimitResource);
+    }
+
+    private RateLimitResource updateRateLimit(
+            Map<String, RateLimitConfiguration.Limit> limits,
+            String bucketPrefix,
+            String key,
+            RateLimitResource rateLimitResource) {
+        final RateLimitConfiguration.Limit limit =
+                new RateLimitConfiguration.Limit(rateLimitResource.getPermitsPerSecond(), rateLimitResource.getBurst());
+        final TokenBucket localBucket = localBuckets.get(bucketPrefix + key);
+
+        if (rateLimitConfiguration.getMode() == RateLimitConfiguration.Mode.DATABASE) {
+            rateLimitBucketService.createBucketIfAbsent(bucketPrefix + key, limit);
+            rateLimitBucketService.updateLimit(bucketPrefix + key, limit);
+        }
+
+        limits.put(key, limit);
+
+        if (localBucket != null) {
+            localBucket.update(limit.getPermitsPerSecond(), limit.getBurst());
+        }
+
+        return RateLimitResource.builder()
+                .name(key)
+                .permitsPerSecond(limit.getPermitsPerSecond())
+                .burst(limit.getBurst())
+                .build();
+    }
+
+    private void acquire(String bucketName, RateLimitConfiguration.Limit limit) throws InterruptedException {
+        if (rateLimitConfiguration.getMode() == RateLimitConfiguration.Mode.DATABASE) {
+            acquireShared(bucketName, limit);
+        } else {
+            localBuckets.computeIfAbsent(
+                    bucketName, key -> new TokenBucket(limit.getPermitsPerSecond(), limit.getBurst())).acquire();
+        }
+    }
+
+    private void acquireShared(String bucketName, RateLimitConfiguration.Limit limit) throws InterruptedException {
+        final AtomicInteger leased = leasedTokens.computeIfAbsent(bucketName, key -> new AtomicInteger());
+
+        while (true) {
+            if (takeLeasedToken(leased)) {
+                return;
+            }
+
+            final int grantedTokens;
+
+            try {
+                grantedTokens = rateLimitBucketService.leaseTokens(
+                        bucketName, Math.min(rateLimitConfiguration.getLeaseSize(), limit.getBurst()));
+            } catch (TransientDataAccessException e) {
+                /* A lock wait timeout or deadlock under contention, the lease is simply tried again. */
+                continue;
+            }
+
+            if (grantedTokens > 0) {
+                leased.addAndGet(grantedTokens - 1);
+                return;
+            }
+
+            /* The shared bucket is empty - wait for roughly one token to be refilled. */
+            Thread.sleep(Math.max(1L, (long) (1000 / limit.getPermitsPerSecond())));
+        }
+    }
+
+    /* At most once per refresh interval, the limits changed on other instances apply here after that delay. */
+    private void refreshSharedLimitsIfDue() {
+        if (rateLimitConfiguration.getMode() != RateLimitConfiguration.Mode.DATABASE) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long refreshAt = nextLimitsRefreshAt.get();
+
+        if (now < refreshAt
+                || !nextLimitsRefreshAt.compareAndSet(refreshAt, now + rateLimitConfiguration.getLimitsRefreshInterval())) {
+            return;
+        }
+
+        try {
+            refreshSharedLimits();
+        } catch (RuntimeException e) {
+            /* The previous limits stay in effect until the next refresh. */
+            log.warn("Reloading the shared rate limits failed.", e);
+        }
+    }
+
+    private void refreshSharedLimits() {
+        final Set<String> serverKeys = new HashSet<>();
+        final Set<String> domainKeys = new HashSet<>();
+
+        for (RateLimitBucketEntity bucket : rateLimitBucketService.getBuckets()) {
+            final RateLimitConfiguration.Limit limit =
+                    new RateLimitConfiguration.Limit(bucket.getPermitsPerSecond(), bucket.getBurst());
+
+            if (bucket.getName().startsWith(SERVER_BUCKET_PREFIX)) {
+                final String key = bucket.getName().substring(SERVER_BUCKET_PREFIX.length());
+
+                serverKeys.add(key);
+                serverLimits.put(key, limit);
+            } else if (bucket.getName().startsWith(DOMAIN_BUCKET_PREFIX)) {
+                final String key = bucket.getName().substring(DOMAIN_BUCKET_PREFIX.length());
+
+                domainKeys.add(key);
+                domainLimits.put(key, limit);
+            }
+        }
+
+        serverLimits.keySet().retainAll(serverKeys);
+        domainLimits.keySet().retainAll(domainKeys);
+    }
+
+    private boolean takeLeasedToken(AtomicInteger leased) {
+        int tokens;
+
+        do {
+            tokens = leased.get();
+
+            if (tokens <= 0) {
+                return false;
+            }
+        } while (!leased.compareAndSet(tokens, tokens - 1));
+
+        return true;
+    }
+
+    private String getDomain(String email) {
+        if (email == null) {
+            return null;
+        }
+
+        final int atIndex = email.lastIndexOf('@');
+
+        return atIndex >= 0 ? email.substring(atIndex + 1).trim().toLowerCase() : null;
+    }
+
+    private List<RateLimitResource> limitsToResources(Map<String, RateLimitConfiguration.Limit> limits) {
+        return limits.entrySet().stream()
+                .map(entry -> RateLimitResource.builder()
+                        .name(entry.getKey())
+                        .permitsPerSecond(entry.getValue().getPermitsPerSecond())
+                        .burst(entry.getValue().getBurst())
+                        .build())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,338 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import com.fmi.mailtemplaterbe.config.SmtpRoutingConfiguration;
+import com.fmi.mailtemplaterbe.domain.model.SendJobContext;
+import com.fmi.mailtemplaterbe.domain.model.SmtpTarget;
+import com.fmi.mailtemplaterbe.domain.resource.SmtpServerHealthResource;
+import com.fmi.mailtemplaterbe.util.CircuitBreaker;
+import com.fmi.mailtemplaterbe.util.SmtpErrorClassifier;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Picks the smtp server and account for each send.
+ * <p></p>
+ * A send job either names a smtp server or a route - a weighted set of servers and accounts, which share the emails
+ * of the job. Every server (and every account of a route member) has a circuit breaker, which tracks the failure rate
+ * and latency of its sends. The router only picks members with a closed or half open breaker, so the emails of a
+ * failing member go to the healthy ones, until its probes succeed again.
+ */
+@Service
+@RequiredArgsConstructor
+public class SmtpRouter {
+
+    /* Share of its weight, which a member with only failed sends still gets, so that it is not starved for good. */
+    private static final double MIN_WEIGHT_SHARE = 0.05;
+
+    private final SmtpRoutingConfiguration smtpRoutingConfiguration;
+    private final SmtpService smtpService;
+
+    private final ConcurrentMap<String, TrackedServer> trackedServers = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a name refers to a route rather than to a smtp server.
+     *
+     * @param name Name of the route or the smtp server.
+     * @return true if it is a route
+     */
+    public boolean isRoute(String name) {
+        return getRoute(name) != null;
+    }
+
+    /**
+     * Get the name of the route or smtp server, which is used for sends with the default credentials.
+     *
+     * @return name of the default route if it is set, otherwise name of the default smtp server
+     */
+    public String getDefaultServerName() {
+        final String defaultRoute = smtpRoutingConfiguration.getDefaultRoute();
+
+        return defaultRoute != null && !defaultRoute.isEmpty()
+                ? defaultRoute
+                : smtpService.getDefaultSmtpServer().getName();
+    }
+
+    /**
+     * Pick the smtp server and account for the next send of a job. The outcome of the send must be reported
+     * with {@link #recordOutcome}.
+     *
+     * @param context           The send job.
+     * @param avoidedServerName Server, which is only picked if no other member of the route is available, e.g.
+     *                          the one that just failed to send the email. Null to pick from all members.
+     * @return target or null if all servers of the job are unavailable
+     */
+    public SmtpTarget select(SendJobContext context, String avoidedServerName) {
+        final SmtpRoutingConfiguration.Route route = getRoute(context.getSmtpServerName());
+
+        if (route == null) {
+            final CircuitBreaker circuitBreaker = getCircuitBreaker(context.getSmtpServerName(), null);
+
+            return circuitBreaker.tryAcquire()
+                    ? new SmtpTarget(
+                            context.getSmtpServerName(), context.getUsername(), context.getPassword(), false,
+                            circuitBreaker)
+                    : null;
+        }
+
+        final SmtpTarget target = selectMember(context, route, avoidedServerName);
+
+        return target != null || avoidedServerName == null ? target : selectMember(context, route, null);
+    }
+
+    /**
+     * Whether a routed job has an available member on another server, so that a failed send can be repeated there
+     * right away instead of after a backoff.
+     *
+     * @param context           The send job.
+     * @param avoidedServerName Server, which failed to send the email.
+     * @return true if there is another available member
+     */
+    public boolean hasAlternative(SendJobContext context, String avoidedServerName) {
+        final SmtpRoutingConfiguration.Route route = getRoute(context.getSmtpServerName());
+
+        if (route == null) {
+            return false;
+        }
+
+        for (SmtpRoutingConfiguration.Member member : route.getMembers()) {
+            if (isUsable(member) &&
+                !member.getServerName().equalsIgnoreCase(avoidedServerName) &&
+                getCircuitBreaker(member.getServerName(), member.getUsername()).isAvailable()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Report the outcome of a send to the circuit breaker of its target.
+     * <p></p>
+     * Transient failures count against the server, permanent rejections of a single message do not - the server
+     * is up and answering. Rejected credentials of a route member open its breaker right away.
+     *
+     * @param target        Target of the send.
+     * @param error         Error of the send or null if it succeeded.
+     * @param latencyMillis Duration of the send.
+     */
+    public void recordOutcome(SmtpTarget target, Throwable error, long latencyMillis) {
+        final CircuitBreaker circuitBreaker = target.getCircuitBreaker();
+
+        if (error == null) {
+            circuitBreaker.onSuccess(latencyMillis);
+            return;
+        }
+
+        if (error instanceof AuthenticationFailedException) {
+            if (target.isMemberAccount()) {
+                circuitBreaker.forceOpen();
+            } else {
+                /* The credentials of the job are wrong, which says nothing about the server. */
+                circuitBreaker.onIgnored();
+            }
+            return;
+        }
+
+        if (error instanceof MessagingException) {
+            final MessagingException e = (MessagingException) error;
+
+            if (SmtpErrorClassifier.isRetryable(e)) {
+                circuitBreaker.onFailure(latencyMillis);
+            } else if (SmtpErrorClassifier.getReplyCode(e) > 0) {
+                circuitBreaker.onSuccess(latencyMillis);
+            } else {
+                circuitBreaker.onIgnored();
+            }
+            return;
+        }
+
+        circuitBreaker.onIgnored();
+    }
+
+    /**
+     * Get the state of the circuit breakers of all smtp servers and route members.
+     *
+     * @return health of the servers
+     */
+    public List<SmtpServerHealthResource> getHealth() {
+        for (SmtpConfiguration.SmtpServer server : smtpService.getAllSmtpServer()) {
+            getCircuitBreaker(server.getName(), null);
+        }
+
+        for (SmtpRoutingConfiguration.Route route : smtpRoutingConfiguration.getRoutes().values()) {
+            for (SmtpRoutingConfiguration.Member member : route.getMembers()) {
+                if (member.getServerName() != null) {
+                    getCircuitBreaker(member.getServerName(), member.getUsername());
+                }
+            }
+        }
+
+        return trackedServers.values().stream()
+                .sorted(Comparator.comparing(TrackedServer::getSmtpServerName, String.CASE_INSENSITIVE_ORDER)
+                        .thenComparing(trackedServer -> trackedServer.getUsername() != null
+                                ? trackedServer.getUsername()
+                                : ""))
+                .map(SmtpRouter::toHealthResource)
+                .collect(Collectors.toList());
+    }
+
+    private SmtpTarget selectMember(
+            SendJobContext context, SmtpRoutingConfiguration.Route route, String avoidedServerName) {
+        final List<SmtpRoutingConfiguration.Member> candidates = new ArrayList<>();
+
+        for (SmtpRoutingConfiguration.Member member : route.getMembers()) {
+            if (isUsable(member) && !member.getServerName().equalsIgnoreCase(avoidedServerName)) {
+                candidates.add(member);
+            }
+        }
+
+        /* A member, whose breaker refuses the send in the meantime, is dropped and the pick is repeated. */
+        while (!candidates.isEmpty()) {
+            final SmtpRoutingConfiguration.Member member = pickWeighted(candidates);
+
+            if (member == null) {
+                return null;
+            }
+
+            final CircuitBreaker circuitBreaker = getCircuitBreaker(member.getServerName(), member.getUsername());
+
+            if (circuitBreaker.tryAcquire()) {
+                final boolean memberAccount = member.getUsername() != null && member.getPassword() != null;
+
+                return new SmtpTarget(
+                        member.getServerName(),
+                        memberAccount ? member.getUsername() : context.getUsername(),
+                        memberAccount ? member.getPassword() : context.getPassword(),
+                        memberAccount,
+                        circuitBreaker);
+            }
+
+            candidates.remove(member);
+        }
+
+        return null;
+    }
+
+    /* Random pick by weight, scaled down by the recent failure rate of the member. Null if none is available. */
+    private SmtpRoutingConfiguration.Member pickWeighted(List<SmtpRoutingConfiguration.Member> candidates) {
+        final double[] weights = new double[candidates.size()];
+        double totalWeight = 0;
+
+        for (int i = 0; i < candidates.size(); i++) {
+            final SmtpRoutingConfiguration.Member member = candidates.get(i);
+            final CircuitBreaker circuitBreaker = getCircuitBreaker(member.getServerName(), member.getUsername());
+
+            if (circuitBreaker.isAvailable()) {
+                weights[i] = member.getWeight() * Math.max(MIN_WEIGHT_SHARE, 1 - circuitBreaker.getFailureRate());
+                totalWeight += weights[i];
+            }
+        }
+
+        if (totalWeight <= 0) {
+            return null;
+        }
+
+        double random = ThreadLocalRandom.current().nextDouble(totalWeight);
+
+        for (int i = 0; i < candidates.size(); i++) {
+            if (weights[i] > 0 && (random -= weights[i]) < 0) {
+                return candidates.get(i);
+            }
+        }
+
+        /* Rounding, the last available member. */
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (weights[i] > 0) {
+                return candidates.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isUsable(SmtpRoutingConfiguration.Member member) {
+        return member.getServerName() != null &&
+               member.getWeight() > 0 &&
+               smtpService.smtpServerByNameExists(member.getServerName());
+    }
+
+    private SmtpRoutingConfiguration.Route getRoute(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        for (Map.Entry<String, SmtpRoutingConfiguration.Route> route :
+                smtpRoutingConfiguration.getRoutes().entrySet()) {
+            if (route.getKey().equalsIgnoreCase(name)) {
+                return route.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private CircuitBreaker getCircuitBreaker(String smtpServerName, String username) {
+        final String key = username != null
+                ? smtpServerName.toLowerCase() + "/" + username
+                : smtpServerName.toLowerCase();
+
+        return trackedServers.computeIfAbsent(key, ignored -> {
+            final SmtpRoutingConfiguration.Breaker breaker = smtpRoutingConfiguration.getBreaker();
+
+            return new TrackedServer(
+                    smtpServerName,
+                    username,
+                    new CircuitBreaker(
+                            breaker.getWindowSize(),
+                            breaker.getMinimumCalls(),
+                            breaker.getFailureRateThreshold(),
+                            breaker.getOpenDuration(),
+                            breaker.getHalfOpenProbes()));
+        }).getCircuitBreaker();
+    }
+
+    private static SmtpServerHealthResource toHealthResource(TrackedServer trackedServer) {
+        final CircuitBreaker circuitBreaker = trackedServer.getCircuitBreaker();
+        final double averageLatencyMillis = circuitBreaker.getAverageLatencyMillis();
+        final long openUntilMillis = circuitBreaker.getOpenUntilMillis();
+
+        return SmtpServerHealthResource.builder()
+                .smtpServerName(trackedServer.getSmtpServerName())
+                .username(trackedServer.getUsername())
+                .state(circuitBreaker.getState().name())
+                .failureRate(circuitBreaker.getFailureRate())
+                .averageLatencyMillis(averageLatencyMillis >= 0 ? averageLatencyMillis : null)
+                .totalSends(circuitBreaker.getTotalCalls())
+                .totalFailures(circuitBreaker.getTotalFailures())
+                .openUntil(openUntilMillis > 0
+                        ? LocalDateTime.ofInstant(Instant.ofEpochMilli(openUntilMillis), ZoneId.systemDefault())
+                        : null)
+                .build();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class TrackedServer {
+
+        private final String smtpServerName;
+        private final String username;
+        private final CircuitBreaker circuitBreaker;
+    }
+}
@@ -0,0 +1,78 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.SmtpServerSettingsEntity;
+import com.fmi.mailtemplaterbe.repository.SmtpServerSettingsRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Smtp servers, which are stored in the database and therefore shared by all app instances.
+ * Until they are set at runtime for the first time, every instance uses its configured servers.
+ */
+@Service
+@RequiredArgsConstructor
+public class SmtpServerSettingsService {
+
+    private static final long SETTINGS_ID = 1L;
+    private static final String UPSERT_SQL =
+            "INSERT INTO smtp_server_settings (id, default_server_name, servers, version) VALUES (?, ?, ?, 1) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "default_server_name = VALUES(default_server_name), servers = VALUES(servers), version = version + 1";
+    private static final TypeReference<List<SmtpConfiguration.SmtpServer>> SERVERS_TYPE =
+            new TypeReference<List<SmtpConfiguration.SmtpServer>>() {
+            };
+
+    private final SmtpServerSettingsRepository smtpServerSettingsRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Store the smtp servers for all app instances.
+     *
+     * @param defaultServerName Name of the default smtp server.
+     * @param servers           All smtp servers.
+     */
+    public void saveServers(String defaultServerName, List<SmtpConfiguration.SmtpServer> servers) {
+        final String serversJson;
+
+        try {
+            serversJson = objectMapper.writeValueAsString(servers);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Smtp servers could not be serialized.", e);
+        }
+
+        /* A single statement, so that concurrent changes on two instances cannot both create the row. */
+        jdbcTemplate.update(UPSERT_SQL, SETTINGS_ID, defaultServerName, serversJson);
+    }
+
+    /**
+     * Get the stored smtp servers.
+     *
+     * @return stored smtp servers, empty if they were never set at runtime
+     */
+    public Optional<SmtpServerSettingsEntity> getSettings() {
+        return smtpServerSettingsRepository.findById(SETTINGS_ID);
+    }
+
+    /**
+     * Read the smtp servers of the stored settings.
+     *
+     * @param settings The stored settings.
+     * @return all smtp servers
+     */
+    public List<SmtpConfiguration.SmtpServer> readServers(SmtpServerSettingsEntity settings) {
+        try {
+            return objectMapper.readValue(settings.getServers(), SERVERS_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Invalid stored smtp servers.", e);
+        }
+    }
+}
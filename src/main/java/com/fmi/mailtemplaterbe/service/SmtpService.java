@@ -1,21 +1,65 @@
 package com.fmi.mailtemplaterbe.service;
 
 import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.SmtpServerSettingsEntity;
+import com.fmi.mailtemplaterbe.domain.model.SmtpServerDescriptor;
+import com.fmi.mailtemplaterbe.domain.model.SmtpServerRegistry;
+import com.sun.mail.util.MailSSLSocketFactory;
+import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
+/**
+ * Smtp servers and sessions. The servers can be replaced at runtime.
+ * <p></p>
+ * In a cluster the servers, which were set at runtime, are stored in the database and every instance reloads them
+ * once they changed, within the refresh interval. The configured servers are only used until they are set.
+ */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class SmtpService {
 
     private final SmtpConfiguration smtpConfiguration;
+    private final ClusterService clusterService;
+    private final SmtpServerSettingsService smtpServerSettingsService;
+
+    /*
+     * One socket factory per host, shared by all sessions. The factory owns the SSL context and therefore
+     * the TLS session cache, so reconnects to the same host resume the TLS session instead of a full handshake.
+     */
+    private final ConcurrentMap<String, MailSSLSocketFactory> sslSocketFactories = new ConcurrentHashMap<>();
+
+    /* Replaced as a whole on reload. Sends that already got a server or a session keep using it. */
+    private final AtomicReference<SmtpServerRegistry> registry = new AtomicReference<>();
+
+    private final AtomicLong nextServersRefreshAt = new AtomicLong();
+
+    /* Version of the stored servers in use, 0 while the configured servers are used. Guarded by this. */
+    private long serversVersion;
+
+    /* Sessions with provided credentials, least recently used first. Guarded by itself. */
+    private Map<SessionKey, Session> sessionCache;
 
     @Value("${local.sender.username}")
     private String username;
@@ -23,49 +67,44 @@ public class SmtpService {
     @Value("${local.sender.password}")
     private String password;
 
-    public Session createSMTPSession() {
-        final SmtpConfiguration.SmtpServer defaultSmtpServer = getDefaultSmtpServer();
-        final Properties prop = new Properties();
+    @PostConstruct
+    public void init() {
+        sessionCache = new LinkedHashMap<SessionKey, Session>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SessionKey, Session> eldest) {
+                return size() > smtpConfiguration.getSessionCacheSize();
+            }
+        };
+        registry.set(buildRegistry(smtpConfiguration.getDefaultServerName(), smtpConfiguration.getServers()));
 
-        prop.put("mail.smtp.host", defaultSmtpServer.getHost());
-        prop.put("mail.smtp.port", defaultSmtpServer.getPort());
-        prop.put("mail.smtp.auth", defaultSmtpServer.getAuth());
-        prop.put("mail.smtp.starttls.enable", defaultSmtpServer.getStarttls().getEnable()); // TLS
-        prop.put("mail.smtp.ssl.trust", defaultSmtpServer.getHost());
-        prop.put("mail.smtp.timeout", defaultSmtpServer.getTimeout());
-        prop.put("mail.smtp.connectiontimeout", defaultSmtpServer.getConnectiontimeout());
+        if (clusterService.isEnabled()) {
+            refreshSharedServers();
+        }
+    }
 
-        Session session = Session.getInstance(prop,
-                new javax.mail.Authenticator() {
-                    protected PasswordAuthentication getPasswordAuthentication() {
-                        return new PasswordAuthentication(getUsername(), getPassword());
-                    }
-                });
-        return session;
+    public Session createSMTPSession() {
+        return createSMTPSession(getUsername(), getPassword(), getDefaultSmtpServer().getName());
     }
 
     public Session createSMTPSession(String username, String password, String smtpServerName) {
-        final SmtpConfiguration.SmtpServer smtpServer = getSmtpServerByName(smtpServerName);
-        final Properties prop = new Properties();
+        final SmtpServerDescriptor descriptor = getSmtpServerDescriptor(smtpServerName);
+        final SessionKey key = new SessionKey(descriptor, username, password);
 
-        prop.put("mail.smtp.host", smtpServer.getHost());
-        prop.put("mail.smtp.port", smtpServer.getPort());
-        prop.put("mail.smtp.auth", smtpServer.getAuth());
-        prop.put("mail.smtp.starttls.enable", smtpServer.getStarttls().getEnable()); // TLS
-        if (smtpServer.getSsl() != null && Boolean.parseBoolean(smtpServer.getSsl().getEnable()) == Boolean.TRUE) {
-            prop.put("mail.smtp.ssl.enable", smtpServer.getSsl().getEnable());
-        }
-        prop.put("mail.smtp.ssl.trust", smtpServer.getHost());
-        prop.put("mail.smtp.timeout", smtpServer.getTimeout());
-        prop.put("mail.smtp.connectiontimeout", smtpServer.getConnectiontimeout());
+        synchronized (sessionCache) {
+            Session session = sessionCache.get(key);
 
-        Session session = Session.getInstance(prop,
-                new javax.mail.Authenticator() {
-                    protected PasswordAuthentication getPasswordAuthentication() {
-                        return new PasswordAuthentication(username, password);
-                    }
-                });
-        return session;
+            if (session == null) {
+                session = Session.getInstance(descriptor.getProperties(),
+                        new javax.mail.Authenticator() {
+                            protected PasswordAuthentication getPasswordAuthentication() {
+                                return new PasswordAuthentication(username, password);
+                            }
+                        });
+                sessionCache.put(key, session);
+            }
+
+            return session;
+        }
     }
 
     public String getUsername() {
@@ -77,35 +116,184 @@ public class SmtpService {
     }
 
     public SmtpConfiguration.SmtpServer getDefaultSmtpServer() {
-        return smtpConfiguration.getServers().stream()
-                .filter(smtpServer -> smtpServer.getName().equalsIgnoreCase(smtpConfiguration.getDefaultServerName()))
-                .findFirst()
-                .orElse(null);
+        final SmtpServerDescriptor defaultDescriptor = getRegistry().getDefault();
+
+        return defaultDescriptor != null ? defaultDescriptor.getServer() : null;
     }
 
     public List<SmtpConfiguration.SmtpServer> getAllSmtpServer() {
-        return smtpConfiguration.getServers();
+        return getRegistry().getAll().stream().map(SmtpServerDescriptor::getServer).collect(Collectors.toList());
     }
 
     public boolean smtpServerByNameExists(String smtpServerName) {
+        return getRegistry().get(smtpServerName) != null;
+    }
+
+    /**
+     * Get a smtp server, together with a ready session, which can be used with any credentials.
+     *
+     * @param smtpServerName Name of the smtp server.
+     * @return smtp server
+     */
+    public SmtpServerDescriptor getSmtpServerDescriptor(String smtpServerName) {
+        if (StringUtils.isEmpty(smtpServerName)) {
+            throw new IllegalArgumentException("Missing smtpServerName.");
+        }
+
+        final SmtpServerDescriptor descriptor = getRegistry().get(smtpServerName);
+
+        if (descriptor == null) {
+            throw new IllegalArgumentException("Smtp server with name " + smtpServerName + " was not found.");
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * Replace the smtp servers at runtime. The new servers are used for all sends that start from now on,
+     * sends that are in progress finish with the servers they started with. In a cluster they replace the servers
+     * of all instances.
+     *
+     * @param defaultServerName Name of the default smtp server.
+     * @param servers           All smtp servers.
+     * @throws IllegalArgumentException if the servers are invalid
+     */
+    public void reloadSmtpServers(String defaultServerName, List<SmtpConfiguration.SmtpServer> servers) {
+        final SmtpServerRegistry newRegistry = buildRegistry(defaultServerName, servers);
+
+        if (clusterService.isEnabled()) {
+            /* Validated above, but applied from the stored servers like on the other instances. */
+            smtpServerSettingsService.saveServers(defaultServerName, servers);
+            refreshSharedServers();
+            return;
+        }
+
+        setRegistry(newRegistry);
+    }
+
+    private SmtpServerRegistry getRegistry() {
+        refreshSharedServersIfDue();
+
+        return registry.get();
+    }
+
+    private void setRegistry(SmtpServerRegistry newRegistry) {
+        registry.set(newRegistry);
+
+        /* Sessions of the old servers are no longer reachable through the new registry. */
+        synchronized (sessionCache) {
+            sessionCache.keySet().removeIf(key -> newRegistry.get(key.getDescriptor().getName()) != key.getDescriptor());
+        }
+    }
+
+    /* At most once per refresh interval, the servers changed on other instances apply here after that delay. */
+    private void refreshSharedServersIfDue() {
+        if (!clusterService.isEnabled()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long refreshAt = nextServersRefreshAt.get();
+
+        if (now < refreshAt
+                || !nextServersRefreshAt.compareAndSet(refreshAt, now + smtpConfiguration.getRefreshInterval())) {
+            return;
+        }
+
         try {
-            getSmtpServerByName(smtpServerName);
-        } catch (Exception e) {
-            return false;
+            refreshSharedServers();
+        } catch (RuntimeException e) {
+            /* The previous servers stay in use until the next refresh. */
+            log.warn("Reloading the shared smtp servers failed.", e);
+        }
+    }
+
+    private synchronized void refreshSharedServers() {
+        final Optional<SmtpServerSettingsEntity> settings = smtpServerSettingsService.getSettings();
+
+        if (!settings.isPresent() || settings.get().getVersion() == serversVersion) {
+            return;
         }
 
-        return true;
+        setRegistry(buildRegistry(
+                settings.get().getDefaultServerName(), smtpServerSettingsService.readServers(settings.get())));
+        serversVersion = settings.get().getVersion();
     }
 
-    private SmtpConfiguration.SmtpServer getSmtpServerByName(String smtpServerName) {
-        if (StringUtils.isEmpty(smtpServerName)) {
-            throw new IllegalArgumentException("Missing smtpServerName.");
+    private SmtpServerRegistry buildRegistry(String defaultServerName, List<SmtpConfiguration.SmtpServer> servers) {
+        if (servers == null || servers.isEmpty()) {
+            throw new IllegalArgumentException("At least one smtp server is required.");
+        }
+
+        final Map<String, SmtpServerDescriptor> descriptors = new HashMap<>();
+        final List<SmtpServerDescriptor> orderedDescriptors = new ArrayList<>();
+
+        for (SmtpConfiguration.SmtpServer server : servers) {
+            if (StringUtils.isBlank(server.getName()) || StringUtils.isBlank(server.getHost())) {
+                throw new IllegalArgumentException("Every smtp server requires a name and a host.");
+            }
+
+            final SmtpServerDescriptor descriptor = buildDescriptor(server);
+
+            if (descriptors.putIfAbsent(descriptor.getName(), descriptor) != null) {
+                throw new IllegalArgumentException("Duplicate smtp server with name " + server.getName() + ".");
+            }
+
+            orderedDescriptors.add(descriptor);
+        }
+
+        final SmtpServerDescriptor defaultDescriptor =
+                defaultServerName != null ? descriptors.get(defaultServerName.toLowerCase()) : null;
+
+        if (defaultDescriptor == null) {
+            throw new IllegalArgumentException("Default smtp server with name " + defaultServerName + " was not found.");
         }
 
-        return smtpConfiguration.getServers().stream()
-                .filter(smtpServer -> smtpServer.getName().equalsIgnoreCase(smtpServerName))
-                .findFirst()
-                .orElseThrow(
-                        () -> new IllegalArgumentException("Smtp server with name " + smtpServerName + " was not found."));
+        return new SmtpServerRegistry(descriptors, orderedDescriptors, defaultDescriptor);
+    }
+
+    private SmtpServerDescriptor buildDescriptor(SmtpConfiguration.SmtpServer smtpServer) {
+        final Properties prop = new Properties();
+
+        prop.put("mail.smtp.host", smtpServer.getHost());
+        prop.put("mail.smtp.port", smtpServer.getPort());
+        prop.put("mail.smtp.auth", smtpServer.getAuth());
+        if (smtpServer.getStarttls() != null && smtpServer.getStarttls().getEnable() != null) {
+            prop.put("mail.smtp.starttls.enable", smtpServer.getStarttls().getEnable()); // TLS
+        }
+        if (smtpServer.getSsl() != null && Boolean.parseBoolean(smtpServer.getSsl().getEnable()) == Boolean.TRUE) {
+            prop.put("mail.smtp.ssl.enable", smtpServer.getSsl().getEnable());
+        }
+        prop.put("mail.smtp.ssl.trust", smtpServer.getHost());
+        prop.put("mail.smtp.ssl.socketFactory", getSslSocketFactory(smtpServer.getHost()));
+        prop.put("mail.smtp.timeout", smtpServer.getTimeout());
+        prop.put("mail.smtp.connectiontimeout", smtpServer.getConnectiontimeout());
+
+        return new SmtpServerDescriptor(
+                smtpServer.getName().toLowerCase(), smtpServer, prop, Session.getInstance(prop));
+    }
+
+    private MailSSLSocketFactory getSslSocketFactory(String host) {
+        return sslSocketFactories.computeIfAbsent(host, key -> {
+            try {
+                final MailSSLSocketFactory sslSocketFactory = new MailSSLSocketFactory();
+
+                /* Same trust as "mail.smtp.ssl.trust", which is not applied when a socket factory is provided. */
+                sslSocketFactory.setTrustedHosts(new String[] { key });
+
+                return sslSocketFactory;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not create ssl socket factory for host " + key + ".", e);
+            }
+        });
+    }
+
+    /* Identity of the descriptor on purpose - a reloaded server never shares sessions with its old version. */
+    @Data
+    private static class SessionKey {
+
+        private final SmtpServerDescriptor descriptor;
+        private final String username;
+        private final String password;
     }
 }
@@ -0,0 +1,215 @@
+package com.fmi.mailtemplaterbe.util;
+
+/**
+ * Circuit breaker over the last calls to a smtp server.
+ * <p></p>
+ * CLOSED - calls pass, their outcomes are kept in a sliding window. Once the window holds enough calls and the failure
+ * rate reaches the threshold, the breaker opens.
+ * <p></p>
+ * OPEN - calls are refused until the open duration passed, then the breaker is half open.
+ * <p></p>
+ * HALF_OPEN - a few probe calls pass. It closes when all of them succeed and opens again on the first failure.
+ * <p></p>
+ * Also keeps a moving average of the latency of the calls.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /* Weight of the latest call in the moving average of the latency. */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final boolean[] window;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationMillis;
+    private final int halfOpenProbes;
+
+    private State state = State.CLOSED;
+    private int windowPosition;
+    private int windowCalls;
+    private int windowFailures;
+    private long openUntilMillis;
+    private int probesInFlight;
+    private int probesSucceeded;
+    private double averageLatencyMillis = -1;
+    private long totalCalls;
+    private long totalFailures;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openDurationMillis,
+                          int halfOpenProbes) {
+        this.window = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.window.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMillis = openDurationMillis;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+    }
+
+    /**
+     * Ask for permission to make a call. A permitted call must be reported with exactly one of
+     * {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+     *
+     * @return true if the call may be made
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() < openUntilMillis) {
+                return false;
+            }
+
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+            probesSucceeded = 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probesSucceeded >= halfOpenProbes) {
+                return false;
+            }
+
+            probesInFlight++;
+        }
+
+        return true;
+    }
+
+    /**
+     * True if a call would currently be permitted, without asking for it.
+     */
+    public synchronized boolean isAvailable() {
+        if (state == State.OPEN) {
+            return System.currentTimeMillis() >= openUntilMillis;
+        }
+
+        return state == State.CLOSED || probesInFlight + probesSucceeded < halfOpenProbes;
+    }
+
+    public synchronized void onSuccess(long latencyMillis) {
+        recordLatency(latencyMillis);
+        totalCalls++;
+
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+
+            if (++probesSucceeded >= halfOpenProbes) {
+                close();
+            }
+
+            return;
+        }
+
+        record(false);
+    }
+
+    public synchronized void onFailure(long latencyMillis) {
+        recordLatency(latencyMillis);
+        totalCalls++;
+        totalFailures++;
+
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+
+        record(true);
+
+        if (state == State.CLOSED &&
+            windowCalls >= minimumCalls &&
+            windowFailures >= failureRateThreshold * windowCalls) {
+            open();
+        }
+    }
+
+    /**
+     * Report a permitted call, whose outcome says nothing about the server, e.g. one that was not made at all.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+        }
+    }
+
+    /**
+     * Open the breaker right away, e.g. because the server rejected the credentials.
+     */
+    public synchronized void forceOpen() {
+        open();
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntilMillis) {
+            return State.HALF_OPEN;
+        }
+
+        return state;
+    }
+
+    public synchronized double getFailureRate() {
+        return windowCalls == 0 ? 0 : (double) windowFailures / windowCalls;
+    }
+
+    /**
+     * @return moving average of the latency in ms, -1 before the first call
+     */
+    public synchronized double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public synchronized long getTotalCalls() {
+        return totalCalls;
+    }
+
+    public synchronized long getTotalFailures() {
+        return totalFailures;
+    }
+
+    /**
+     * @return time until which the breaker stays open (epoch ms), 0 if it is not open
+     */
+    public synchronized long getOpenUntilMillis() {
+        return state == State.OPEN && System.currentTimeMillis() < openUntilMillis ? openUntilMillis : 0;
+    }
+
+    private void record(boolean failure) {
+        if (windowCalls == window.length) {
+            if (window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCalls++;
+        }
+
+        window[windowPosition] = failure;
+        windowPosition = (windowPosition + 1) % window.length;
+
+        if (failure) {
+            windowFailures++;
+        }
+    }
+
+    private void recordLatency(long latencyMillis) {
+        averageLatencyMillis = averageLatencyMillis < 0
+                ? latencyMillis
+                : averageLatencyMillis + LATENCY_SMOOTHING * (latencyMillis - averageLatencyMillis);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntilMillis = System.currentTimeMillis() + openDurationMillis;
+        probesInFlight = 0;
+        probesSucceeded = 0;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowPosition = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+        probesInFlight = 0;
+        probesSucceeded = 0;
+    }
+}
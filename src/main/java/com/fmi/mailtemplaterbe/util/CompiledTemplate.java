@@ -0,0 +1,280 @@
+package com.fmi.mailtemplaterbe.util;
+
+import org.apache.commons.text.StringSubstitutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Email template that is parsed once into literal chunks and placeholder slots, so that rendering it for a recipient
+ * is a single pass over the segments into a pre-sized buffer.
+ * <p></p>
+ * The result is identical to {@link StringSubstitutor} with the same prefix and suffix:
+ * a "$" right before the prefix escapes it, "name:-default" provides a default value and unknown placeholders
+ * are left as they are. Values, which StringSubstitutor would scan again (e.g. values that contain the prefix
+ * themselves), are rare, so such recipients are simply rendered with StringSubstitutor instead.
+ * <p></p>
+ * Instances are immutable and can be shared by all threads.
+ */
+public final class CompiledTemplate {
+
+    private static final char ESCAPE = StringSubstitutor.DEFAULT_ESCAPE;
+    private static final String VALUE_DELIMITER = StringSubstitutor.DEFAULT_VAR_DEFAULT;
+
+    private final String template;
+    private final String prefix;
+    private final String suffix;
+
+    /* literals[i] comes before slot i, the last literal comes after the last slot. */
+    private final String[] literals;
+    private final String[] names;
+    private final String[] defaultValues;
+    private final String[] rawSlots;
+    private final int literalsLength;
+
+    /* Whether StringSubstitutor would scan an unresolved slot again, see render(). */
+    private final boolean unresolvedSlotUnsafe;
+
+    private CompiledTemplate(
+            String template,
+            String prefix,
+            String suffix,
+            List<String> literals,
+            List<String> names,
+            List<String> defaultValues,
+            List<String> rawSlots) {
+        this.template = template;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.literals = literals.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.defaultValues = defaultValues.toArray(new String[0]);
+        this.rawSlots = rawSlots.toArray(new String[0]);
+        this.literalsLength = literals.stream().mapToInt(String::length).sum();
+        this.unresolvedSlotUnsafe = suffix.charAt(suffix.length() - 1) == ESCAPE ||
+                                    tailContains(suffix, suffix.length(), prefix.charAt(0));
+    }
+
+    /**
+     * Parse a template.
+     *
+     * @param template          Email template, may be null.
+     * @param placeholderPrefix Placeholder prefix, e.g. "%(".
+     * @param placeholderSuffix Placeholder suffix, e.g. ")".
+     * @return compiled template
+     */
+    public static CompiledTemplate compile(String template, String placeholderPrefix, String placeholderSuffix) {
+        final List<String> literals = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<String> defaultValues = new ArrayList<>();
+        final List<String> rawSlots = new ArrayList<>();
+
+        if (template == null) {
+            return new CompiledTemplate(null, placeholderPrefix, placeholderSuffix, literals, names, defaultValues, rawSlots);
+        }
+
+        final StringBuilder literal = new StringBuilder();
+        int pos = 0;
+
+        while (pos < template.length()) {
+            if (!template.startsWith(placeholderPrefix, pos)) {
+                literal.append(template.charAt(pos++));
+                continue;
+            }
+
+            if (literal.length() > 0 && literal.charAt(literal.length() - 1) == ESCAPE) {
+                /* Escaped - the escape character is dropped and scanning goes on right after the prefix' first char. */
+                literal.setLength(literal.length() - 1);
+                literal.append(template.charAt(pos++));
+                continue;
+            }
+
+            final int nameStart = pos + placeholderPrefix.length();
+            final int suffixPos = template.indexOf(placeholderSuffix, nameStart);
+
+            if (suffixPos < 0) {
+                /* Never closed, so the rest is plain text. */
+                literal.append(template, pos, template.length());
+                break;
+            }
+
+            final String expression = template.substring(nameStart, suffixPos);
+            String name = expression;
+            String defaultValue = null;
+
+            for (int i = 0; i < expression.length(); i++) {
+                if (expression.startsWith(placeholderPrefix, i)) {
+                    break;
+                }
+
+                if (expression.startsWith(VALUE_DELIMITER, i)) {
+                    name = expression.substring(0, i);
+                    defaultValue = expression.substring(i + VALUE_DELIMITER.length());
+                    break;
+                }
+            }
+
+            literals.add(literal.toString());
+            literal.setLength(0);
+            names.add(name);
+            defaultValues.add(defaultValue);
+            rawSlots.add(template.substring(pos, suffixPos + placeholderSuffix.length()));
+            pos = suffixPos + placeholderSuffix.length();
+        }
+
+        literals.add(literal.toString());
+
+        return new CompiledTemplate(template, placeholderPrefix, placeholderSuffix, literals, names, defaultValues, rawSlots);
+    }
+
+    /**
+     * Render the template with the placeholders of a recipient.
+     *
+     * @param placeholders Map with placeholders and their respective values, may be null.
+     * @return email message with replaced placeholders
+     */
+    public String render(Map<String, String> placeholders) {
+        if (template == null) {
+            return null;
+        }
+
+        final String[] values = resolve(placeholders);
+
+        if (values == null) {
+            return fallback(placeholders);
+        }
+
+        final StringBuilder result = new StringBuilder(getLength(values));
+
+        for (int i = 0; i < values.length; i++) {
+            result.append(literals[i]).append(values[i]);
+        }
+
+        return result.append(literals[literals.length - 1]).toString();
+    }
+
+    /**
+     * Get the length of the rendered template, without rendering it in most cases.
+     *
+     * @param placeholders Map with placeholders and their respective values, may be null.
+     * @return length of the email message with replaced placeholders
+     */
+    public int getRenderedLength(Map<String, String> placeholders) {
+        if (template == null) {
+            return 0;
+        }
+
+        final String[] values = resolve(placeholders);
+
+        return values != null ? getLength(values) : fallback(placeholders).length();
+    }
+
+    /**
+     * Get the placeholders of the template, which have neither a value nor a default value.
+     * They are left as they are in the rendered template.
+     *
+     * @param placeholders Map with placeholders and their respective values, may be null.
+     * @return names of the missing placeholders, in the order of the template
+     */
+    public List<String> getMissingPlaceholders(Map<String, String> placeholders) {
+        final List<String> missingPlaceholders = new ArrayList<>();
+
+        for (int i = 0; i < names.length; i++) {
+            if (defaultValues[i] == null && (placeholders == null || placeholders.get(names[i]) == null)) {
+                missingPlaceholders.add(names[i]);
+            }
+        }
+
+        return missingPlaceholders;
+    }
+
+    /**
+     * Get the number of placeholder slots of the template.
+     *
+     * @return number of slots
+     */
+    public int getSlotCount() {
+        return names.length;
+    }
+
+    /*
+     * The value of each slot or null if StringSubstitutor has to render the recipient, because it would scan
+     * some of the output again.
+     */
+    private String[] resolve(Map<String, String> placeholders) {
+        final String[] values = new String[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            String value = placeholders != null ? placeholders.get(names[i]) : null;
+
+            if (value == null) {
+                value = defaultValues[i];
+            }
+
+            if (value == null) {
+                if (unresolvedSlotUnsafe) {
+                    return null;
+                }
+
+                value = rawSlots[i];
+            } else if (value.contains(prefix) || (!value.isEmpty() && value.charAt(value.length() - 1) == ESCAPE)) {
+                /* StringSubstitutor would substitute within the value or treat its last char as an escape. */
+                return null;
+            }
+
+            values[i] = value;
+
+            /*
+             * StringSubstitutor continues scanning suffix.length() chars before the end of a substituted value,
+             * which could only make a difference if a prefix starts there.
+             */
+            if (outputTailContains(values, i, suffix.length(), prefix.charAt(0))) {
+                return null;
+            }
+        }
+
+        return values;
+    }
+
+    private int getLength(String[] values) {
+        int length = literalsLength;
+
+        for (String value : values) {
+            length += value.length();
+        }
+
+        return length;
+    }
+
+    /* Whether the last chars of the output up to and including the value of the slot contain the char. */
+    private boolean outputTailContains(String[] values, int slot, int tailLength, char c) {
+        int remaining = tailLength;
+
+        for (int i = slot; i >= 0 && remaining > 0; i--) {
+            for (String segment : new String[]{values[i], literals[i]}) {
+                for (int j = segment.length() - 1; j >= 0 && remaining > 0; j--, remaining--) {
+                    if (segment.charAt(j) == c) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private String fallback(Map<String, String> placeholders) {
+        return new StringSubstitutor(placeholders, prefix, suffix).replace(template);
+    }
+
+    private static boolean tailContains(CharSequence value, int tailLength, char c) {
+        for (int i = Math.max(0, value.length() - tailLength); i < value.length(); i++) {
+            if (value.charAt(i) == c) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,93 @@
+package com.fmi.mailtemplaterbe.util;
+
+import com.fmi.mailtemplaterbe.domain.resource.ScheduleResource;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Times at which the recipients of a scheduled send job get their emails, in the time zone of the server.
+ * The time of each time zone is computed once, no matter how many recipients share it.
+ */
+public final class DeliverySchedule {
+
+    /* Placeholder of a recipient with its time zone. */
+    public static final String TIMEZONE_PLACEHOLDER = "timezone";
+
+    private final LocalDateTime sendAt;
+    private final boolean recipientLocalTime;
+    private final LocalDateTime defaultSendAt;
+    private final ConcurrentMap<String, LocalDateTime> sendAtByTimezone = new ConcurrentHashMap<>();
+
+    private DeliverySchedule(LocalDateTime sendAt, ZoneId zone, boolean recipientLocalTime) {
+        this.sendAt = sendAt;
+        this.recipientLocalTime = recipientLocalTime;
+        this.defaultSendAt = toServerTime(zone);
+    }
+
+    /**
+     * Create the schedule of a send job.
+     *
+     * @param scheduleResource The schedule or null.
+     * @return schedule or null if the emails are sent right away
+     * @throws com.fmi.mailtemplaterbe.exception.CustomBadRequestException if the time zone is invalid
+     */
+    public static DeliverySchedule of(ScheduleResource scheduleResource) {
+        if (scheduleResource == null) {
+            return null;
+        }
+
+        return new DeliverySchedule(
+                scheduleResource.getSendAt(),
+                scheduleResource.getTimezone() != null
+                        ? parseZone(scheduleResource.getTimezone())
+                        : ZoneId.systemDefault(),
+                Boolean.TRUE.equals(scheduleResource.getRecipientLocalTime()));
+    }
+
+    /**
+     * Get the time of the schedule in its own time zone, converted to the time zone of the server.
+     *
+     * @return time
+     */
+    public LocalDateTime getDefaultSendAt() {
+        return defaultSendAt;
+    }
+
+    /**
+     * Get the time at which a recipient gets its email.
+     *
+     * @param placeholders Placeholders of the recipient.
+     * @return time in the time zone of the server
+     * @throws com.fmi.mailtemplaterbe.exception.CustomBadRequestException if the time zone of the recipient is invalid
+     */
+    public LocalDateTime getSendAt(Map<String, String> placeholders) {
+        if (!recipientLocalTime || placeholders == null) {
+            return defaultSendAt;
+        }
+
+        final String timezone = placeholders.get(TIMEZONE_PLACEHOLDER);
+
+        if (timezone == null || timezone.trim().isEmpty()) {
+            return defaultSendAt;
+        }
+
+        return sendAtByTimezone.computeIfAbsent(timezone, key -> toServerTime(parseZone(key)));
+    }
+
+    private LocalDateTime toServerTime(ZoneId zoneId) {
+        return sendAt.atZone(zoneId).withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+    }
+
+    private static ZoneId parseZone(String timezone) {
+        try {
+            return ZoneId.of(timezone.trim());
+        } catch (DateTimeException e) {
+            throw ExceptionsUtil.getCustomBadRequestException("Invalid time zone: " + timezone + ".");
+        }
+    }
+}
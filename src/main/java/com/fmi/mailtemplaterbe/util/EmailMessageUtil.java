@@ -4,6 +4,7 @@ import com.fmi.mailtemplaterbe.config.CorsConfiguration;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.text.StringSubstitutor;
 import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.util.Arrays;
@@ -13,6 +14,9 @@ import java.util.Map;
 @RequiredArgsConstructor
 public final class EmailMessageUtil {
 
+    private static final String CONFIRMATION_TEXT = "Please use the link below to confirm:";
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
     private final CorsConfiguration corsConfiguration;
 
     /**
@@ -50,6 +54,73 @@ public final class EmailMessageUtil {
         return result;
     }
 
+    /**
+     * Compile an email template once, so that it can be rendered for many recipients without parsing it again.
+     * Rendering the compiled template gives the same result as {@link #buildEmailMessage}.
+     *
+     * @param emailTemplate     Email template
+     * @param placeholderPrefix Placeholder prefix
+     * @param placeholderSuffix Placeholder suffix
+     * @return compiled email template
+     */
+    public CompiledTemplate compileEmailMessage(String emailTemplate, String placeholderPrefix, String placeholderSuffix) {
+        return CompiledTemplate.compile(emailTemplate, placeholderPrefix, placeholderSuffix);
+    }
+
+    /**
+     * Build the part of the confirmation app link, which is the same for all recipients of an email.
+     *
+     * @param subject Subject of the email
+     * @return link prefix or null if the recipient parameters cannot simply be appended to it
+     */
+    public String buildConfirmationAppLinkPrefix(String subject) {
+        final String clientFeAppAllowedOrigin = corsConfiguration.getClientFeAppAllowedOrigin();
+
+        if (clientFeAppAllowedOrigin == null) {
+            return null;
+        }
+
+        final UriComponents confirmationAppLinkPrefix = UriComponentsBuilder
+                .fromUriString(clientFeAppAllowedOrigin)
+                .queryParam("subject", containsSpaces(subject) ? concatWords(subject, "+") : subject)
+                .build();
+
+        /* A fragment would end up after the recipient parameters. */
+        return confirmationAppLinkPrefix.getFragment() == null ? confirmationAppLinkPrefix.toUriString() : null;
+    }
+
+    /**
+     * Same as {@link #appendConfirmationAppLink(String, String, String, String, boolean)}, but with a link prefix
+     * from {@link #buildConfirmationAppLinkPrefix(String)}, so only the recipient parameters are added per email.
+     */
+    public String appendConfirmationAppLink(
+            String confirmationAppLinkPrefix,
+            String subject,
+            String emailMessage,
+            String recipientEmail,
+            String recipientToken,
+            boolean isHtml) {
+        if (confirmationAppLinkPrefix == null || recipientEmail == null || recipientToken == null) {
+            return appendConfirmationAppLink(subject, emailMessage, recipientEmail, recipientToken, isHtml);
+        }
+
+        final String lineSeparator = isHtml ? "<br>" : LINE_SEPARATOR;
+        final StringBuilder messageBuilder = new StringBuilder(
+                emailMessage.length() + confirmationAppLinkPrefix.length() + recipientEmail.length() +
+                recipientToken.length() + CONFIRMATION_TEXT.length() + 64);
+
+        messageBuilder.append(emailMessage);
+        messageBuilder.append(lineSeparator);
+        messageBuilder.append(lineSeparator);
+        messageBuilder.append(CONFIRMATION_TEXT);
+        messageBuilder.append(lineSeparator);
+        messageBuilder.append(confirmationAppLinkPrefix);
+        messageBuilder.append("&recipientEmail=").append(recipientEmail);
+        messageBuilder.append("&recipientToken=").append(recipientToken);
+
+        return messageBuilder.toString();
+    }
+
     public String appendConfirmationAppLink(
             String subject, String emailMessage, String recipientEmail, String recipientToken, boolean isHtml) {
         final StringBuilder messageBuilder = new StringBuilder();
@@ -65,7 +136,7 @@ public final class EmailMessageUtil {
         messageBuilder.append(emailMessage);
         messageBuilder.append(lineSeparator);
         messageBuilder.append(lineSeparator);
-        messageBuilder.append("Please use the link below to confirm:");
+        messageBuilder.append(CONFIRMATION_TEXT);
         messageBuilder.append(lineSeparator);
         messageBuilder.append(confirmationAppLink);
 
@@ -94,6 +94,49 @@ public final class ExceptionsUtil {
                         .build());
     }
 
+    public static SendJobNotFoundException getSendJobNotFoundException(Long id) {
+        return new SendJobNotFoundException(
+                ErrorDetails.builder()
+                        .message("Send job with id: " + id + " was not found.")
+                        .httpStatus(HttpStatus.NOT_FOUND)
+                        .build());
+    }
+
+    public static IdempotencyKeyConflictException getIdempotencyKeyInProgressException(String idempotencyKey) {
+        return new IdempotencyKeyConflictException(
+                ErrorDetails.builder()
+                        .message("A request with Idempotency-Key: " + idempotencyKey + " is still in progress.")
+                        .httpStatus(HttpStatus.CONFLICT)
+                        .build());
+    }
+
+    public static IdempotencyKeyConflictException getSendJobInProgressException(
+            String idempotencyKey, Long sendJobId) {
+        return new IdempotencyKeyConflictException(
+                ErrorDetails.builder()
+                        .message("The send job with id: " + sendJobId + " of Idempotency-Key: " + idempotencyKey +
+                                 " is still in progress, see /send-jobs/" + sendJobId + ".")
+                        .httpStatus(HttpStatus.CONFLICT)
+                        .build());
+    }
+
+    public static IdempotencyKeyConflictException getIdempotencyKeyMismatchException(String idempotencyKey) {
+        return new IdempotencyKeyConflictException(
+                ErrorDetails.builder()
+                        .message("Idempotency-Key: " + idempotencyKey + " was already used for a different request.")
+                        .httpStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+                        .build());
+    }
+
+    public static AdmissionRejectedException getAdmissionRejectedException(String message, long retryAfterSeconds) {
+        return new AdmissionRejectedException(
+                ErrorDetails.builder()
+                        .message(message)
+                        .httpStatus(HttpStatus.TOO_MANY_REQUESTS)
+                        .build(),
+                retryAfterSeconds);
+    }
+
     private ExceptionsUtil() {
     }
 }
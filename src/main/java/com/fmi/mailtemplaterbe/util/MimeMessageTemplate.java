@@ -0,0 +1,253 @@
+package com.fmi.mailtemplaterbe.util;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MailDateFormat;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The parts of a MIME message, which are the same for all recipients of a send job, encoded once: the From header,
+ * the encoded Subject header and the MIME headers of the body.
+ * <p></p>
+ * The messages that it creates only encode the recipient, the Date and Message-ID headers and the body. The body
+ * is written with the cheapest of 7bit, quoted-printable and base64 straight into the stream of the transport,
+ * instead of going through a DataHandler and a second pass that determines the encoding.
+ * <p></p>
+ * Instances are immutable and can be shared by all threads.
+ */
+public final class MimeMessageTemplate {
+
+    private static final String CHARSET = "UTF-8";
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final String ENCODING_7BIT = "7bit";
+    private static final String ENCODING_QUOTED_PRINTABLE = "quoted-printable";
+    private static final String ENCODING_BASE64 = "base64";
+    /* Longest line of a 7bit body without the line terminator, see RFC 5322. */
+    private static final int MAX_7BIT_LINE_LENGTH = 998;
+
+    private static final AtomicLong MESSAGE_ID_SEQUENCE = new AtomicLong();
+
+    private final InternetAddress from;
+    private final AddressException fromError;
+    private final String messageIdDomain;
+    private final byte[] sharedHeaders;
+
+    private MimeMessageTemplate(InternetAddress from, AddressException fromError, String messageIdDomain, byte[] sharedHeaders) {
+        this.from = from;
+        this.fromError = fromError;
+        this.messageIdDomain = messageIdDomain;
+        this.sharedHeaders = sharedHeaders;
+    }
+
+    /**
+     * Encode the shared parts of the messages of a send job.
+     * An invalid sender is only reported by {@link #createMessage}, just like for a message that is built from scratch.
+     *
+     * @param from    Email address of the sender.
+     * @param subject Subject of the emails.
+     * @param isHtml  True if the body is HTML and false if it is plain text.
+     * @return template
+     */
+    public static MimeMessageTemplate create(String from, String subject, boolean isHtml) {
+        final InternetAddress fromAddress;
+
+        try {
+            fromAddress = new InternetAddress(from);
+        } catch (AddressException e) {
+            return new MimeMessageTemplate(null, e, null, null);
+        }
+
+        final StringBuilder headers = new StringBuilder();
+
+        headers.append("From: ").append(InternetAddress.toString(new Address[]{fromAddress}, 6)).append("\r\n");
+
+        if (subject != null) {
+            try {
+                headers.append("Subject: ")
+                        .append(MimeUtility.fold(9, MimeUtility.encodeText(subject, CHARSET, null)))
+                        .append("\r\n");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        headers.append("MIME-Version: 1.0\r\n");
+        headers.append("Content-Type: ").append(isHtml ? "text/html" : "text/plain").append("; charset=").append(CHARSET)
+                .append("\r\n");
+
+        final String address = fromAddress.getAddress();
+        final int at = address.lastIndexOf('@');
+
+        return new MimeMessageTemplate(
+                fromAddress,
+                null,
+                at >= 0 && at < address.length() - 1 ? address.substring(at + 1) : "localhost",
+                headers.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Create the message of a recipient.
+     *
+     * @param session        Session of the transport, which sends the message.
+     * @param recipientEmail Email address of the recipient, may be a comma separated list.
+     * @param content        Rendered body of the message.
+     * @return message
+     * @throws MessagingException if the sender or the recipient is not a valid address
+     */
+    public MimeMessage createMessage(Session session, String recipientEmail, String content) throws MessagingException {
+        if (fromError != null) {
+            throw fromError;
+        }
+
+        return new PreEncodedMimeMessage(session, this, InternetAddress.parse(recipientEmail), content);
+    }
+
+    /*
+     * Cheapest transfer encoding of the body. 7bit if it is plain ASCII with short enough lines, otherwise the smaller
+     * of quoted-printable (3 bytes for each non-ASCII byte) and base64 (4 bytes for every 3).
+     */
+    private static String getTransferEncoding(String content) {
+        long asciiBytes = 0;
+        long escapedBytes = 0;
+        int lineLength = 0;
+        boolean longLines = false;
+
+        for (int i = 0; i < content.length(); i++) {
+            final char c = content.charAt(i);
+
+            if (c == '\r' || c == '\n') {
+                lineLength = 0;
+                asciiBytes++;
+                continue;
+            }
+
+            if (++lineLength > MAX_7BIT_LINE_LENGTH) {
+                longLines = true;
+            }
+
+            if (c < 0x80 && (c >= 0x20 || c == '\t') && c != 0x7F) {
+                asciiBytes++;
+            } else if (c < 0x80) {
+                escapedBytes++;
+            } else if (c < 0x800) {
+                escapedBytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                /* The low surrogate adds the other 2 bytes. */
+                escapedBytes += 2;
+            } else {
+                escapedBytes += Character.isLowSurrogate(c) ? 2 : 3;
+            }
+        }
+
+        if (escapedBytes == 0 && !longLines) {
+            return ENCODING_7BIT;
+        }
+
+        final long quotedPrintableLength = asciiBytes + 3 * escapedBytes;
+        final long base64Length = (asciiBytes + escapedBytes + 2) / 3 * 4;
+
+        return quotedPrintableLength <= base64Length ? ENCODING_QUOTED_PRINTABLE : ENCODING_BASE64;
+    }
+
+    private String nextMessageId() {
+        return "<" + Long.toString(System.currentTimeMillis(), 36) + "." +
+               Long.toString(MESSAGE_ID_SEQUENCE.incrementAndGet(), 36) + ".mailtemplater@" + messageIdDomain + ">";
+    }
+
+    /**
+     * Message that writes the encoded parts of its template and only encodes its own parts.
+     * It has no content that can be read back, it can only be sent.
+     */
+    private static final class PreEncodedMimeMessage extends MimeMessage {
+
+        private final MimeMessageTemplate template;
+        private final Address[] recipients;
+        private final String content;
+        private final String transferEncoding;
+
+        private PreEncodedMimeMessage(
+                Session session, MimeMessageTemplate template, Address[] recipients, String content)
+                throws MessagingException {
+            super(session);
+            this.template = template;
+            this.recipients = recipients;
+            this.content = content != null ? content : "";
+            this.transferEncoding = getTransferEncoding(this.content);
+
+            /* Only kept as headers for the envelope of the transport, they are written from the template. */
+            setFrom(template.from);
+            setRecipients(Message.RecipientType.TO, recipients);
+        }
+
+        @Override
+        protected void updateHeaders() throws MessagingException {
+            if (getHeader("Message-ID") == null) {
+                setHeader("Message-ID", template.nextMessageId());
+            }
+
+            if (getHeader("Date") == null) {
+                setHeader("Date", new MailDateFormat().format(new Date()));
+            }
+        }
+
+        @Override
+        public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+            if (!saved) {
+                saveChanges();
+            }
+
+            os.write(template.sharedHeaders);
+            writeHeader(os, "Date", getHeader("Date", null));
+            writeHeader(os, "Message-ID", getHeader("Message-ID", null));
+            writeHeader(os, "To", InternetAddress.toString(recipients, 4));
+            writeHeader(os, "Content-Transfer-Encoding", transferEncoding);
+            os.write(CRLF);
+
+            /*
+             * The writer encodes the chars in small chunks into the encoder, which writes to the transport.
+             * Closing the writer makes the encoder write what it still holds back, but must not close the transport.
+             */
+            final OutputStream encoder = MimeUtility.encode(new UnclosableOutputStream(os), transferEncoding);
+
+            try (Writer writer = new OutputStreamWriter(encoder, StandardCharsets.UTF_8)) {
+                writer.write(content);
+            }
+        }
+
+        private static void writeHeader(OutputStream os, String name, String value) throws IOException {
+            os.write((name + ": " + value).getBytes(StandardCharsets.US_ASCII));
+            os.write(CRLF);
+        }
+    }
+
+    private static final class UnclosableOutputStream extends FilterOutputStream {
+
+        private UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.fmi.mailtemplaterbe.util;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fmi.mailtemplaterbe.domain.enums.RecipientsFormat;
+import com.fmi.mailtemplaterbe.domain.resource.Recipient;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reads recipients one by one from a streamed request body, so that only the current recipient is held in memory,
+ * whatever the size of the list.
+ */
+public final class RecipientStreamReader implements Closeable {
+
+    private static final String EMAIL_COLUMN = "email";
+
+    private final Iterator<Recipient> recipients;
+    private final Closeable source;
+    private long recordNumber;
+
+    private RecipientStreamReader(Iterator<Recipient> recipients, Closeable source) {
+        this.recipients = recipients;
+        this.source = source;
+    }
+
+    /**
+     * Open a reader for the provided format.
+     *
+     * @param format       Format of the recipients.
+     * @param inputStream  Uncompressed request body.
+     * @param objectMapper Object mapper for NDJSON.
+     * @return reader
+     * @throws IOException if the start of the body could not be read
+     */
+    public static RecipientStreamReader open(
+            RecipientsFormat format, InputStream inputStream, ObjectMapper objectMapper) throws IOException {
+        if (format == RecipientsFormat.CSV) {
+            return csv(inputStream);
+        }
+
+        return ndjson(inputStream, objectMapper);
+    }
+
+    private static RecipientStreamReader ndjson(InputStream inputStream, ObjectMapper objectMapper) throws IOException {
+        final MappingIterator<Recipient> recipients = objectMapper.readerFor(Recipient.class).readValues(inputStream);
+
+        return new RecipientStreamReader(recipients, recipients);
+    }
+
+    private static RecipientStreamReader csv(InputStream inputStream) throws IOException {
+        final CSVParser parser = CSVFormat.DEFAULT.builder()
+                .setHeader()
+                .setSkipHeaderRecord(true)
+                .setIgnoreEmptyLines(true)
+                .setTrim(true)
+                .build()
+                .parse(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+
+        if (!parser.getHeaderMap().containsKey(EMAIL_COLUMN)) {
+            parser.close();
+            throw new IllegalArgumentException("The header line must contain an \"" + EMAIL_COLUMN + "\" column.");
+        }
+
+        final Iterator<CSVRecord> records = parser.iterator();
+        final Iterator<Recipient> recipients = new Iterator<Recipient>() {
+
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public Recipient next() {
+                return csvRecordToRecipient(records.next());
+            }
+        };
+
+        return new RecipientStreamReader(recipients, parser);
+    }
+
+    /**
+     * Read the next recipient.
+     *
+     * @return recipient or null if there are no more recipients
+     * @throws IllegalArgumentException if the recipient is malformed, the message contains its record number
+     */
+    public Recipient next() {
+        final Recipient recipient;
+
+        try {
+            if (!recipients.hasNext()) {
+                return null;
+            }
+
+            recipient = recipients.next();
+        } catch (RuntimeException e) {
+            /* Jackson and Commons CSV report malformed records and failed reads with unchecked exceptions. */
+            throw new IllegalArgumentException(
+                    "Invalid recipient at record " + (recordNumber + 1) + ": " + e.getMessage(), e);
+        }
+
+        recordNumber++;
+
+        if (recipient == null || recipient.getEmail() == null || recipient.getEmail().trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid recipient at record " + recordNumber + ": missing email.");
+        }
+
+        return recipient;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private static Recipient csvRecordToRecipient(CSVRecord record) {
+        final Recipient recipient = new Recipient();
+        final Map<String, String> placeholders = new HashMap<>();
+
+        for (Map.Entry<String, String> column : record.toMap().entrySet()) {
+            if (EMAIL_COLUMN.equals(column.getKey())) {
+                recipient.setEmail(column.getValue());
+            } else {
+                placeholders.put(column.getKey(), column.getValue());
+            }
+        }
+
+        recipient.setPlaceholders(placeholders);
+
+        return recipient;
+    }
+}
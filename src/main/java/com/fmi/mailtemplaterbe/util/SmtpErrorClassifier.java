@@ -0,0 +1,77 @@
+package com.fmi.mailtemplaterbe.util;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.util.MailConnectException;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import java.io.IOException;
+
+/**
+ * Tells apart the send failures that are worth retrying (the server or the network asks to come back later)
+ * from the permanent ones (the server rejected the message or the recipient for good).
+ */
+public final class SmtpErrorClassifier {
+
+    private SmtpErrorClassifier() {
+
+    }
+
+    /**
+     * Whether an email that failed with the provided exception may succeed when it is sent again later.
+     * <p></p>
+     * 4xx reply codes (e.g. greylisting, 421 too many connections, 452 insufficient storage) are transient,
+     * 5xx reply codes are permanent. Failures without a reply code are transient if they were caused by the network.
+     *
+     * @param e Exception of the failed send.
+     * @return true if the send should be retried
+     */
+    public static boolean isRetryable(MessagingException e) {
+        if (e instanceof AuthenticationFailedException) {
+            return false;
+        }
+
+        final int replyCode = getReplyCode(e);
+
+        if (replyCode > 0) {
+            return replyCode >= 400 && replyCode < 500;
+        }
+
+        return e instanceof MailConnectException || hasNetworkCause(e);
+    }
+
+    /**
+     * Get the smtp reply code of a failed send.
+     *
+     * @param e Exception of the failed send.
+     * @return reply code or -1 if the exception does not carry one
+     */
+    public static int getReplyCode(MessagingException e) {
+        /* A rejected recipient is reported as the next exception of a SendFailedException. */
+        for (Exception current = e; current != null; ) {
+            if (current instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) current).getReturnCode();
+            }
+
+            if (current instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) current).getReturnCode();
+            }
+
+            current = current instanceof MessagingException ? ((MessagingException) current).getNextException() : null;
+        }
+
+        return -1;
+    }
+
+    private static boolean hasNetworkCause(Throwable e) {
+        /* MessagingException exposes its next exception as the cause. */
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
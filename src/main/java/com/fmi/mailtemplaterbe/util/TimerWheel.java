@@ -0,0 +1,142 @@
+package com.fmi.mailtemplaterbe.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel. Every scheduled task is put into one of the buckets of the wheel based on its deadline and
+ * a single worker thread moves over one bucket per tick. Scheduling and expiring a task therefore costs O(1),
+ * no matter how many tasks are pending, at the price of a precision of one tick.
+ * <p></p>
+ * Expired tasks are handed to the provided executor, so a slow task never delays the wheel.
+ */
+public class TimerWheel {
+
+    private final long tickNanos;
+    private final int mask;
+    private final Deque<Timeout>[] buckets;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Executor executor;
+    private final Thread worker;
+    private final long startNanos;
+    private long tick;
+    private volatile boolean running = true;
+
+    /**
+     * Create and start a timer wheel.
+     *
+     * @param name       Name of the worker thread.
+     * @param tickMillis Duration of a tick (ms).
+     * @param wheelSize  Number of buckets, rounded up to a power of two.
+     * @param executor   Executor, which runs the expired tasks.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(String name, long tickMillis, int wheelSize, Executor executor) {
+        final int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.mask = size - 1;
+        this.buckets = new Deque[size];
+        this.executor = executor;
+
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Run a task once the delay has passed.
+     *
+     * @param task        Task.
+     * @param delayMillis Delay (ms).
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        newTimeouts.add(new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis))));
+    }
+
+    /**
+     * Stop the wheel. Pending tasks are dropped.
+     *
+     * @throws InterruptedException if interrupted while waiting for the worker thread
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void run() {
+        while (running) {
+            waitForNextTick();
+            transferNewTimeouts();
+            expireTimeouts(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void waitForNextTick() {
+        final long deadline = startNanos + (tick + 1) * tickNanos;
+        long remaining;
+
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+
+        while ((timeout = newTimeouts.poll()) != null) {
+            /* Tasks that are already due go into the current bucket. */
+            final long deadlineTick = Math.max(tick, (timeout.deadlineNanos - startNanos) / tickNanos);
+
+            timeout.remainingRounds = (deadlineTick - tick) / buckets.length;
+            buckets[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void expireTimeouts(Deque<Timeout> bucket) {
+        final Iterator<Timeout> iterator = bucket.iterator();
+
+        while (iterator.hasNext()) {
+            final Timeout timeout = iterator.next();
+
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                continue;
+            }
+
+            iterator.remove();
+
+            try {
+                executor.execute(timeout.task);
+            } catch (RejectedExecutionException e) {
+                /* The executor is shut down, the task is dropped like the rest on stop. */
+            }
+        }
+    }
+
+    private static class Timeout {
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
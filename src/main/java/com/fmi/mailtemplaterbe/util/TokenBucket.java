@@ -0,0 +1,67 @@
+package com.fmi.mailtemplaterbe.util;
+
+/**
+ * Token bucket, which refills with a fixed rate up to its burst size.
+ * Permits are reserved in advance, so that waiting callers are served in order and never starve each other.
+ */
+public class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private double permitsPerSecond;
+    private double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Take one permit.
+     *
+     * @return nanoseconds that the caller has to wait before the permit is actually available
+     */
+    public synchronized long reserve() {
+        refill(System.nanoTime());
+        tokens -= 1;
+
+        return tokens >= 0 ? 0 : (long) (-tokens / permitsPerSecond * NANOS_PER_SECOND);
+    }
+
+    /**
+     * Take one permit and wait until it is available.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        final long waitNanos = reserve();
+
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    public synchronized void update(double permitsPerSecond, int burst) {
+        refill(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = Math.min(tokens, this.burst);
+    }
+
+    public synchronized double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public synchronized int getBurst() {
+        return (int) burst;
+    }
+
+    private void refill(long nowNanos) {
+        tokens = Math.min(burst, tokens + (nowNanos - lastRefillNanos) / NANOS_PER_SECOND * permitsPerSecond);
+        lastRefillNanos = nowNanos;
+    }
+}
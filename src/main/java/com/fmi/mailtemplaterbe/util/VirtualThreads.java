@@ -0,0 +1,96 @@
+package com.fmi.mailtemplaterbe.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of JDK 21+, while the application is still compiled for Java 8.
+ * The JDK classes are looked up by reflection once, so all methods are cheap.
+ */
+public final class VirtualThreads {
+
+    private static final int MIN_JAVA_VERSION = 21;
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    private VirtualThreads() {
+
+    }
+
+    /**
+     * Returns true if the running JDK supports virtual threads without preview features.
+     *
+     * @return True if virtual threads are supported and false otherwise.
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a factory for virtual threads, which are named with the prefix and a counter.
+     *
+     * @param threadNamePrefix Prefix of the thread names.
+     * @return thread factory
+     * @throws UnsupportedOperationException if virtual threads are not supported
+     */
+    public static ThreadFactory newThreadFactory(String threadNamePrefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java " + MIN_JAVA_VERSION + " or newer.");
+        }
+
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(OF_VIRTUAL.invoke(null), threadNamePrefix, 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread factory.", e);
+        }
+    }
+
+    /**
+     * Create an executor, which starts a new virtual thread for each task.
+     *
+     * @param threadNamePrefix Prefix of the thread names.
+     * @return executor
+     * @throws UnsupportedOperationException if virtual threads are not supported
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String threadNamePrefix) {
+        final ThreadFactory threadFactory = newThreadFactory(threadNamePrefix);
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor.", e);
+        }
+    }
+
+    private static Method findOfVirtual() {
+        /* Virtual threads are a preview feature before Java 21, which fails at runtime without --enable-preview. */
+        if (getJavaVersion() < MIN_JAVA_VERSION) {
+            return null;
+        }
+
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static int getJavaVersion() {
+        final String version = System.getProperty("java.specification.version", "1.8");
+
+        try {
+            /* "1.8" before Java 9, "21" since. */
+            return version.startsWith("1.")
+                    ? Integer.parseInt(version.substring(2))
+                    : Integer.parseInt(version.split("\\.")[0]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.fmi.mailtemplaterbe.filter;
+
+import com.fmi.mailtemplaterbe.config.AdmissionConfiguration;
+import com.fmi.mailtemplaterbe.domain.model.AdmissionPermit;
+import com.fmi.mailtemplaterbe.service.AdmissionService;
+import com.fmi.mailtemplaterbe.service.ClusterService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.FilterChain;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdmissionFilterTests {
+
+    private static final long MAX_REQUEST_BYTES = 100;
+
+    private AdmissionConfiguration admissionConfiguration;
+    private AdmissionService admissionService;
+    private ClusterService clusterService;
+    private AdmissionFilter admissionFilter;
+
+    @BeforeEach
+    void setUp() {
+        admissionConfiguration = new AdmissionConfiguration();
+        admissionConfiguration.setMaxConcurrentJobs(1);
+        admissionConfiguration.setMaxConcurrentPreviews(1);
+        admissionConfiguration.setMaxRequestBytes(MAX_REQUEST_BYTES);
+        admissionConfiguration.setRetryAfter(2500);
+        admissionService = new AdmissionService(admissionConfiguration);
+        clusterService = mock(ClusterService.class);
+        when(clusterService.isApi()).thenReturn(true);
+        admissionFilter = new AdmissionFilter(admissionConfiguration, admissionService, clusterService);
+    }
+
+    @Test
+    void requestWithinTheLimitsPasses() throws Exception {
+        final MockFilterChain filterChain = new MockFilterChain();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        admissionFilter.doFilter(createRequest("/send-emails", new byte[10]), response, filterChain);
+
+        assertThat(filterChain.getRequest()).isNotNull();
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+    }
+
+    @Test
+    void requestIsRejectedWith429WhileAllSlotsAreTaken() throws Exception {
+        final AdmissionPermit admissionPermit = admissionService.admitSendJob(1);
+        final MockFilterChain filterChain = new MockFilterChain();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        admissionFilter.doFilter(createRequest("/send-emails", new byte[10]), response, filterChain);
+
+        assertThat(filterChain.getRequest()).isNull();
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("3");
+        assertThat(admissionService.getAdmission().getRejectedRequests()).isEqualTo(1);
+
+        /* Previews have their own slots. */
+        final MockFilterChain previewFilterChain = new MockFilterChain();
+
+        admissionFilter.doFilter(
+                createRequest("/preview-emails", new byte[10]), new MockHttpServletResponse(), previewFilterChain);
+
+        assertThat(previewFilterChain.getRequest()).isNotNull();
+
+        admissionService.release(admissionPermit);
+
+        final MockFilterChain releasedFilterChain = new MockFilterChain();
+
+        admissionFilter.doFilter(
+                createRequest("/send-emails", new byte[10]), new MockHttpServletResponse(), releasedFilterChain);
+
+        assertThat(releasedFilterChain.getRequest()).isNotNull();
+    }
+
+    @Test
+    void requestIsRejectedWith413ByItsContentLength() throws Exception {
+        final MockFilterChain filterChain = new MockFilterChain();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        admissionFilter.doFilter(
+                createRequest("/send-emails/recipient-groups", new byte[(int) MAX_REQUEST_BYTES + 1]),
+                response,
+                filterChain);
+
+        assertThat(filterChain.getRequest()).isNull();
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE.value());
+        assertThat(admissionService.getAdmission().getTooLargeRequests()).isEqualTo(1);
+    }
+
+    @Test
+    void chunkedRequestFailsOnceItIsReadBeyondTheLimit() throws Exception {
+        final MockHttpServletRequest request = createChunkedRequest(new byte[(int) MAX_REQUEST_BYTES + 1]);
+        final FilterChain filterChain = (filteredRequest, filteredResponse) ->
+                StreamUtils.copyToByteArray(filteredRequest.getInputStream());
+
+        assertThatThrownBy(() -> admissionFilter.doFilter(request, new MockHttpServletResponse(), filterChain))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("larger than " + MAX_REQUEST_BYTES + " bytes");
+        assertThat(admissionService.getAdmission().getTooLargeRequests()).isEqualTo(1);
+    }
+
+    @Test
+    void chunkedRequestWithinTheLimitIsReadCompletely() throws Exception {
+        final MockHttpServletRequest request = createChunkedRequest(new byte[(int) MAX_REQUEST_BYTES]);
+        final AtomicInteger readBytes = new AtomicInteger();
+        final FilterChain filterChain = (filteredRequest, filteredResponse) ->
+                readBytes.set(StreamUtils.copyToByteArray(filteredRequest.getInputStream()).length);
+
+        admissionFilter.doFilter(request, new MockHttpServletResponse(), filterChain);
+
+        assertThat(readBytes).hasValue((int) MAX_REQUEST_BYTES);
+    }
+
+    @Test
+    void streamedRequestIsNotLimitedBySize() throws Exception {
+        final MockFilterChain filterChain = new MockFilterChain();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        admissionFilter.doFilter(
+                createRequest("/send-emails/stream", new byte[(int) MAX_REQUEST_BYTES * 10]), response, filterChain);
+
+        assertThat(filterChain.getRequest()).isNotNull();
+    }
+
+    @Test
+    void otherEndpointsAreNotFiltered() throws Exception {
+        admissionService.admitSendJob(1);
+
+        final MockFilterChain filterChain = new MockFilterChain();
+        final MockHttpServletRequest request = createRequest("/history", new byte[(int) MAX_REQUEST_BYTES * 10]);
+
+        admissionFilter.doFilter(request, new MockHttpServletResponse(), filterChain);
+
+        assertThat(filterChain.getRequest()).isSameAs(request);
+    }
+
+    @Test
+    void workerInstanceRejectsWith503() throws Exception {
+        when(clusterService.isApi()).thenReturn(false);
+
+        final MockFilterChain filterChain = new MockFilterChain();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        admissionFilter.doFilter(createRequest("/send-emails", new byte[10]), response, filterChain);
+
+        assertThat(filterChain.getRequest()).isNull();
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+    }
+
+    private static MockHttpServletRequest createRequest(String path, byte[] body) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+
+        request.setServletPath(path);
+        request.setContent(body);
+
+        return request;
+    }
+
+    /* A body without Content-Length, as with Transfer-Encoding: chunked. */
+    private static MockHttpServletRequest createChunkedRequest(byte[] body) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/send-emails") {
+
+            @Override
+            public long getContentLengthLong() {
+                return -1;
+            }
+        };
+
+        request.setServletPath("/send-emails");
+        request.setContent(body);
+
+        return request;
+    }
+}
@@ -0,0 +1,208 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.ClusterConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClusterServiceTests {
+
+    private static final long TIMEOUT = 2000;
+
+    private ClusterLocksTable clusterLocksTable;
+    private List<ClusterService> nodes;
+
+    @BeforeEach
+    void setUp() {
+        clusterLocksTable = new ClusterLocksTable();
+        nodes = new ArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        for (ClusterService node : nodes) {
+            node.stop();
+        }
+    }
+
+    @Test
+    void firstNodeBecomesTheLeader() {
+        final ClusterService nodeA = startNode("node-a", 60000, 30000);
+        final ClusterService nodeB = startNode("node-b", 60000, 30000);
+
+        assertThat(nodeA.isLeader()).isTrue();
+        assertThat(nodeB.isLeader()).isFalse();
+        assertThat(nodeB.getLiveNodeIds()).containsExactlyInAnyOrder("node-a", "node-b");
+    }
+
+    @Test
+    void leaderIsReplacedOnceItsLeaseExpired() throws InterruptedException {
+        /* Node A beats once and then stays silent, as if it crashed. */
+        final ClusterService nodeA = startNode("node-a", 60000, 200);
+        final ClusterService nodeB = startNode("node-b", 20, 200);
+
+        assertThat(nodeA.isLeader()).isTrue();
+        assertThat(nodeB.isLeader()).isFalse();
+
+        awaitLeader(nodeB);
+
+        /* The silent leader stopped trusting its leadership no later than the others could take it over. */
+        assertThat(nodeA.isLeader()).isFalse();
+        assertThat(nodeB.getLiveNodeIds()).containsExactly("node-b");
+    }
+
+    @Test
+    void stoppedLeaderHandsOverWithoutWaitingForTheLease() throws InterruptedException {
+        final ClusterService nodeA = startNode("node-a", 60000, 60000);
+        final ClusterService nodeB = startNode("node-b", 20, 60000);
+
+        nodeA.stop();
+
+        awaitLeader(nodeB);
+
+        assertThat(nodeB.getLiveNodeIds()).containsExactly("node-b");
+    }
+
+    @Test
+    void instanceWithoutClusterDoesEverything() {
+        final ClusterConfiguration clusterConfiguration = new ClusterConfiguration();
+
+        clusterConfiguration.setNodeId("node-a");
+
+        final ClusterService node = new ClusterService(clusterConfiguration, clusterLocksTable);
+
+        node.init();
+        node.start();
+        nodes.add(node);
+
+        assertThat(node.isLeader()).isTrue();
+        assertThat(node.isApi()).isTrue();
+        assertThat(node.isWorker()).isTrue();
+        assertThat(node.getLiveNodeIds()).containsExactly("node-a");
+        assertThat(clusterLocksTable.size()).isZero();
+    }
+
+    private ClusterService startNode(String nodeId, long heartbeatInterval, long leaseDuration) {
+        final ClusterConfiguration clusterConfiguration = new ClusterConfiguration();
+
+        clusterConfiguration.setEnabled(true);
+        clusterConfiguration.setNodeId(nodeId);
+        clusterConfiguration.setHeartbeatInterval(heartbeatInterval);
+        clusterConfiguration.setLeaseDuration(leaseDuration);
+
+        final ClusterService node = new ClusterService(clusterConfiguration, clusterLocksTable);
+
+        node.init();
+        node.start();
+        nodes.add(node);
+
+        return node;
+    }
+
+    private static void awaitLeader(ClusterService node) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (!node.isLeader() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(node.isLeader()).isTrue();
+    }
+
+    /**
+     * The cluster_locks table in memory, for the statements of the ClusterService.
+     */
+    private static class ClusterLocksTable extends JdbcTemplate {
+
+        private final Map<String, ClusterLock> rows = new HashMap<>();
+
+        @Override
+        public synchronized int update(String sql, Object... args) {
+            if (sql.startsWith("INSERT INTO cluster_locks")) {
+                final String name = (String) args[0];
+                final String owner = (String) args[1];
+                final Timestamp lockedUntil = (Timestamp) args[2];
+                final ClusterLock row = rows.get(name);
+
+                if (row == null) {
+                    rows.put(name, new ClusterLock(owner, lockedUntil));
+                    return 1;
+                }
+
+                /* Like MySQL, the second assignment already sees the new owner. */
+                if (row.lockedUntil.before((Timestamp) args[3]) || row.owner.equals(owner)) {
+                    row.owner = owner;
+                }
+
+                if (row.owner.equals(owner)) {
+                    row.lockedUntil = lockedUntil;
+                }
+
+                return 1;
+            }
+
+            if (sql.startsWith("DELETE FROM cluster_locks")) {
+                final ClusterLock row = rows.get((String) args[0]);
+
+                if (row == null || !row.owner.equals(args[1])) {
+                    return 0;
+                }
+
+                rows.remove((String) args[0]);
+
+                return 1;
+            }
+
+            throw new UnsupportedOperationException(sql);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            final List<T> owners = new ArrayList<>();
+
+            if (sql.startsWith("SELECT owner FROM cluster_locks WHERE name = ?")) {
+                final ClusterLock row = rows.get((String) args[0]);
+
+                return row != null ? Collections.singletonList((T) row.owner) : owners;
+            }
+
+            if (sql.startsWith("SELECT owner FROM cluster_locks WHERE name LIKE 'node:%'")) {
+                for (Map.Entry<String, ClusterLock> entry : rows.entrySet()) {
+                    if (entry.getKey().startsWith("node:") && !entry.getValue().lockedUntil.before((Timestamp) args[0])) {
+                        owners.add((T) entry.getValue().owner);
+                    }
+                }
+
+                return owners;
+            }
+
+            throw new UnsupportedOperationException(sql);
+        }
+
+        synchronized int size() {
+            return rows.size();
+        }
+    }
+
+    private static class ClusterLock {
+
+        private String owner;
+        private Timestamp lockedUntil;
+
+        ClusterLock(String owner, Timestamp lockedUntil) {
+            this.owner = owner;
+            this.lockedUntil = lockedUntil;
+        }
+    }
+}
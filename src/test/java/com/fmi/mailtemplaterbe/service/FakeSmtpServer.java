@@ -0,0 +1,468 @@
+package com.fmi.mailtemplaterbe.service;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * In-process smtp sink for the tests of the smtp clients and for the benchmarks. It speaks enough ESMTP for both transports of the app (EHLO, STARTTLS,
+ * AUTH PLAIN and LOGIN, MAIL, RCPT, DATA, RSET, NOOP and QUIT, pipelined or not), accepts any credentials and keeps
+ * nothing of a message but the time at which it arrived.
+ * <p></p>
+ * Real servers are emulated with a fixed latency before each reply, random temporary (4xx) and permanent (5xx)
+ * rejections of messages, and a cap on the concurrent connections, above which new connections get 421.
+ * STARTTLS is only offered with a key store, e.g. a self-signed one from:
+ * <p></p>
+ * keytool -genkeypair -alias smtp -keyalg RSA -keystore smtp.p12 -storetype PKCS12 -storepass changeit -dname CN=localhost
+ */
+public class FakeSmtpServer implements AutoCloseable {
+
+    private final long commandLatency;
+    private final double temporaryFailureRate;
+    private final double permanentFailureRate;
+    private final int maxConnections;
+    /* Null if STARTTLS is not offered. */
+    private final SSLContext sslContext;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionExecutor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "fake-smtp-connection");
+
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong refusedConnections = new AtomicLong();
+    private final AtomicLong temporaryFailures = new AtomicLong();
+    private final AtomicLong permanentFailures = new AtomicLong();
+
+    /* Arrival times of the accepted messages (System.nanoTime), guarded by the lock. */
+    private final Object arrivalsLock = new Object();
+    private long[] arrivals = new long[1024];
+    private int arrivalsCount;
+
+    /* The verbs of the received commands, e.g. "MAIL" or "AUTH LOGIN", in the order of arrival. */
+    private final ConcurrentLinkedQueue<String> commands = new ConcurrentLinkedQueue<>();
+    private volatile String authMechanisms = "PLAIN LOGIN";
+    private volatile boolean pipelining = true;
+    private volatile boolean stallTlsHandshake;
+    /* Sessions opened before this time (System.nanoTime) answer their next command with 421 and close. */
+    private volatile long closeSessionsOpenedBefore = Long.MIN_VALUE;
+
+    private Thread acceptor;
+    private volatile boolean running;
+
+    /**
+     * @param commandLatency       Delay before each reply (ms).
+     * @param temporaryFailureRate Share of the messages that are rejected with 451, between 0 and 1.
+     * @param permanentFailureRate Share of the messages that are rejected with 550, between 0 and 1.
+     * @param maxConnections       Max number of concurrent connections, 0 for no limit.
+     * @param sslContext           Context for STARTTLS or null to not offer it.
+     */
+    public FakeSmtpServer(
+            long commandLatency,
+            double temporaryFailureRate,
+            double permanentFailureRate,
+            int maxConnections,
+            SSLContext sslContext) throws IOException {
+        this.commandLatency = commandLatency;
+        this.temporaryFailureRate = temporaryFailureRate;
+        this.permanentFailureRate = permanentFailureRate;
+        this.maxConnections = maxConnections;
+        this.sslContext = sslContext;
+        this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Create the context for STARTTLS from a JKS or PKCS12 key store.
+     *
+     * @param keyStorePath Path of the key store.
+     * @param password     Password of the key store and its key.
+     * @return context
+     */
+    public static SSLContext createSslContext(String keyStorePath, String password)
+            throws IOException, GeneralSecurityException {
+        final KeyStore keyStore = KeyStore.getInstance(keyStorePath.endsWith(".jks") ? "JKS" : "PKCS12");
+
+        try (InputStream inputStream = Files.newInputStream(Paths.get(keyStorePath))) {
+            keyStore.load(inputStream, password.toCharArray());
+        }
+
+        final KeyManagerFactory keyManagerFactory =
+                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password.toCharArray());
+
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        return context;
+    }
+
+    public void start() {
+        running = true;
+        acceptor = new Thread(this::accept, "fake-smtp-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        connectionExecutor.shutdownNow();
+
+        try {
+            connectionExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public boolean isTls() {
+        return sslContext != null;
+    }
+
+    /**
+     * Set the AUTH mechanisms, which are advertised, e.g. "LOGIN".
+     */
+    public void setAuthMechanisms(String authMechanisms) {
+        this.authMechanisms = authMechanisms;
+    }
+
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
+    /**
+     * Accept STARTTLS, but never answer the TLS handshake of the client.
+     */
+    public void setStallTlsHandshake(boolean stallTlsHandshake) {
+        this.stallTlsHandshake = stallTlsHandshake;
+    }
+
+    /**
+     * Let the open connections answer their next command with 421 and close them, as a server that drops idle
+     * connections does. New connections are not affected.
+     */
+    public void closeOpenSessionsOnNextCommand() {
+        closeSessionsOpenedBefore = System.nanoTime();
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    /**
+     * Get the verbs of the received commands, AUTH with its mechanism.
+     *
+     * @return commands in the order of arrival
+     */
+    public List<String> getCommands() {
+        return commands.stream().collect(Collectors.toList());
+    }
+
+    public long getRefusedConnections() {
+        return refusedConnections.get();
+    }
+
+    public long getTemporaryFailures() {
+        return temporaryFailures.get();
+    }
+
+    public long getPermanentFailures() {
+        return permanentFailures.get();
+    }
+
+    /**
+     * Take the arrival times of the messages that were accepted since the last call.
+     *
+     * @return arrival times (System.nanoTime), in the order of arrival
+     */
+    public long[] drainArrivals() {
+        synchronized (arrivalsLock) {
+            final long[] drained = Arrays.copyOf(arrivals, arrivalsCount);
+
+            arrivalsCount = 0;
+            return drained;
+        }
+    }
+
+    public int getArrivalsCount() {
+        synchronized (arrivalsLock) {
+            return arrivalsCount;
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            final Socket socket;
+
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                /* Closed. */
+                return;
+            }
+
+            if (maxConnections > 0 && connections.incrementAndGet() > maxConnections) {
+                connections.decrementAndGet();
+                refusedConnections.incrementAndGet();
+                connectionExecutor.execute(() -> refuse(socket));
+                continue;
+            }
+
+            if (maxConnections <= 0) {
+                connections.incrementAndGet();
+            }
+
+            acceptedConnections.incrementAndGet();
+
+            connectionExecutor.execute(() -> serve(socket));
+        }
+    }
+
+    private void refuse(Socket socket) {
+        try (Socket closing = socket) {
+            final OutputStream outputStream = closing.getOutputStream();
+
+            outputStream.write("421 4.7.0 Too many connections, try again later\r\n".getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+        } catch (IOException e) {
+            /* The client went away. */
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            new Session(socket).run();
+        } catch (IOException e) {
+            /* The client went away. */
+        } finally {
+            connections.decrementAndGet();
+        }
+    }
+
+    private void recordArrival(long arrivedAt) {
+        synchronized (arrivalsLock) {
+            if (arrivalsCount == arrivals.length) {
+                arrivals = Arrays.copyOf(arrivals, arrivals.length * 2);
+            }
+
+            arrivals[arrivalsCount++] = arrivedAt;
+        }
+    }
+
+    private class Session {
+
+        private final long openedAt = System.nanoTime();
+        private Socket socket;
+        private BufferedReader reader;
+        private OutputStream writer;
+        private boolean tls;
+
+        Session(Socket socket) throws IOException {
+            open(socket);
+        }
+
+        void run() throws IOException {
+            try {
+                reply("220 localhost ESMTP benchmark sink");
+
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    final String command = line.length() > 4
+                            ? line.substring(0, 4).toUpperCase(Locale.ROOT)
+                            : line.toUpperCase(Locale.ROOT);
+
+                    if (openedAt < closeSessionsOpenedBefore) {
+                        reply("421 4.4.2 Idle for too long, closing connection");
+                        return;
+                    }
+
+                    commands.add("AUTH".equals(command) ? getAuthCommand(line) : command);
+
+                    switch (command) {
+                        case "EHLO":
+                            reply("250-localhost\r\n" +
+                                  (pipelining ? "250-PIPELINING\r\n" : "") +
+                                  "250-8BITMIME\r\n" +
+                                  (sslContext != null && !tls ? "250-STARTTLS\r\n" : "") +
+                                  "250 AUTH " + authMechanisms);
+                            break;
+                        case "HELO":
+                            reply("250 localhost");
+                            break;
+                        case "STAR":
+                            startTls();
+                            break;
+                        case "AUTH":
+                            authenticate(line);
+                            break;
+                        case "MAIL":
+                            reply("250 2.1.0 Ok");
+                            break;
+                        case "RCPT":
+                            reply("250 2.1.5 Ok");
+                            break;
+                        case "DATA":
+                            reply("354 End data with <CR><LF>.<CR><LF>");
+                            receiveMessage();
+                            break;
+                        case "RSET":
+                        case "NOOP":
+                            reply("250 2.0.0 Ok");
+                            break;
+                        case "QUIT":
+                            reply("221 2.0.0 Bye");
+                            return;
+                        default:
+                            reply("502 5.5.2 Command not recognized");
+                    }
+                }
+            } finally {
+                socket.close();
+            }
+        }
+
+        private void open(Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            /* Message bodies may be 8 bit, they are only skipped. */
+            this.reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            this.writer = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        private void startTls() throws IOException {
+            if (sslContext == null || tls) {
+                reply("502 5.5.1 STARTTLS not available");
+                return;
+            }
+
+            reply("220 2.0.0 Ready to start TLS");
+
+            if (stallTlsHandshake) {
+                /* Swallows the ClientHello and everything after it, until the client gives up. */
+                final InputStream inputStream = socket.getInputStream();
+
+                while (inputStream.read() >= 0) {
+                    /* Never answered. */
+                }
+
+                throw new IOException("The client gave up the handshake.");
+            }
+
+            final SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(
+                    socket, socket.getInetAddress().getHostAddress(), socket.getPort(), true);
+
+            sslSocket.setUseClientMode(false);
+            sslSocket.startHandshake();
+            open(sslSocket);
+            tls = true;
+        }
+
+        private String getAuthCommand(String line) {
+            final String[] tokens = line.toUpperCase(Locale.ROOT).split(" ");
+
+            return tokens.length > 1 ? tokens[0] + " " + tokens[1] : tokens[0];
+        }
+
+        private void authenticate(String line) throws IOException {
+            final String[] tokens = line.split(" ");
+            final String mechanism = tokens.length > 1 ? tokens[1].toUpperCase(Locale.ROOT) : "";
+
+            if ("PLAIN".equals(mechanism)) {
+                if (tokens.length < 3) {
+                    reply("334 ");
+                    reader.readLine();
+                }
+            } else if ("LOGIN".equals(mechanism)) {
+                if (tokens.length < 3) {
+                    /* "Username:" */
+                    reply("334 VXNlcm5hbWU6");
+                    reader.readLine();
+                }
+
+                /* "Password:" */
+                reply("334 UGFzc3dvcmQ6");
+                reader.readLine();
+            } else {
+                reply("504 5.5.4 Unrecognized authentication type");
+                return;
+            }
+
+            reply("235 2.7.0 Authentication successful");
+        }
+
+        private void receiveMessage() throws IOException {
+            String line;
+
+            while ((line = reader.readLine()) != null && !".".equals(line)) {
+                /* Skipped, only the arrival counts. */
+            }
+
+            final long arrivedAt = System.nanoTime();
+            final double random = ThreadLocalRandom.current().nextDouble();
+
+            if (random < permanentFailureRate) {
+                permanentFailures.incrementAndGet();
+                reply("550 5.7.1 Injected permanent failure");
+            } else if (random < permanentFailureRate + temporaryFailureRate) {
+                temporaryFailures.incrementAndGet();
+                reply("451 4.3.0 Injected temporary failure");
+            } else {
+                recordArrival(arrivedAt);
+                reply("250 2.0.0 Ok: queued");
+            }
+        }
+
+        private void reply(String reply) throws IOException {
+            if (commandLatency > 0) {
+                try {
+                    Thread.sleep(commandLatency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted.", e);
+                }
+            }
+
+            writer.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.HistoryConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdAllocatorTests {
+
+    private static final int BLOCK_SIZE = 10;
+
+    private IdBlockService idBlockService;
+    private IdAllocator idAllocator;
+
+    @BeforeEach
+    void setUp() {
+        final HistoryConfiguration historyConfiguration = new HistoryConfiguration();
+        /* Blocks are handed out one after another, as the id_blocks table would. */
+        final AtomicLong nextBlock = new AtomicLong(1);
+
+        historyConfiguration.setIdBlockSize(BLOCK_SIZE);
+        idBlockService = mock(IdBlockService.class);
+        when(idBlockService.reserveBlock(anyString(), eq(BLOCK_SIZE)))
+                .thenAnswer(invocation -> nextBlock.getAndAdd(BLOCK_SIZE));
+        idAllocator = new IdAllocator(idBlockService, historyConfiguration);
+    }
+
+    @Test
+    void idsComeFromOneBlockUntilItIsExhausted() {
+        assertThat(idAllocator.allocate("sent_emails", 4)).containsExactly(1, 2, 3, 4);
+        assertThat(idAllocator.allocate("sent_emails", 6)).containsExactly(5, 6, 7, 8, 9, 10);
+
+        verify(idBlockService, times(1)).reserveBlock("sent_emails", BLOCK_SIZE);
+    }
+
+    @Test
+    void nextBlockIsReservedWithinAnAllocation() {
+        idAllocator.allocate("sent_emails", 8);
+
+        assertThat(idAllocator.allocate("sent_emails", 5)).containsExactly(9, 10, 11, 12, 13);
+
+        verify(idBlockService, times(2)).reserveBlock("sent_emails", BLOCK_SIZE);
+    }
+
+    @Test
+    void tablesHaveTheirOwnBlocks() {
+        assertThat(idAllocator.allocate("sent_emails", 2)).containsExactly(1, 2);
+        assertThat(idAllocator.allocate("send_email_errors", 2)).containsExactly(11, 12);
+        assertThat(idAllocator.allocate("sent_emails", 2)).containsExactly(3, 4);
+    }
+
+    @Test
+    void emptyAllocationReservesNothing() {
+        assertThat(idAllocator.allocate("sent_emails", 0)).isEmpty();
+
+        verify(idBlockService, times(0)).reserveBlock(anyString(), eq(BLOCK_SIZE));
+    }
+
+    @Test
+    void idBlockIsCreatedOncePerTableBeforeTheFirstReservation() {
+        idAllocator.allocate("sent_emails", BLOCK_SIZE * 3);
+        idAllocator.allocate("send_email_errors", 1);
+
+        final InOrder inOrder = inOrder(idBlockService);
+
+        inOrder.verify(idBlockService).createIdBlockIfAbsent("sent_emails");
+        inOrder.verify(idBlockService, times(3)).reserveBlock("sent_emails", BLOCK_SIZE);
+        inOrder.verify(idBlockService).createIdBlockIfAbsent("send_email_errors");
+        inOrder.verify(idBlockService).reserveBlock("send_email_errors", BLOCK_SIZE);
+        verify(idBlockService, times(2)).createIdBlockIfAbsent(anyString());
+    }
+
+    @Test
+    void concurrentAllocationsGetDistinctIds() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final Set<Long> ids = new HashSet<>();
+
+        try {
+            final Future<?>[] futures = new Future<?>[8];
+            final long[][] allocations = new long[futures.length][];
+
+            for (int i = 0; i < futures.length; i++) {
+                final int index = i;
+
+                futures[i] = executor.submit(() -> {
+                    allocations[index] = idAllocator.allocate("sent_emails", 37);
+                });
+            }
+
+            for (int i = 0; i < futures.length; i++) {
+                futures[i].get(10, TimeUnit.SECONDS);
+
+                for (long id : allocations[i]) {
+                    ids.add(id);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(ids).hasSize(8 * 37);
+    }
+}
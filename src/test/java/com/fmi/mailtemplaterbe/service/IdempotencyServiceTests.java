@@ -0,0 +1,248 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fmi.mailtemplaterbe.config.IdempotencyConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.IdempotencyKeyEntity;
+import com.fmi.mailtemplaterbe.exception.IdempotencyKeyConflictException;
+import com.fmi.mailtemplaterbe.repository.IdempotencyKeyRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IdempotencyServiceTests {
+
+    private static final String KEY = "key-1";
+    private static final String OPERATION = "send-emails";
+    private static final Map<String, String> REQUEST = Collections.singletonMap("subject", "Party");
+
+    private IdempotencyConfiguration idempotencyConfiguration;
+    private IdempotencyKeysTable idempotencyKeysTable;
+    private IdempotencyService idempotencyService;
+
+    @BeforeEach
+    void setUp() {
+        final IdempotencyKeyRepository idempotencyKeyRepository = mock(IdempotencyKeyRepository.class);
+        final ClusterService clusterService = mock(ClusterService.class);
+
+        idempotencyConfiguration = new IdempotencyConfiguration();
+        idempotencyConfiguration.setPollInterval(5);
+        idempotencyKeysTable = new IdempotencyKeysTable();
+        when(idempotencyKeyRepository.findById(anyString()))
+                .thenAnswer(invocation -> idempotencyKeysTable.find(invocation.getArgument(0)));
+        idempotencyService = new IdempotencyService(
+                idempotencyConfiguration, idempotencyKeyRepository, idempotencyKeysTable, new ObjectMapper(),
+                clusterService);
+    }
+
+    @Test
+    void requestWithoutKeyIsAlwaysExecuted() {
+        assertThat(idempotencyService.claim(null, OPERATION, REQUEST)).isNull();
+        assertThat(idempotencyKeysTable.size()).isZero();
+    }
+
+    @Test
+    void repeatedRequestGetsTheOriginalSendJob() {
+        assertThat(idempotencyService.claim(KEY, OPERATION, REQUEST)).isNull();
+
+        idempotencyService.complete(KEY, 42L);
+
+        assertThat(idempotencyService.claim(KEY, OPERATION, REQUEST)).isEqualTo(42L);
+        assertThat(idempotencyService.claim(KEY, OPERATION, REQUEST)).isEqualTo(42L);
+    }
+
+    @Test
+    void concurrentDuplicatesCollapseIntoOneSendJob() throws Exception {
+        final int requestCount = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(requestCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger executedCount = new AtomicInteger();
+        final List<Future<Long>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < requestCount; i++) {
+                futures.add(executor.submit((Callable<Long>) () -> {
+                    start.await();
+
+                    final Long sendJobId = idempotencyService.claim(KEY, OPERATION, REQUEST);
+
+                    if (sendJobId != null) {
+                        return sendJobId;
+                    }
+
+                    /* The executed request takes a while to create its send job, the others wait for it. */
+                    executedCount.incrementAndGet();
+                    Thread.sleep(50);
+                    idempotencyService.complete(KEY, 7L);
+
+                    return 7L;
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<Long> future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS)).isEqualTo(7L);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(executedCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    void differentRequestWithTheSameKeyIsRejected() {
+        idempotencyService.claim(KEY, OPERATION, REQUEST);
+        idempotencyService.complete(KEY, 42L);
+
+        assertThatThrownBy(() -> idempotencyService.claim(KEY, OPERATION, Collections.singletonMap("subject", "Other")))
+                .isInstanceOf(IdempotencyKeyConflictException.class)
+                .hasMessageContaining("different request");
+        assertThatThrownBy(() -> idempotencyService.claim(KEY, "preview-emails", REQUEST))
+                .isInstanceOf(IdempotencyKeyConflictException.class);
+    }
+
+    @Test
+    void expiredKeyIsClaimedAgain() throws InterruptedException {
+        idempotencyConfiguration.setTtl(200);
+
+        idempotencyService.claim(KEY, OPERATION, REQUEST);
+        idempotencyService.complete(KEY, 42L);
+        Thread.sleep(250);
+
+        assertThat(idempotencyService.claim(KEY, OPERATION, REQUEST)).isNull();
+
+        idempotencyService.complete(KEY, 43L);
+
+        assertThat(idempotencyService.claim(KEY, OPERATION, REQUEST)).isEqualTo(43L);
+    }
+
+    @Test
+    void releasedKeyIsClaimedAgain() {
+        idempotencyService.claim(KEY, OPERATION, REQUEST);
+        idempotencyService.release(KEY);
+
+        assertThat(idempotencyService.claim(KEY, OPERATION, REQUEST)).isNull();
+    }
+
+    @Test
+    void abandonedClaimIsTakenOver() throws InterruptedException {
+        idempotencyConfiguration.setPendingTimeout(50);
+
+        /* The original request never completes, e.g. because its instance died. */
+        idempotencyService.claim(KEY, OPERATION, REQUEST);
+        Thread.sleep(80);
+
+        assertThat(idempotencyService.claim(KEY, OPERATION, REQUEST)).isNull();
+
+        idempotencyService.complete(KEY, 42L);
+        /* The late original request does not replace the send job of the request, which took it over. */
+        idempotencyService.complete(KEY, 41L);
+
+        assertThat(idempotencyService.claim(KEY, OPERATION, REQUEST)).isEqualTo(42L);
+    }
+
+    @Test
+    void blankKeyIsRejected() {
+        assertThatThrownBy(() -> idempotencyService.claim(" ", OPERATION, REQUEST))
+                .hasMessageContaining("Idempotency-Key must not be blank");
+    }
+
+    /**
+     * The idempotency_keys table in memory, for the statements of the IdempotencyService.
+     */
+    private static class IdempotencyKeysTable extends JdbcTemplate {
+
+        private final Map<String, IdempotencyKeyEntity> rows = new HashMap<>();
+
+        @Override
+        public synchronized int update(String sql, Object... args) {
+            if (sql.startsWith("INSERT IGNORE INTO idempotency_keys")) {
+                if (rows.containsKey((String) args[0])) {
+                    return 0;
+                }
+
+                rows.put((String) args[0], IdempotencyKeyEntity.builder()
+                        .idempotencyKey((String) args[0])
+                        .requestHash((String) args[1])
+                        .createdAt(toLocalDateTime(args[2]))
+                        .expiresAt(toLocalDateTime(args[3]))
+                        .build());
+
+                return 1;
+            }
+
+            if (sql.startsWith("UPDATE idempotency_keys SET send_job_id")) {
+                final IdempotencyKeyEntity row = rows.get((String) args[1]);
+
+                if (row == null || row.getSendJobId() != null) {
+                    return 0;
+                }
+
+                row.setSendJobId((Long) args[0]);
+
+                return 1;
+            }
+
+            if (sql.startsWith("DELETE FROM idempotency_keys WHERE idempotency_key = ?")) {
+                final IdempotencyKeyEntity row = rows.get((String) args[0]);
+
+                if (row == null
+                        || (sql.contains("send_job_id IS NULL") && row.getSendJobId() != null)
+                        || (sql.contains("created_at < ?") && !row.getCreatedAt().isBefore(toLocalDateTime(args[1])))
+                        || (sql.contains("expires_at < ?") && !row.getExpiresAt().isBefore(toLocalDateTime(args[1])))) {
+                    return 0;
+                }
+
+                rows.remove((String) args[0]);
+
+                return 1;
+            }
+
+            throw new UnsupportedOperationException(sql);
+        }
+
+        synchronized Optional<IdempotencyKeyEntity> find(String idempotencyKey) {
+            final IdempotencyKeyEntity row = rows.get(idempotencyKey);
+
+            /* A copy, as the repository would load it. */
+            return Optional.ofNullable(row).map(entity -> IdempotencyKeyEntity.builder()
+                    .idempotencyKey(entity.getIdempotencyKey())
+                    .requestHash(entity.getRequestHash())
+                    .sendJobId(entity.getSendJobId())
+                    .createdAt(entity.getCreatedAt())
+                    .expiresAt(entity.getExpiresAt())
+                    .build());
+        }
+
+        synchronized int size() {
+            return rows.size();
+        }
+
+        private static LocalDateTime toLocalDateTime(Object timestamp) {
+            return ((Timestamp) timestamp).toLocalDateTime();
+        }
+    }
+}
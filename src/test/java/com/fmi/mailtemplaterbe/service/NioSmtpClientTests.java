@@ -0,0 +1,256 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import com.fmi.mailtemplaterbe.domain.model.SmtpServerDescriptor;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.net.ssl.SSLContext;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NioSmtpClientTests {
+
+    private static final String KEY_STORE_PASSWORD = "changeit";
+    private static final String TIMEOUT = "30000";
+    private static final String SHORT_TIMEOUT = "300";
+
+    @TempDir
+    static Path keyStoreDirectory;
+
+    private static SSLContext serverSslContext;
+
+    private final List<FakeSmtpServer> smtpServers = new ArrayList<>();
+    private NioSmtpClient nioSmtpClient;
+
+    @BeforeAll
+    static void createKeyStore() throws Exception {
+        final Path keyStore = keyStoreDirectory.resolve("smtp.p12");
+        final Process keytool = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair",
+                "-alias", "smtp",
+                "-keyalg", "RSA",
+                "-keysize", "2048",
+                "-validity", "1",
+                "-dname", "CN=localhost",
+                "-keystore", keyStore.toString(),
+                "-storetype", "PKCS12",
+                "-storepass", KEY_STORE_PASSWORD,
+                "-keypass", KEY_STORE_PASSWORD)
+                .inheritIO()
+                .start();
+
+        assertThat(keytool.waitFor()).isZero();
+
+        serverSslContext = FakeSmtpServer.createSslContext(keyStore.toString(), KEY_STORE_PASSWORD);
+    }
+
+    @BeforeEach
+    void startClient() throws Exception {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration();
+
+        smtpConfiguration.getNio().setIoThreads(1);
+        nioSmtpClient = new NioSmtpClient(smtpConfiguration);
+        nioSmtpClient.start();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        nioSmtpClient.stop();
+
+        for (FakeSmtpServer smtpServer : smtpServers) {
+            smtpServer.close();
+        }
+    }
+
+    @Test
+    void pipelinedMessagesShareTheConnections() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(0, 0, 0, null);
+        final SmtpServerDescriptor descriptor = createDescriptor(smtpServer, false, TIMEOUT);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            futures.add(send(descriptor, i, 2));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertThat(smtpServer.getArrivalsCount()).isEqualTo(20);
+        assertThat(smtpServer.getAcceptedConnections()).isBetween(1L, 2L);
+        assertThat(smtpServer.getCommands()).contains("AUTH PLAIN");
+    }
+
+    @Test
+    void messagesAreSentWithoutPipelining() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(0, 0, 0, null);
+
+        smtpServer.setPipelining(false);
+
+        final SmtpServerDescriptor descriptor = createDescriptor(smtpServer, false, TIMEOUT);
+
+        for (int i = 0; i < 3; i++) {
+            send(descriptor, i, 1).get(10, TimeUnit.SECONDS);
+        }
+
+        assertThat(smtpServer.getArrivalsCount()).isEqualTo(3);
+        assertThat(smtpServer.getAcceptedConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void authLoginIsUsedIfPlainIsNotOffered() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(0, 0, 0, null);
+
+        smtpServer.setAuthMechanisms("LOGIN");
+        send(createDescriptor(smtpServer, false, TIMEOUT), 0, 1).get(10, TimeUnit.SECONDS);
+
+        assertThat(smtpServer.getCommands()).contains("AUTH LOGIN").doesNotContain("AUTH PLAIN");
+        assertThat(smtpServer.getArrivalsCount()).isEqualTo(1);
+    }
+
+    @Test
+    void startTlsUpgradesTheConnectionBeforeAuthentication() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(0, 0, 0, serverSslContext);
+
+        send(createDescriptor(smtpServer, true, TIMEOUT), 0, 1).get(10, TimeUnit.SECONDS);
+
+        /* EHLO is repeated over TLS, and the credentials are only sent after the upgrade. */
+        assertThat(smtpServer.getCommands()).containsSubsequence("EHLO", "STAR", "EHLO", "AUTH PLAIN", "MAIL");
+        assertThat(smtpServer.getArrivalsCount()).isEqualTo(1);
+    }
+
+    @Test
+    void temporaryFailureIsReportedWith451() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(0, 1, 0, null);
+
+        assertThatThrownBy(() -> send(createDescriptor(smtpServer, false, TIMEOUT), 0, 1).get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .satisfies(e -> assertThat(getReturnCode(e)).isEqualTo(451));
+    }
+
+    @Test
+    void permanentFailureIsReportedWith550() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(0, 0, 1, null);
+
+        assertThatThrownBy(() -> send(createDescriptor(smtpServer, false, TIMEOUT), 0, 1).get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .satisfies(e -> assertThat(getReturnCode(e)).isEqualTo(550));
+    }
+
+    @Test
+    void connectionIsReplacedAfter421() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(0, 0, 0, null);
+        final SmtpServerDescriptor descriptor = createDescriptor(smtpServer, false, TIMEOUT);
+
+        send(descriptor, 0, 1).get(10, TimeUnit.SECONDS);
+        smtpServer.closeOpenSessionsOnNextCommand();
+
+        assertThatThrownBy(() -> send(descriptor, 1, 1).get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .satisfies(e -> assertThat(getReturnCode(e)).isEqualTo(421));
+
+        send(descriptor, 2, 1).get(10, TimeUnit.SECONDS);
+
+        assertThat(smtpServer.getAcceptedConnections()).isEqualTo(2);
+        assertThat(smtpServer.getArrivalsCount()).isEqualTo(2);
+    }
+
+    @Test
+    void slowServerTimesOut() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(5000, 0, 0, null);
+
+        assertThatThrownBy(() -> send(createDescriptor(smtpServer, false, SHORT_TIMEOUT), 0, 1)
+                .get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasRootCauseInstanceOf(SocketTimeoutException.class);
+    }
+
+    @Test
+    void stalledTlsHandshakeTimesOut() throws Exception {
+        final FakeSmtpServer smtpServer = startSmtpServer(0, 0, 0, serverSslContext);
+
+        smtpServer.setStallTlsHandshake(true);
+
+        assertThatThrownBy(() -> send(createDescriptor(smtpServer, true, SHORT_TIMEOUT), 0, 1)
+                .get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasRootCauseInstanceOf(SocketTimeoutException.class)
+                .hasStackTraceContaining("TLS handshake timed out");
+    }
+
+    private FakeSmtpServer startSmtpServer(
+            long commandLatency, double temporaryFailureRate, double permanentFailureRate, SSLContext sslContext)
+            throws Exception {
+        final FakeSmtpServer smtpServer =
+                new FakeSmtpServer(commandLatency, temporaryFailureRate, permanentFailureRate, 0, sslContext);
+
+        smtpServers.add(smtpServer);
+        smtpServer.start();
+
+        return smtpServer;
+    }
+
+    private CompletableFuture<Void> send(SmtpServerDescriptor descriptor, int index, int maxConnections)
+            throws Exception {
+        return nioSmtpClient.send(descriptor, "sender@example.com", "secret", createMessage(index), maxConnections);
+    }
+
+    private static SmtpServerDescriptor createDescriptor(FakeSmtpServer smtpServer, boolean startTls, String timeout) {
+        final SmtpConfiguration.SmtpServer server = new SmtpConfiguration.SmtpServer();
+
+        server.setName("fake");
+        server.setHost(smtpServer.getHost());
+        server.setPort(String.valueOf(smtpServer.getPort()));
+        server.setAuth("true");
+        server.setStarttls(new SmtpConfiguration.StartTtls(String.valueOf(startTls)));
+        server.setSsl(new SmtpConfiguration.Ssl("false"));
+        server.setTimeout(timeout);
+        server.setConnectiontimeout(timeout);
+        server.setTransport(SmtpConfiguration.Transport.NIO);
+
+        return new SmtpServerDescriptor("fake", server, new Properties(), Session.getInstance(new Properties()));
+    }
+
+    private static MimeMessage createMessage(int index) throws MessagingException {
+        final MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+
+        message.setFrom(new InternetAddress("sender@example.com"));
+        message.setRecipients(Message.RecipientType.TO, "recipient" + index + "@example.com");
+        message.setSubject("Message " + index);
+        /* A line with a single dot, which must be stuffed so that it does not end the DATA early. */
+        message.setText("Dear recipient,\n.\nsee you soon.");
+
+        return message;
+    }
+
+    private static int getReturnCode(Throwable error) {
+        Throwable cause = error;
+
+        while (cause != null && !(cause instanceof SMTPSendFailedException)) {
+            cause = cause.getCause();
+        }
+
+        assertThat(cause).isNotNull();
+
+        return ((SMTPSendFailedException) cause).getReturnCode();
+    }
+}
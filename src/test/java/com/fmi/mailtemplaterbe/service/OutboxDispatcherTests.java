@@ -0,0 +1,341 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.ClusterConfiguration;
+import com.fmi.mailtemplaterbe.config.EmailTemplatesConfiguration;
+import com.fmi.mailtemplaterbe.config.LaneConfiguration;
+import com.fmi.mailtemplaterbe.config.OutboxConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.OutboxEntity;
+import com.fmi.mailtemplaterbe.domain.entity.SendJobEntity;
+import com.fmi.mailtemplaterbe.domain.enums.OutboxStatus;
+import com.fmi.mailtemplaterbe.domain.enums.SendJobStatus;
+import com.fmi.mailtemplaterbe.domain.enums.SendLane;
+import com.fmi.mailtemplaterbe.domain.model.SendJobContext;
+import com.fmi.mailtemplaterbe.util.EmailMessageUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OutboxDispatcherTests {
+
+    private static final int CLAIM_BATCH_SIZE = 100;
+    private static final long TIMEOUT = 2000;
+
+    private OutboxConfiguration outboxConfiguration;
+    private LaneConfiguration laneConfiguration;
+    private ClusterConfiguration clusterConfiguration;
+    private OutboxService outboxService;
+    private SendJobService sendJobService;
+    private ClusterService clusterService;
+    private OutboxDispatcher outboxDispatcher;
+
+    @BeforeEach
+    void setUp() {
+        outboxConfiguration = new OutboxConfiguration();
+        outboxConfiguration.setClaimBatchSize(CLAIM_BATCH_SIZE);
+        laneConfiguration = new LaneConfiguration();
+        clusterConfiguration = new ClusterConfiguration();
+        outboxService = mock(OutboxService.class);
+        sendJobService = mock(SendJobService.class);
+        clusterService = mock(ClusterService.class);
+
+        final SmtpService smtpService = mock(SmtpService.class);
+
+        when(smtpService.getUsername()).thenReturn("sender@example.com");
+        outboxDispatcher = new OutboxDispatcher(
+                outboxConfiguration,
+                laneConfiguration,
+                clusterConfiguration,
+                new EmailTemplatesConfiguration(),
+                outboxService,
+                mock(SendPipeline.class),
+                sendJobService,
+                smtpService,
+                mock(EmailMessageUtil.class),
+                clusterService);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        outboxDispatcher.stop();
+    }
+
+    @Test
+    void bulkBatchIsSplitBetweenTheSendersByWeight() {
+        laneConfiguration.getSenderWeights().put("alice@example.com", 3);
+
+        outboxDispatcher.register(createContext(1L, "alice@example.com", SendLane.BULK));
+        outboxDispatcher.register(createContext(2L, "Alice@example.com", SendLane.BULK));
+        outboxDispatcher.register(createContext(3L, "bob@example.com", SendLane.BULK));
+        outboxDispatcher.claimDueEmails(SendLane.BULK);
+
+        /* Alice gets 3/4 of the batch, split between her two jobs, and Bob the remaining 1/4. */
+        verify(outboxService).claimDueEmails(1L, 38);
+        verify(outboxService).claimDueEmails(2L, 38);
+        verify(outboxService).claimDueEmails(3L, 25);
+    }
+
+    @Test
+    void everyBulkJobClaimsAtLeastOneEmail() {
+        outboxConfiguration.setClaimBatchSize(2);
+
+        for (long sendJobId = 1; sendJobId <= 5; sendJobId++) {
+            outboxDispatcher.register(createContext(sendJobId, "alice@example.com", SendLane.BULK));
+        }
+
+        outboxDispatcher.claimDueEmails(SendLane.BULK);
+
+        for (long sendJobId = 1; sendJobId <= 5; sendJobId++) {
+            verify(outboxService).claimDueEmails(sendJobId, 1);
+        }
+    }
+
+    @Test
+    void transactionalJobsClaimAWholeBatchEach() {
+        outboxDispatcher.register(createContext(1L, "alice@example.com", SendLane.TRANSACTIONAL));
+        outboxDispatcher.register(createContext(2L, "alice@example.com", SendLane.TRANSACTIONAL));
+        outboxDispatcher.register(createContext(3L, "bob@example.com", SendLane.BULK));
+        outboxDispatcher.claimDueEmails(SendLane.TRANSACTIONAL);
+
+        verify(outboxService).claimDueEmails(1L, CLAIM_BATCH_SIZE);
+        verify(outboxService).claimDueEmails(2L, CLAIM_BATCH_SIZE);
+        verify(outboxService, never()).claimDueEmails(eq(3L), anyInt());
+    }
+
+    @Test
+    void claimedEmailsAreInterleavedJobByJob() {
+        when(outboxService.claimDueEmails(anyLong(), anyInt())).thenReturn(Collections.emptyList());
+        when(outboxService.claimDueEmails(eq(1L), anyInt())).thenReturn(createEmails(1L, 3));
+        when(outboxService.claimDueEmails(eq(2L), anyInt())).thenReturn(createEmails(2L, 1));
+        when(outboxService.claimDueEmails(eq(3L), anyInt())).thenReturn(createEmails(3L, 2));
+
+        for (long sendJobId = 1; sendJobId <= 4; sendJobId++) {
+            outboxDispatcher.register(createContext(sendJobId, "alice@example.com", SendLane.BULK));
+        }
+
+        final List<Long> sendJobIds = outboxDispatcher.claimDueEmails(SendLane.BULK).stream()
+                .map(OutboxEntity::getSendJobId)
+                .collect(Collectors.toList());
+
+        /* One email of each job per round, the jobs with fewer due emails drop out. */
+        assertThat(sendJobIds).hasSize(6);
+        assertThat(sendJobIds.subList(0, 3)).containsExactlyInAnyOrder(1L, 2L, 3L);
+        assertThat(sendJobIds.subList(3, 5)).containsExactlyInAnyOrder(1L, 3L);
+        assertThat(sendJobIds.get(5)).isEqualTo(1L);
+    }
+
+    @Test
+    void pausedAndAbortedJobsClaimNothing() {
+        final SendJobContext paused = createContext(1L, "alice@example.com", SendLane.BULK);
+        final SendJobContext aborted = createContext(2L, "alice@example.com", SendLane.BULK);
+
+        outboxDispatcher.register(paused);
+        outboxDispatcher.register(aborted);
+        paused.pause();
+        aborted.abort(new IllegalStateException("Cancelled"));
+
+        assertThat(outboxDispatcher.claimDueEmails(SendLane.BULK)).isEmpty();
+
+        verify(outboxService, never()).claimDueEmails(anyLong(), anyInt());
+    }
+
+    @Test
+    void resumedSendJobsKeepTheirLane() {
+        /* Both have few emails left, only the small one was transactional from the start. */
+        when(outboxService.getUnfinishedSendJobIds()).thenReturn(Arrays.asList(1L, 2L));
+        when(outboxService.countUnfinishedEmails(anyLong())).thenReturn(3);
+        when(sendJobService.getSendJobEntityById(1L)).thenReturn(createSendJobEntity(1L, SendLane.BULK));
+        when(sendJobService.getSendJobEntityById(2L)).thenReturn(createSendJobEntity(2L, SendLane.TRANSACTIONAL));
+
+        outboxDispatcher.start();
+
+        assertThat(outboxDispatcher.getSendJobContext(1L).getLane()).isEqualTo(SendLane.BULK);
+        assertThat(outboxDispatcher.getSendJobContext(2L).getLane()).isEqualTo(SendLane.TRANSACTIONAL);
+    }
+
+    @Test
+    void claimedEmailsAreReleasedBeforeTheJobsAreResumed() {
+        when(outboxService.getUnfinishedSendJobIds()).thenReturn(Collections.singletonList(1L));
+        when(outboxService.countEmails(1L, OutboxStatus.SENT)).thenReturn(4);
+        when(outboxService.countEmails(1L, OutboxStatus.FAILED)).thenReturn(1);
+        when(outboxService.countUnfinishedEmails(1L)).thenReturn(5);
+        when(sendJobService.getSendJobEntityById(1L)).thenReturn(createSendJobEntity(1L, SendLane.BULK));
+
+        outboxDispatcher.start();
+
+        final InOrder inOrder = inOrder(outboxService, sendJobService);
+
+        /* Emails, which were claimed before the restart, are claimed again by the resumed job. */
+        inOrder.verify(outboxService).releaseClaimedEmails();
+        inOrder.verify(outboxService).getUnfinishedSendJobIds();
+        inOrder.verify(sendJobService).resumeSendJob(1L, 4, 1);
+        assertThat(outboxDispatcher.getSendJobContext(1L).getTotalCount()).isEqualTo(5);
+    }
+
+    @Test
+    void jobsWithProvidedCredentialsFailOnResume() {
+        final SendJobEntity sendJobEntity = createSendJobEntity(1L, SendLane.BULK);
+
+        sendJobEntity.setDefaultCredentials(false);
+        when(outboxService.getUnfinishedSendJobIds()).thenReturn(Collections.singletonList(1L));
+        when(sendJobService.getSendJobEntityById(1L)).thenReturn(sendJobEntity);
+
+        outboxDispatcher.start();
+
+        verify(outboxService).failUnfinishedEmails(eq(1L), startsWith("Send job cannot be resumed"));
+        verify(sendJobService).finishSendJob(eq(1L), startsWith("Send job cannot be resumed"));
+        assertThat(outboxDispatcher.getSendJobContext(1L)).isNull();
+    }
+
+    @Test
+    void failedResumeDoesNotStopTheOtherJobs() {
+        when(outboxService.getUnfinishedSendJobIds()).thenReturn(Arrays.asList(1L, 2L));
+        when(sendJobService.getSendJobEntityById(1L)).thenThrow(new IllegalStateException("Deleted"));
+        when(sendJobService.getSendJobEntityById(2L)).thenReturn(createSendJobEntity(2L, SendLane.BULK));
+
+        outboxDispatcher.start();
+
+        assertThat(outboxDispatcher.getSendJobContext(1L)).isNull();
+        assertThat(outboxDispatcher.getSendJobContext(2L)).isNotNull();
+    }
+
+    @Test
+    void clusterResumesOnlyTheJobsOfThisInstance() {
+        final SendJobEntity ownSendJob = createSendJobEntity(1L, SendLane.BULK);
+        final SendJobEntity otherSendJob = createSendJobEntity(2L, SendLane.BULK);
+
+        ownSendJob.setOwnerNode("node-a");
+        otherSendJob.setOwnerNode("node-b");
+        /* No sync while the resume is checked. */
+        clusterConfiguration.setSyncInterval(60000);
+        when(clusterService.isEnabled()).thenReturn(true);
+        when(clusterService.getNodeId()).thenReturn("node-a");
+        when(outboxService.getUnfinishedSendJobIds()).thenReturn(Arrays.asList(1L, 2L));
+        when(sendJobService.getSendJobEntityById(1L)).thenReturn(ownSendJob);
+        when(sendJobService.getSendJobEntityById(2L)).thenReturn(otherSendJob);
+
+        outboxDispatcher.start();
+
+        /* The job of the other instance is left to the sync, or to the leader if that instance stopped. */
+        verify(sendJobService).resumeSendJob(eq(1L), anyInt(), anyInt());
+        verify(sendJobService, never()).resumeSendJob(eq(2L), anyInt(), anyInt());
+        assertThat(outboxDispatcher.getSendJobContext(1L).isShared()).isTrue();
+    }
+
+    @Test
+    void leaderTakesOverTheJobsOfStoppedInstances() {
+        final SendJobEntity orphanedSendJob = createSendJobEntity(1L, SendLane.BULK);
+        final SendJobEntity liveSendJob = createSendJobEntity(2L, SendLane.BULK);
+
+        orphanedSendJob.setOwnerNode("node-b");
+        liveSendJob.setOwnerNode("node-c");
+        startClusterNode(true, orphanedSendJob, liveSendJob);
+        when(sendJobService.adoptSendJob(1L, "node-b")).thenReturn(true);
+        when(sendJobService.getSendJobEntityById(1L)).thenReturn(orphanedSendJob);
+        when(outboxService.countUnfinishedEmails(1L)).thenReturn(3);
+
+        outboxDispatcher.start();
+
+        verify(outboxService, timeout(TIMEOUT).atLeastOnce()).releaseExpiredLeases();
+        verify(sendJobService, timeout(TIMEOUT)).resumeSendJob(eq(1L), anyInt(), anyInt());
+        /* Once taken over, the job belongs to the leader and is not taken over again. */
+        verify(sendJobService, timeout(TIMEOUT).atLeast(3)).getUnfinishedSendJobEntities();
+        verify(sendJobService).adoptSendJob(1L, "node-b");
+        verify(sendJobService, never()).adoptSendJob(eq(2L), anyString());
+        assertThat(orphanedSendJob.getOwnerNode()).isEqualTo("node-a");
+        assertThat(outboxDispatcher.getSendJobContext(1L).isRemote()).isFalse();
+    }
+
+    @Test
+    void jobTakenOverByAnotherLeaderIsNotResumed() {
+        final SendJobEntity orphanedSendJob = createSendJobEntity(1L, SendLane.BULK);
+
+        orphanedSendJob.setOwnerNode("node-b");
+        startClusterNode(true, orphanedSendJob);
+
+        outboxDispatcher.start();
+
+        /* The conditional update failed, because another instance was first. */
+        verify(sendJobService, timeout(TIMEOUT).atLeastOnce()).adoptSendJob(1L, "node-b");
+        verify(sendJobService, never()).resumeSendJob(anyLong(), anyInt(), anyInt());
+    }
+
+    @Test
+    void onlyTheLeaderReleasesLeasesAndTakesOverJobs() {
+        final SendJobEntity orphanedSendJob = createSendJobEntity(1L, SendLane.BULK);
+
+        orphanedSendJob.setOwnerNode("node-b");
+        startClusterNode(false, orphanedSendJob);
+
+        outboxDispatcher.start();
+
+        verify(sendJobService, timeout(TIMEOUT).atLeast(3)).getUnfinishedSendJobEntities();
+        verify(outboxService, never()).releaseExpiredLeases();
+        verify(sendJobService, never()).adoptSendJob(anyLong(), anyString());
+    }
+
+    /* This instance is node-a, node-c is alive and node-b stopped. */
+    private void startClusterNode(boolean leader, SendJobEntity... unfinishedSendJobs) {
+        clusterConfiguration.setSyncInterval(10);
+        when(clusterService.isEnabled()).thenReturn(true);
+        when(clusterService.isLeader()).thenReturn(leader);
+        when(clusterService.getNodeId()).thenReturn("node-a");
+        when(clusterService.getLiveNodeIds()).thenReturn(new HashSet<>(Arrays.asList("node-a", "node-c")));
+        when(sendJobService.getUnfinishedSendJobEntities()).thenReturn(Arrays.asList(unfinishedSendJobs));
+    }
+
+    private static SendJobEntity createSendJobEntity(Long sendJobId, SendLane lane) {
+        return SendJobEntity.builder()
+                .id(sendJobId)
+                .emailTemplateId(1L)
+                .status(SendJobStatus.RUNNING.getValue())
+                .subject("Party")
+                .message("Hello %(name)!")
+                .defaultCredentials(true)
+                .lane(lane != null ? lane.getValue() : null)
+                .build();
+    }
+
+    private static SendJobContext createContext(Long sendJobId, String username, SendLane lane) {
+        return SendJobContext.builder()
+                .sendJobId(sendJobId)
+                .username(username)
+                .lane(lane)
+                .totalCount(10)
+                .build();
+    }
+
+    private static List<OutboxEntity> createEmails(Long sendJobId, int count) {
+        final List<OutboxEntity> emails = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            emails.add(OutboxEntity.builder()
+                    .id(sendJobId * 100 + i)
+                    .sendJobId(sendJobId)
+                    .recipientEmail("recipient" + i + "@example.com")
+                    .build());
+        }
+
+        return emails;
+    }
+}
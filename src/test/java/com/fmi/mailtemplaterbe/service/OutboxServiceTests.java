@@ -0,0 +1,224 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fmi.mailtemplaterbe.config.OutboxConfiguration;
+import com.fmi.mailtemplaterbe.domain.entity.OutboxEntity;
+import com.fmi.mailtemplaterbe.domain.enums.OutboxStatus;
+import com.fmi.mailtemplaterbe.domain.resource.Recipient;
+import com.fmi.mailtemplaterbe.repository.OutboxRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class OutboxServiceTests {
+
+    private static final List<Long> DUE_STATUSES =
+            Arrays.asList(OutboxStatus.PENDING.getValue(), OutboxStatus.DEFERRED.getValue());
+    private static final LocalDateTime LEASE_EXPIRES_AT = LocalDateTime.of(2030, 1, 1, 12, 0);
+
+    private OutboxConfiguration outboxConfiguration;
+    private OutboxRepository outboxRepository;
+    private ClusterService clusterService;
+    private JdbcTemplate jdbcTemplate;
+    private OutboxService outboxService;
+
+    @BeforeEach
+    void setUp() {
+        outboxConfiguration = new OutboxConfiguration();
+        outboxConfiguration.setInsertBatchSize(2);
+        outboxRepository = mock(OutboxRepository.class);
+        clusterService = mock(ClusterService.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+
+        when(clusterService.getNodeId()).thenReturn("node-a");
+        when(clusterService.getLeaseExpiresAt()).thenReturn(LEASE_EXPIRES_AT);
+        outboxService = new OutboxService(
+                outboxRepository, outboxConfiguration, clusterService, jdbcTemplate, new ObjectMapper());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void enqueuedEmailsArePendingWithTheirPlaceholders() throws SQLException {
+        final Recipient alice = createRecipient("alice@example.com", Collections.singletonMap("name", "Alice"));
+        final Recipient bob = createRecipient("bob@example.com", null);
+        final ArgumentCaptor<ParameterizedPreparedStatementSetter<Recipient>> setter =
+                ArgumentCaptor.forClass(ParameterizedPreparedStatementSetter.class);
+
+        outboxService.enqueue(1L, 2L, Arrays.asList(alice, bob));
+
+        verify(jdbcTemplate).batchUpdate(
+                anyString(), eq(Arrays.asList(alice, bob)), eq(2), setter.capture());
+
+        final PreparedStatement aliceStatement = mock(PreparedStatement.class);
+        final PreparedStatement bobStatement = mock(PreparedStatement.class);
+
+        setter.getValue().setValues(aliceStatement, alice);
+        setter.getValue().setValues(bobStatement, bob);
+
+        verify(aliceStatement).setLong(1, 1L);
+        verify(aliceStatement).setLong(2, 2L);
+        verify(aliceStatement).setString(3, "alice@example.com");
+        verify(aliceStatement).setString(4, "{\"name\":\"Alice\"}");
+        verify(aliceStatement).setLong(5, OutboxStatus.PENDING.getValue());
+        verify(bobStatement).setString(4, null);
+    }
+
+    @Test
+    void dueEmailsAreClaimedByThisInstance() {
+        final List<OutboxEntity> dueEmails = Arrays.asList(
+                OutboxEntity.builder().id(10L).sendJobId(1L).build(),
+                OutboxEntity.builder().id(11L).sendJobId(1L).build());
+
+        when(outboxRepository.findAllBySendJobIdAndStatusInAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(
+                eq(1L), eq(DUE_STATUSES), any(LocalDateTime.class), eq(PageRequest.of(0, 2))))
+                .thenReturn(dueEmails);
+
+        assertThat(outboxService.claimDueEmails(1L, 2)).isEqualTo(dueEmails);
+
+        verify(outboxRepository).claimByIds(
+                eq(Arrays.asList(10L, 11L)),
+                eq(OutboxStatus.SENDING.getValue()),
+                eq("node-a"),
+                eq(LEASE_EXPIRES_AT),
+                any(LocalDateTime.class));
+        verify(outboxRepository, never()).findDueBySendJobIdForUpdateSkipLocked(anyLong(), anyList(), any(), anyInt());
+    }
+
+    @Test
+    void clusterClaimsSkipTheLockedEmails() {
+        when(clusterService.isEnabled()).thenReturn(true);
+        when(outboxRepository.findDueBySendJobIdForUpdateSkipLocked(
+                eq(1L), eq(DUE_STATUSES), any(LocalDateTime.class), eq(5)))
+                .thenReturn(Collections.singletonList(OutboxEntity.builder().id(10L).sendJobId(1L).build()));
+
+        assertThat(outboxService.claimDueEmails(1L, 5)).hasSize(1);
+
+        verify(outboxRepository).claimByIds(
+                eq(Collections.singletonList(10L)),
+                eq(OutboxStatus.SENDING.getValue()),
+                eq("node-a"),
+                eq(LEASE_EXPIRES_AT),
+                any(LocalDateTime.class));
+    }
+
+    @Test
+    void nothingIsClaimedWithoutDueEmails() {
+        when(outboxRepository.findAllBySendJobIdAndStatusInAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(
+                anyLong(), anyCollection(), any(), any()))
+                .thenReturn(Collections.emptyList());
+
+        assertThat(outboxService.claimDueEmails(1L, 5)).isEmpty();
+
+        verify(outboxRepository, never()).claimByIds(anyCollection(), anyLong(), anyString(), any(), any());
+    }
+
+    @Test
+    void failedEmailsKeepTheirError() {
+        outboxService.markFailed(Arrays.asList(10L, 11L), "Mailbox unavailable");
+
+        verify(outboxRepository).updateStatusByIds(
+                eq(Arrays.asList(10L, 11L)),
+                eq(OutboxStatus.FAILED.getValue()),
+                eq("Mailbox unavailable"),
+                any(LocalDateTime.class));
+    }
+
+    @Test
+    void releasedEmailsArePendingAgainUnlessTheyWereFinished() {
+        outboxService.releaseEmails(Arrays.asList(10L, 11L));
+
+        /* Only the emails, which are still claimed, an email finished in the meantime stays as it is. */
+        verify(outboxRepository).updateStatusByIdsAndStatusIn(
+                eq(Arrays.asList(10L, 11L)),
+                eq(Collections.singletonList(OutboxStatus.SENDING.getValue())),
+                eq(OutboxStatus.PENDING.getValue()),
+                any(LocalDateTime.class));
+    }
+
+    @Test
+    void emptyUpdatesDoNotReachTheDatabase() {
+        outboxService.markFailed(Collections.emptyList(), "Mailbox unavailable");
+        outboxService.releaseEmails(Collections.emptyList());
+
+        verifyNoInteractions(outboxRepository);
+    }
+
+    @Test
+    void expiredLeasesArePendingAgain() {
+        when(outboxRepository.releaseExpiredLeases(
+                eq(OutboxStatus.SENDING.getValue()), eq(OutboxStatus.PENDING.getValue()), any(LocalDateTime.class)))
+                .thenReturn(3);
+
+        assertThat(outboxService.releaseExpiredLeases()).isEqualTo(3);
+    }
+
+    @Test
+    void expiredEmailsAreDeletedOncePerIntervalOnTheLeader() {
+        outboxConfiguration.setCleanupBatchSize(100);
+        when(clusterService.isLeader()).thenReturn(true);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(10);
+
+        outboxService.deleteExpiredEmailsIfDue();
+        outboxService.deleteExpiredEmailsIfDue();
+
+        verify(jdbcTemplate, times(1)).update(
+                startsWith("DELETE FROM outbox WHERE status IN (?, ?) AND updated_at < ?"), any(Object[].class));
+    }
+
+    @Test
+    void fullBatchOfExpiredEmailsIsFollowedRightAway() {
+        outboxConfiguration.setCleanupBatchSize(10);
+        when(clusterService.isLeader()).thenReturn(true);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(10, 10, 4);
+
+        for (int i = 0; i < 5; i++) {
+            outboxService.deleteExpiredEmailsIfDue();
+        }
+
+        /* Until a batch was not full, the rest waits for the interval. */
+        verify(jdbcTemplate, times(3)).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void expiredEmailsAreOnlyDeletedByTheLeader() {
+        outboxService.deleteExpiredEmailsIfDue();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    private static Recipient createRecipient(String email, Map<String, String> placeholders) {
+        final Recipient recipient = new Recipient();
+
+        recipient.setEmail(email);
+        recipient.setPlaceholders(placeholders);
+
+        return recipient;
+    }
+}
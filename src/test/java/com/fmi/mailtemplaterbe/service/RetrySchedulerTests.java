@@ -0,0 +1,104 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.RetryConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RetrySchedulerTests {
+
+    private RetryConfiguration retryConfiguration;
+    private RetryScheduler retryScheduler;
+
+    @BeforeEach
+    void setUp() {
+        retryConfiguration = new RetryConfiguration();
+        retryConfiguration.setInitialBackoff(1000);
+        retryConfiguration.setMaxBackoff(10000);
+        retryConfiguration.setMultiplier(2);
+        retryConfiguration.setJitter(0.2);
+        retryConfiguration.setTickDuration(10);
+        retryScheduler = new RetryScheduler(retryConfiguration);
+        retryScheduler.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        retryScheduler.stop();
+    }
+
+    @Test
+    void backoffGrowsExponentiallyWithinTheJitter() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(retryScheduler.getBackoff(1)).isBetween(800L, 1200L);
+            assertThat(retryScheduler.getBackoff(2)).isBetween(1600L, 2400L);
+            assertThat(retryScheduler.getBackoff(3)).isBetween(3200L, 4800L);
+        }
+    }
+
+    @Test
+    void backoffIsCappedAtTheMaxBackoff() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(retryScheduler.getBackoff(10)).isBetween(8000L, 12000L);
+            assertThat(retryScheduler.getBackoff(1000)).isBetween(8000L, 12000L);
+        }
+    }
+
+    @Test
+    void backoffWithoutJitterIsExact() {
+        retryConfiguration.setJitter(0);
+
+        assertThat(retryScheduler.getBackoff(0)).isEqualTo(1000);
+        assertThat(retryScheduler.getBackoff(1)).isEqualTo(1000);
+        assertThat(retryScheduler.getBackoff(4)).isEqualTo(8000);
+        assertThat(retryScheduler.getBackoff(5)).isEqualTo(10000);
+    }
+
+    @Test
+    void jitterSpreadsTheBackoffInBothDirections() {
+        double sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (int i = 0; i < 10000; i++) {
+            final long backoff = retryScheduler.getBackoff(1);
+
+            sum += backoff;
+            min = Math.min(min, backoff);
+            max = Math.max(max, backoff);
+        }
+
+        assertThat(sum / 10000).isCloseTo(1000, within(20d));
+        assertThat(min).isLessThan(900);
+        assertThat(max).isGreaterThan(1100);
+    }
+
+    @Test
+    void retriesAreLimitedByTheMaxAttempts() {
+        retryConfiguration.setMaxAttempts(3);
+
+        assertThat(retryScheduler.canRetry(1)).isTrue();
+        assertThat(retryScheduler.canRetry(2)).isTrue();
+        assertThat(retryScheduler.canRetry(3)).isFalse();
+    }
+
+    @Test
+    void retryRunsAfterTheBackoff() throws Exception {
+        retryConfiguration.setInitialBackoff(100);
+        retryConfiguration.setJitter(0);
+
+        final CountDownLatch retried = new CountDownLatch(1);
+        final long startNanos = System.nanoTime();
+
+        retryScheduler.schedule(1, retried::countDown);
+
+        assertThat(retried.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(System.nanoTime() - startNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+}
@@ -0,0 +1,172 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.domain.entity.SendJobEntity;
+import com.fmi.mailtemplaterbe.domain.enums.SendJobStatus;
+import com.fmi.mailtemplaterbe.domain.model.SendJobContext;
+import com.fmi.mailtemplaterbe.domain.resource.SendJobResource;
+import com.fmi.mailtemplaterbe.exception.CustomBadRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SendJobControlServiceTests {
+
+    private static final Long SEND_JOB_ID = 7L;
+
+    private SendJobService sendJobService;
+    private OutboxService outboxService;
+    private OutboxDispatcher outboxDispatcher;
+    private SmtpConnectionPool smtpConnectionPool;
+    private SendJobControlService sendJobControlService;
+    private final List<SendJobContext> sendJobContexts = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        sendJobService = mock(SendJobService.class);
+        outboxService = mock(OutboxService.class);
+        outboxDispatcher = mock(OutboxDispatcher.class);
+        smtpConnectionPool = mock(SmtpConnectionPool.class);
+        sendJobControlService =
+                new SendJobControlService(sendJobService, outboxService, outboxDispatcher, smtpConnectionPool);
+
+        when(sendJobService.getSendJobById(SEND_JOB_ID)).thenReturn(SendJobResource.builder().id(SEND_JOB_ID).build());
+        when(outboxDispatcher.getSendJobContexts()).thenReturn(sendJobContexts);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = SendJobStatus.class, names = {"QUEUED", "RUNNING", "SCHEDULED"})
+    void unfinishedSendJobIsPaused(SendJobStatus status) {
+        final SendJobContext context = givenSendJob(status, false);
+
+        assertThat(sendJobControlService.pauseSendJob(SEND_JOB_ID).getId()).isEqualTo(SEND_JOB_ID);
+
+        verify(sendJobService).pauseSendJob(SEND_JOB_ID);
+        assertThat(context.isPaused()).isTrue();
+        verify(smtpConnectionPool).closeIdle("smtp", "sender@example.com");
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = SendJobStatus.class, names = {"PAUSED", "COMPLETED", "FAILED", "CANCELLED"})
+    void pausedOrFinishedSendJobCannotBePaused(SendJobStatus status) {
+        givenSendJob(status, false);
+
+        assertThatThrownBy(() -> sendJobControlService.pauseSendJob(SEND_JOB_ID))
+                .isInstanceOf(CustomBadRequestException.class)
+                .hasMessageContaining("cannot be paused");
+        verify(sendJobService, never()).pauseSendJob(anyLong());
+    }
+
+    @Test
+    void connectionsStayOpenWhileAnotherJobSendsWithTheSameAccount() {
+        givenSendJob(SendJobStatus.RUNNING, false);
+        sendJobContexts.add(createContext(SEND_JOB_ID + 1, false));
+
+        sendJobControlService.pauseSendJob(SEND_JOB_ID);
+
+        verify(smtpConnectionPool, never()).closeIdle(anyString(), anyString());
+    }
+
+    @Test
+    void pausedSendJobIsResumed() {
+        final SendJobContext context = givenSendJob(SendJobStatus.PAUSED, false);
+
+        context.pause();
+        sendJobControlService.resumeSendJob(SEND_JOB_ID);
+
+        verify(sendJobService).unpauseSendJob(SEND_JOB_ID);
+        assertThat(context.isPaused()).isFalse();
+        verify(outboxDispatcher).wakeUp();
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = SendJobStatus.class, names = {"PAUSED"}, mode = EnumSource.Mode.EXCLUDE)
+    void onlyPausedSendJobCanBeResumed(SendJobStatus status) {
+        givenSendJob(status, false);
+
+        assertThatThrownBy(() -> sendJobControlService.resumeSendJob(SEND_JOB_ID))
+                .isInstanceOf(CustomBadRequestException.class)
+                .hasMessageContaining("cannot be resumed");
+        verify(sendJobService, never()).unpauseSendJob(anyLong());
+        verify(outboxDispatcher, never()).wakeUp();
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = SendJobStatus.class, names = {"QUEUED", "RUNNING", "SCHEDULED", "PAUSED"})
+    void sendJobOfThisInstanceIsCancelledThroughItsContext(SendJobStatus status) {
+        final SendJobContext context = givenSendJob(status, false);
+
+        sendJobControlService.cancelSendJob(SEND_JOB_ID);
+
+        verify(sendJobService).cancelSendJob(SEND_JOB_ID, SendJobControlService.SEND_JOB_CANCELLED_ERROR);
+        assertThat(context.isAborted()).isTrue();
+        /* The context fails the unsent emails and finishes the job. */
+        verify(outboxService, never()).failUnfinishedEmails(anyLong(), anyString());
+        verify(sendJobService, never()).finishSendJob(anyLong(), anyString());
+    }
+
+    @Test
+    void sendJobWithoutContextIsFinishedRightAway() {
+        givenSendJob(SendJobStatus.PAUSED, false);
+        when(outboxDispatcher.getSendJobContext(SEND_JOB_ID)).thenReturn(null);
+
+        sendJobControlService.cancelSendJob(SEND_JOB_ID);
+
+        verify(outboxService).failUnfinishedEmails(SEND_JOB_ID, SendJobControlService.SEND_JOB_CANCELLED_ERROR);
+        verify(sendJobService).finishSendJob(SEND_JOB_ID, SendJobControlService.SEND_JOB_CANCELLED_ERROR);
+    }
+
+    @Test
+    void sendJobOfAnotherInstanceIsFinishedRightAway() {
+        final SendJobContext context = givenSendJob(SendJobStatus.RUNNING, true);
+
+        sendJobControlService.cancelSendJob(SEND_JOB_ID);
+
+        assertThat(context.isAborted()).isTrue();
+        verify(outboxService).failUnfinishedEmails(SEND_JOB_ID, SendJobControlService.SEND_JOB_CANCELLED_ERROR);
+        verify(sendJobService).finishSendJob(SEND_JOB_ID, SendJobControlService.SEND_JOB_CANCELLED_ERROR);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = SendJobStatus.class, names = {"COMPLETED", "FAILED", "CANCELLED"})
+    void finishedSendJobCannotBeCancelled(SendJobStatus status) {
+        givenSendJob(status, false);
+
+        assertThatThrownBy(() -> sendJobControlService.cancelSendJob(SEND_JOB_ID))
+                .isInstanceOf(CustomBadRequestException.class)
+                .hasMessageContaining("cannot be cancelled");
+        verify(sendJobService, never()).cancelSendJob(anyLong(), anyString());
+    }
+
+    private SendJobContext givenSendJob(SendJobStatus status, boolean remote) {
+        final SendJobContext context = createContext(SEND_JOB_ID, remote);
+
+        when(sendJobService.getSendJobEntityById(SEND_JOB_ID))
+                .thenReturn(SendJobEntity.builder().id(SEND_JOB_ID).status(status.getValue()).build());
+        when(outboxDispatcher.getSendJobContext(SEND_JOB_ID)).thenReturn(context);
+        sendJobContexts.add(context);
+
+        return context;
+    }
+
+    private static SendJobContext createContext(Long sendJobId, boolean remote) {
+        return SendJobContext.builder()
+                .sendJobId(sendJobId)
+                .smtpServerName("smtp")
+                .username("sender@example.com")
+                .remote(remote)
+                .build();
+    }
+}
@@ -0,0 +1,165 @@
+package com.fmi.mailtemplaterbe.service;
+
+import com.fmi.mailtemplaterbe.config.SmtpConfiguration;
+import com.fmi.mailtemplaterbe.domain.model.SmtpServerDescriptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SmtpConnectionPoolTests {
+
+    private static final String SMTP_SERVER_NAME = "fake";
+    private static final String USERNAME = "sender@example.com";
+    private static final String PASSWORD = "secret";
+
+    private FakeSmtpServer smtpServer;
+    private SmtpConfiguration smtpConfiguration;
+    private Session session;
+    private SmtpConnectionPool smtpConnectionPool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        smtpConnectionPool.closeAll();
+        smtpServer.close();
+    }
+
+    @Test
+    void releasedConnectionIsReused() throws Exception {
+        startSmtpServer(0);
+
+        for (int i = 0; i < 5; i++) {
+            final SmtpConnectionPool.PooledTransport pooledTransport = borrow();
+
+            try {
+                smtpConnectionPool.send(pooledTransport, createMessage(i));
+            } finally {
+                smtpConnectionPool.release(pooledTransport);
+            }
+        }
+
+        assertThat(smtpServer.getArrivalsCount()).isEqualTo(5);
+        assertThat(smtpServer.getAcceptedConnections()).isEqualTo(1);
+        assertThat(smtpConnectionPool.getBorrowedCount()).isZero();
+        assertThat(smtpConnectionPool.getIdleCount()).isEqualTo(1);
+    }
+
+    @Test
+    void connectionIsReconnectedAfter421() throws Exception {
+        startSmtpServer(0);
+
+        final SmtpConnectionPool.PooledTransport firstTransport = borrow();
+
+        smtpConnectionPool.send(firstTransport, createMessage(0));
+        smtpConnectionPool.release(firstTransport);
+
+        /* The idle connection is dropped by the server, the pool only notices it on the next message. */
+        smtpServer.closeOpenSessionsOnNextCommand();
+
+        final SmtpConnectionPool.PooledTransport secondTransport = borrow();
+
+        assertThat(secondTransport).isSameAs(firstTransport);
+
+        smtpConnectionPool.send(secondTransport, createMessage(1));
+        smtpConnectionPool.release(secondTransport);
+
+        assertThat(smtpServer.getArrivalsCount()).isEqualTo(2);
+        assertThat(smtpServer.getAcceptedConnections()).isEqualTo(2);
+        assertThat(smtpConnectionPool.getIdleCount()).isEqualTo(1);
+    }
+
+    @Test
+    void idleConnectionsAboveTheLimitAreClosed() throws Exception {
+        startSmtpServer(0);
+
+        final int maxIdlePerKey = smtpConfiguration.getPool().getMaxIdlePerKey();
+        final List<SmtpConnectionPool.PooledTransport> pooledTransports = new ArrayList<>();
+
+        for (int i = 0; i < maxIdlePerKey + 2; i++) {
+            pooledTransports.add(borrow());
+        }
+
+        assertThat(smtpConnectionPool.getBorrowedCount()).isEqualTo(maxIdlePerKey + 2);
+
+        pooledTransports.forEach(smtpConnectionPool::release);
+
+        assertThat(smtpConnectionPool.getBorrowedCount()).isZero();
+        assertThat(smtpConnectionPool.getIdleCount()).isEqualTo(maxIdlePerKey);
+
+        smtpConnectionPool.closeIdle(SMTP_SERVER_NAME, USERNAME);
+
+        assertThat(smtpConnectionPool.getIdleCount()).isZero();
+    }
+
+    @Test
+    void rejectedMessageKeepsTheConnection() throws Exception {
+        startSmtpServer(1);
+
+        for (int i = 0; i < 3; i++) {
+            final SmtpConnectionPool.PooledTransport pooledTransport = borrow();
+
+            try {
+                smtpConnectionPool.send(pooledTransport, createMessage(i));
+            } catch (MessagingException e) {
+                /* Expected, every message is rejected with 550. */
+            } finally {
+                smtpConnectionPool.release(pooledTransport);
+            }
+        }
+
+        assertThat(smtpServer.getPermanentFailures()).isEqualTo(3);
+        assertThat(smtpServer.getAcceptedConnections()).isEqualTo(1);
+    }
+
+    /* Each test starts its own server, so that the connection counts are not shared. */
+    private void startSmtpServer(double permanentFailureRate) throws Exception {
+        smtpServer = new FakeSmtpServer(0, 0, permanentFailureRate, 0, null);
+        smtpServer.start();
+
+        final Properties properties = new Properties();
+
+        properties.put("mail.smtp.host", smtpServer.getHost());
+        properties.put("mail.smtp.port", String.valueOf(smtpServer.getPort()));
+        properties.put("mail.smtp.auth", "true");
+        properties.put("mail.smtp.timeout", "10000");
+        properties.put("mail.smtp.connectiontimeout", "10000");
+        session = Session.getInstance(properties);
+
+        final SmtpService smtpService = mock(SmtpService.class);
+        final SmtpServerDescriptor descriptor =
+                new SmtpServerDescriptor(SMTP_SERVER_NAME, new SmtpConfiguration.SmtpServer(), properties, session);
+
+        when(smtpService.getSmtpServerDescriptor(anyString())).thenReturn(descriptor);
+        when(smtpService.createSMTPSession(anyString(), anyString(), anyString())).thenReturn(session);
+
+        smtpConfiguration = new SmtpConfiguration();
+        smtpConnectionPool = new SmtpConnectionPool(smtpConfiguration, smtpService);
+    }
+
+    private SmtpConnectionPool.PooledTransport borrow() throws MessagingException {
+        return smtpConnectionPool.borrow(SMTP_SERVER_NAME, USERNAME, PASSWORD);
+    }
+
+    private MimeMessage createMessage(int index) throws MessagingException {
+        final MimeMessage message = new MimeMessage(session);
+
+        message.setFrom(new InternetAddress(USERNAME));
+        message.setRecipients(Message.RecipientType.TO, "recipient" + index + "@example.com");
+        message.setSubject("Message " + index);
+        message.setText("Hello recipient " + index);
+
+        return message;
+    }
+}
@@ -0,0 +1,165 @@
+package com.fmi.mailtemplaterbe.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class CircuitBreakerTests {
+
+    private static final long LONG_OPEN_DURATION = 60000;
+    private static final long SHORT_OPEN_DURATION = 50;
+
+    @Test
+    void breakerStaysClosedBelowTheMinimumCalls() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(10, 5, 0.5, LONG_OPEN_DURATION, 1);
+
+        for (int i = 0; i < 4; i++) {
+            call(circuitBreaker, false);
+        }
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.getFailureRate()).isEqualTo(1);
+    }
+
+    @Test
+    void breakerOpensAtTheFailureRateThreshold() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(10, 4, 0.5, LONG_OPEN_DURATION, 1);
+
+        call(circuitBreaker, true);
+        call(circuitBreaker, true);
+        call(circuitBreaker, false);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        call(circuitBreaker, false);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.getOpenUntilMillis()).isGreaterThan(System.currentTimeMillis());
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+        assertThat(circuitBreaker.isAvailable()).isFalse();
+    }
+
+    @Test
+    void oldCallsSlideOutOfTheWindow() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(4, 4, 0.5, LONG_OPEN_DURATION, 1);
+
+        call(circuitBreaker, false);
+        call(circuitBreaker, true);
+        call(circuitBreaker, true);
+        call(circuitBreaker, true);
+
+        assertThat(circuitBreaker.getFailureRate()).isEqualTo(0.25);
+
+        /* Replaces the failure of the first call. */
+        call(circuitBreaker, true);
+
+        assertThat(circuitBreaker.getFailureRate()).isZero();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.getTotalCalls()).isEqualTo(5);
+        assertThat(circuitBreaker.getTotalFailures()).isEqualTo(1);
+    }
+
+    @Test
+    void openBreakerIsHalfOpenAfterTheOpenDuration() throws Exception {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(10, 1, 0.5, SHORT_OPEN_DURATION, 2);
+
+        call(circuitBreaker, false);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        Thread.sleep(SHORT_OPEN_DURATION * 2);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.getOpenUntilMillis()).isZero();
+        assertThat(circuitBreaker.isAvailable()).isTrue();
+    }
+
+    @Test
+    void halfOpenBreakerClosesWhenAllProbesSucceed() throws Exception {
+        final CircuitBreaker circuitBreaker = openAndExpire(2);
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        /* Only the probes pass. */
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+        assertThat(circuitBreaker.isAvailable()).isFalse();
+
+        circuitBreaker.onSuccess(10);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        circuitBreaker.onSuccess(10);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.getFailureRate()).isZero();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void halfOpenBreakerOpensAgainOnAFailedProbe() throws Exception {
+        final CircuitBreaker circuitBreaker = openAndExpire(2);
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+
+        circuitBreaker.onFailure(10);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void ignoredProbeFreesItsSlot() throws Exception {
+        final CircuitBreaker circuitBreaker = openAndExpire(1);
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+
+        circuitBreaker.onIgnored();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void forceOpenOpensAClosedBreaker() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(10, 5, 0.5, LONG_OPEN_DURATION, 1);
+
+        circuitBreaker.forceOpen();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void latencyIsAMovingAverage() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(10, 5, 0.5, LONG_OPEN_DURATION, 1);
+
+        assertThat(circuitBreaker.getAverageLatencyMillis()).isEqualTo(-1);
+
+        circuitBreaker.onSuccess(100);
+        circuitBreaker.onSuccess(200);
+
+        assertThat(circuitBreaker.getAverageLatencyMillis()).isCloseTo(120, within(0.001));
+    }
+
+    /* A breaker, which was opened and whose open duration has already passed. */
+    private static CircuitBreaker openAndExpire(int halfOpenProbes) throws InterruptedException {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(10, 1, 0.5, SHORT_OPEN_DURATION, halfOpenProbes);
+
+        circuitBreaker.forceOpen();
+        Thread.sleep(SHORT_OPEN_DURATION * 2);
+
+        return circuitBreaker;
+    }
+
+    private static void call(CircuitBreaker circuitBreaker, boolean success) {
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+
+        if (success) {
+            circuitBreaker.onSuccess(10);
+        } else {
+            circuitBreaker.onFailure(10);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.fmi.mailtemplaterbe.util;
+
+import com.fmi.mailtemplaterbe.config.CorsConfiguration;
+import org.apache.commons.text.StringSubstitutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompiledTemplateTests {
+
+    private static final String PREFIX = "%(";
+    private static final String SUFFIX = ")";
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "No placeholders at all.",
+            "Hello %(name), come to my party on %(day)!",
+            "%(name)%(day)",
+            "%(name)%(name)%(name)",
+            "Hello %(unknown)!",
+            "Hello %(name) and %(unknown), %(unknown)!",
+            "Escaped $%(name) and $$%(name).",
+            "Trailing escape $",
+            "Unterminated %(name",
+            "Unterminated %(",
+            "Empty %() placeholder",
+            "Default %(unknown:-stranger) and %(name:-stranger)",
+            "Empty default %(unknown:-)",
+            "Nested %(%(name))",
+            "Closing ) without opening",
+            "Value with the prefix %(withPrefix) and %(withPlaceholder)",
+            "Value with the escape %(withEscape)%(name)",
+            "Value with the suffix %(withSuffix)."
+    })
+    void renderMatchesStringSubstitutor(String template) {
+        assertRendersLikeStringSubstitutor(template, PREFIX, SUFFIX, createPlaceholders());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "Hello ${name}, come to my party on ${day}!",
+            "${name}${day}",
+            "Hello ${unknown}!",
+            "Escaped $${name} and $$${name}.",
+            "Unterminated ${name",
+            "Unterminated ${",
+            "Default ${unknown:-stranger}",
+            "Value with a placeholder ${withDollarPlaceholder}",
+            "Value with the escape ${withEscape}${name}"
+    })
+    void renderMatchesStringSubstitutorWithDefaultDelimiters(String template) {
+        assertRendersLikeStringSubstitutor(
+                template,
+                StringSubstitutor.DEFAULT_VAR_START,
+                StringSubstitutor.DEFAULT_VAR_END,
+                createPlaceholders());
+    }
+
+    @Test
+    void renderMatchesStringSubstitutorWithoutPlaceholders() {
+        final String template = "Hello %(name), %(unknown:-stranger)!";
+
+        assertRendersLikeStringSubstitutor(template, PREFIX, SUFFIX, null);
+        assertRendersLikeStringSubstitutor(template, PREFIX, SUFFIX, Collections.emptyMap());
+    }
+
+    @Test
+    void nullTemplateIsRenderedAsNull() {
+        final CompiledTemplate compiledTemplate = CompiledTemplate.compile(null, PREFIX, SUFFIX);
+
+        assertThat(compiledTemplate.render(createPlaceholders())).isNull();
+        assertThat(compiledTemplate.getRenderedLength(createPlaceholders())).isZero();
+    }
+
+    @Test
+    void missingPlaceholdersAreReportedInTheOrderOfTheTemplate() {
+        final CompiledTemplate compiledTemplate = CompiledTemplate.compile(
+                "%(b) %(name) %(a:-default) %(c) %(b)", PREFIX, SUFFIX);
+
+        assertThat(compiledTemplate.getSlotCount()).isEqualTo(5);
+        assertThat(compiledTemplate.getMissingPlaceholders(createPlaceholders())).containsExactly("b", "c", "b");
+        assertThat(compiledTemplate.getMissingPlaceholders(null)).containsExactly("b", "name", "c", "b");
+    }
+
+    @Test
+    void confirmationAppLinkPrefixMatchesTheFullLink() {
+        final EmailMessageUtil emailMessageUtil = createEmailMessageUtil("http://localhost:4200/confirm");
+
+        for (String subject : Arrays.asList("Party", "Party on friday", "Ünïcode & co")) {
+            final String prefix = emailMessageUtil.buildConfirmationAppLinkPrefix(subject);
+
+            for (boolean isHtml : new boolean[]{false, true}) {
+                assertThat(emailMessageUtil.appendConfirmationAppLink(
+                        prefix, subject, "Hello john!", "john@example.com", "token-1", isHtml))
+                        .isEqualTo(emailMessageUtil.appendConfirmationAppLink(
+                                subject, "Hello john!", "john@example.com", "token-1", isHtml));
+            }
+        }
+    }
+
+    @Test
+    void confirmationAppLinkWithFragmentIsNotPrefixed() {
+        final EmailMessageUtil emailMessageUtil = createEmailMessageUtil("http://localhost:4200/#/confirm");
+
+        assertThat(emailMessageUtil.buildConfirmationAppLinkPrefix("Party")).isNull();
+        assertThat(emailMessageUtil.appendConfirmationAppLink(
+                null, "Party", "Hello john!", "john@example.com", "token-1", false))
+                .isEqualTo(emailMessageUtil.appendConfirmationAppLink(
+                        "Party", "Hello john!", "john@example.com", "token-1", false));
+    }
+
+    @Test
+    void compiledEmailMessageMatchesTheBuiltOne() {
+        final EmailMessageUtil emailMessageUtil = createEmailMessageUtil("http://localhost:4200/confirm");
+        final String template = "Hello %(name), come to my party on %(day)! $%(name) %(withPlaceholder)";
+
+        assertThat(emailMessageUtil.compileEmailMessage(template, PREFIX, SUFFIX).render(createPlaceholders()))
+                .isEqualTo(emailMessageUtil.buildEmailMessage(template, createPlaceholders(), PREFIX, SUFFIX));
+    }
+
+    private static void assertRendersLikeStringSubstitutor(
+            String template, String prefix, String suffix, Map<String, String> placeholders) {
+        final String expected = new StringSubstitutor(placeholders, prefix, suffix).replace(template);
+        final CompiledTemplate compiledTemplate = CompiledTemplate.compile(template, prefix, suffix);
+
+        assertThat(compiledTemplate.render(placeholders)).isEqualTo(expected);
+        assertThat(compiledTemplate.getRenderedLength(placeholders)).isEqualTo(expected.length());
+    }
+
+    private static Map<String, String> createPlaceholders() {
+        final Map<String, String> placeholders = new HashMap<>();
+
+        placeholders.put("name", "john");
+        placeholders.put("day", "friday");
+        placeholders.put("withPrefix", "50%( off");
+        placeholders.put("withPlaceholder", "%(name) is %(day)");
+        placeholders.put("withDollarPlaceholder", "${name} is ${day}");
+        placeholders.put("withEscape", "costs 5$");
+        placeholders.put("withSuffix", "(see above)");
+
+        return placeholders;
+    }
+
+    private static EmailMessageUtil createEmailMessageUtil(String clientFeApp) {
+        final CorsConfiguration corsConfiguration = new CorsConfiguration();
+
+        corsConfiguration.setAllowedOrigins(Collections.singletonList(clientFeApp));
+        corsConfiguration.setClientFeApp(clientFeApp);
+
+        return new EmailMessageUtil(corsConfiguration);
+    }
+}
@@ -0,0 +1,105 @@
+package com.fmi.mailtemplaterbe.util;
+
+import com.fmi.mailtemplaterbe.domain.resource.ScheduleResource;
+import com.fmi.mailtemplaterbe.exception.CustomBadRequestException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeliveryScheduleTests {
+
+    private static final LocalDateTime SEND_AT = LocalDateTime.of(2026, 11, 20, 9, 0);
+
+    @Test
+    void noScheduleMeansRightAway() {
+        assertThat(DeliverySchedule.of(null)).isNull();
+    }
+
+    @Test
+    void scheduleWithoutTimeZoneIsInTheTimeZoneOfTheServer() {
+        final DeliverySchedule deliverySchedule = DeliverySchedule.of(new ScheduleResource(SEND_AT, null, null));
+
+        assertThat(deliverySchedule.getDefaultSendAt()).isEqualTo(SEND_AT);
+        assertThat(deliverySchedule.getSendAt(placeholders("Asia/Tokyo"))).isEqualTo(SEND_AT);
+    }
+
+    @Test
+    void scheduleIsConvertedFromItsTimeZone() {
+        final DeliverySchedule deliverySchedule =
+                DeliverySchedule.of(new ScheduleResource(SEND_AT, "America/New_York", false));
+
+        /* 9:00 in New York is 14:00 UTC in November. */
+        assertThat(toInstant(deliverySchedule.getDefaultSendAt())).isEqualTo(Instant.parse("2026-11-20T14:00:00Z"));
+    }
+
+    @Test
+    void recipientsGetTheEmailAtTheTimeOfTheirTimeZone() {
+        final DeliverySchedule deliverySchedule = DeliverySchedule.of(new ScheduleResource(SEND_AT, "UTC", true));
+
+        assertThat(toInstant(deliverySchedule.getSendAt(placeholders("Europe/Sofia"))))
+                .isEqualTo(Instant.parse("2026-11-20T07:00:00Z"));
+        assertThat(toInstant(deliverySchedule.getSendAt(placeholders(" Asia/Tokyo "))))
+                .isEqualTo(Instant.parse("2026-11-20T00:00:00Z"));
+        assertThat(toInstant(deliverySchedule.getSendAt(placeholders("America/Los_Angeles"))))
+                .isEqualTo(Instant.parse("2026-11-20T17:00:00Z"));
+    }
+
+    @Test
+    void recipientsWithoutTimeZoneUseTheTimeZoneOfTheSchedule() {
+        final DeliverySchedule deliverySchedule = DeliverySchedule.of(new ScheduleResource(SEND_AT, "UTC", true));
+        final Instant expected = Instant.parse("2026-11-20T09:00:00Z");
+
+        assertThat(toInstant(deliverySchedule.getSendAt(null))).isEqualTo(expected);
+        assertThat(toInstant(deliverySchedule.getSendAt(Collections.emptyMap()))).isEqualTo(expected);
+        assertThat(toInstant(deliverySchedule.getSendAt(placeholders(" ")))).isEqualTo(expected);
+    }
+
+    @Test
+    void timeZoneOfTheRecipientIsIgnoredWithoutRecipientLocalTime() {
+        final DeliverySchedule deliverySchedule = DeliverySchedule.of(new ScheduleResource(SEND_AT, "UTC", null));
+
+        assertThat(deliverySchedule.getSendAt(placeholders("Asia/Tokyo"))).isEqualTo(deliverySchedule.getDefaultSendAt());
+    }
+
+    @Test
+    void timeInTheDaylightSavingGapIsMovedForward() {
+        /* The clocks in Sofia jump from 3:00 to 4:00 on 29 March 2026, so 3:30 is 4:30 summer time. */
+        final DeliverySchedule deliverySchedule = DeliverySchedule.of(
+                new ScheduleResource(LocalDateTime.of(2026, 3, 29, 3, 30), "Europe/Sofia", false));
+
+        assertThat(toInstant(deliverySchedule.getDefaultSendAt())).isEqualTo(Instant.parse("2026-03-29T01:30:00Z"));
+    }
+
+    @Test
+    void invalidTimeZoneIsRejected() {
+        assertThatThrownBy(() -> DeliverySchedule.of(new ScheduleResource(SEND_AT, "Mars/Olympus", false)))
+                .isInstanceOf(CustomBadRequestException.class);
+
+        final DeliverySchedule deliverySchedule = DeliverySchedule.of(new ScheduleResource(SEND_AT, "UTC", true));
+
+        assertThatThrownBy(() -> deliverySchedule.getSendAt(placeholders("GMT+25")))
+                .isInstanceOf(CustomBadRequestException.class);
+    }
+
+    private static Map<String, String> placeholders(String timezone) {
+        final Map<String, String> placeholders = new HashMap<>();
+
+        placeholders.put("name", "john");
+        placeholders.put(DeliverySchedule.TIMEZONE_PLACEHOLDER, timezone);
+
+        return placeholders;
+    }
+
+    /* The times of the schedule are in the time zone of the server, which differs between machines. */
+    private static Instant toInstant(LocalDateTime serverTime) {
+        return serverTime.atZone(ZoneId.systemDefault()).toInstant();
+    }
+}
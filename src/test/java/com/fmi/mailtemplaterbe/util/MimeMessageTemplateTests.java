@@ -0,0 +1,159 @@
+package com.fmi.mailtemplaterbe.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MimeMessageTemplateTests {
+
+    private static final String SENDER = "Mail Templater <sender@example.com>";
+    private static final String RECIPIENT = "recipient@example.com";
+
+    private final Session session = Session.getInstance(new Properties());
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "Hello john,\nsee you on friday!",
+            "Здравейте, Иван!\nЩе се видим в петък.",
+            "Grüße aus München, bis Freitag.",
+            "Emoji 😀 and a tab\t and a dot line\n.\nend",
+            ""
+    })
+    void plainTextMessageMatchesPlainMimeMessage(String content) throws Exception {
+        final String subject = "Party on friday";
+
+        assertSameMessage(
+                MimeMessageTemplate.create(SENDER, subject, false).createMessage(session, RECIPIENT, content),
+                createPlainMessage(subject, content, false));
+    }
+
+    @Test
+    void htmlMessageMatchesPlainMimeMessage() throws Exception {
+        final String subject = "Покана за парти";
+        final String content = "<p>Hello <b>john</b>,</p><p>see you on friday!</p>";
+
+        assertSameMessage(
+                MimeMessageTemplate.create(SENDER, subject, true).createMessage(session, RECIPIENT, content),
+                createPlainMessage(subject, content, true));
+    }
+
+    @Test
+    void longLineIsNotSentAs7bit() throws Exception {
+        final StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < 1200; i++) {
+            content.append('a');
+        }
+
+        final MimeMessage message =
+                MimeMessageTemplate.create(SENDER, "Long", false).createMessage(session, RECIPIENT, content.toString());
+
+        assertThat(parse(message).getEncoding()).isEqualTo("quoted-printable");
+        assertSameMessage(message, createPlainMessage("Long", content.toString(), false));
+    }
+
+    @Test
+    void transferEncodingIsTheCheapestOne() throws Exception {
+        final MimeMessageTemplate template = MimeMessageTemplate.create(SENDER, "Encoding", false);
+
+        assertThat(parse(template.createMessage(session, RECIPIENT, "Only ASCII")).getEncoding()).isEqualTo("7bit");
+        assertThat(parse(template.createMessage(session, RECIPIENT, "Mostly ASCII with ü")).getEncoding())
+                .isEqualTo("quoted-printable");
+        assertThat(parse(template.createMessage(session, RECIPIENT, "Почти само кирилица")).getEncoding())
+                .isEqualTo("base64");
+    }
+
+    @Test
+    void eachMessageGetsItsOwnMessageId() throws Exception {
+        final MimeMessageTemplate template = MimeMessageTemplate.create(SENDER, "Ids", false);
+        final MimeMessage first = parse(template.createMessage(session, RECIPIENT, "First"));
+        final MimeMessage second = parse(template.createMessage(session, RECIPIENT, "Second"));
+
+        assertThat(first.getMessageID()).endsWith("@example.com>").isNotEqualTo(second.getMessageID());
+        assertThat(first.getSentDate()).isNotNull();
+    }
+
+    @Test
+    void multipleRecipientsAreKeptForTheEnvelope() throws Exception {
+        final MimeMessage message = MimeMessageTemplate.create(SENDER, "Many", false)
+                .createMessage(session, "first@example.com, second@example.com", "Hello");
+
+        assertThat(message.getAllRecipients()).containsExactly(
+                new InternetAddress("first@example.com"), new InternetAddress("second@example.com"));
+        assertThat(parse(message).getRecipients(Message.RecipientType.TO)).hasSize(2);
+    }
+
+    @Test
+    void invalidSenderIsReportedWhenTheMessageIsCreated() {
+        final MimeMessageTemplate template = MimeMessageTemplate.create("not an address <", "Invalid", false);
+
+        assertThatThrownBy(() -> template.createMessage(session, RECIPIENT, "Hello"))
+                .isInstanceOf(AddressException.class);
+    }
+
+    private void assertSameMessage(MimeMessage actual, MimeMessage expected) throws Exception {
+        final MimeMessage parsedActual = parse(actual);
+        final MimeMessage parsedExpected = parse(expected);
+
+        assertThat(parsedActual.getFrom()).containsExactly(parsedExpected.getFrom());
+        assertThat(parsedActual.getRecipients(Message.RecipientType.TO))
+                .containsExactly(parsedExpected.getRecipients(Message.RecipientType.TO));
+        assertThat(parsedActual.getSubject()).isEqualTo(parsedExpected.getSubject());
+
+        final ContentType actualContentType = new ContentType(parsedActual.getContentType());
+        final ContentType expectedContentType = new ContentType(parsedExpected.getContentType());
+
+        assertThat(actualContentType.getBaseType()).isEqualToIgnoringCase(expectedContentType.getBaseType());
+        assertThat(actualContentType.getParameter("charset"))
+                .isEqualToIgnoringCase(expectedContentType.getParameter("charset"));
+        /* The encodings may differ, so the line terminators of the decoded bodies may too. */
+        assertThat(normalizeLineTerminators((String) parsedActual.getContent()))
+                .isEqualTo(normalizeLineTerminators((String) parsedExpected.getContent()));
+    }
+
+    private MimeMessage createPlainMessage(String subject, String content, boolean isHtml) throws MessagingException {
+        final MimeMessage message = new MimeMessage(session);
+
+        message.setFrom(new InternetAddress(SENDER));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(RECIPIENT));
+        message.setSubject(subject, "UTF-8");
+
+        if (isHtml) {
+            message.setContent(content, "text/html; charset=UTF-8");
+        } else {
+            message.setText(content, "UTF-8");
+        }
+
+        message.saveChanges();
+
+        return message;
+    }
+
+    private MimeMessage parse(MimeMessage message) throws MessagingException, IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        message.writeTo(outputStream);
+
+        return new MimeMessage(session, new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    private static String normalizeLineTerminators(String value) {
+        return value.replace("\r\n", "\n");
+    }
+}
@@ -0,0 +1,115 @@
+package com.fmi.mailtemplaterbe.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fmi.mailtemplaterbe.domain.enums.RecipientsFormat;
+import com.fmi.mailtemplaterbe.domain.resource.Recipient;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+class RecipientStreamReaderTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void ndjsonRecipientsAreReadOneByOne() throws IOException {
+        final List<Recipient> recipients = readAll(RecipientsFormat.NDJSON,
+                "{\"email\":\"john@example.com\",\"placeholders\":{\"name\":\"John\",\"day\":\"friday\"}}\n" +
+                "\n" +
+                "{\"email\":\"jane@example.com\"}\n" +
+                "{\"email\":\"ünïcode@example.com\",\"placeholders\":{\"name\":\"Zoë\"}}");
+
+        assertThat(recipients).extracting(Recipient::getEmail)
+                .containsExactly("john@example.com", "jane@example.com", "ünïcode@example.com");
+        assertThat(recipients.get(0).getPlaceholders()).containsOnly(entry("name", "John"), entry("day", "friday"));
+        assertThat(recipients.get(1).getPlaceholders()).isNull();
+        assertThat(recipients.get(2).getPlaceholders()).containsOnly(entry("name", "Zoë"));
+    }
+
+    @Test
+    void malformedNdjsonIsReportedWithItsRecordNumber() throws IOException {
+        try (RecipientStreamReader reader = open(RecipientsFormat.NDJSON,
+                "{\"email\":\"john@example.com\"}\n{\"email\":\n")) {
+            assertThat(reader.next().getEmail()).isEqualTo("john@example.com");
+            assertThatThrownBy(reader::next)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageStartingWith("Invalid recipient at record 2");
+        }
+    }
+
+    @Test
+    void recipientWithoutEmailIsRejected() throws IOException {
+        try (RecipientStreamReader reader = open(RecipientsFormat.NDJSON,
+                "{\"email\":\"john@example.com\"}\n{\"email\":\" \",\"placeholders\":{}}\n")) {
+            reader.next();
+
+            assertThatThrownBy(reader::next)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Invalid recipient at record 2: missing email.");
+        }
+    }
+
+    @Test
+    void csvColumnsBesideTheEmailArePlaceholders() throws IOException {
+        final List<Recipient> recipients = readAll(RecipientsFormat.CSV,
+                "name,email,day\n" +
+                "John, john@example.com ,friday\n" +
+                "\n" +
+                "\"Doe, Jane\",jane@example.com,\"the \"\"big\"\" day\"\n");
+
+        assertThat(recipients).extracting(Recipient::getEmail)
+                .containsExactly("john@example.com", "jane@example.com");
+        assertThat(recipients.get(0).getPlaceholders()).containsOnly(entry("name", "John"), entry("day", "friday"));
+        assertThat(recipients.get(1).getPlaceholders())
+                .containsOnly(entry("name", "Doe, Jane"), entry("day", "the \"big\" day"));
+    }
+
+    @Test
+    void csvWithoutEmailColumnIsRejected() {
+        assertThatThrownBy(() -> open(RecipientsFormat.CSV, "name,address\nJohn,john@example.com\n"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("\"email\" column");
+    }
+
+    @Test
+    void csvRecordWithEmptyEmailIsRejected() throws IOException {
+        try (RecipientStreamReader reader = open(RecipientsFormat.CSV, "email,name\n,John\n")) {
+            assertThatThrownBy(reader::next)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Invalid recipient at record 1: missing email.");
+        }
+    }
+
+    @Test
+    void emptyBodyHasNoRecipients() throws IOException {
+        assertThat(readAll(RecipientsFormat.NDJSON, "")).isEmpty();
+        assertThat(readAll(RecipientsFormat.CSV, "email,name\n")).isEmpty();
+    }
+
+    private List<Recipient> readAll(RecipientsFormat format, String body) throws IOException {
+        final List<Recipient> recipients = new ArrayList<>();
+
+        try (RecipientStreamReader reader = open(format, body)) {
+            Recipient recipient;
+
+            while ((recipient = reader.next()) != null) {
+                recipients.add(recipient);
+            }
+        }
+
+        return recipients;
+    }
+
+    private RecipientStreamReader open(RecipientsFormat format, String body) throws IOException {
+        return RecipientStreamReader.open(
+                format, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), objectMapper);
+    }
+}
@@ -0,0 +1,86 @@
+package com.fmi.mailtemplaterbe.util;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.util.MailConnectException;
+import com.sun.mail.util.SocketConnectException;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SmtpErrorClassifierTests {
+
+    @Test
+    void transientReplyCodesAreRetryable() {
+        for (int replyCode : new int[]{421, 450, 451, 452}) {
+            assertThat(SmtpErrorClassifier.isRetryable(createSendFailedException(replyCode))).isTrue();
+        }
+    }
+
+    @Test
+    void permanentReplyCodesAreNotRetryable() {
+        for (int replyCode : new int[]{550, 552, 553, 554}) {
+            assertThat(SmtpErrorClassifier.isRetryable(createSendFailedException(replyCode))).isFalse();
+        }
+    }
+
+    @Test
+    void rejectedRecipientIsClassifiedByItsReplyCode() throws AddressException {
+        final SendFailedException greylisted = createRejectedRecipientException(450);
+        final SendFailedException unknownUser = createRejectedRecipientException(550);
+
+        assertThat(SmtpErrorClassifier.getReplyCode(greylisted)).isEqualTo(450);
+        assertThat(SmtpErrorClassifier.isRetryable(greylisted)).isTrue();
+        assertThat(SmtpErrorClassifier.getReplyCode(unknownUser)).isEqualTo(550);
+        assertThat(SmtpErrorClassifier.isRetryable(unknownUser)).isFalse();
+    }
+
+    @Test
+    void networkFailuresAreRetryable() {
+        final MailConnectException connectException = new MailConnectException(
+                new SocketConnectException("Connection refused", new ConnectException(), "localhost", 25, 1000));
+
+        assertThat(SmtpErrorClassifier.isRetryable(connectException)).isTrue();
+        assertThat(SmtpErrorClassifier.isRetryable(
+                new MessagingException("Exception reading response", new SocketTimeoutException()))).isTrue();
+    }
+
+    @Test
+    void failuresWithoutReplyCodeOrNetworkCauseAreNotRetryable() {
+        final MessagingException messagingException = new MessagingException("Invalid message");
+
+        assertThat(SmtpErrorClassifier.getReplyCode(messagingException)).isEqualTo(-1);
+        assertThat(SmtpErrorClassifier.isRetryable(messagingException)).isFalse();
+    }
+
+    @Test
+    void authenticationFailuresAreNotRetryable() {
+        assertThat(SmtpErrorClassifier.isRetryable(new AuthenticationFailedException("535 Authentication failed")))
+                .isFalse();
+    }
+
+    private static SMTPSendFailedException createSendFailedException(int replyCode) {
+        return new SMTPSendFailedException(
+                "DATA", replyCode, replyCode + " Failure", null, new Address[0], new Address[0], new Address[0]);
+    }
+
+    private static SendFailedException createRejectedRecipientException(int replyCode) throws AddressException {
+        final InternetAddress recipient = new InternetAddress("recipient@example.com");
+
+        return new SendFailedException(
+                "Invalid Addresses",
+                new SMTPAddressFailedException(recipient, "RCPT TO:<recipient@example.com>", replyCode, "Rejected"),
+                new Address[0],
+                new Address[0],
+                new Address[]{recipient});
+    }
+}
@@ -0,0 +1,115 @@
+package com.fmi.mailtemplaterbe.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimerWheelTests {
+
+    private static final long TICK_MILLIS = 10;
+
+    private TimerWheel timerWheel;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (timerWheel != null) {
+            timerWheel.stop();
+        }
+    }
+
+    @Test
+    void taskRunsNotBeforeItsDelay() throws Exception {
+        timerWheel = new TimerWheel("test-timer", TICK_MILLIS, 16, Runnable::run);
+
+        final CountDownLatch expired = new CountDownLatch(1);
+        final long startNanos = System.nanoTime();
+
+        timerWheel.schedule(expired::countDown, 50);
+
+        assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(System.nanoTime() - startNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void tasksRunInTheOrderOfTheirDeadlines() throws Exception {
+        timerWheel = new TimerWheel("test-timer", TICK_MILLIS, 16, Runnable::run);
+
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch expired = new CountDownLatch(3);
+
+        timerWheel.schedule(() -> { order.add(3); expired.countDown(); }, 150);
+        timerWheel.schedule(() -> { order.add(1); expired.countDown(); }, 30);
+        timerWheel.schedule(() -> { order.add(2); expired.countDown(); }, 90);
+
+        assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void taskBeyondOneRoundOfTheWheelWaitsForItsRound() throws Exception {
+        /* 4 buckets of 10ms, so the task goes around the wheel a few times. */
+        timerWheel = new TimerWheel("test-timer", TICK_MILLIS, 4, Runnable::run);
+
+        final CountDownLatch expired = new CountDownLatch(1);
+        final long startNanos = System.nanoTime();
+
+        timerWheel.schedule(expired::countDown, 200);
+
+        assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(System.nanoTime() - startNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    void overdueTaskRunsOnTheNextTick() throws Exception {
+        timerWheel = new TimerWheel("test-timer", TICK_MILLIS, 16, Runnable::run);
+
+        final CountDownLatch expired = new CountDownLatch(2);
+
+        timerWheel.schedule(expired::countDown, 0);
+        timerWheel.schedule(expired::countDown, -100);
+
+        assertThat(expired.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void pendingTasksAreDroppedOnStop() throws Exception {
+        timerWheel = new TimerWheel("test-timer", TICK_MILLIS, 16, Runnable::run);
+
+        final AtomicInteger runs = new AtomicInteger();
+
+        timerWheel.schedule(runs::incrementAndGet, 100);
+        timerWheel.stop();
+        timerWheel = null;
+        Thread.sleep(200);
+
+        assertThat(runs).hasValue(0);
+    }
+
+    @Test
+    void rejectedTaskDoesNotStopTheWheel() throws Exception {
+        final AtomicInteger rejections = new AtomicInteger();
+        final Executor executor = task -> {
+            if (rejections.getAndIncrement() == 0) {
+                throw new RejectedExecutionException();
+            }
+
+            task.run();
+        };
+        final CountDownLatch expired = new CountDownLatch(1);
+
+        timerWheel = new TimerWheel("test-timer", TICK_MILLIS, 16, executor);
+        timerWheel.schedule(() -> { }, 10);
+        timerWheel.schedule(expired::countDown, 50);
+
+        assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
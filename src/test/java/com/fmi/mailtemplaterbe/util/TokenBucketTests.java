@@ -0,0 +1,87 @@
+package com.fmi.mailtemplaterbe.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTests {
+
+    /* Slow enough, that the refill during a test is negligible. */
+    private static final double PERMITS_PER_SECOND = 0.1;
+    private static final long PERMIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long TOLERANCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void burstIsAvailableImmediately() {
+        final TokenBucket tokenBucket = new TokenBucket(PERMITS_PER_SECOND, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(tokenBucket.reserve()).isZero();
+        }
+    }
+
+    @Test
+    void permitsAboveTheBurstAreReservedInOrder() {
+        final TokenBucket tokenBucket = new TokenBucket(PERMITS_PER_SECOND, 2);
+
+        tokenBucket.reserve();
+        tokenBucket.reserve();
+
+        assertThat(tokenBucket.reserve()).isBetween(PERMIT_NANOS - TOLERANCE_NANOS, PERMIT_NANOS);
+        assertThat(tokenBucket.reserve()).isBetween(2 * PERMIT_NANOS - TOLERANCE_NANOS, 2 * PERMIT_NANOS);
+        assertThat(tokenBucket.reserve()).isBetween(3 * PERMIT_NANOS - TOLERANCE_NANOS, 3 * PERMIT_NANOS);
+    }
+
+    @Test
+    void bucketRefillsUpToTheBurst() throws Exception {
+        final TokenBucket tokenBucket = new TokenBucket(1000, 2);
+
+        tokenBucket.reserve();
+        tokenBucket.reserve();
+        Thread.sleep(50);
+
+        /* 50 permits were refilled, but only 2 fit into the bucket. */
+        assertThat(tokenBucket.reserve()).isZero();
+        assertThat(tokenBucket.reserve()).isZero();
+        assertThat(tokenBucket.reserve()).isPositive();
+    }
+
+    @Test
+    void burstIsAtLeastOne() {
+        final TokenBucket tokenBucket = new TokenBucket(PERMITS_PER_SECOND, 0);
+
+        assertThat(tokenBucket.getBurst()).isEqualTo(1);
+        assertThat(tokenBucket.reserve()).isZero();
+        assertThat(tokenBucket.reserve()).isPositive();
+    }
+
+    @Test
+    void updateKeepsTheReservationsAndCapsTheTokens() {
+        final TokenBucket tokenBucket = new TokenBucket(PERMITS_PER_SECOND, 10);
+
+        tokenBucket.update(PERMITS_PER_SECOND * 2, 2);
+
+        assertThat(tokenBucket.getPermitsPerSecond()).isEqualTo(PERMITS_PER_SECOND * 2);
+        assertThat(tokenBucket.getBurst()).isEqualTo(2);
+        assertThat(tokenBucket.reserve()).isZero();
+        assertThat(tokenBucket.reserve()).isZero();
+        /* The next permit comes with the doubled rate. */
+        assertThat(tokenBucket.reserve()).isBetween(PERMIT_NANOS / 2 - TOLERANCE_NANOS, PERMIT_NANOS / 2);
+    }
+
+    @Test
+    void acquireWaitsForTheNextPermit() throws Exception {
+        final TokenBucket tokenBucket = new TokenBucket(20, 1);
+
+        tokenBucket.acquire();
+
+        final long startNanos = System.nanoTime();
+
+        tokenBucket.acquire();
+
+        /* A permit every 50ms, a little less is left after the first acquire. */
+        assertThat(System.nanoTime() - startNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(40));
+    }
+}